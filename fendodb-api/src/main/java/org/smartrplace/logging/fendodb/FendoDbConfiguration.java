@@ -37,11 +37,47 @@ public class FendoDbConfiguration implements Serializable {
 	private final TemporalUnit unit;
 	private final boolean useCompatibilityMode;
 	private final boolean cacheDisabled;
+	private final boolean memoryMappedReads;
+	private final Durability durability;
+	private final int writeBufferSize;
+	private final boolean compressedFiles;
+	private final long compactionInterval;
+	private final long archiveAge;
+	private final long rolloverLeadTime;
+	private final int maxOpenFiles;
+	private final boolean watchDays;
+	private final boolean rollups;
 
 	/*
 	 * Minimum Size for SLOTSDB (in MB).
 	 */
 	public final static int MINIMUM_DATABASE_SIZE = 2;
+	
+	/**
+	 * Determines when data written to the log files is forced to the storage device (fsync).
+	 * Independently of this setting, appended values are visible to readers immediately.
+	 */
+	public static enum Durability {
+		
+		/**
+		 * Never force data to the storage device explicitly; the operating system decides
+		 * when to write it. Data may be lost on a power failure, but not on a crash of the application, 
+		 * once it has left the append buffer.
+		 */
+		NONE,
+		
+		/**
+		 * Force data to the storage device once per flush period, and when a file is closed.
+		 */
+		PERIODIC,
+		
+		/**
+		 * Force data to the storage device every time a batch of buffered values is written
+		 * to a file, and after every append if the flush period is 0.
+		 */
+		BATCH
+		
+	}
 
 	/*
 	 * Initial delay for scheduled tasks (size watcher, data expiration, etc.)
@@ -78,7 +114,9 @@ public class FendoDbConfiguration implements Serializable {
 	 */
 	@Deprecated
 	public FendoDbConfiguration(boolean readFolders, int maxOpenFolders, long flushPeriodMs, int dataLifetimeDays, int maxDbSizeMB, long dataExpirationCheckItvMs) {
-		this(false, readFolders, maxOpenFolders, flushPeriodMs, dataLifetimeDays, maxDbSizeMB, dataExpirationCheckItvMs, 0, ChronoUnit.DAYS, false, false);
+		this(false, readFolders, maxOpenFolders, flushPeriodMs, dataLifetimeDays, maxDbSizeMB, dataExpirationCheckItvMs, 0, ChronoUnit.DAYS, false, false, false,
+				FendoDbConfigurationBuilder.DEFAULT_DURABILITY, FendoDbConfigurationBuilder.DEFAULT_WRITE_BUFFER_SIZE, false, 0, 0, 0,
+				FendoDbConfigurationBuilder.DEFAULT_MAX_OPEN_FILES, false, false);
 	}
 
 	FendoDbConfiguration(
@@ -92,7 +130,17 @@ public class FendoDbConfiguration implements Serializable {
 			long reloadDaysInterval,
 			TemporalUnit unit,
 			boolean useCompatibilityMode,
-			boolean cacheDisabled) {
+			boolean cacheDisabled,
+			boolean memoryMappedReads,
+			Durability durability,
+			int writeBufferSize,
+			boolean compressedFiles,
+			long compactionInterval,
+			long archiveAge,
+			long rolloverLeadTime,
+			int maxOpenFiles,
+			boolean watchDays,
+			boolean rollups) {
 		this.readOnlyMode = readOnlyMode;
 		if (maxOpenFolders <= 0)
 			throw new IllegalArgumentException("MaxOpenFolders must be a positive number");
@@ -113,9 +161,33 @@ public class FendoDbConfiguration implements Serializable {
 		if (useCompatibilityMode && !unit.equals(ChronoUnit.DAYS))
 			throw new IllegalArgumentException("Temporal unit " + unit + " cannot be used in compatibility mode; requires DAYS.");
 		this.cacheDisabled = cacheDisabled;
+		this.memoryMappedReads = memoryMappedReads;
+		this.durability = Objects.requireNonNull(durability);
+		if (writeBufferSize < 0)
+			throw new IllegalArgumentException("Write buffer size must not be negative: " + writeBufferSize);
+		this.writeBufferSize = writeBufferSize;
+		this.compressedFiles = compressedFiles;
+		if (compactionInterval < 0)
+			throw new IllegalArgumentException("Compaction interval must not be negative: " + compactionInterval);
+		this.compactionInterval = readOnlyMode ? 0 : compactionInterval;
+		if (archiveAge < 0)
+			throw new IllegalArgumentException("Archive age must not be negative: " + archiveAge);
+		this.archiveAge = readOnlyMode ? 0 : archiveAge;
+		if (rolloverLeadTime < 0)
+			throw new IllegalArgumentException("Rollover lead time must not be negative: " + rolloverLeadTime);
+		this.rolloverLeadTime = readOnlyMode ? 0 : rolloverLeadTime;
+		if (maxOpenFiles <= 0)
+			throw new IllegalArgumentException("Max open files must be a positive number: " + maxOpenFiles);
+		this.maxOpenFiles = maxOpenFiles;
+		this.watchDays = watchDays;
+		this.rollups = rollups;
 	}
 	
-
+	/**
+	 * Maximum number of folders whose log file metadata is kept in memory. This does not 
+	 * limit the number of open files, see {@link #getMaxOpenFiles()}.
+	 * @return
+	 */
 	public int getMaxOpenFolders() {
 		return maxOpenFolders;
 	}
@@ -180,15 +252,113 @@ public class FendoDbConfiguration implements Serializable {
 		return cacheDisabled;
 	}
 	
+	/**
+	 * Serve reads from memory mapped files, instead of reading them via file channels?
+	 * @return
+	 */
+	public boolean isMemoryMappedReads() {
+		return memoryMappedReads;
+	}
+	
+	/**
+	 * When are appended values forced to the storage device?
+	 * @return
+	 */
+	public Durability getDurability() {
+		// null for configurations serialized by earlier versions
+		return durability != null ? durability : FendoDbConfigurationBuilder.DEFAULT_DURABILITY;
+	}
+	
+	/**
+	 * Size of the per file append buffer in bytes. Only relevant if the flush period is positive;
+	 * 0 means that values are written to the file immediately.
+	 * @return
+	 */
+	public int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+	
+	/**
+	 * Create new log files in the compressed format? Existing files are read and continued 
+	 * in their respective format.
+	 * @return
+	 */
+	public boolean isCompressedFiles() {
+		return compressedFiles;
+	}
+	
+	/**
+	 * Interval in ms between two runs of the compaction job, which merges the log files of 
+	 * closed folders into a single file per time series. 0 means that compaction is disabled.
+	 * @return
+	 */
+	public long getCompactionInterval() {
+		return compactionInterval;
+	}
+	
+	/**
+	 * Age in ms after which folders are packed into an archive file; measured from the end of 
+	 * the folder period. 0 means that folders are not archived.
+	 * @return
+	 */
+	public long getArchiveAge() {
+		return archiveAge;
+	}
+	
+	/**
+	 * Time in ms before the end of the current folder period at which the next folder is created
+	 * in the background. If this is positive, open log files are kept open when a new folder period 
+	 * starts, so that late values for the previous period can still be appended, and closed lazily 
+	 * afterwards. 0 means that all log files are closed when the first value for a new period arrives.
+	 * @return
+	 */
+	public long getRolloverLeadTime() {
+		return rolloverLeadTime;
+	}
+	
+	/**
+	 * Maximum number of file channels kept open for reading and writing log files. The least recently 
+	 * used channels are closed when the limit is exceeded, and reopened on demand.
+	 * @return
+	 */
+	public int getMaxOpenFiles() {
+		// 0 for configurations serialized by earlier versions
+		return maxOpenFiles > 0 ? maxOpenFiles : FendoDbConfigurationBuilder.DEFAULT_MAX_OPEN_FILES;
+	}
+	
+	/**
+	 * Watch the database folder for day folders created or deleted by another process, and 
+	 * update the internal folder list incrementally, instead of or in addition to reloading it periodically 
+	 * (see {@link #getReloadDaysInterval()}).
+	 * @return
+	 */
+	public boolean isWatchDays() {
+		return watchDays;
+	}
+	
+	/**
+	 * Keep pre-aggregated data at several resolutions (1 minute, 15 minutes, 1 hour, 1 day) for the time series
+	 * folders that are no longer written to, so that reduced data for long time intervals can be calculated 
+	 * without reading all data points.
+	 * @return
+	 */
+	public boolean isRollups() {
+		return rollups;
+	}
+	
 	@Override
 	public String toString() {
 		return "SlotsDB configuration; time unit: " + unit + ", data lifetime " + dataLifetimeInDays + " days, flush period: " + flushPeriod
-				+ " max data size: " + maxDatabaseSize + " MB, max open folders: " + maxOpenFolders + ", compat mode: " + useCompatibilityMode;
+				+ " max data size: " + maxDatabaseSize + " MB, max open folders: " + maxOpenFolders + ", compat mode: " + useCompatibilityMode
+				+ ", memory mapped reads: " + memoryMappedReads + ", durability: " + getDurability() + ", write buffer size: " + writeBufferSize
+				+ ", compressed files: " + compressedFiles + ", compaction interval: " + compactionInterval + ", archive age: " + archiveAge
+				+ ", rollover lead time: " + rolloverLeadTime + ", max open files: " + getMaxOpenFiles() + ", watch days: " + watchDays
+				+ ", rollups: " + rollups;
 	}
 	
 	@Override
 	public int hashCode() {
-		return Objects.hash(unit, flushPeriod, useCompatibilityMode, readOnlyMode);
+		return Objects.hash(unit, flushPeriod, useCompatibilityMode, readOnlyMode, getDurability(), compressedFiles, getMaxOpenFiles());
 	}
 	
 	@Override
@@ -205,7 +375,17 @@ public class FendoDbConfiguration implements Serializable {
 			&& this.dataExpirationCheckInterval == other.dataExpirationCheckInterval
 			&& this.dataLifetimeInDays == other.dataLifetimeInDays
 			&& this.maxDatabaseSize == other.maxDatabaseSize
-			&& this.maxOpenFolders == other.maxOpenFolders;
+			&& this.maxOpenFolders == other.maxOpenFolders
+			&& this.memoryMappedReads == other.memoryMappedReads
+			&& this.getDurability() == other.getDurability()
+			&& this.writeBufferSize == other.writeBufferSize
+			&& this.compressedFiles == other.compressedFiles
+			&& this.compactionInterval == other.compactionInterval
+			&& this.archiveAge == other.archiveAge
+			&& this.rolloverLeadTime == other.rolloverLeadTime
+			&& this.getMaxOpenFiles() == other.getMaxOpenFiles()
+			&& this.watchDays == other.watchDays
+			&& this.rollups == other.rollups;
 	}
 	
 	
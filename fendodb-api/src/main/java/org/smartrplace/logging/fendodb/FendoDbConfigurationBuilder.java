@@ -30,6 +30,16 @@ public class FendoDbConfigurationBuilder {
 	final static long DEFAULT_DATA_EXPIRATION_CHECK_INTERVAL; // = 24 * 60 * 60 * 1000; // 1d
 	final static long DEFAULT_RELOAD_DAYS_INTERVAL; // = 0 // disabled
 	final static boolean DEFAULT_CACHE_DISABLED;
+	final static boolean DEFAULT_MEMORY_MAPPED_READS;
+	final static FendoDbConfiguration.Durability DEFAULT_DURABILITY; // NONE
+	final static int DEFAULT_WRITE_BUFFER_SIZE; // 0: write through
+	final static boolean DEFAULT_COMPRESSED_FILES;
+	final static long DEFAULT_COMPACTION_INTERVAL;
+	final static long DEFAULT_ARCHIVE_AGE;
+	final static long DEFAULT_ROLLOVER_LEAD_TIME;
+	final static int DEFAULT_MAX_OPEN_FILES; // 1024
+	final static boolean DEFAULT_WATCH_DAYS;
+	final static boolean DEFAULT_ROLLUPS;
 
 	static {
 		// BundleContext; avoid explicit class usage, to avoid NoClassDefFoundError when used without OSGi
@@ -45,6 +55,18 @@ public class FendoDbConfigurationBuilder {
 		DEFAULT_DATA_EXPIRATION_CHECK_INTERVAL = getLongValue(ctx, "org.smartrplace.logging.fendo.scanning_interval", 24 * 60 * 60 * 1000, 5 * 60 * 1000);
 		DEFAULT_RELOAD_DAYS_INTERVAL = getLongValue(ctx, "org.smartrplace.logging.fendo.reloaddays_interval", 0L, 0L);
 		DEFAULT_CACHE_DISABLED = "true".equalsIgnoreCase(getProperty(ctx, "org.smartrplace.logging.fendo.cache_disabled"));
+		DEFAULT_MEMORY_MAPPED_READS = "true".equalsIgnoreCase(getProperty(ctx, "org.smartrplace.logging.fendo.memory_mapped_reads"));
+		// the legacy property org.smartrplace.fendodb.flush used to enforce an fsync per value
+		DEFAULT_DURABILITY = getDurability(ctx, "org.smartrplace.logging.fendo.durability", 
+				Boolean.getBoolean("org.smartrplace.fendodb.flush") ? FendoDbConfiguration.Durability.BATCH : FendoDbConfiguration.Durability.NONE);
+		DEFAULT_WRITE_BUFFER_SIZE = getIntValue(ctx, "org.smartrplace.logging.fendo.write_buffer_size", 0, 0);
+		DEFAULT_COMPRESSED_FILES = "true".equalsIgnoreCase(getProperty(ctx, "org.smartrplace.logging.fendo.compressed_files"));
+		DEFAULT_COMPACTION_INTERVAL = getLongValue(ctx, "org.smartrplace.logging.fendo.compaction_interval", 0L, 0L);
+		DEFAULT_ARCHIVE_AGE = getLongValue(ctx, "org.smartrplace.logging.fendo.archive_age", 0L, 0L);
+		DEFAULT_ROLLOVER_LEAD_TIME = getLongValue(ctx, "org.smartrplace.logging.fendo.rollover_lead_time", 0L, 0L);
+		DEFAULT_MAX_OPEN_FILES = getIntValue(ctx, "org.smartrplace.logging.fendo.max_open_files", 1024, 8);
+		DEFAULT_WATCH_DAYS = "true".equalsIgnoreCase(getProperty(ctx, "org.smartrplace.logging.fendo.watch_days"));
+		DEFAULT_ROLLUPS = "true".equalsIgnoreCase(getProperty(ctx, "org.smartrplace.logging.fendo.rollups"));
 	}
 
 	private final static int getIntValue(final Object ctx, final String property, final int defaultVal, final int minValue) {
@@ -71,6 +93,17 @@ public class FendoDbConfigurationBuilder {
 		return defaultVal;
 	}
 
+	private final static FendoDbConfiguration.Durability getDurability(final Object ctx, final String property, 
+			final FendoDbConfiguration.Durability defaultVal) {
+		final String val = getProperty(ctx, property);
+		if (val != null) {
+			try {
+				return FendoDbConfiguration.Durability.valueOf(val.trim().toUpperCase());
+			} catch (IllegalArgumentException ok) {}
+		}
+		return defaultVal;
+	}
+
 	private final static String getProperty(final Object ctx, final String property) {
 		return AccessController.doPrivileged(new PrivilegedAction<String>() {
 
@@ -130,6 +163,26 @@ public class FendoDbConfigurationBuilder {
 	private boolean readOnlyMode = false;
 	
 	private boolean cacheDisabled = DEFAULT_CACHE_DISABLED;
+	
+	private boolean memoryMappedReads = DEFAULT_MEMORY_MAPPED_READS;
+	
+	private FendoDbConfiguration.Durability durability = DEFAULT_DURABILITY;
+	
+	private int writeBufferSize = DEFAULT_WRITE_BUFFER_SIZE;
+	
+	private boolean compressedFiles = DEFAULT_COMPRESSED_FILES;
+	
+	private long compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+	
+	private long archiveAge = DEFAULT_ARCHIVE_AGE;
+	
+	private long rolloverLeadTime = DEFAULT_ROLLOVER_LEAD_TIME;
+	
+	private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+	
+	private boolean watchDays = DEFAULT_WATCH_DAYS;
+	
+	private boolean rollups = DEFAULT_ROLLUPS;
 
 	private FendoDbConfigurationBuilder() {}
 
@@ -159,7 +212,17 @@ public class FendoDbConfigurationBuilder {
 			.setTemporalUnit(copyConfig.getFolderCreationTimeUnit())
 			.setUseCompatibilityMode(copyConfig.useCompatibilityMode())
 			.setReloadDaysInterval(copyConfig.getReloadDaysInterval())
-			.setCacheDisabled(copyConfig.isCacheDisabled());
+			.setCacheDisabled(copyConfig.isCacheDisabled())
+			.setMemoryMappedReads(copyConfig.isMemoryMappedReads())
+			.setDurability(copyConfig.getDurability())
+			.setWriteBufferSize(copyConfig.getWriteBufferSize())
+			.setCompressedFiles(copyConfig.isCompressedFiles())
+			.setCompactionInterval(copyConfig.getCompactionInterval())
+			.setArchiveAge(copyConfig.getArchiveAge())
+			.setRolloverLeadTime(copyConfig.getRolloverLeadTime())
+			.setMaxOpenFiles(copyConfig.getMaxOpenFiles())
+			.setWatchDays(copyConfig.isWatchDays())
+			.setRollups(copyConfig.isRollups());
 	}
 
 	public FendoDbConfiguration build() {
@@ -174,11 +237,22 @@ public class FendoDbConfigurationBuilder {
 				reloadDaysInterval,
 				unit,
 				useCompatibilityMode,
-				cacheDisabled);
+				cacheDisabled,
+				memoryMappedReads,
+				durability,
+				writeBufferSize,
+				compressedFiles,
+				compactionInterval,
+				archiveAge,
+				rolloverLeadTime,
+				maxOpenFiles,
+				watchDays,
+				rollups);
 	}
 
 	/**
-	 * Limit number of open files.
+	 * Limit number of folders whose log files are kept in memory; the number of open files is limited 
+	 * separately, see {@link #setMaxOpenFiles(int)}.
 	 * Default value is 512, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.max_open_folders"
 	 */
 	public FendoDbConfigurationBuilder setMaxOpenFolders(int maxOpenFolders) {
@@ -291,4 +365,158 @@ public class FendoDbConfigurationBuilder {
 		return this;
 	}
 	
+	/**
+	 * Serve reads from memory mapped files instead of reading them via file channels. This allows
+	 * concurrent readers of the same file to decode data without synchronization, and avoids copying
+	 * the data into heap arrays. Mainly useful for large databases with many reads from closed folders.
+	 * Default: false, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.memory_mapped_reads"
+	 * @param memoryMappedReads
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setMemoryMappedReads(boolean memoryMappedReads) {
+		this.memoryMappedReads = memoryMappedReads;
+		return this;
+	}
+	
+	/**
+	 * Determine when appended data is forced to the storage device. {@link FendoDbConfiguration.Durability#PERIODIC PERIODIC}
+	 * forces data once per flush period, {@link FendoDbConfiguration.Durability#BATCH BATCH} every time a batch of 
+	 * buffered values is written to a file.
+	 * Default: NONE, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.durability".
+	 * If the legacy system property "org.smartrplace.fendodb.flush" is true, the default is BATCH.
+	 * @param durability
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setDurability(FendoDbConfiguration.Durability durability) {
+		this.durability = Objects.requireNonNull(durability);
+		return this;
+	}
+	
+	/**
+	 * Size of the in-memory append buffer per log file, in bytes. If the flush period is positive, appended
+	 * values are collected in this buffer and written to the file in a single operation when the buffer is full 
+	 * or the data is flushed, which reduces the number of system calls considerably. Buffered values are
+	 * visible to readers, but lost if the application crashes before they are written. 0 means that every value 
+	 * is written immediately. Irrelevant if the flush period is 0.
+	 * Default: 0, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.write_buffer_size"
+	 * @param writeBufferSize
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setWriteBufferSize(int writeBufferSize) {
+		if (writeBufferSize < 0)
+			throw new IllegalArgumentException("Write buffer size must not be negative: " + writeBufferSize);
+		this.writeBufferSize = writeBufferSize;
+		return this;
+	}
+	
+	/**
+	 * Create new log files in a compressed format, which stores timestamps as delta-of-delta and values
+	 * XORed with their predecessor. For slowly changing values this requires only a fraction of the disk space 
+	 * and page cache of the default format. Existing files remain readable, and are continued in their 
+	 * respective format until a new folder is started (usually the next day).
+	 * Default: false, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.compressed_files"
+	 * @param compressedFiles
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setCompressedFiles(boolean compressedFiles) {
+		this.compressedFiles = compressedFiles;
+		return this;
+	}
+	
+	/**
+	 * Periodically merge the log files of closed folders (i.e. past days, by default) into a single 
+	 * file per time series, removing the padding of fixed interval files. If compressed files are enabled,
+	 * the merged files use the compressed format. This reduces the number of files and the disk space 
+	 * required for historical data, and speeds up reading long time intervals.
+	 * Default: 0 (disabled), or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.compaction_interval"
+	 * @param compactionInterval
+	 * 		interval in ms; 0 to disable compaction
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setCompactionInterval(long compactionInterval) {
+		if (compactionInterval < 0)
+			throw new IllegalArgumentException("Compaction interval must not be negative: " + compactionInterval);
+		this.compactionInterval = compactionInterval;
+		return this;
+	}
+	
+	/**
+	 * Pack folders older than the specified age into a single archive file per folder, &lt;folder&gt;.zip. 
+	 * This reduces the number of files considerably. The archive contains one entry per time series in the 
+	 * compressed file format, which can be read without unpacking the archive. Archived data can no longer 
+	 * be modified. The age is measured from the end of the folder period, and checked once per data 
+	 * expiration check interval.
+	 * Default: 0 (disabled), or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.archive_age"
+	 * @param archiveAge
+	 * 		age in ms; 0 to disable archiving
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setArchiveAge(long archiveAge) {
+		if (archiveAge < 0)
+			throw new IllegalArgumentException("Archive age must not be negative: " + archiveAge);
+		this.archiveAge = archiveAge;
+		return this;
+	}
+	
+	/**
+	 * Create the folder for the next period (usually the next day) in the background, the specified time 
+	 * before the current period ends, and keep the log files of the previous period open when the new period 
+	 * starts. Without this, the first value of a new period closes all open log files and clears the cache, 
+	 * which causes a latency spike at every folder boundary. Log files of past periods are closed 
+	 * lazily instead, in small batches, once the period has ended more than the lead time ago.
+	 * Default: 0 (disabled), or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.rollover_lead_time"
+	 * @param rolloverLeadTime
+	 * 		time in ms; 0 to disable
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setRolloverLeadTime(long rolloverLeadTime) {
+		if (rolloverLeadTime < 0)
+			throw new IllegalArgumentException("Rollover lead time must not be negative: " + rolloverLeadTime);
+		this.rolloverLeadTime = rolloverLeadTime;
+		return this;
+	}
+	
+	/**
+	 * Limit the number of file channels kept open for reading and writing log files. If more files 
+	 * are accessed, the least recently used channels are closed, and reopened on demand.
+	 * Default: 1024, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.max_open_files"
+	 * @param maxOpenFiles
+	 * 		a positive number
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setMaxOpenFiles(int maxOpenFiles) {
+		if (maxOpenFiles <= 0)
+			throw new IllegalArgumentException("Max open files must be a positive number: " + maxOpenFiles);
+		this.maxOpenFiles = maxOpenFiles;
+		return this;
+	}
+	
+	/**
+	 * Watch the database folder for day folders created or deleted by another process, and apply 
+	 * the changes to the internal folder list incrementally, without blocking read or write access. In a secondary 
+	 * process reading a database written by another one, new folders thus become visible almost immediately, 
+	 * without periodically reloading all folders (see {@link #setReloadDaysInterval(long)}). 
+	 * Default: false, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.watch_days"
+	 * @param watchDays
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setWatchDays(boolean watchDays) {
+		this.watchDays = watchDays;
+		return this;
+	}
+	
+/**
+	 * Keep pre-aggregated data (count, sum, minimum and maximum) at resolutions of 1 minute, 15 minutes, 1 hour and 1 day 
+	 * for each time series folder, which are used by queries for reduced values (<code>getValues(start, end, interval, mode)</code>)
+	 * whose interval is compatible with one of the resolutions. They are created when a folder that is no longer written to
+	 * is first read by such a query, and stored in the folder. 
+	 * Default: false, or the value of the system property (or OSGi framework property) "org.smartrplace.logging.fendo.rollups"
+	 * @param rollups
+	 * @return this
+	 */
+	public FendoDbConfigurationBuilder setRollups(boolean rollups) {
+		this.rollups = rollups;
+		return this;
+	}
+	
 }
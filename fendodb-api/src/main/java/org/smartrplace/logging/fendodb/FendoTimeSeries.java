@@ -80,4 +80,25 @@ public interface FendoTimeSeries extends RecordedDataStorage {
 		final Iterable<SampledValue> iterable = () -> iterator(start, end);
 		return StreamSupport.stream(iterable.spliterator(), false);
 	};
+
+	/**
+	 * Get a cursor over all data points of the time series.
+	 * @return
+	 * @see #cursor(long, long)
+	 */
+	default TimeSeriesCursor cursor() {
+		return cursor(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Get a cursor over the data points in the interval [start, end]. Prefer this over
+	 * {@link #iterator(long, long)} when many data points need to be processed, since
+	 * it avoids the creation of a {@link SampledValue} per data point.
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	default TimeSeriesCursor cursor(long start, long end) {
+		return TimeSeriesCursor.of(iterator(start, end));
+	}
 }
@@ -0,0 +1,113 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb;
+
+import java.util.Iterator;
+import java.util.Objects;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+
+/**
+ * A forward-only cursor over the data points of a time series. In contrast to
+ * {@link Iterator Iterator&lt;SampledValue&gt;} it does not create an object per data point,
+ * so it should be preferred when large amounts of log data are processed.<br>
+ * Usage:
+ * <code>
+ * 	final TimeSeriesCursor cursor = timeSeries.cursor(start, end);
+ * 	while (cursor.advance()) {
+ * 		process(cursor.timestamp(), cursor.doubleValue(), cursor.quality());
+ * 	}
+ * </code>
+ * The accessor methods refer to the current data point, and may only be called
+ * after {@link #advance()} has returned true. A cursor is not thread-safe.
+ */
+public interface TimeSeriesCursor {
+
+	/**
+	 * Move to the next data point.
+	 * @return
+	 * 		false if there are no further data points, true otherwise
+	 */
+	boolean advance();
+
+	/**
+	 * @return
+	 * 		timestamp of the current data point
+	 * @throws IllegalStateException
+	 * 		if the cursor is not positioned on a data point
+	 */
+	long timestamp();
+
+	/**
+	 * @return
+	 * 		value of the current data point
+	 * @throws IllegalStateException
+	 * 		if the cursor is not positioned on a data point
+	 */
+	double doubleValue();
+
+	/**
+	 * @return
+	 * 		quality of the current data point
+	 * @throws IllegalStateException
+	 * 		if the cursor is not positioned on a data point
+	 */
+	Quality quality();
+
+	/**
+	 * Create a cursor backed by an iterator. Note that this does not avoid the
+	 * creation of SampledValues, it merely adapts the interface.
+	 * @param iterator
+	 * @return
+	 */
+	static TimeSeriesCursor of(final Iterator<SampledValue> iterator) {
+		Objects.requireNonNull(iterator);
+		return new TimeSeriesCursor() {
+
+			private SampledValue current;
+
+			@Override
+			public boolean advance() {
+				current = iterator.hasNext() ? iterator.next() : null;
+				return current != null;
+			}
+
+			@Override
+			public long timestamp() {
+				return current().getTimestamp();
+			}
+
+			@Override
+			public double doubleValue() {
+				return current().getValue().getDoubleValue();
+			}
+
+			@Override
+			public Quality quality() {
+				return current().getQuality();
+			}
+
+			private SampledValue current() {
+				if (current == null)
+					throw new IllegalStateException("Cursor is not positioned on a data point");
+				return current;
+			}
+
+		};
+	}
+
+}
@@ -15,13 +15,43 @@
  */
 package org.smartrplace.logging.fendodb.stats;
 
+import org.ogema.core.channelmanager.measurements.DoubleValue;
+import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 
 public interface Statistics<Result> {
 
 	// TODO allow passing multiple values from multiple time series at once?
 	void step(SampledValue sv);
 	
+	/**
+	 * Equivalent to {@link #step(SampledValue)}, used when evaluating a {@link TimeSeriesCursor}.
+	 * The default implementation creates a SampledValue, implementations should override this
+	 * if they can work on primitive values directly.
+	 * @param timestamp
+	 * @param value
+	 * @param quality
+	 */
+	default void step(long timestamp, double value, Quality quality) {
+		step(new SampledValue(new DoubleValue(value), timestamp, quality));
+	}
+	
+	/**
+	 * Optional: process a summary of consecutive data points at once, instead of the individual points. 
+	 * If the time series is stored in a FendoDB, the evaluation offers summaries wherever the storage keeps them, 
+	 * e.g. for blocks of compressed log files, and passes the data points not covered by summaries to 
+	 * {@link #step(long, double, Quality)}. If this returns false, the data points of the summary are passed 
+	 * individually instead. The default implementation returns false. 
+	 * @param summary
+	 * 		summary of data points later than all data points passed before
+	 * @return
+	 * 		true if the summary has been taken into account
+	 */
+	default boolean step(ValueSummary summary) {
+		return false;
+	}
+	
 	/**
 	 * @param finalTimestamp
 	 * 		equal to or greater than the timestamp of the last value passed to {@link #step(SampledValue)}
@@ -18,7 +18,9 @@ package org.smartrplace.logging.fendodb.stats;
 import java.util.Collection;
 
 /**
- * Register as service, with property providerId
+ * Register as service, with property providerId.<br>
+ * Multiple time series may be evaluated in parallel, so {@link #newStatistics(StatisticsConfiguration)}
+ * must be thread-safe; the {@link Statistics} objects themselves are used by a single thread.
  * 
  * @param <Result>
  * 		The result type of provider.
@@ -28,4 +30,16 @@ public interface StatisticsProvider<Result> {
 	Statistics<Result> newStatistics(StatisticsConfiguration config);
 	Result join(Collection<Result> individualResults);
 	
+	/**
+	 * Optional: may the evaluation of a single time series be split into consecutive time intervals, whose
+	 * results are then merged by {@link #join(Collection)}, together with the results of other time series? 
+	 * This requires that the joined results of the partitions equal the result for the complete interval, 
+	 * as is the case for counts, minima and maxima, for instance. Allows for evaluating long time series 
+	 * in parallel. The default implementation returns false.
+	 * @return
+	 */
+	default boolean supportsTimePartitions() {
+		return false;
+	}
+	
 }
@@ -0,0 +1,79 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.stats;
+
+/**
+ * Aggregated data of a sequence of consecutive data points of a time series, provided by the storage 
+ * in place of the individual data points, see {@link Statistics#step(ValueSummary)}. NaN values are 
+ * not taken into account.
+ */
+public interface ValueSummary {
+
+	/**
+	 * @return
+	 * 		timestamp of the first data point
+	 */
+	long getFirstTimestamp();
+	
+	/**
+	 * @return
+	 * 		timestamp of the last data point
+	 */
+	long getLastTimestamp();
+	
+	/**
+	 * @return
+	 * 		number of data points
+	 */
+	int getCount();
+	
+	/**
+	 * @return
+	 * 		number of data points of quality {@link org.ogema.core.channelmanager.measurements.Quality#GOOD}
+	 */
+	int getGoodCount();
+	
+	/**
+	 * @return
+	 * 		sum of the values of good quality
+	 */
+	double getSum();
+	
+	/**
+	 * @return
+	 * 		minimum of the values of good quality; undefined if {@link #getGoodCount()} is 0
+	 */
+	double getMin();
+	
+	/**
+	 * @return
+	 * 		maximum of the values of good quality; undefined if {@link #getGoodCount()} is 0
+	 */
+	double getMax();
+	
+	/**
+	 * @return
+	 * 		timestamp of the first data point of good quality with value {@link #getMin()}
+	 */
+	long getMinTimestamp();
+	
+	/**
+	 * @return
+	 * 		timestamp of the first data point of good quality with value {@link #getMax()}
+	 */
+	long getMaxTimestamp();
+	
+}
@@ -19,15 +19,19 @@ import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.ogema.core.timeseries.InterpolationMode;
 import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
 
 public class AverageStatistics implements Statistics<Float> {
 	
 	// FIXME currently, we treat NEAREST as LINEAR
 	private final InterpolationMode mode;
-	// state
-	private float integral = 0;
-	private float length = 0;
-	private SampledValue previous = null;
+	// state; accumulated in double precision, like the sums of value summaries
+	private double integral = 0;
+	private double length = 0;
+	private boolean hasPrevious = false;
+	private long previousT;
+	private double previousValue;
+	private Quality previousQuality;
 	
 	public AverageStatistics(InterpolationMode mode) {
 		this.mode = mode;
@@ -35,46 +39,74 @@ public class AverageStatistics implements Statistics<Float> {
 
 	@Override
 	public void step(final SampledValue sv) {
-		if (sv != null && previous != null && sv.getTimestamp() <= previous.getTimestamp())
-			throw new IllegalArgumentException("Timestamps not chronological, got " + previous.getTimestamp() + " followed by " + sv.getTimestamp());
-		final boolean valid = sv != null && sv.getQuality() == Quality.GOOD;
-		final boolean previousValid = previous != null && previous.getQuality() == Quality.GOOD;
+		if (sv == null) {
+			hasPrevious = false;
+			return;
+		}
+		step(sv.getTimestamp(), sv.getValue().getFloatValue(), sv.getQuality());
+	}
+	
+	@Override
+	public void step(final long timestamp, final double value, final Quality quality) {
+		if (hasPrevious && timestamp <= previousT)
+			throw new IllegalArgumentException("Timestamps not chronological, got " + previousT + " followed by " + timestamp);
+		final boolean valid = quality == Quality.GOOD;
+		final boolean previousValid = hasPrevious && previousQuality == Quality.GOOD;
+		final double v1 = value;
 		if (!valid) {
-			if (sv != null && previousValid && mode == InterpolationMode.STEPS) {
-				final long diff = sv.getTimestamp() - previous.getTimestamp();
-				integral += previous.getValue().getFloatValue() * diff;
+			if (previousValid && mode == InterpolationMode.STEPS) {
+				final long diff = timestamp - previousT;
+				integral += previousValue * diff;
 				length += diff;
 			}
-			previous = sv;
+			setPrevious(timestamp, v1, quality);
 			return;
 		}
 		if (mode == InterpolationMode.NONE) {
-			integral += sv.getValue().getFloatValue();
+			integral += v1;
 			length++;
 			return;
 		}
 		if (!previousValid) {
-			previous = sv;
+			setPrevious(timestamp, v1, quality);
 			return;
 		}
 		if (mode == InterpolationMode.STEPS) {
-			final long diff = sv.getTimestamp() - previous.getTimestamp();
-			integral += previous.getValue().getFloatValue() * diff;
+			final long diff = timestamp - previousT;
+			integral += previousValue * diff;
 			length += diff;
 		} else { // LINEAR or NEAREST
-			final long t0 = previous.getTimestamp();
-			final long t1 = sv.getTimestamp();
-			final float v0 = previous.getValue().getFloatValue();
-			final float v1 = sv.getValue().getFloatValue();
-			integral += (v0 + v1) * (t1 - t0) / 2;
-			length += t1 - t0;
+			final long t0 = previousT;
+			final double v0 = previousValue;
+			integral += (v0 + v1) * (timestamp - t0) / 2;
+			length += timestamp - t0;
 		}
-		previous = sv;
+		setPrevious(timestamp, v1, quality);
+	}
+	
+	/**
+	 * Summaries are only used for {@link InterpolationMode#NONE}, the other modes require the 
+	 * individual data points.
+	 */
+	@Override
+	public boolean step(final ValueSummary summary) {
+		if (mode != InterpolationMode.NONE)
+			return false;
+		integral += summary.getSum();
+		length += summary.getGoodCount();
+		return true;
+	}
+	
+	private void setPrevious(final long timestamp, final double value, final Quality quality) {
+		this.hasPrevious = true;
+		this.previousT = timestamp;
+		this.previousValue = value;
+		this.previousQuality = quality;
 	}
 
 	@Override
 	public Float finish(long finalT) {
-		return integral/length;
+		return (float) (integral/length);
 	}
 
 	
@@ -63,6 +63,11 @@ public class BasicProviders {
 				.mapToInt(res -> res)
 				.sum();
 		}
+		
+		@Override
+		public boolean supportsTimePartitions() {
+			return true;
+		}
 	};
 	
 	public static final class GapLengthProvider implements StatisticsProvider<Long> {
@@ -148,8 +153,9 @@ public class BasicProviders {
 
 		@Override
 		public Float join(Collection<Float> individualResults) {
+			// NaN: no values in the time series or partition
 			final DoubleStream stream = individualResults.stream()
-				.filter(res -> res!= null)
+				.filter(res -> res != null && !Float.isNaN(res))
 				.mapToDouble(f -> f);
 			final OptionalDouble opt;
 			if (!maxOrMin)
@@ -158,6 +164,11 @@ public class BasicProviders {
 				opt = stream.max();
 			return (float) opt.orElse(Float.NaN);
 		}
+		
+		@Override
+		public boolean supportsTimePartitions() {
+			return true;
+		}
 	}
 	
 	static {
@@ -15,8 +15,10 @@
  */
 package org.smartrplace.logging.fendodb.stats.samples;
 
+import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
 
 public class Count implements Statistics<Integer> {
 	
@@ -26,6 +28,17 @@ public class Count implements Statistics<Integer> {
 	public void step(final SampledValue sv) {
 		cnt++;
 	}
+	
+	@Override
+	public void step(long timestamp, double value, Quality quality) {
+		cnt++;
+	}
+
+	@Override
+	public boolean step(ValueSummary summary) {
+		cnt += summary.getCount();
+		return true;
+	}
 
 	@Override
 	public Integer finish(long finalT) {
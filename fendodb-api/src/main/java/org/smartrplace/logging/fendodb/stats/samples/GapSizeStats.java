@@ -27,7 +27,8 @@ public class GapSizeStats implements Statistics<Long> {
 	private final long minGapSize;
 	
 	// state
-	private SampledValue previous;
+	private boolean hasPrevious = false;
+	private long previousT;
 	private long totalGap = 0;
 	
 	/**
@@ -40,25 +41,33 @@ public class GapSizeStats implements Statistics<Long> {
 	
 	@Override
 	public void step(final SampledValue sv) {
-		if (sv == null || sv.getQuality() == Quality.BAD) {
-			if (previous == null) {
+		if (sv == null)
+			return;
+		step(sv.getTimestamp(), Double.NaN, sv.getQuality()); // the value is irrelevant here
+	}
+	
+	@Override
+	public void step(long timestamp, double value, Quality quality) {
+		if (quality == Quality.BAD) {
+			if (!hasPrevious) {
 				// TODO add to gap?
 			}
 			return;
 		}
-		if (previous == null) {
-			previous = sv;
+		if (!hasPrevious) {
+			hasPrevious = true;
+			previousT = timestamp;
 			return;
 		}
-		final long diff = sv.getTimestamp() - previous.getTimestamp();
+		final long diff = timestamp - previousT;
 		if (diff > minGapSize)
 			totalGap += diff;
 	}
 
 	@Override
 	public Long finish(long finalT) {
-		if (previous != null) {
-			final long diff = finalT - previous.getTimestamp();
+		if (hasPrevious) {
+			final long diff = finalT - previousT;
 			if (diff > minGapSize)
 				totalGap += diff;
 		}
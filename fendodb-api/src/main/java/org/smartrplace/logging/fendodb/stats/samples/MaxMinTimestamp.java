@@ -18,6 +18,7 @@ package org.smartrplace.logging.fendodb.stats.samples;
 import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
 
 public class MaxMinTimestamp implements Statistics<Long> {
 	
@@ -34,14 +35,35 @@ public class MaxMinTimestamp implements Statistics<Long> {
 	
 	@Override
 	public void step(final SampledValue sv) {
-		if (sv == null || sv.getQuality() == Quality.BAD)
+		if (sv == null)
 			return;
-		final float current = sv.getValue().getFloatValue();
+		step(sv.getTimestamp(), sv.getValue().getFloatValue(), sv.getQuality());
+	}
+	
+	@Override
+	public void step(long timestamp, double value, Quality quality) {
+		if (quality == Quality.BAD)
+			return;
+		final float current = (float) value;
 		if ((!minOrMax && current > max) || (minOrMax && current < max)) {
 			max = current;
-			t = sv.getTimestamp();
+			t = timestamp;
+		}
+	}
+
+	/**
+	 * Note: the summary refers to the double values, so if several values are rounded to the same float 
+	 * value, a later one of them may be reported.
+	 */
+	@Override
+	public boolean step(ValueSummary summary) {
+		if (summary.getGoodCount() > 0) {
+			if (minOrMax)
+				step(summary.getMinTimestamp(), summary.getMin(), Quality.GOOD);
+			else
+				step(summary.getMaxTimestamp(), summary.getMax(), Quality.GOOD);
 		}
-		
+		return true;
 	}
 
 	@Override
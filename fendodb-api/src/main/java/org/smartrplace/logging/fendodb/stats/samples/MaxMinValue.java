@@ -18,6 +18,7 @@ package org.smartrplace.logging.fendodb.stats.samples;
 import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
 
 public class MaxMinValue implements Statistics<Float> {
 	
@@ -33,13 +34,27 @@ public class MaxMinValue implements Statistics<Float> {
 	
 	@Override
 	public void step(final SampledValue sv) {
-		if (sv == null || sv.getQuality() == Quality.BAD)
+		if (sv == null)
 			return;
-		final float current = sv.getValue().getFloatValue();
+		step(sv.getTimestamp(), sv.getValue().getFloatValue(), sv.getQuality());
+	}
+	
+	@Override
+	public void step(long timestamp, double value, Quality quality) {
+		if (quality == Quality.BAD)
+			return;
+		final float current = (float) value;
 		if ((!minOrMax && current > max) || (minOrMax && current < max))
 			max = current;
 	}
 
+	@Override
+	public boolean step(ValueSummary summary) {
+		if (summary.getGoodCount() > 0)
+			step(summary.getLastTimestamp(), minOrMax ? summary.getMin() : summary.getMax(), Quality.GOOD);
+		return true;
+	}
+
 	@Override
 	public Float finish(long t) {
 		if ((minOrMax && max == Float.MAX_VALUE) || (!minOrMax && max == -Float.MAX_VALUE))
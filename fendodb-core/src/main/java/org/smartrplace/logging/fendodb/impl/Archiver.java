@@ -0,0 +1,271 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs day folders older than the configured archive age into a single zip file per day, 
+ * &lt;day&gt;.zip in the root folder, which is read via {@link FileObjectProxy#isZipped(String, String)}.
+ * The archive contains one entry per time series, in the compressed log file format, and stored
+ * without zip compression, so that the {@link DayArchive} index can read the blocks of a single entry
+ * directly from the archive file.<br>
+ * The archive is written to a temporary file first; replacing the day folder by the archive 
+ * happens while holding the folder write lock, and is recorded in a marker file in the root folder,
+ * so that it can be completed on startup if it has been interrupted.
+ */
+class Archiver extends InfoTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(Archiver.class);
+	// root folder file containing the name of the day folder which is being replaced by its archive
+	static final String PENDING_FILE = "archive.pending";
+	static final String ARCHIVE_EXTENSION = ".zip";
+	static final String TEMP_EXTENSION = ".archiving";
+	private final long archiveAge;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param proxy
+	 * @param archiveAge
+	 * 		in ms, measured from the end of the folder period
+	 */
+	Archiver(FileObjectProxy proxy, long archiveAge) {
+		super(proxy, false, false);
+		this.archiveAge = archiveAge;
+	}
+
+	@Override
+	void stopTask() {
+		stopped = true;
+		try {
+			cancel();
+		} catch (Exception e) {
+			logger.error("Error stopping task",e);
+		}
+	}
+
+	@Override
+	void runInternal() throws IOException {
+		final long now = proxy.getTime();
+		final List<Path> days;
+		proxy.folderLock.readLock().lock();
+		try {
+			days = new ArrayList<>(proxy.days);
+		} finally {
+			proxy.folderLock.readLock().unlock();
+		}
+		for (Path day : days) {
+			if (stopped)
+				return;
+			if (day.getFileSystem() != FileSystems.getDefault()) // archived already
+				continue;
+			final long dayStart;
+			try {
+				dayStart = !proxy.useCompatibilityMode ? Long.parseLong(day.getFileName().toString()) :
+					TimeUtils.parseCompatibilityFolderName(day.getFileName().toString());
+			} catch (RuntimeException e) {
+				logger.error("Failed to parse folder name {}", day, e);
+				continue;
+			}
+			if (TimeUtils.getNextStart(dayStart, proxy.unit) + archiveAge > now)
+				break;
+			try {
+				archiveDay(day);
+			} catch (IOException e) {
+				logger.warn("Failed to archive folder {}", day, e);
+			}
+		}
+	}
+
+	/**
+	 * @param day
+	 * @return true if the folder has been replaced by an archive
+	 * @throws IOException
+	 */
+	boolean archiveDay(final Path day) throws IOException {
+		final String dayName = day.getFileName().toString();
+		final Path archive = proxy.rootNode.resolve(dayName + ARCHIVE_EXTENSION);
+		if (Files.exists(archive)) {
+			logger.warn("Cannot archive folder {}, archive {} exists already", day, archive);
+			return false;
+		}
+		final Path tempArchive = proxy.rootNode.resolve(dayName + ARCHIVE_EXTENSION + TEMP_EXTENSION);
+		final Map<Path, Long> sizes = getSizes(day);
+		if (sizes.isEmpty())
+			return false;
+		final Map<Path, List<Path>> filesPerLabel = sizes.keySet().stream()
+				.collect(Collectors.groupingBy(Path::getParent, TreeMap::new, Collectors.toList()));
+		try {
+			writeArchive(day, filesPerLabel, tempArchive);
+			if (stopped) {
+				Files.delete(tempArchive);
+				return false;
+			}
+			proxy.folderLock.writeLock().lock();
+			try {
+				// writes out buffered values, so we can detect files modified in the meantime
+				proxy.invalidateFolders(filesPerLabel.keySet());
+				if (!sizes.equals(getSizes(day))) {
+					logger.debug("Log files in {} have been modified during archiving, will retry later", day);
+					Files.delete(tempArchive);
+					return false;
+				}
+				final Path pending = proxy.rootNode.resolve(PENDING_FILE);
+				Files.write(pending, dayName.getBytes(StandardCharsets.UTF_8));
+				Files.move(tempArchive, archive, StandardCopyOption.ATOMIC_MOVE);
+				deleteRecursiveFolder(day);
+				Files.delete(pending);
+				proxy.dayArchived(day, archive, filesPerLabel.keySet());
+				proxy.diskUsageChanged(day);
+				logger.info("Folder {} archived to {}", day, archive);
+			} finally {
+				proxy.folderLock.writeLock().unlock();
+			}
+			return true;
+		} finally {
+			Files.deleteIfExists(tempArchive);
+		}
+	}
+
+	private void writeArchive(final Path day, final Map<Path, List<Path>> filesPerLabel, final Path tempArchive) throws IOException {
+		final String dayName = day.getFileName().toString();
+		final Path tempEntry = proxy.rootNode.resolve("z" + dayName + SlotsDb.FILE_EXTENSION + TEMP_EXTENSION);
+		final CRC32 crc = new CRC32();
+		try (final OutputStream out = Files.newOutputStream(tempArchive); final ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (Map.Entry<Path, List<Path>> entry : filesPerLabel.entrySet()) {
+				if (stopped)
+					return;
+				final ValueChunk values;
+				final long period;
+				proxy.folderLock.readLock().lock();
+				try {
+					final List<FileObject> fileObjects = new ArrayList<>(entry.getValue().size());
+					try {
+						for (Path file : entry.getValue()) {
+							fileObjects.add(Compactor.getFileObject(file));
+						}
+						Collections.sort(fileObjects, Comparator.comparingLong(FileObject::getStartTimeStamp));
+						final List<ValueChunk> chunks = new ArrayList<>(fileObjects.size());
+						for (FileObject fo : fileObjects) {
+							chunks.add(fo.readFully());
+						}
+						values = ValueChunk.concat(chunks);
+						period = values.isEmpty() ? -1 : Compactor.getCommonPeriod(fileObjects, values);
+					} finally {
+						for (FileObject fo : fileObjects) {
+							fo.close();
+						}
+					}
+				} finally {
+					proxy.folderLock.readLock().unlock();
+				}
+				if (values.isEmpty())
+					continue;
+				Files.deleteIfExists(tempEntry);
+				final byte[] data;
+				try {
+					Compactor.writeFile(tempEntry, "z", period, values);
+					data = Files.readAllBytes(tempEntry);
+				} finally {
+					Files.deleteIfExists(tempEntry);
+				}
+				final StringBuilder name = new StringBuilder(dayName);
+				for (Path p : day.relativize(entry.getKey())) {
+					name.append('/').append(p.toString());
+				}
+				name.append("/z").append(values.getTimestamp(0)).append(SlotsDb.FILE_EXTENSION);
+				final ZipEntry zipEntry = new ZipEntry(name.toString());
+				// not compressed, so the entry can be read with random access
+				zipEntry.setMethod(ZipEntry.STORED);
+				zipEntry.setSize(data.length);
+				zipEntry.setCompressedSize(data.length);
+				crc.reset();
+				crc.update(data);
+				zipEntry.setCrc(crc.getValue());
+				zip.putNextEntry(zipEntry);
+				zip.write(data);
+				zip.closeEntry();
+			}
+		}
+		try (final FileChannel channel = FileChannel.open(tempArchive, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	// sizes of all log files in the day folder
+	private static Map<Path, Long> getSizes(final Path day) throws IOException {
+		final Map<Path, Long> sizes = new HashMap<>();
+		try (final Stream<Path> stream = Files.walk(day)) {
+			final Iterable<Path> files = stream::iterator;
+			for (Path f : files) {
+				if (f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION) && Files.isRegularFile(f))
+					sizes.put(f, Files.size(f));
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * Completes the replacement of a day folder by its archive, if it has been interrupted, e.g. by a crash,
+	 * and removes temporary files. Must be called before the database is opened.
+	 * @param rootNode
+	 * @throws IOException
+	 */
+	static void recover(final Path rootNode) throws IOException {
+		final Path pending = rootNode.resolve(PENDING_FILE);
+		if (Files.exists(pending)) {
+			final String dayName = new String(Files.readAllBytes(pending), StandardCharsets.UTF_8).trim();
+			final Path day = rootNode.resolve(dayName);
+			if (Files.exists(rootNode.resolve(dayName + ARCHIVE_EXTENSION)) && Files.isDirectory(day)) {
+				logger.info("Completing interrupted archiving of folder {}", day);
+				deleteRecursiveFolder(day);
+			}
+			Files.delete(pending);
+		}
+		try (final Stream<Path> stream = Files.list(rootNode)) {
+			final List<Path> tempFiles = stream
+				.filter(f -> f.getFileName().toString().endsWith(TEMP_EXTENSION))
+				.collect(Collectors.toList());
+			for (Path f : tempFiles) {
+				Files.delete(f);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,475 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
+
+/**
+ * Compression of time-ordered log data points into independently decodable blocks.
+ * Timestamps are stored as delta-of-delta, values are XORed with their predecessor,
+ * and only the significant bits of the result are stored (as in Facebook's Gorilla database).
+ * The first timestamp of a block is not part of the encoded data, but stored in the block header
+ * (see {@link CompressedFileObject}).<br>
+ * Bit layout per data point, after the first one:
+ * <ul>
+ *   <li>timestamp: '0' if the delta-of-delta is 0, otherwise '10', '110', '1110' or '1111', followed by 
+ *     the delta-of-delta as 7, 12, 20 or 64 bits two's complement.
+ *   <li>value: '0' if equal to the previous value, otherwise '10' followed by the significant bits of the XOR, 
+ *     if they fit into the previous window, or '11', 6 bits number of leading zeros, 6 bits number of 
+ *     significant bits - 1, and the significant bits.
+ *   <li>quality: '0' if unchanged, otherwise '1' followed by 8 bits.
+ * </ul>
+ * The first data point stores its value in 64 bits and its quality in 8 bits.<br>
+ * Complete blocks are followed by a {@link Summary} of their data points, which is not read by the {@link Decoder}.
+ */
+final class BlockCodec {
+
+	// max number of data points per block
+	static final int MAX_BLOCK_SIZE = 1024;
+	private static final int[] DOD_BITS = {7, 12, 20, 64};
+
+	private BlockCodec() {}
+
+	/**
+	 * Encodes data points with strictly increasing timestamps.
+	 */
+	static final class Encoder {
+
+		private byte[] data;
+		private int bitLength;
+		private int count;
+		private long firstTimestamp;
+		private long lastTimestamp;
+		private long lastDelta;
+		private long lastValueBits;
+		// -1: no window yet
+		private int lastLeading = -1;
+		private int lastTrailing;
+		private byte lastFlag;
+		private final Summary summary = new Summary();
+
+		Encoder() {
+			this.data = new byte[64];
+		}
+
+		void add(final long timestamp, final double value, final byte flag) {
+			summary.add(timestamp, value, flag);
+			final long valueBits = Double.doubleToRawLongBits(value);
+			if (count == 0) {
+				firstTimestamp = timestamp;
+				writeBits(valueBits, 64);
+				writeBits(flag, 8);
+			} else {
+				final long delta = timestamp - lastTimestamp;
+				writeTimestamp(delta - lastDelta);
+				lastDelta = delta;
+				writeValue(valueBits ^ lastValueBits);
+				if (flag == lastFlag) {
+					writeBits(0, 1);
+				} else {
+					writeBits(1, 1);
+					writeBits(flag, 8);
+				}
+			}
+			lastTimestamp = timestamp;
+			lastValueBits = valueBits;
+			lastFlag = flag;
+			count++;
+		}
+
+		private void writeTimestamp(final long dod) {
+			if (dod == 0) {
+				writeBits(0, 1);
+				return;
+			}
+			for (int i = 0; i < DOD_BITS.length; i++) {
+				final int bits = DOD_BITS[i];
+				if (bits == 64 || (dod >= -(1L << (bits - 1)) && dod < (1L << (bits - 1)))) {
+					// i+1 ones, terminated by a zero, except for the last option
+					if (i < DOD_BITS.length - 1)
+						writeBits(((1L << (i + 1)) - 1) << 1, i + 2);
+					else
+						writeBits((1L << DOD_BITS.length) - 1, DOD_BITS.length);
+					writeBits(dod, bits);
+					return;
+				}
+			}
+		}
+
+		private void writeValue(final long xor) {
+			if (xor == 0) {
+				writeBits(0, 1);
+				return;
+			}
+			final int leading = Long.numberOfLeadingZeros(xor);
+			final int trailing = Long.numberOfTrailingZeros(xor);
+			if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+				writeBits(0b10, 2);
+				writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+			} else {
+				final int significant = 64 - leading - trailing;
+				writeBits(0b11, 2);
+				writeBits(leading, 6);
+				writeBits(significant - 1, 6);
+				writeBits(xor >>> trailing, significant);
+				lastLeading = leading;
+				lastTrailing = trailing;
+			}
+		}
+
+		// writes the lowest nrBits bits of value, most significant bit first
+		private void writeBits(final long value, int nrBits) {
+			final int requiredBytes = (bitLength + nrBits + 7) >>> 3;
+			if (requiredBytes > data.length)
+				data = Arrays.copyOf(data, Math.max(requiredBytes, data.length * 2));
+			while (nrBits > 0) {
+				final int bitOffset = bitLength & 7;
+				final int free = 8 - bitOffset;
+				final int take = Math.min(free, nrBits);
+				final int bits = (int) ((value >>> (nrBits - take)) & ((1 << take) - 1));
+				data[bitLength >>> 3] |= bits << (free - take);
+				bitLength += take;
+				nrBits -= take;
+			}
+		}
+
+		int size() {
+			return count;
+		}
+
+		long getFirstTimestamp() {
+			return firstTimestamp;
+		}
+
+		long getLastTimestamp() {
+			return lastTimestamp;
+		}
+
+		/**
+		 * @return the summary of the data points added so far; must not be modified
+		 */
+		Summary getSummary() {
+			return summary;
+		}
+
+		int getByteLength() {
+			return (bitLength + 7) >>> 3;
+		}
+
+		/**
+		 * @return the internal array; only the first {@link #getByteLength()} bytes are valid. Must not be modified.
+		 */
+		byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Continue encoding an existing block.
+		 * @param payload
+		 * 		the encoded block, positioned at its start
+		 * @param count
+		 * @param firstTimestamp
+		 * @return
+		 */
+		static Encoder resume(final ByteBuffer payload, final int count, final long firstTimestamp) {
+			final Decoder decoder = new Decoder(payload, count, firstTimestamp);
+			final Encoder encoder = new Encoder();
+			while (decoder.next()) {
+				encoder.summary.add(decoder.timestamp(), decoder.value(), decoder.flag());
+			}
+			encoder.bitLength = decoder.bitPosition;
+			encoder.data = new byte[Math.max(64, encoder.getByteLength() * 2)];
+			payload.duplicate().get(encoder.data, 0, encoder.getByteLength());
+			// bits after the end of the data must be zero
+			if ((encoder.bitLength & 7) != 0) {
+				final int lastIdx = encoder.bitLength >>> 3;
+				encoder.data[lastIdx] &= (0xFF << (8 - (encoder.bitLength & 7)));
+			}
+			encoder.count = count;
+			encoder.firstTimestamp = firstTimestamp;
+			encoder.lastTimestamp = decoder.timestamp;
+			encoder.lastDelta = decoder.lastDelta;
+			encoder.lastValueBits = decoder.valueBits;
+			encoder.lastLeading = decoder.lastLeading;
+			encoder.lastTrailing = decoder.lastTrailing;
+			encoder.lastFlag = decoder.flag;
+			return encoder;
+		}
+
+	}
+
+	/**
+	 * Iterates over the data points of an encoded block.
+	 */
+	static final class Decoder {
+
+		private final ByteBuffer payload;
+		private final int base;
+		private final int count;
+		private int idx = 0;
+		private int bitPosition = 0;
+		private long timestamp;
+		private long lastDelta;
+		private long valueBits;
+		private int lastLeading = -1;
+		private int lastTrailing;
+		private byte flag;
+
+		/**
+		 * @param payload
+		 * 		the encoded block, starting at the current position of the buffer
+		 * @param count
+		 * 		number of data points in the block
+		 * @param firstTimestamp
+		 */
+		Decoder(final ByteBuffer payload, final int count, final long firstTimestamp) {
+			this.payload = payload;
+			this.base = payload.position();
+			this.count = count;
+			this.timestamp = firstTimestamp;
+		}
+
+		/**
+		 * Move to the next data point.
+		 * @return false if there are no more data points
+		 * @throws IllegalStateException if the data is corrupted
+		 */
+		boolean next() {
+			if (idx >= count)
+				return false;
+			try {
+				if (idx == 0) {
+					valueBits = readBits(64);
+					flag = (byte) readBits(8);
+				} else {
+					lastDelta += readTimestamp();
+					timestamp += lastDelta;
+					readValue();
+					if (readBits(1) != 0)
+						flag = (byte) readBits(8);
+				}
+			} catch (IndexOutOfBoundsException e) {
+				throw new IllegalStateException("Corrupted data block", e);
+			}
+			idx++;
+			return true;
+		}
+
+		private long readTimestamp() {
+			int ones = 0;
+			while (ones < DOD_BITS.length && readBits(1) == 1) {
+				ones++;
+			}
+			if (ones == 0)
+				return 0;
+			final int bits = DOD_BITS[ones - 1];
+			final long raw = readBits(bits);
+			return bits == 64 ? raw : (raw << (64 - bits)) >> (64 - bits);
+		}
+
+		private void readValue() {
+			if (readBits(1) == 0)
+				return;
+			if (readBits(1) == 0) {
+				final int significant = 64 - lastLeading - lastTrailing;
+				valueBits ^= readBits(significant) << lastTrailing;
+			} else {
+				lastLeading = (int) readBits(6);
+				final int significant = (int) readBits(6) + 1;
+				lastTrailing = 64 - lastLeading - significant;
+				valueBits ^= readBits(significant) << lastTrailing;
+			}
+		}
+
+		private long readBits(int nrBits) {
+			long result = 0;
+			while (nrBits > 0) {
+				final int b = payload.get(base + (bitPosition >>> 3)) & 0xFF;
+				final int available = 8 - (bitPosition & 7);
+				final int take = Math.min(available, nrBits);
+				result = (result << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+				bitPosition += take;
+				nrBits -= take;
+			}
+			return result;
+		}
+
+		long timestamp() {
+			return timestamp;
+		}
+
+		double value() {
+			return Double.longBitsToDouble(valueBits);
+		}
+
+		byte flag() {
+			return flag;
+		}
+
+	}
+
+	/**
+	 * Aggregates of the data points of a block, so that reductions over the block do not need to decode it.
+	 * NaN values are not taken into account, since they are not returned by reads either; minimum, maximum
+	 * and sum only take into account values of good quality.<br>
+	 * Stored in the last {@link #SIZE} bytes of the payload of complete blocks.
+	 */
+	static final class Summary implements ValueSummary {
+
+		static final int SIZE = 2 * Integer.BYTES + 7 * Long.BYTES;
+
+		// number of non-NaN data points
+		int count;
+		int goodCount;
+		double sum;
+		// initial values as in the reductions
+		double min = Double.MAX_VALUE;
+		double max = Double.NEGATIVE_INFINITY;
+		long minTimestamp = Long.MIN_VALUE;
+		long maxTimestamp = Long.MIN_VALUE;
+		// of the non-NaN data points
+		long firstTimestamp = Long.MIN_VALUE;
+		long lastTimestamp = Long.MIN_VALUE;
+
+		void add(final long timestamp, final double value, final byte flag) {
+			if (Double.isNaN(value))
+				return;
+			if (count++ == 0)
+				firstTimestamp = timestamp;
+			lastTimestamp = timestamp;
+			if (Quality.getQuality(flag) != Quality.GOOD)
+				return;
+			goodCount++;
+			sum += value;
+			if (value < min) {
+				min = value;
+				minTimestamp = timestamp;
+			}
+			if (value > max) {
+				max = value;
+				maxTimestamp = timestamp;
+			}
+		}
+
+		@Override
+		public long getFirstTimestamp() {
+			return firstTimestamp;
+		}
+
+		@Override
+		public long getLastTimestamp() {
+			return lastTimestamp;
+		}
+
+		@Override
+		public int getCount() {
+			return count;
+		}
+
+		@Override
+		public int getGoodCount() {
+			return goodCount;
+		}
+
+		@Override
+		public double getSum() {
+			return sum;
+		}
+
+		@Override
+		public double getMin() {
+			return min;
+		}
+
+		@Override
+		public double getMax() {
+			return max;
+		}
+
+		@Override
+		public long getMinTimestamp() {
+			return minTimestamp;
+		}
+
+		@Override
+		public long getMaxTimestamp() {
+			return maxTimestamp;
+		}
+
+		Summary copy() {
+			final Summary copy = new Summary();
+			copy.count = count;
+			copy.goodCount = goodCount;
+			copy.sum = sum;
+			copy.min = min;
+			copy.max = max;
+			copy.minTimestamp = minTimestamp;
+			copy.maxTimestamp = maxTimestamp;
+			copy.firstTimestamp = firstTimestamp;
+			copy.lastTimestamp = lastTimestamp;
+			return copy;
+		}
+
+		ByteBuffer serialize() {
+			final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+			buffer.putInt(count);
+			buffer.putInt(goodCount);
+			buffer.putDouble(sum);
+			buffer.putDouble(min);
+			buffer.putDouble(max);
+			buffer.putLong(minTimestamp);
+			buffer.putLong(maxTimestamp);
+			buffer.putLong(firstTimestamp);
+			buffer.putLong(lastTimestamp);
+			((Buffer) buffer).flip();
+			return buffer;
+		}
+
+		/**
+		 * @param buffer
+		 * 		the last {@link #SIZE} bytes of the block payload, starting at the current position of the buffer
+		 * @param blockCount
+		 * 		number of data points in the block
+		 * @return
+		 * 		the summary, or null if the data is corrupted
+		 */
+		static Summary deserialize(final ByteBuffer buffer, final int blockCount) {
+			final int base = buffer.position();
+			if (buffer.remaining() < SIZE)
+				return null;
+			final Summary summary = new Summary();
+			summary.count = buffer.getInt(base);
+			summary.goodCount = buffer.getInt(base + 4);
+			summary.sum = buffer.getDouble(base + 8);
+			summary.min = buffer.getDouble(base + 16);
+			summary.max = buffer.getDouble(base + 24);
+			summary.minTimestamp = buffer.getLong(base + 32);
+			summary.maxTimestamp = buffer.getLong(base + 40);
+			summary.firstTimestamp = buffer.getLong(base + 48);
+			summary.lastTimestamp = buffer.getLong(base + 56);
+			if (summary.count < 0 || summary.count > blockCount || summary.goodCount < 0 || summary.goodCount > summary.count)
+				return null;
+			return summary;
+		}
+
+	}
+
+}
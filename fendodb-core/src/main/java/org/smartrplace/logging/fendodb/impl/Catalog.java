@@ -0,0 +1,311 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent snapshot of the folder structure of a database: the day folders, and for each time series
+ * the folders which contain data for it. The snapshot is written when the database is closed, and when
+ * its {@link Journal} grows too large; in between, every day folder and label folder created is appended to 
+ * the journal before it is created on disk, so that the catalog remains valid if the database is not closed 
+ * properly. Journal entries are verified against the file system when they are read. On startup the catalog 
+ * replaces the directory scans for all days it covers; days not covered are scanned as before.
+ * The configurations of the time series are persisted separately, see {@link SlotsDb#STORAGE_PERSISTENCE_FILE}.
+ */
+final class Catalog implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(Catalog.class);
+	static final String FILE_NAME = "catalog.ser";
+	static final String JOURNAL_FILE_NAME = "catalog.log";
+	// journal entry types
+	private static final String DAY_CREATED = "d";
+	private static final String FOLDER_CREATED = "f";
+	private static final String DAY_INVALIDATED = "x";
+
+	/*
+	 * Names of the day folders (or day archives, "<day>.zip") in the root directory.
+	 */
+	private final List<String> days;
+	/*
+	 * Keys: encoded labels, values: indices of the days which have a subfolder for the label.
+	 */
+	private final Map<String, BitSet> labels;
+
+	Catalog(List<String> days, Map<String, BitSet> labels) {
+		this.days = days;
+		this.labels = labels;
+	}
+
+	List<String> getDays() {
+		return Collections.unmodifiableList(days);
+	}
+
+	/**
+	 * @return encoded labels
+	 */
+	Map<String, BitSet> getLabels() {
+		return Collections.unmodifiableMap(labels);
+	}
+
+	/**
+	 * @param root
+	 * 		database folder
+	 * @return the catalog, including the entries of the journal, or null if it does not exist or cannot be read.
+	 */
+	static Catalog read(final Path root) {
+		try {
+			final Catalog catalog = ((Catalog) FileUtils.readJavaBytes(root, FILE_NAME)).replay(root);
+			logger.debug("Catalog read for {}: {} days, {} time series", root, catalog.days.size(), catalog.labels.size());
+			return catalog;
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			logger.debug("No catalog available for {}", root);
+			return null;
+		}
+	}
+
+	/**
+	 * Delete the catalog and its journal, so that the next startup scans all folders.
+	 * @param root
+	 * 		database folder
+	 */
+	static void delete(final Path root) {
+		try {
+			FileUtils.deleteJavaBytes(root, FILE_NAME);
+			Files.deleteIfExists(root.resolve(JOURNAL_FILE_NAME));
+		} catch (IOException e) {
+			logger.warn("Failed to delete catalog for {}", root, e);
+		}
+	}
+
+	/**
+	 * Applies the complete entries of the journal, if there is one, skipping those which do 
+	 * not match the file system.
+	 * @param root
+	 * @return
+	 * @throws IOException
+	 */
+	private Catalog replay(final Path root) throws IOException {
+		final Path file = root.resolve(JOURNAL_FILE_NAME);
+		if (!Files.exists(file))
+			return this;
+		final byte[] journal = Files.readAllBytes(file);
+		// null for invalidated days
+		final List<String> days = new ArrayList<>(this.days);
+		final Map<String, Integer> indices = new HashMap<>(days.size() * 2);
+		for (int i = 0; i < days.size(); i++) {
+			indices.put(days.get(i), i);
+		}
+		final Map<String, BitSet> labels = new HashMap<>(this.labels.size() * 2);
+		this.labels.forEach((label, set) -> labels.put(label, (BitSet) set.clone()));
+		int start = 0;
+		for (int i = 0; i < journal.length; i++) {
+			// an incomplete last line stems from a crash while the entry was written 
+			if (journal[i] != '\n')
+				continue;
+			final String[] entry = new String(journal, start, i - start, StandardCharsets.UTF_8).split("\t");
+			start = i + 1;
+			switch (entry[0]) {
+			case DAY_CREATED:
+				if (entry.length != 2 || !Files.isDirectory(root.resolve(entry[1])))
+					break;
+				final int idx = indices.computeIfAbsent(entry[1], day -> {
+					days.add(day);
+					return days.size() - 1;
+				});
+				// the day may have been deleted and created again
+				labels.values().forEach(set -> set.clear(idx));
+				break;
+			case FOLDER_CREATED:
+				if (entry.length != 3 || !indices.containsKey(entry[2]))
+					break;
+				// the folder creation may have failed; then the day will be scanned on startup
+				if (!Files.isDirectory(root.resolve(entry[2]).resolve(entry[1])))
+					invalidate(entry[2], days, indices, labels);
+				else
+					labels.computeIfAbsent(entry[1], l -> new BitSet(days.size())).set(indices.get(entry[2]));
+				break;
+			case DAY_INVALIDATED:
+				if (entry.length == 2)
+					invalidate(entry[1], days, indices, labels);
+				break;
+			default:
+				logger.debug("Unknown catalog journal entry in {}: {}", root, entry[0]);
+			}
+		}
+		final List<String> validDays = new ArrayList<>(days.size());
+		final int[] newIndices = new int[days.size()];
+		for (int i = 0; i < days.size(); i++) {
+			if (days.get(i) != null) {
+				newIndices[i] = validDays.size();
+				validDays.add(days.get(i));
+			}
+		}
+		final Builder builder = new Builder(validDays);
+		labels.forEach((label, set) -> {
+			for (int idx = set.nextSetBit(0); idx >= 0 && idx < days.size(); idx = set.nextSetBit(idx + 1)) {
+				if (days.get(idx) != null)
+					builder.add(label, newIndices[idx]);
+			}
+		});
+		return builder.build();
+	}
+
+	void write(final Path root) throws IOException {
+		FileUtils.writeJavaBytes(root, FILE_NAME, this);
+	}
+
+	private static void invalidate(final String day, final List<String> days, final Map<String, Integer> indices, 
+			final Map<String, BitSet> labels) {
+		final Integer idx = indices.remove(day);
+		if (idx != null) {
+			days.set(idx, null);
+			labels.values().forEach(set -> set.clear(idx));
+		}
+	}
+
+	/**
+	 * Helper for creating a catalog.
+	 */
+	static final class Builder {
+
+		private final List<String> days;
+		private final Map<String, BitSet> labels = new HashMap<>();
+
+		/**
+		 * @param days
+		 * 		names of the day folders
+		 */
+		Builder(List<String> days) {
+			this.days = days;
+		}
+
+		Builder add(final String label, final int dayIdx) {
+			labels.computeIfAbsent(label, l -> new BitSet(days.size())).set(dayIdx);
+			return this;
+		}
+
+		Catalog build() {
+			return new Catalog(days, labels);
+		}
+
+	}
+
+	/**
+	 * Append-only log of the folders created since the catalog has been written. Entries are 
+	 * written before the respective folder is created, and forced to the storage device unless 
+	 * the durability mode is {@link org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability#NONE}.
+	 * If an entry cannot be written, the catalog is deleted, so that the next startup scans all folders.
+	 */
+	static final class Journal implements AutoCloseable {
+
+		private final Path root;
+		private final FileChannel channel;
+		private final boolean force;
+		private boolean failed;
+
+		Journal(Path root, boolean force) throws IOException {
+			this.root = root;
+			this.channel = FileChannel.open(root.resolve(JOURNAL_FILE_NAME), 
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			this.force = force;
+		}
+
+		/**
+		 * @param day
+		 * 		name of the new day folder
+		 */
+		void dayCreated(final String day) {
+			append(DAY_CREATED + "\t" + day);
+		}
+
+		/**
+		 * @param label
+		 * 		encoded label
+		 * @param day
+		 * 		name of the day folder
+		 */
+		void folderCreated(final String label, final String day) {
+			append(FOLDER_CREATED + "\t" + label + "\t" + day);
+		}
+
+		/**
+		 * @param day
+		 * 		name of a day folder whose subfolders have been changed
+		 */
+		void dayInvalidated(final String day) {
+			append(DAY_INVALIDATED + "\t" + day);
+		}
+
+		long size() throws IOException {
+			return channel.size();
+		}
+
+		/**
+		 * Remove all entries, to be called after the catalog has been written.
+		 * @throws IOException
+		 */
+		synchronized void clear() throws IOException {
+			channel.truncate(0);
+			failed = false;
+		}
+
+		private synchronized void append(final String entry) {
+			if (failed)
+				return;
+			try {
+				final ByteBuffer buffer = ByteBuffer.wrap((entry + "\n").getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (force)
+					channel.force(false);
+			} catch (IOException e) {
+				logger.warn("Failed to write catalog journal for {}, deleting the catalog", root, e);
+				failed = true;
+				try {
+					FileUtils.deleteJavaBytes(root, FILE_NAME);
+				} catch (IOException ee) {
+					logger.error("Failed to delete catalog for {}", root, ee);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,423 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
+
+/**
+ * Merges the log files of closed day folders into a single file per time series, 
+ * sorted and without the NaN padding of fixed interval files. If compressed files are enabled, 
+ * or some of the source files are compressed, the merged file uses the compressed format.<br>
+ * The merged files are prepared without blocking appends or reads; only the final swap 
+ * is done while holding the folder write lock, hence readers holding the folder read lock 
+ * see either the original or the compacted files. The swap is recorded in a marker file in the 
+ * root folder, so that it can be completed on startup if it has been interrupted by a crash.<br>
+ * Days which have been compacted successfully are not considered again; the last one is stored in 
+ * the root folder.
+ */
+class Compactor extends InfoTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(Compactor.class);
+	// root folder file containing the start time of the last compacted day
+	static final String STATE_FILE = "compaction.state";
+	// root folder file containing the name of the day folder whose files are currently being swapped
+	static final String PENDING_FILE = "compaction.pending";
+	static final String TEMP_EXTENSION = ".compacting";
+	// merged files are written in large batches, and forced to disk before the swap
+	private static final FileObjectContext OUTPUT_CONTEXT = new FileObjectContext(false, 64 * 1024, Durability.BATCH);
+	private static final FileObjectContext INPUT_CONTEXT = new FileObjectContext(false, 0, Durability.NONE);
+	private static final FendoCache NO_CACHE = FendoCache.noopCache();
+	private final boolean compressedFiles;
+	private volatile boolean stopped = false;
+
+	Compactor(FileObjectProxy proxy, boolean compressedFiles) {
+		super(proxy, false, false);
+		this.compressedFiles = compressedFiles;
+	}
+
+	@Override
+	void stopTask() {
+		stopped = true;
+		try {
+			cancel();
+		} catch (Exception e) {
+			logger.error("Error stopping task",e);
+		}
+	}
+
+	@Override
+	void runInternal() throws IOException {
+		final long lastCompacted = readState(proxy.rootNode);
+		final long now = proxy.getTime();
+		final List<Path> days;
+		proxy.folderLock.readLock().lock();
+		try {
+			days = new ArrayList<>(proxy.days);
+		} finally {
+			proxy.folderLock.readLock().unlock();
+		}
+		boolean advanceState = true;
+		for (Path day : days) {
+			if (stopped)
+				return;
+			if (day.getFileSystem() != FileSystems.getDefault()) // zip file
+				continue;
+			final long dayStart;
+			try {
+				dayStart = !proxy.useCompatibilityMode ? Long.parseLong(day.getFileName().toString()) :
+					TimeUtils.parseCompatibilityFolderName(day.getFileName().toString());
+			} catch (RuntimeException e) {
+				logger.error("Failed to parse folder name {}", day, e);
+				continue;
+			}
+			if (dayStart <= lastCompacted)
+				continue;
+			if (TimeUtils.getNextStart(dayStart, proxy.unit) > now)
+				break;
+			final boolean success = compactDay(day);
+			if (success && advanceState)
+				writeState(proxy.rootNode, dayStart);
+			else
+				advanceState = false;
+		}
+	}
+
+	/**
+	 * @param day
+	 * @return true if all time series in the folder are compacted now, false if some have to be retried later
+	 * @throws IOException
+	 */
+	boolean compactDay(final Path day) throws IOException {
+		final Map<Path, List<Path>> filesPerLabel;
+		try (final Stream<Path> stream = Files.walk(day)) {
+			filesPerLabel = stream
+				.filter(Files::isRegularFile)
+				.filter(f -> {
+					final String filename = f.getFileName().toString();
+					if (filename.endsWith(TEMP_EXTENSION)) { // left over from an interrupted run
+						try {
+							Files.delete(f);
+						} catch (IOException e) {
+							logger.warn("Failed to delete temporary file {}", f, e);
+						}
+						return false;
+					}
+					return filename.endsWith(SlotsDb.FILE_EXTENSION);
+				})
+				.collect(Collectors.groupingBy(Path::getParent));
+		} catch (IOException e) {
+			if (Files.exists(day))
+				throw e;
+			return true; // deleted in the meantime
+		}
+		boolean success = true;
+		final List<MergedFile> merged = new ArrayList<>();
+		for (Map.Entry<Path, List<Path>> entry : filesPerLabel.entrySet()) {
+			if (stopped)
+				return false;
+			proxy.folderLock.readLock().lock();
+			try {
+				final MergedFile file = mergeFiles(entry.getKey(), entry.getValue());
+				if (file != null)
+					merged.add(file);
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Compaction of {} failed", entry.getKey(), e);
+				success = false;
+			} finally {
+				proxy.folderLock.readLock().unlock();
+			}
+		}
+		if (merged.isEmpty())
+			return success;
+		proxy.folderLock.writeLock().lock();
+		try {
+			// writes out buffered values, so we can detect files modified in the meantime
+			proxy.invalidateFolders(merged.stream().map(file -> file.folder).collect(Collectors.toSet()));
+			final List<MergedFile> valid = new ArrayList<>(merged.size());
+			for (MergedFile file : merged) {
+				if (Files.isDirectory(file.folder) && file.sizes.equals(getSizes(file.folder))) {
+					valid.add(file);
+				} else {
+					logger.debug("Log files in {} have been modified during compaction, will retry later", file.folder);
+					Files.deleteIfExists(file.tempFile);
+					success = false;
+				}
+			}
+			if (valid.isEmpty())
+				return success;
+			final Path pending = proxy.rootNode.resolve(PENDING_FILE);
+			Files.write(pending, day.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+			for (MergedFile file : valid) {
+				swap(file.tempFile);
+			}
+			Files.delete(pending);
+			proxy.invalidateFolders(valid.stream().map(file -> file.folder).collect(Collectors.toSet()));
+			proxy.diskUsageChanged(day);
+			logger.debug("Compacted {} time series in folder {}", valid.size(), day);
+		} finally {
+			proxy.folderLock.writeLock().unlock();
+		}
+		return success;
+	}
+
+	/**
+	 * Writes the merged data of all files in the folder to a temporary file, if this is beneficial.
+	 * @param folder
+	 * @param files
+	 * @return null if the folder need not be compacted
+	 * @throws IOException
+	 */
+	private MergedFile mergeFiles(final Path folder, final List<Path> files) throws IOException {
+		final Map<String, Long> sizes = getSizes(folder);
+		final List<FileObject> fileObjects = new ArrayList<>(files.size());
+		try {
+			for (Path file : files) {
+				fileObjects.add(getFileObject(file));
+			}
+			fileObjects.removeIf(fo -> fo.getDataSetCount() == 0);
+			if (fileObjects.isEmpty())
+				return null;
+			Collections.sort(fileObjects, Comparator.comparingLong(FileObject::getStartTimeStamp));
+			final boolean compress = compressedFiles || fileObjects.stream().anyMatch(fo -> fo instanceof CompressedFileObject);
+			if (fileObjects.size() == 1) {
+				final FileObject fo = fileObjects.get(0);
+				if (fo instanceof CompressedFileObject || (!compress && fo instanceof FlexibleIntervalFileObject))
+					return null;
+			}
+			final List<ValueChunk> chunks = new ArrayList<>(fileObjects.size());
+			for (FileObject fo : fileObjects) {
+				chunks.add(fo.readFully());
+			}
+			final ValueChunk values = ValueChunk.concat(chunks);
+			final int n = values.size();
+			if (n == 0)
+				return null;
+			final long first = values.getTimestamp(0);
+			final long last = values.getTimestamp(n - 1);
+			final long period = getCommonPeriod(fileObjects, values);
+			final String prefix;
+			if (compress) {
+				prefix = "z";
+			} else if (period > 0 && ((last - first) / period + 1) * 9 <= (long) n * 17) { // padding is cheaper than explicit timestamps
+				if (fileObjects.size() == 1)
+					return null;
+				prefix = "c";
+			} else {
+				prefix = "f";
+			}
+			final Path tempFile = folder.resolve(prefix + first + SlotsDb.FILE_EXTENSION + TEMP_EXTENSION);
+			Files.deleteIfExists(tempFile);
+			writeFile(tempFile, prefix, prefix.equals("f") ? -1 : period, values);
+			return new MergedFile(folder, tempFile, sizes);
+		} finally {
+			for (FileObject fo : fileObjects) {
+				fo.close();
+			}
+		}
+	}
+
+	/**
+	 * Write the values to a new log file, which is forced to the storage device and verified afterwards.
+	 * @param file
+	 * 		must not exist yet
+	 * @param prefix
+	 * 		file type, "c", "f" or "z"
+	 * @param period
+	 * 		storage period; -1 for flexible interval
+	 * @param values
+	 * 		non-empty
+	 * @throws IOException
+	 */
+	static void writeFile(final Path file, final String prefix, final long period, final ValueChunk values) throws IOException {
+		final int n = values.size();
+		final long[] timestamps = new long[n];
+		final double[] vals = new double[n];
+		final byte[] qualities = new byte[n];
+		for (int i = 0; i < n; i++) {
+			timestamps[i] = values.getTimestamp(i);
+			vals[i] = values.getValue(i);
+			qualities[i] = values.getQuality(i);
+		}
+		final FileObject target;
+		final String fileName = file.toString();
+		switch (prefix) {
+		case "z":
+			target = new CompressedFileObject(fileName, NO_CACHE.getCache(null, null), OUTPUT_CONTEXT);
+			break;
+		case "c":
+			target = new ConstantIntervalFileObject(fileName, NO_CACHE.getCache(null, null), OUTPUT_CONTEXT);
+			break;
+		default:
+			target = new FlexibleIntervalFileObject(fileName, NO_CACHE.getCache(null, null), OUTPUT_CONTEXT);
+		}
+		try {
+			target.createFileAndHeader(timestamps[0], period);
+			target.append(timestamps, vals, qualities, 0, n);
+		} finally {
+			target.close();
+		}
+		// verify the result before the original files are replaced
+		final FileObject check = getFileObject(file);
+		try {
+			final ValueChunk written = check.readFully();
+			if (written.size() != n || written.getTimestamp(n - 1) != timestamps[n - 1]) {
+				Files.delete(file);
+				throw new IOException("Compacted file " + file + " does not contain the expected data; expected " 
+						+ n + " values, found " + written.size());
+			}
+		} finally {
+			check.close();
+		}
+	}
+
+	/**
+	 * Open an existing log file for reading, independently of the open files of the database.
+	 * @param file
+	 * 		the file type is determined from the first character of the file name
+	 * @return
+	 * @throws IOException
+	 */
+	static FileObject getFileObject(final Path file) throws IOException {
+		return FileObject.getFileObject(file, NO_CACHE.getCache(null, null), INPUT_CONTEXT);
+	}
+
+	/**
+	 * @param fileObjects
+	 * @param values
+	 * @return the storage period shared by all files, if all timestamps are aligned to it, -1 otherwise
+	 */
+	static long getCommonPeriod(final List<FileObject> fileObjects, final ValueChunk values) {
+		final long period = fileObjects.get(0).getStoringPeriod();
+		if (period <= 0)
+			return -1;
+		for (FileObject fo : fileObjects) {
+			if (fo.getStoringPeriod() != period)
+				return -1;
+		}
+		for (int i = 0; i < values.size(); i++) {
+			final long t = values.getTimestamp(i);
+			if (FileObjectProxy.getRoundedTimestamp(t, period) != t)
+				return -1;
+		}
+		return period;
+	}
+
+	private static Map<String, Long> getSizes(final Path folder) throws IOException {
+		final Map<String, Long> sizes = new HashMap<>();
+		try (final Stream<Path> stream = Files.list(folder)) {
+			final Iterable<Path> files = stream::iterator;
+			for (Path f : files) {
+				final String filename = f.getFileName().toString();
+				if (filename.endsWith(SlotsDb.FILE_EXTENSION) && Files.isRegularFile(f))
+					sizes.put(filename, Files.size(f));
+			}
+		}
+		return sizes;
+	}
+
+	/*
+	 * Replaces all log files in the folder of the temp file by the latter. Idempotent, 
+	 * so it can be repeated after a crash.
+	 */
+	private static void swap(final Path tempFile) throws IOException {
+		final Path folder = tempFile.getParent();
+		final String filename = tempFile.getFileName().toString();
+		final Path target = folder.resolve(filename.substring(0, filename.length() - TEMP_EXTENSION.length()));
+		try (final Stream<Path> stream = Files.list(folder)) {
+			final Iterable<Path> files = stream::iterator;
+			for (Path f : files) {
+				if (f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+					Files.delete(f);
+			}
+		}
+		Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Completes a swap of compacted files that has been interrupted, e.g. by a crash. 
+	 * Must be called before the database is opened.
+	 * @param rootNode
+	 * @throws IOException
+	 */
+	static void recover(final Path rootNode) throws IOException {
+		final Path pending = rootNode.resolve(PENDING_FILE);
+		if (!Files.exists(pending))
+			return;
+		final Path day = rootNode.resolve(new String(Files.readAllBytes(pending), StandardCharsets.UTF_8).trim());
+		if (Files.isDirectory(day)) {
+			logger.info("Completing interrupted compaction of folder {}", day);
+			final List<Path> tempFiles;
+			try (final Stream<Path> stream = Files.walk(day)) {
+				tempFiles = stream
+					.filter(f -> f.getFileName().toString().endsWith(TEMP_EXTENSION))
+					.collect(Collectors.toList());
+			}
+			for (Path tempFile : tempFiles) {
+				swap(tempFile);
+			}
+		}
+		Files.delete(pending);
+	}
+
+	private static long readState(final Path rootNode) {
+		final Path state = rootNode.resolve(STATE_FILE);
+		if (!Files.exists(state))
+			return Long.MIN_VALUE;
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(state), StandardCharsets.UTF_8).trim());
+		} catch (IOException | NumberFormatException e) {
+			logger.warn("Failed to read compaction state {}", state, e);
+			return Long.MIN_VALUE;
+		}
+	}
+
+	private static void writeState(final Path rootNode, final long lastCompactedDay) throws IOException {
+		Files.write(rootNode.resolve(STATE_FILE), String.valueOf(lastCompactedDay).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static class MergedFile {
+
+		final Path folder;
+		final Path tempFile;
+		// sizes of the original log files
+		final Map<String, Long> sizes;
+
+		MergedFile(Path folder, Path tempFile, Map<String, Long> sizes) {
+			this.folder = folder;
+			this.tempFile = tempFile;
+			this.sizes = sizes;
+		}
+
+	}
+
+}
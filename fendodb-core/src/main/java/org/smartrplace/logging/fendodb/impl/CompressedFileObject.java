@@ -0,0 +1,550 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
+import org.smartrplace.logging.fendodb.impl.FendoCache.FendoInstanceCache;
+import org.smartrplace.logging.fendodb.impl.FileObjectContext.FileMetadata;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
+
+/**
+ * Log file storing data points in compressed blocks, see {@link BlockCodec}. File names start with "z".<br>
+ * The file starts with the usual 16 bytes header (start time and storage period, which is -1 for
+ * flexible intervals), followed by blocks of up to {@link BlockCodec#MAX_BLOCK_SIZE} data points. Each block
+ * has a 24 bytes header (payload size in bytes, number of data points, first and last timestamp),
+ * followed by the encoded data points. Complete blocks, i.e. all but the last block of a file, end with a
+ * {@link BlockCodec.Summary} of their data points, which is included in the payload size.<br>
+ * Only the last block of a file is modified. It is kept in memory while it is being filled, and 
+ * rewritten in place when the file is flushed; since the payload is written before the block header,
+ * an interrupted write leaves a valid file behind.<br>
+ * Values are appended if their timestamp is newer than the latest one in the file, as for 
+ * {@link FlexibleIntervalFileObject}s. For fixed interval storage the timestamps are rounded to the
+ * storage period, but in contrast to {@link ConstantIntervalFileObject}s no gaps need to be filled.
+ */
+public class CompressedFileObject extends FileObject {
+
+	private static final int HEADERSIZE = 16;
+	private static final int BLOCK_HEADERSIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+
+	// the fields below are guarded by the monitor of this object
+	private boolean loaded;
+	// complete blocks, in temporal order; the last block of the file is the open block
+	private final List<Block> sealedBlocks = new ArrayList<>();
+	// file position of the open block
+	private long openOffset;
+	private BlockCodec.Encoder openBlock;
+	// number of payload bytes and data points of the open block that have been written to the file
+	private int committedBytes;
+	private int committedCount;
+	// cached copy of the open block for readers; reset on every append
+	private Block openSnapshot;
+	private long lastTimestamp = Long.MIN_VALUE;
+	private int dataSetCount;
+
+	protected CompressedFileObject(Path file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
+	}
+
+	protected CompressedFileObject(File file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
+	}
+
+	protected CompressedFileObject(String fileName, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(fileName, cache, context);
+	}
+
+	@Override
+	void readHeader(DataInputStream dis) throws IOException {
+		startTimeStamp = dis.readLong();
+		storagePeriod = dis.readLong();
+		if (storagePeriod > 0)
+			startTimeStamp = FileObjectProxy.getRoundedTimestamp(startTimeStamp, storagePeriod);
+	}
+
+	@Override
+	protected SeekableByteChannel openOutputChannel() throws IOException {
+		// the open block is overwritten in place
+		return FileChannel.open(dataFile, StandardOpenOption.WRITE);
+	}
+
+	@Override
+	protected void enableOutput() throws IOException {
+		super.enableOutput();
+		synchronized (this) {
+			ensureLoaded();
+			// remove incomplete blocks at the end of the file, which would otherwise be interpreted as data 
+			final long validEnd = openBlock != null && committedCount > 0 ? openOffset + BLOCK_HEADERSIZE + committedBytes : openOffset;
+			if (Files.size(dataFile) > validEnd) {
+				logger.warn("File {} contains invalid data at its end, will append starting at offset {}", dataFile, validEnd);
+				final long size = Files.size(dataFile);
+				((FileChannel) getAppendChannel()).truncate(validEnd);
+				fileSizeChanged(validEnd - size);
+			}
+		}
+	}
+
+	/**
+	 * Read the block headers. Requires the monitor of this object.
+	 * @throws IOException
+	 */
+	private void ensureLoaded() throws IOException {
+		if (loaded)
+			return;
+		final long fileLength = length;
+		if (fileLength < HEADERSIZE) // header not written yet
+			return;
+		long pos = HEADERSIZE;
+		int count = 0;
+		if (fileLength >= HEADERSIZE + BLOCK_HEADERSIZE) {
+			if (!canRead)
+				enableInput();
+			while (pos + BLOCK_HEADERSIZE <= fileLength) {
+				final ByteBuffer header = readBytes(pos, BLOCK_HEADERSIZE);
+				final int payloadSize = header.getInt();
+				final int blockCount = header.getInt();
+				final long first = header.getLong();
+				final long last = header.getLong();
+				if (payloadSize <= 0 || blockCount <= 0 || blockCount > BlockCodec.MAX_BLOCK_SIZE 
+						|| (blockCount == BlockCodec.MAX_BLOCK_SIZE && payloadSize <= BlockCodec.Summary.SIZE)
+						|| pos + BLOCK_HEADERSIZE + payloadSize > fileLength || last < first)
+					break;
+				sealedBlocks.add(new Block(pos, payloadSize, blockCount, first, last, null, null));
+				count += blockCount;
+				pos += BLOCK_HEADERSIZE + payloadSize;
+			}
+		}
+		openOffset = pos;
+		dataSetCount = count;
+		if (!sealedBlocks.isEmpty()) {
+			final Block last = sealedBlocks.get(sealedBlocks.size() - 1);
+			lastTimestamp = last.last;
+			// continue filling the last block
+			if (last.count < BlockCodec.MAX_BLOCK_SIZE) {
+				try {
+					openBlock = BlockCodec.Encoder.resume(last.getPayload(), last.count, last.first);
+					sealedBlocks.remove(sealedBlocks.size() - 1);
+					openOffset = last.offset;
+					committedBytes = openBlock.getByteLength();
+					committedCount = last.count;
+				} catch (IllegalStateException e) {
+					logger.warn("Corrupted data block in file {}", dataFile, e);
+					openBlock = null;
+				}
+			}
+		}
+		setLength(openOffset);
+		loaded = true;
+	}
+
+	@Override
+	public void append(double value, long timestamp, byte flag) throws IOException {
+		if (!canWrite) {
+			enableOutput();
+		}
+		synchronized (this) {
+			ensureLoaded();
+			appendInternal(timestamp, value, flag);
+			commitIfRequired();
+		}
+	}
+
+	@Override
+	public void append(long[] timestamps, double[] values, byte[] flags, int from, int to) throws IOException {
+		if (!canWrite) {
+			enableOutput();
+		}
+		synchronized (this) {
+			ensureLoaded();
+			for (int i = from; i < to; i++) {
+				appendInternal(timestamps[i], values[i], flags[i]);
+			}
+			commitIfRequired();
+		}
+	}
+
+	// requires the monitor of this object
+	private void appendInternal(long timestamp, final double value, final byte flag) throws IOException {
+		if (storagePeriod > 0)
+			timestamp = FileObjectProxy.getRoundedTimestamp(timestamp, storagePeriod);
+		if (timestamp <= lastTimestamp)
+			return;
+		if (openBlock == null)
+			openBlock = new BlockCodec.Encoder();
+		openBlock.add(timestamp, value, flag);
+		openSnapshot = null;
+		invalidateCache();
+		lastTimestamp = timestamp;
+		dataSetCount++;
+		if (openBlock.size() >= BlockCodec.MAX_BLOCK_SIZE)
+			seal();
+	}
+
+	// requires the monitor of this object
+	private void commitIfRequired() throws IOException {
+		if (openBlock == null)
+			return;
+		final int capacity = context.writeBufferSize;
+		if (openBlock.getByteLength() - committedBytes >= capacity) {
+			commit();
+			// without buffer, the caller is responsible for flushing the file after every append operation
+			if (capacity > 0 && context.durability == Durability.BATCH)
+				sync();
+		}
+	}
+
+	/**
+	 * Write the open block, which has just been completed, to the file along with its summary, and start a new one. 
+	 * Requires the monitor of this object.
+	 */
+	private void seal() throws IOException {
+		super.commit();
+		final BlockCodec.Summary summary = openBlock.getSummary().copy();
+		writeOpenBlock(summary);
+		final Block block = new Block(openOffset, committedBytes, openBlock.size(), 
+				openBlock.getFirstTimestamp(), openBlock.getLastTimestamp(), null, summary);
+		sealedBlocks.add(block);
+		openOffset += BLOCK_HEADERSIZE + block.payloadSize;
+		openBlock = null;
+		openSnapshot = null;
+		committedBytes = 0;
+		committedCount = 0;
+		setLength(openOffset);
+	}
+
+	/**
+	 * Write the new data of the open block to the file, followed by the updated block header.
+	 */
+	@Override
+	protected void commit() throws IOException {
+		super.commit();
+		final BlockCodec.Encoder block = openBlock;
+		if (block == null || block.size() == committedCount)
+			return;
+		writeOpenBlock(null);
+	}
+
+	/**
+	 * Write the new data of the open block to the file, followed by the updated block header. 
+	 * Requires the monitor of this object.
+	 * @param summary
+	 * 		written after the data if the block is complete, null otherwise
+	 */
+	private void writeOpenBlock(final BlockCodec.Summary summary) throws IOException {
+		final BlockCodec.Encoder block = openBlock;
+		// the last byte written before may have been incomplete
+		final int fromByte = Math.max(committedBytes - 1, 0);
+		final int byteLength = block.getByteLength();
+		final int payloadSize = summary == null ? byteLength : byteLength + BlockCodec.Summary.SIZE;
+		final ByteBuffer payload = ByteBuffer.allocate(payloadSize - fromByte);
+		payload.put(block.getData(), fromByte, byteLength - fromByte);
+		if (summary != null)
+			payload.put(summary.serialize());
+		((Buffer) payload).flip();
+		writeAt(payload, openOffset + BLOCK_HEADERSIZE + fromByte);
+		final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADERSIZE);
+		header.putInt(payloadSize);
+		header.putInt(block.size());
+		header.putLong(block.getFirstTimestamp());
+		header.putLong(block.getLastTimestamp());
+		((Buffer) header).flip();
+		writeAt(header, openOffset);
+		// the block header is written along with the first data of a block
+		fileSizeChanged(payloadSize - committedBytes + (committedCount == 0 ? BLOCK_HEADERSIZE : 0));
+		committedBytes = payloadSize;
+		committedCount = block.size();
+	}
+
+	/**
+	 * @return the blocks of this file, including a copy of the open block
+	 * @throws IOException
+	 */
+	private Block[] getBlocks() throws IOException {
+		synchronized (this) {
+			ensureLoaded();
+			final int sz = sealedBlocks.size();
+			if (openBlock == null)
+				return sealedBlocks.toArray(new Block[sz]);
+			if (openSnapshot == null) {
+				final byte[] data = new byte[openBlock.getByteLength()];
+				System.arraycopy(openBlock.getData(), 0, data, 0, data.length);
+				openSnapshot = new Block(openOffset, data.length, openBlock.size(), 
+						openBlock.getFirstTimestamp(), openBlock.getLastTimestamp(), data, openBlock.getSummary().copy());
+			}
+			final Block[] blocks = sealedBlocks.toArray(new Block[sz + 1]);
+			blocks[sz] = openSnapshot;
+			return blocks;
+		}
+	}
+
+	/**
+	 * Add the data points of the block with timestamps in the interval [start, end] to the builder;
+	 * NaN values are skipped by the builder.
+	 */
+	private void decode(final Block block, final long start, final long end, final ValueChunk.Builder builder) throws IOException {
+		final BlockCodec.Decoder decoder = new BlockCodec.Decoder(block.getPayload(), block.count, block.first);
+		try {
+			while (decoder.next()) {
+				final long t = decoder.timestamp();
+				if (t > end)
+					break;
+				if (t >= start)
+					builder.add(t, decoder.value(), decoder.flag());
+			}
+		} catch (IllegalStateException e) {
+			throw new IOException("Corrupted file " + dataFile, e);
+		}
+	}
+
+	private ValueChunk read(final Block[] blocks, final long start, final long end) throws IOException {
+		int cnt = 0;
+		for (Block block : blocks) {
+			if (block.last >= start && block.first <= end)
+				cnt += block.count;
+		}
+		if (cnt == 0)
+			return ValueChunk.EMPTY;
+		final ValueChunk.Builder builder = new ValueChunk.Builder(cnt);
+		for (Block block : blocks) {
+			if (block.first > end)
+				break;
+			if (block.last >= start)
+				decode(block, start, end, builder);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Blocks within a single interval of the reduction are added by means of their summary, 
+	 * all others are decoded.
+	 */
+	@Override
+	void reduce(final StreamingReduction reduction, final long start, final long end) throws IOException {
+		for (Block block : getBlocks()) {
+			if (block.first > end)
+				break;
+			if (block.last < start)
+				continue;
+			final BlockCodec.Summary summary = block.getSummary();
+			if (summary != null && reduction.add(summary.firstTimestamp, summary.lastTimestamp, summary.count, summary.goodCount, 
+					summary.sum, summary.min, summary.max))
+				continue;
+			final BlockCodec.Decoder decoder = new BlockCodec.Decoder(block.getPayload(), block.count, block.first);
+			try {
+				while (decoder.next()) {
+					final long t = decoder.timestamp();
+					if (t > end)
+						break;
+					if (t >= start)
+						reduction.add(t, decoder.value(), Quality.getQuality(decoder.flag()));
+				}
+			} catch (IllegalStateException e) {
+				throw new IOException("Corrupted file " + dataFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Complete blocks within the interval are passed as summaries to the statistics that accept them.
+	 */
+	@Override
+	void evaluate(final StatisticsEvaluation evaluation, final long start, final long end) throws IOException {
+		for (Block block : getBlocks()) {
+			if (block.first > end)
+				break;
+			if (block.last < start)
+				continue;
+			final BlockCodec.Summary summary = block.first >= start && block.last <= end ? block.getSummary() : null;
+			final boolean summaryAdded = summary != null && evaluation.add(summary);
+			if (summaryAdded && !evaluation.hasRefused())
+				continue;
+			final BlockCodec.Decoder decoder = new BlockCodec.Decoder(block.getPayload(), block.count, block.first);
+			try {
+				while (decoder.next()) {
+					final long t = decoder.timestamp();
+					if (t > end)
+						break;
+					if (t < start)
+						continue;
+					if (summaryAdded)
+						evaluation.stepRefused(t, decoder.value(), Quality.getQuality(decoder.flag()));
+					else
+						evaluation.step(t, decoder.value(), Quality.getQuality(decoder.flag()));
+				}
+			} catch (IllegalStateException e) {
+				throw new IOException("Corrupted file " + dataFile, e);
+			}
+		}
+	}
+
+	@Override
+	protected ValueChunk readInternal(long start, long end) throws IOException {
+		return read(getBlocks(), start, end);
+	}
+
+	@Override
+	protected ValueChunk readFullyInternal() throws IOException {
+		return read(getBlocks(), Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Override
+	public SampledValue read(long timestamp) throws IOException {
+		for (Block block : getBlocks()) {
+			if (block.first > timestamp)
+				break;
+			if (block.last >= timestamp) {
+				final ValueChunk.Builder builder = new ValueChunk.Builder(1);
+				decode(block, timestamp, timestamp, builder);
+				final ValueChunk values = builder.build();
+				return values.isEmpty() ? null : values.get(0);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public SampledValue readNextValue(long timestamp) throws IOException {
+		for (Block block : getBlocks()) {
+			if (block.last < timestamp)
+				continue;
+			final ValueChunk.Builder builder = new ValueChunk.Builder(block.count);
+			decode(block, timestamp, Long.MAX_VALUE, builder);
+			final ValueChunk values = builder.build();
+			if (!values.isEmpty())
+				return values.get(0);
+		}
+		return null;
+	}
+
+	@Override
+	public SampledValue readPreviousValue(long timestamp) throws IOException {
+		final Block[] blocks = getBlocks();
+		for (int i = blocks.length - 1; i >= 0; i--) {
+			final Block block = blocks[i];
+			if (block.first > timestamp)
+				continue;
+			final ValueChunk.Builder builder = new ValueChunk.Builder(block.count);
+			decode(block, Long.MIN_VALUE, timestamp, builder);
+			final ValueChunk values = builder.build();
+			if (!values.isEmpty())
+				return values.get(values.size() - 1);
+		}
+		return null;
+	}
+
+	@Override
+	protected long getTimestampForLatestValueInternal() {
+		try {
+			synchronized (this) {
+				ensureLoaded();
+				return dataSetCount > 0 ? lastTimestamp : startTimeStamp;
+			}
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return startTimeStamp;
+		}
+	}
+
+	@Override
+	protected int getDataSetCountInternal() {
+		try {
+			synchronized (this) {
+				ensureLoaded();
+				return dataSetCount;
+			}
+		} catch (IOException e) {
+			logger.error(e.getMessage(), e);
+			return 0;
+		}
+	}
+
+	@Override
+	protected int getDataSetCountInternal(long start, long end) throws IOException {
+		return read(getBlocks(), start, end).size();
+	}
+
+	@Override
+	public long getStoringPeriod() {
+		return storagePeriod;
+	}
+
+	@Override
+	FileMetadata getMetadata() {
+		// the open block is written beyond the length of the file object
+		final long fileLength = loaded && openBlock != null && committedCount > 0 ? openOffset + BLOCK_HEADERSIZE + committedBytes : length;
+		return new FileMetadata(startTimeStamp, storagePeriod, fileLength, Long.MIN_VALUE);
+	}
+
+	private final class Block {
+
+		final long offset;
+		final int payloadSize;
+		final int count;
+		final long first;
+		final long last;
+		// only set for copies of the open block; otherwise the payload is read from the file
+		final byte[] data;
+		// read lazily from the file for complete blocks; null for the last block of a file that could not be resumed
+		private volatile BlockCodec.Summary summary;
+		private volatile boolean summaryLoaded;
+
+		Block(long offset, int payloadSize, int count, long first, long last, byte[] data, BlockCodec.Summary summary) {
+			this.offset = offset;
+			this.payloadSize = payloadSize;
+			this.count = count;
+			this.first = first;
+			this.last = last;
+			this.data = data;
+			this.summary = summary;
+			this.summaryLoaded = summary != null || data != null || count < BlockCodec.MAX_BLOCK_SIZE;
+		}
+
+		BlockCodec.Summary getSummary() throws IOException {
+			if (!summaryLoaded) {
+				if (!canRead)
+					enableInput();
+				summary = BlockCodec.Summary.deserialize(readBytes(offset + BLOCK_HEADERSIZE + payloadSize - BlockCodec.Summary.SIZE, 
+						BlockCodec.Summary.SIZE), count);
+				summaryLoaded = true;
+			}
+			return summary;
+		}
+
+		ByteBuffer getPayload() throws IOException {
+			if (data != null)
+				return ByteBuffer.wrap(data);
+			if (!canRead)
+				enableInput();
+			return readBytes(offset + BLOCK_HEADERSIZE, payloadSize);
+		}
+
+	}
+
+}
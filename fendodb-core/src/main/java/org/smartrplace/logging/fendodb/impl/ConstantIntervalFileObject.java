@@ -21,9 +21,6 @@ import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
@@ -31,16 +28,19 @@ import org.smartrplace.logging.fendodb.impl.FendoCache.FendoInstanceCache;
 
 public class ConstantIntervalFileObject extends FileObject {
 	
-	protected ConstantIntervalFileObject(Path file, FendoInstanceCache cache) throws IOException {
-		super(file, cache);
+	// max number of rows written at once by a bulk append; large gaps are filled in several writes
+	private static final int MAX_BATCH_ROWS = 4096;
+	
+	protected ConstantIntervalFileObject(Path file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
 	}
 
-	protected ConstantIntervalFileObject(File file, FendoInstanceCache cache) throws IOException {
-		super(file, cache);
+	protected ConstantIntervalFileObject(File file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
 	}
 
-	protected ConstantIntervalFileObject(String fileName, FendoInstanceCache cache) throws IOException {
-		super(fileName, cache);
+	protected ConstantIntervalFileObject(String fileName, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(fileName, cache, context);
 	}
 
 	/**
@@ -73,10 +73,9 @@ public class ConstantIntervalFileObject extends FileObject {
 			buf.put(flag);
 			((Buffer) buf).rewind();
 			synchronized (this) {
-				channel.write(buf);
+				write(buf);
 			}
 			buf.clear();
-			length += 9;
 		}
 		else {
 			if (length > writePosition) {
@@ -105,15 +104,13 @@ public class ConstantIntervalFileObject extends FileObject {
 						// undefined sein
 						// soll 00 ok?
 						((Buffer) buf).rewind();
-						channel.write(buf);
+						write(buf);
 						buf.clear();
-						length += 9;
 					}
 					buf.putDouble(value);
 					buf.put(flag);
 					((Buffer) buf).rewind();
-					channel.write(buf);
-					length += 9;
+					write(buf);
 				}
 			}
 		}
@@ -123,6 +120,42 @@ public class ConstantIntervalFileObject extends FileObject {
 		 */
 	}
 
+	@Override
+	public void append(long[] timestamps, double[] values, byte[] flags, int from, int to) throws IOException {
+		if (!canWrite) {
+			enableOutput();
+		}
+		synchronized (this) {
+			final ByteBuffer buf = ByteBuffer.allocate(Math.min(to - from, MAX_BATCH_ROWS) * 9);
+			long end = length; // including the buffered rows
+			for (int i = from; i < to; i++) {
+				final long writePosition = getBytePosition(timestamps[i]);
+				if (writePosition < end) // value has already been stored for this timeslot
+					continue;
+				while (end < writePosition) { // fill up missing values with NaN
+					if (!buf.hasRemaining())
+						writeBuffer(buf);
+					buf.putDouble(Double.NaN);
+					buf.put((byte) Quality.BAD.getQuality());
+					end += 9;
+				}
+				if (!buf.hasRemaining())
+					writeBuffer(buf);
+				buf.putDouble(values[i]);
+				buf.put(flags[i]);
+				end += 9;
+			}
+			writeBuffer(buf);
+		}
+	}
+
+	// requires the monitor of this object
+	private void writeBuffer(final ByteBuffer buf) throws IOException {
+		((Buffer) buf).flip();
+		write(buf);
+		((Buffer) buf).clear();
+	}
+
 	@Override
 	public long getTimestampForLatestValue() {
 		return startTimeStamp + (((length - 16) / 9) - 1) * storagePeriod;
@@ -180,15 +213,10 @@ public class ConstantIntervalFileObject extends FileObject {
 				if (!canRead) {
 					enableInput();
 				}
-				synchronized (this) {
-					channel.position(getBytePosition(timestamp));
-					ByteBuffer data = ByteBuffer.allocate(9);
-					channel.read(data);
-					((Buffer) data).rewind();
-					Double toReturn = data.getDouble();
-					if (!Double.isNaN(toReturn)) {
-						return new SampledValue(DoubleValues.of(toReturn), timestamp, Quality.getQuality(data.get()));
-					}
+				ByteBuffer data = readBytes(getBytePosition(timestamp), 9);
+				Double toReturn = data.getDouble();
+				if (!Double.isNaN(toReturn)) {
+					return new SampledValue(DoubleValues.of(toReturn), timestamp, Quality.getQuality(data.get()));
 				}
 			}
 		}
@@ -204,15 +232,13 @@ public class ConstantIntervalFileObject extends FileObject {
 	 * @throws IOException
 	 */
 	@Override
-	protected List<SampledValue> readInternal(long start, long end) throws IOException {
+	protected ValueChunk readInternal(long start, long end) throws IOException {
 		start = getClosestTimestamp(start); // round to: startTimestamp +
 		// n*stepIntervall
 		long endRounded = getClosestTimestamp(end); // round to: startTimestamp +
 		// n*stepIntervall
 
 //		List<SampledValue> toReturn = new Vector<>();
-		final List<SampledValue> toReturn = new ArrayList<>();
-
 		if (start < end) {
 			if (start < startTimeStamp) {
 				// of this file.
@@ -229,36 +255,33 @@ public class ConstantIntervalFileObject extends FileObject {
 			long startPos = getBytePosition(start);
 			long endPos = getBytePosition(endRounded);
 			//final byte[] b = new byte[(int) (endPos - startPos) + 9];
-			ByteBuffer bb = ByteBuffer.allocate((int) (endPos - startPos) + 9);
-			synchronized (this) {
-				channel.position(startPos).read(bb);
-			}
-			// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-			// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-			((Buffer) bb).rewind();
-
-			for (int i = 0; i <= (endPos - startPos) / 9; i++) {
+			ByteBuffer bb = readBytes(startPos, (int) (endPos - startPos) + 9);
+			final int count = (int) ((endPos - startPos) / 9) + 1;
+			final ValueChunk.Builder builder = new ValueChunk.Builder(count);
+			for (int i = 0; i < count; i++) {
 				double d = bb.getDouble();
-				Quality s = Quality.getQuality(bb.get());
-				if (!Double.isNaN(d)) {
-					if (timestampcounter <= end) {
-						toReturn.add(new SampledValue(DoubleValues.of(d), timestampcounter, s));
-					}
+				byte s = bb.get();
+				if (timestampcounter <= end) {
+					builder.add(timestampcounter, d, s); // NaN values are skipped
 				}
 				timestampcounter += storagePeriod;
 			}
-
+			return builder.build();
 		}
 		else if (start == end) {
-			toReturn.add(read(start));
-			toReturn.removeAll(Collections.singleton(null)); // ?
+			final SampledValue sv = read(start);
+			if (sv != null) {
+				return new ValueChunk.Builder(1)
+					.add(sv.getTimestamp(), sv.getValue().getDoubleValue(), (byte) sv.getQuality().getQuality())
+					.build();
+			}
 		}
-		return toReturn; // Always return a list -> might be empty -> never is
+		return ValueChunk.EMPTY; // Always return a list -> might be empty -> never is
 		// null, to avoid NP's
 	}
 
 	@Override
-	protected List<SampledValue> readFullyInternal() throws IOException {
+	protected ValueChunk readFullyInternal() throws IOException {
 		return readInternal(startTimeStamp, getTimestampForLatestValueInternal());
 	}
 
@@ -277,12 +300,7 @@ public class ConstantIntervalFileObject extends FileObject {
 				if (!canRead) {
 					enableInput();
 				}
-				ByteBuffer data = ByteBuffer.allocate(9);
-				synchronized (this) {
-					channel.position(getBytePosition(timestamp));
-					channel.read(data);
-				}
-				data.flip();
+				ByteBuffer data = readBytes(getBytePosition(timestamp), 9);
 				Double toReturn = data.getDouble();
 				if (!Double.isNaN(toReturn)) {
 					return new SampledValue(DoubleValues.of(toReturn), timestamp, Quality.getQuality(data.get()));
@@ -304,12 +322,7 @@ public class ConstantIntervalFileObject extends FileObject {
 				if (!canRead) {
 					enableInput();
 				}
-				ByteBuffer data = ByteBuffer.allocate(9);
-				synchronized (this) {
-					channel.position(getBytePosition(timestamp));
-					channel.read(data);
-				}
-				((Buffer) data).rewind();
+				ByteBuffer data = readBytes(getBytePosition(timestamp), 9);
 				Double toReturn = data.getDouble();
 				if (!Double.isNaN(toReturn)) {
 					return new SampledValue(DoubleValues.of(toReturn), timestamp, Quality.getQuality(data.get()));
@@ -0,0 +1,266 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Random access to the entries of a day archive (a zip file), bypassing the zip file system, 
+ * which reads an entire entry into memory when it is opened.<br>
+ * The archive index maps entry names to their offset in the archive file; it is read from the
+ * zip central directory. Only uncompressed (stored) entries can be accessed this way; archives created by 
+ * the {@link Archiver} store compressed log files ("z" format), so that reads only need to decode the 
+ * blocks they touch.
+ */
+final class DayArchive implements Closeable {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int LOC_SIGNATURE = 0x04034b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIZE = 46;
+	private static final int LOC_SIZE = 30;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int METHOD_STORED = 0;
+
+	private final Path archive;
+	private final FileChannel channel;
+	// entry name -> offset of the local file header; stored entries only
+	private final Map<String, Entry> entries;
+
+	private DayArchive(Path archive, FileChannel channel, Map<String, Entry> entries) {
+		this.archive = archive;
+		this.channel = channel;
+		this.entries = entries;
+	}
+
+	/**
+	 * @param archive
+	 * @return
+	 * @throws IOException if the file cannot be read or is not a zip file supported by this class
+	 * 		(e.g. zip64)
+	 */
+	static DayArchive open(final Path archive) throws IOException {
+		final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+		try {
+			return new DayArchive(archive, channel, readIndex(archive, channel));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static Map<String, Entry> readIndex(final Path archive, final FileChannel channel) throws IOException {
+		final long size = channel.size();
+		final int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT_SIZE);
+		final ByteBuffer tail = read(channel, size - tailSize, tailSize);
+		int eocd = -1;
+		for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0)
+			throw new IOException("Not a zip file: " + archive);
+		final int nrEntries = tail.getShort(eocd + 10) & 0xFFFF;
+		final long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+		final long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+		if (nrEntries == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL || cenOffset + cenSize > size)
+			throw new IOException("Unsupported zip file " + archive);
+		final ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+		final Map<String, Entry> entries = new HashMap<>(nrEntries * 4 / 3 + 1);
+		int pos = 0;
+		for (int i = 0; i < nrEntries; i++) {
+			if (cen.getInt(pos) != CEN_SIGNATURE)
+				throw new IOException("Invalid central directory in " + archive);
+			final int method = cen.getShort(pos + 10) & 0xFFFF;
+			final long compressedSize = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+			final long uncompressedSize = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+			final int nameLength = cen.getShort(pos + 28) & 0xFFFF;
+			final int extraLength = cen.getShort(pos + 30) & 0xFFFF;
+			final int commentLength = cen.getShort(pos + 32) & 0xFFFF;
+			final long headerOffset = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+			final byte[] name = new byte[nameLength];
+			((Buffer) cen).position(pos + CEN_SIZE);
+			cen.get(name);
+			if (method == METHOD_STORED && compressedSize == uncompressedSize && compressedSize != 0xFFFFFFFFL)
+				entries.put(new String(name, StandardCharsets.UTF_8), new Entry(headerOffset, uncompressedSize));
+			pos += CEN_SIZE + nameLength + extraLength + commentLength;
+		}
+		return Collections.unmodifiableMap(entries);
+	}
+
+	private static ByteBuffer read(final FileChannel channel, final long position, final int size) throws IOException {
+		final ByteBuffer bb = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while (bb.hasRemaining()) {
+			if (channel.read(bb, position + bb.position()) < 0)
+				throw new EOFException("Unexpected end of file at position " + position);
+		}
+		((Buffer) bb).flip();
+		return bb;
+	}
+
+	/**
+	 * @param file
+	 * 		a path in the zip file system of this archive
+	 * @return a read-only channel for the entry, or null if the entry is not contained in the index,
+	 * 		e.g. because it is compressed
+	 * @throws IOException
+	 */
+	SeekableByteChannel openEntry(final Path file) throws IOException {
+		String name = file.toAbsolutePath().toString();
+		if (name.startsWith("/"))
+			name = name.substring(1);
+		final Entry entry = entries.get(name);
+		if (entry == null)
+			return null;
+		return new EntryChannel(getDataOffset(entry), entry.size);
+	}
+
+	private long getDataOffset(final Entry entry) throws IOException {
+		long offset = entry.dataOffset;
+		if (offset < 0) {
+			// the length of the extra field in the local header may differ from the central directory
+			final ByteBuffer header = read(channel, entry.headerOffset, LOC_SIZE);
+			if (header.getInt(0) != LOC_SIGNATURE)
+				throw new IOException("Invalid local file header in " + archive + " at position " + entry.headerOffset);
+			offset = entry.headerOffset + LOC_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+			entry.dataOffset = offset;
+		}
+		return offset;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "DayArchive[" + archive + ", " + entries.size() + " entries]";
+	}
+
+	private static final class Entry {
+
+		final long headerOffset;
+		final long size;
+		// lazily determined
+		volatile long dataOffset = -1;
+
+		Entry(long headerOffset, long size) {
+			this.headerOffset = headerOffset;
+			this.size = size;
+		}
+
+	}
+
+	/**
+	 * A read-only view of an entry; reads from the shared archive channel using absolute positions,
+	 * so closing it does not affect other entries.
+	 */
+	private final class EntryChannel implements SeekableByteChannel {
+
+		private final long offset;
+		private final long size;
+		private long position = 0;
+		private volatile boolean open = true;
+
+		EntryChannel(long offset, long size) {
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open && channel.isOpen();
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+			if (!isOpen())
+				throw new ClosedChannelException();
+			final long remaining = size - position;
+			if (remaining <= 0)
+				return -1;
+			final int limit = dst.limit();
+			if (dst.remaining() > remaining)
+				((Buffer) dst).limit(dst.position() + (int) remaining);
+			try {
+				final int read = channel.read(dst, offset + position);
+				if (read > 0)
+					position += read;
+				return read;
+			} finally {
+				((Buffer) dst).limit(limit);
+			}
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() {
+			return position;
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) {
+			if (newPosition < 0)
+				throw new IllegalArgumentException("Negative position " + newPosition);
+			this.position = newPosition;
+			return this;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+
+	}
+
+}
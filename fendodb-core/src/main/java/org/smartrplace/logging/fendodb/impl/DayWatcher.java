@@ -0,0 +1,227 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+
+/**
+ * Applies day folders created or deleted by another process to the list of days, as soon as they 
+ * are reported by the file system, see {@link FendoDbConfiguration#isWatchDays()}. In contrast to 
+ * {@link InfoTask.DaysReloading} this only requires the folder read lock for new day folders, and the write 
+ * lock only briefly for deleted days and archives. New time series folders are 
+ * detected in the latest day folder at start up and in all day folders created afterwards; new subfolders 
+ * of older days are only found by a full reload.
+ */
+final class DayWatcher implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DayWatcher.class);
+	private final SlotsDb db;
+	private final FileObjectProxy proxy;
+	private final Path root;
+	private final WatchService watchService;
+	private final WatchKey rootKey;
+	// watched day folders; only accessed by the watcher thread, after the constructor has finished
+	private final Map<WatchKey, Path> dayKeys = new HashMap<>();
+	private final Thread thread;
+	private volatile boolean closed;
+
+	DayWatcher(SlotsDb db) throws IOException {
+		this.db = db;
+		this.proxy = db.proxy;
+		this.root = proxy.rootNode;
+		this.watchService = root.getFileSystem().newWatchService();
+		try {
+			this.rootKey = root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE);
+			final List<Path> days = proxy.days;
+			if (!days.isEmpty())
+				watchDay(days.get(days.size() - 1));
+		} catch (IOException | RuntimeException e) {
+			watchService.close();
+			throw e;
+		}
+		this.thread = new Thread(this, "fendodb-days-" + root.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void close() {
+		closed = true;
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the watch service for {}", root, e);
+		}
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		// folders created before the watch service has been registered
+		try (final Stream<Path> stream = Files.list(root)) {
+			for (Path file : stream.collect(Collectors.toList())) {
+				if (FileObjectProxy.isDayFolder(file, proxy.useCompatibilityMode))
+					dayCreated(file);
+			}
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to update the days of {}", root, e);
+		}
+		while (!closed) {
+			final WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+			try {
+				if (key == rootKey)
+					processRootEvents(key.pollEvents());
+				else
+					processDayEvents(dayKeys.get(key), key.pollEvents());
+			} catch (ClosedWatchServiceException e) {
+				break;
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Failed to update the days of {}", root, e);
+			}
+			if (!key.reset()) {
+				dayKeys.remove(key);
+				if (key == rootKey) {
+					logger.warn("Database folder {} is no longer watched", root);
+					break;
+				}
+			}
+		}
+	}
+
+	private void processRootEvents(final List<WatchEvent<?>> events) throws IOException {
+		for (WatchEvent<?> event : events) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				logger.debug("Events for {} lost, reloading days", root);
+				db.reloadDays();
+				continue;
+			}
+			final Path file = root.resolve((Path) event.context());
+			if (!FileObjectProxy.isDayFolder(file, proxy.useCompatibilityMode))
+				continue;
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+				dayCreated(file);
+			else
+				dayDeleted(file);
+		}
+	}
+
+	private void dayCreated(final Path file) throws IOException {
+		final Path day;
+		// an archive may replace a day folder, whose files must not be closed while they are being read
+		final Lock lock = file.getFileName().toString().endsWith(Archiver.ARCHIVE_EXTENSION) ? 
+				proxy.folderLock.writeLock() : proxy.folderLock.readLock();
+		lock.lock();
+		try {
+			day = proxy.addDayExternal(file);
+		} finally {
+			lock.unlock();
+		}
+		if (day == null)
+			return;
+		watchDay(day);
+		addLabels(day, listLabels(day));
+	}
+
+	private void dayDeleted(final Path file) throws IOException {
+		proxy.folderLock.writeLock().lock();
+		try {
+			proxy.removeDayExternal(file);
+		} finally {
+			proxy.folderLock.writeLock().unlock();
+		}
+	}
+
+	private void processDayEvents(final Path day, final List<WatchEvent<?>> events) throws IOException {
+		if (day == null)
+			return;
+		final List<String> labels = events.stream()
+			.filter(event -> event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+			.map(event -> day.resolve((Path) event.context()))
+			.filter(Files::isDirectory)
+			.map(folder -> folder.getFileName().toString())
+			.collect(Collectors.toList());
+		addLabels(day, labels);
+	}
+
+	private void watchDay(final Path day) throws IOException {
+		if (day.getFileSystem() != FileSystems.getDefault())
+			return;
+		// registered before the existing subfolders are listed, so that no folder is missed
+		dayKeys.put(day.register(watchService, StandardWatchEventKinds.ENTRY_CREATE), day);
+	}
+
+	private static List<String> listLabels(final Path day) throws IOException {
+		try (final Stream<Path> stream = Files.list(day)) {
+			return stream
+				.filter(Files::isDirectory)
+				.map(folder -> folder.getFileName().toString())
+				.collect(Collectors.toList());
+		} catch (IOException e) {
+			logger.debug("Failed to list folder {}: {}", day, e.toString());
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @param day
+	 * 		an element of {@link FileObjectProxy#days}
+	 * @param labels
+	 * 		encoded labels
+	 */
+	private void addLabels(final Path day, final List<String> labels) throws IOException {
+		if (labels.isEmpty())
+			return;
+		proxy.folderLock.readLock().lock();
+		try {
+			final long start = proxy.getFolderStart(day);
+			for (String label : labels) {
+				proxy.labelIndex.addFolder(label, start, day);
+			}
+		} finally {
+			proxy.folderLock.readLock().unlock();
+		}
+		// requires the time series lock, which must not be acquired while holding the folder lock
+		db.addTimeSeriesFolders(labels);
+	}
+
+}
@@ -18,6 +18,7 @@ package org.smartrplace.logging.fendodb.impl;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -64,7 +65,12 @@ class DelayedTask {
 		if (future != null)
 			future.cancel(false);
 		// execute once more, but immediately
-		return exec.submit(internalTask);
+		try {
+			return exec.submit(internalTask);
+		} catch (RejectedExecutionException e) { // shared executor already shut down
+			internalTask.run();
+			return CompletableFuture.completedFuture(null);
+		}
 	}
 	
 }
@@ -0,0 +1,172 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Running totals of the size of the log files of a database, per folder period, so that the size limit can be 
+ * checked without walking the database folder. Folders themselves and the small files in the database folder, 
+ * such as the persisted configurations, are not taken into account. Log files report their growth; the folders 
+ * of a period that have been modified by other means must be rescanned, see {@link #rescan(String)}. 
+ * The totals are approximate, since data written while a folder is being scanned may be missed.
+ */
+final class DiskUsage {
+
+	private static final Logger logger = LoggerFactory.getLogger(DiskUsage.class);
+	private final Path root;
+	private final int rootNameCount;
+	// by day folder name; for archived periods this includes the size of the archive file
+	private final ConcurrentMap<String, AtomicLong> partitions = new ConcurrentHashMap<>();
+	private final AtomicLong total = new AtomicLong();
+	private volatile boolean initialized;
+
+	DiskUsage(Path root) {
+		this.root = root;
+		this.rootNameCount = root.getNameCount();
+	}
+
+	boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * @return the disk usage in bytes; only meaningful after {@link #init(Collection)} has been called
+	 */
+	long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * Scan all folder periods. Only the first call has an effect.
+	 * @param days
+	 * 		the day folders
+	 * @throws IOException
+	 */
+	synchronized void init(final Collection<Path> days) throws IOException {
+		if (initialized)
+			return;
+		final Set<String> dayNames = days.stream()
+			.map(FileObjectProxy::getFolderDateString)
+			.collect(Collectors.toSet());
+		for (String day : dayNames) {
+			rescan(day);
+		}
+		initialized = true;
+	}
+
+	/**
+	 * Account for a modified log file.
+	 * @param file
+	 * 		a file in a day folder
+	 * @param bytes
+	 * 		the change in size, may be negative
+	 */
+	void add(final Path file, final long bytes) {
+		if (bytes == 0 || file.getNameCount() <= rootNameCount || !file.startsWith(root))
+			return;
+		partitions.computeIfAbsent(file.getName(rootNameCount).toString(), day -> new AtomicLong()).addAndGet(bytes);
+		total.addAndGet(bytes);
+	}
+
+	/**
+	 * Determine the size of a folder period anew, e.g. after it has been compacted or archived.
+	 * @param day
+	 * 		the day folder name
+	 * @throws IOException
+	 */
+	void rescan(final String day) throws IOException {
+		final long size = getSize(root.resolve(day)) + getSize(root.resolve(day + Archiver.ARCHIVE_EXTENSION));
+		final AtomicLong partition = partitions.computeIfAbsent(day, d -> new AtomicLong());
+		total.addAndGet(size - partition.getAndSet(size));
+	}
+
+	/**
+	 * Must be called when a folder period has been deleted.
+	 * @param day
+	 * 		the day folder name
+	 */
+	void remove(final String day) {
+		final AtomicLong partition = partitions.remove(day);
+		if (partition != null)
+			total.addAndGet(-partition.get());
+	}
+
+	/**
+	 * Update the periods after the day folders have been reloaded; deleted periods are removed,
+	 * new ones are scanned.
+	 * @param days
+	 * 		the day folders
+	 * @throws IOException
+	 */
+	void reload(final Collection<Path> days) throws IOException {
+		final Set<String> dayNames = days.stream()
+			.map(FileObjectProxy::getFolderDateString)
+			.collect(Collectors.toSet());
+		for (String day : partitions.keySet()) {
+			if (!dayNames.contains(day))
+				remove(day);
+		}
+		if (!initialized)
+			return;
+		for (String day : dayNames) {
+			if (!partitions.containsKey(day))
+				rescan(day);
+		}
+	}
+
+	// size of a file, or of all files in a folder
+	private static long getSize(final Path path) throws IOException {
+		if (!Files.isDirectory(path)) {
+			try {
+				return Files.size(path);
+			} catch (NoSuchFileException e) {
+				return 0;
+			}
+		}
+		try (final Stream<Path> stream = Files.walk(path)) {
+			return stream.filter(Files::isRegularFile).mapToLong(f -> {
+				try {
+					return Files.size(f);
+				} catch (NoSuchFileException e) {
+					logger.debug("file deleted: {}", e.getMessage());
+					return 0;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).sum();
+		} catch (NoSuchFileException e) {
+			return 0;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+}
@@ -1,22 +1,23 @@
 package org.smartrplace.logging.fendodb.impl;
 
-import java.util.List;
-
-import org.ogema.core.channelmanager.measurements.SampledValue;
-
 interface FendoCache {
 	
 	FendoInstanceCache getCache(String encodedRecordedData, String filename);
 	void clearCache();
+	/**
+	 * Drop the cached values of all files of a time series.
+	 * @param encodedRecordedData
+	 */
+	void clearCache(String encodedRecordedData);
 
 	/**
 	 * One instance per FileObject
 	 */
 	static interface FendoInstanceCache {
 
-		void cache(List<SampledValue> values);
+		void cache(ValueChunk values);
 		void invalidate();
-		List<SampledValue> getCache();
+		ValueChunk getCache();
 
 	}
 	
@@ -29,12 +30,12 @@ interface FendoCache {
 			}
 			
 			@Override
-			public List<SampledValue> getCache() {
+			public ValueChunk getCache() {
 				return null;
 			}
 			
 			@Override
-			public void cache(List<SampledValue> values) {			
+			public void cache(ValueChunk values) {			
 			}
 		};
 		return new FendoCache(){
@@ -47,6 +48,10 @@ interface FendoCache {
 			@Override
 			public void clearCache() {
 			}
+
+			@Override
+			public void clearCache(String encodedRecordedData) {
+			}
 			
 		};
 		
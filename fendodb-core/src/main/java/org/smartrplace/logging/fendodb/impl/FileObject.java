@@ -16,6 +16,7 @@
 package org.smartrplace.logging.fendodb.impl;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -23,44 +24,79 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import org.ogema.core.channelmanager.measurements.Quality;
 
+import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
 import org.smartrplace.logging.fendodb.impl.FendoCache.FendoInstanceCache;
+import org.smartrplace.logging.fendodb.impl.FileObjectContext.FileMetadata;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
 
 public abstract class FileObject {
 
+	// number of times a read is retried if the channel has been released concurrently
+	private static final int MAX_READ_ATTEMPTS = 3;
+	// minimum growth of a file before its memory mapping is replaced by a larger one
+	static final int MIN_REMAP_SIZE = 64 * 1024;
 	protected Logger logger = LoggerFactory.getLogger(getClass());
 	protected long startTimeStamp = Long.MIN_VALUE; // byte 0-7 in file (cached)
 	protected long storagePeriod; // byte 8-15 in file (cached)
 	protected final Path dataFile;
-	protected volatile SeekableByteChannel channel;
-	protected boolean canWrite;
+	/*
+	 * Used for appending data only; reads go through readChannel, so that readers and the writer do not interfere.
+	 * Both channels may be closed at any time to stay within the open files limit, see #releaseChannel, 
+	 * and are reopened on demand.
+	 */
+	private volatile SeekableByteChannel appendChannel;
+	// positional reads on a FileChannel do not modify the channel state, so no synchronization is required
+	private volatile SeekableByteChannel readChannel;
+	protected volatile boolean canWrite;
 	protected volatile boolean canRead;
 
 	private final FendoInstanceCache cache;
+	final FileObjectContext context;
+	// covers the file from position 0 to its capacity; replaced by a larger one only once the file 
+	// has grown considerably, see #getMapping
+	private volatile MappedByteBuffer mapping;
+	// set if the file system does not support mapping (e.g. zip file system)
+	private volatile boolean mappingUnsupported;
+	// set if an incomplete record could not be removed from the end of the file; no more data can be appended 
+	private volatile boolean broken;
 
 	/*
-	 * File length will be cached to avoid system calls and improve I/O Performance
+	 * File length will be cached to avoid system calls and improve I/O Performance.
+	 * Includes data in the append buffer, which has not been written to the file yet.
+	 */
+	protected volatile long length = 0;
+	/*
+	 * Number of bytes actually written to the file; the bytes from committedLength to length are in the append buffer
 	 */
-	protected long length = 0;
+	private volatile long committedLength = 0;
+	// appended data not yet written to the file; guarded by the monitor of this object
+	private ByteBuffer appendBuffer;
+	// data has been written since the last fsync; guarded by the monitor of this object
+	private boolean unsynced;
 
-	public FileObject(String filename, FendoInstanceCache cache) throws IOException {
+	FileObject(String filename, FendoInstanceCache cache, FileObjectContext context) throws IOException {
 		this.cache = cache;
+		this.context = context;
 		canWrite = false;
 		canRead = false;
 		dataFile = getFileForName(filename);
 		length = Files.exists(dataFile) ? Files.size(dataFile) : 0;
+		committedLength = length;
 		if (Files.exists(dataFile) && length >= 16) {
 			/*
 			 * File already exists -> get file Header (startTime and step-frequency) TODO: compare to starttime and
@@ -102,28 +138,40 @@ public abstract class FileObject {
 	 */
 	abstract void readHeader(DataInputStream dis) throws IOException;
 	
-	public FileObject(File file, FendoInstanceCache cache) throws IOException {
-		this(file.toPath(), cache);
+	FileObject(File file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		this(file.toPath(), cache, context);
 	}
 
-	public FileObject(Path file, FendoInstanceCache cache) throws IOException {
+	FileObject(Path file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
 		this.cache = cache;
+		this.context = context;
 		canWrite = false;
 		canRead = false;
 		dataFile = file;
-		length = Files.size(dataFile);
-		if (Files.exists(dataFile) && length >= 16) {
-			/*
-			 * File already exists -> get file Header (startTime and step-frequency)
-			 */
-			try ( InputStream fis = Files.newInputStream(dataFile);  DataInputStream dis = new DataInputStream(fis)) {
-				readHeader(dis);
+		final FileMetadata metadata = context.getMetadata(file);
+		if (metadata != null) {
+			// known from a previous file object; the header values have been evaluated by readHeader already
+			startTimeStamp = metadata.startTimeStamp;
+			storagePeriod = metadata.storagePeriod;
+			length = metadata.length;
+			committedLength = length;
+		} else {
+			length = Files.size(dataFile);
+			committedLength = length;
+			if (Files.exists(dataFile) && length >= 16) {
+				/*
+				 * File already exists -> get file Header (startTime and step-frequency)
+				 */
+				try ( InputStream fis = Files.newInputStream(dataFile);  DataInputStream dis = new DataInputStream(fis)) {
+					readHeader(dis);
+				}
+				context.addMetadata(dataFile, new FileMetadata(startTimeStamp, storagePeriod, length, Long.MIN_VALUE));
 			}
 		}
 	}
 
 	/*
-	 * Requires the SlotsDbStorage write lock to be held.
+	 * Requires the SlotsDbStorage write lock to be held. Does not affect the read channel.
 	 */
 	protected void enableOutput() throws IOException {
 		/*
@@ -136,35 +184,94 @@ public abstract class FileObject {
 			if (canWrite) {
 				return;
 			}
-			if (channel != null) {
-				channel.close();
-			}
-			channel = Files.newByteChannel(dataFile, StandardOpenOption.APPEND);
+			getAppendChannel();
 					//Files.newByteChannel(dataFile, StandardOpenOption.WRITE);
 			canWrite = true;
-			canRead = false;
 		}
 	}
+	
+	/**
+	 * Open the channel used for writing. By default, data is only appended to the file.
+	 * @return
+	 * @throws IOException
+	 */
+	protected SeekableByteChannel openOutputChannel() throws IOException {
+		return Files.newByteChannel(dataFile, StandardOpenOption.APPEND);
+	}
 
 	/*
-	 * Requires the SlotsDbStorage read lock to be held.
+	 * Requires the SlotsDbStorage read lock to be held. Does not affect the append channel.
 	 */
 	protected final void enableInput() throws IOException {
+		if (canRead) {
+			return;
+		}
 		synchronized(this) {
 			if (canRead) {
 				return;
 			}
-			if (channel != null) {
-				channel.close();
-			}
-			cache.invalidate();
-			assert cache.getCache() == null : "Invalidated cache is still alive";
-			channel = Files.newByteChannel(dataFile, StandardOpenOption.READ);
-			canWrite = false;
+			getReadChannel();
 			canRead = true;
 		}
 	}
 
+	/**
+	 * Get the channel for appending data, reopening it if it has been released. Requires the monitor 
+	 * of this object.
+	 * @return
+	 * @throws IOException
+	 */
+	protected final SeekableByteChannel getAppendChannel() throws IOException {
+		SeekableByteChannel channel = appendChannel;
+		if (channel == null) {
+			channel = openOutputChannel();
+			appendChannel = channel;
+			context.channelOpened(channel, this);
+		} else {
+			context.channelUsed(channel);
+		}
+		return channel;
+	}
+
+	private SeekableByteChannel getReadChannel() throws IOException {
+		SeekableByteChannel channel = readChannel;
+		if (channel != null) {
+			context.channelUsed(channel);
+			return channel;
+		}
+		synchronized (this) {
+			channel = readChannel;
+			if (channel == null) {
+				// for the default file system this is a FileChannel
+				channel = context.newReadChannel(dataFile);
+				readChannel = channel;
+				context.channelOpened(channel, this);
+			}
+			return channel;
+		}
+	}
+
+	/**
+	 * Close the channel, if it is still used by this object, in order to stay within the open files limit. 
+	 * Buffered data is written to the file first. Must not be called while holding the monitor of another 
+	 * file object.
+	 * @param channel
+	 */
+	final void releaseChannel(final SeekableByteChannel channel) {
+		try {
+			synchronized (this) {
+				if (channel == appendChannel) {
+					closeAppendChannel();
+				} else if (channel == readChannel) {
+					readChannel = null;
+					channel.close();
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Failed to close file {}", dataFile, e);
+		}
+	}
+
 	/**
 	 * creates the file, if it doesn't exist.
 	 *
@@ -175,8 +282,11 @@ public abstract class FileObject {
 			Files.createDirectories(dataFile.getParent());
 			if (Files.exists(dataFile) && length < 16) {
 				Files.delete(dataFile); // file corrupted (header shorter that 16 bytes)
+				fileSizeChanged(-length);
 			}
 			Files.createFile(dataFile);
+			context.updateMetadata(dataFile, null);
+			context.invalidateFolder(dataFile.getParent());
 
 			//OLD 
 			//this.startTimeStamp = FileObjectProxy.getRoundedTimestamp(startTimeStamp, stepIntervall);
@@ -192,57 +302,369 @@ public abstract class FileObject {
 			header.putLong(this.startTimeStamp);
 			header.putLong(stepIntervall);
 			((Buffer) header).rewind();
-			channel.write(header);
+			// the header is written immediately, so that the file is valid even before the first flush 
+			writeFully(header, 0);
 			length += 16;
+			committedLength = length;
 			/* wrote 2*8 Bytes */
 		}
 	}
+	
+	/**
+	 * Append data to the file. The data is collected in the append buffer, if there is one, 
+	 * and written to the file when the buffer is full or the file is flushed. The length is 
+	 * updated accordingly. Requires the monitor of this object and {@link #enableOutput()} to have 
+	 * been called before.
+	 * @param data
+	 * @throws IOException
+	 */
+	protected final void write(final ByteBuffer data) throws IOException {
+		final int size = data.remaining();
+		if (size == 0)
+			return;
+		if (broken)
+			throw new IOException("File " + dataFile + " contains an incomplete record, cannot append");
+		invalidateCache();
+		final int capacity = context.writeBufferSize;
+		if (size <= capacity) {
+			if (appendBuffer == null)
+				appendBuffer = ByteBuffer.allocate(capacity);
+			else if (appendBuffer.remaining() < size) {
+				commit();
+				if (context.durability == Durability.BATCH)
+					sync();
+			}
+			appendBuffer.put(data);
+			length += size;
+			return;
+		}
+		commit();
+		writeFully(data, committedLength);
+		length += size;
+		committedLength = length;
+		// without buffer, the caller is responsible for flushing the file after every append operation
+		if (capacity > 0 && context.durability == Durability.BATCH)
+			sync();
+	}
+	
+	/**
+	 * Discard the cached values, so that subsequent reads see the data appended. Must be called by every 
+	 * append operation that bypasses {@link #write(ByteBuffer)}. Requires the monitor of this object, which 
+	 * is also held while values are cached.
+	 */
+	protected final void invalidateCache() {
+		cache.invalidate();
+	}
+
+	/**
+	 * Write the content of the append buffer to the file. Requires the monitor of this object.
+	 * Subclasses that keep their own buffer must override this and call the super method.
+	 * @throws IOException
+	 */
+	protected void commit() throws IOException {
+		final ByteBuffer buffer = appendBuffer;
+		if (buffer == null || buffer.position() == 0)
+			return;
+		((Buffer) buffer).flip();
+		try {
+			writeFully(buffer, committedLength);
+		} catch (IOException | RuntimeException e) {
+			// the buffered data is lost; what has been written of it is removed by writeFully
+			length = committedLength;
+			throw e;
+		} finally {
+			((Buffer) buffer).clear();
+		}
+		committedLength = length;
+	}
+	
+	/**
+	 * Set the file length, e.g. after the file has been truncated. Requires the monitor of this object,
+	 * and must not be called while there is buffered data.
+	 * @param length
+	 */
+	protected final void setLength(final long length) {
+		assert appendBuffer == null || appendBuffer.position() == 0 : "Truncating file with buffered data";
+		this.length = length;
+		this.committedLength = length;
+	}
+
+	/**
+	 * Append data to the file. If the write fails, any part of the data written already is removed again, 
+	 * so that subsequent records are not misaligned; if this is not possible, the file is marked as broken.
+	 * Requires the monitor of this object.
+	 * @param data
+	 * @param end
+	 * 		the current length of the file
+	 * @throws IOException
+	 */
+	private void writeFully(final ByteBuffer data, final long end) throws IOException {
+		final SeekableByteChannel channel = getAppendChannel();
+		final int size = data.remaining();
+		try {
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		} catch (IOException | RuntimeException e) {
+			// a failed write may have written some bytes nevertheless
+			try {
+				channel.truncate(end);
+			} catch (IOException | RuntimeException ee) {
+				logger.error("Failed to remove an incomplete record from {}", dataFile, ee);
+				broken = true;
+			}
+			throw e;
+		}
+		unsynced = true;
+		fileSizeChanged(size);
+	}
+
+	/**
+	 * Report a change of the file size that is not due to data appended via {@link #write(ByteBuffer)}, 
+	 * e.g. data written by {@link #writeAt(ByteBuffer, long)} beyond the previous end of the file, 
+	 * or a truncation.
+	 * @param bytes
+	 * 		may be negative
+	 */
+	protected final void fileSizeChanged(final long bytes) {
+		context.fileSizeChanged(dataFile, bytes);
+	}
+	
+	/**
+	 * Write data at the specified file position, bypassing the append buffer. Requires the monitor of this object 
+	 * and a channel that supports positional writes, see {@link #openOutputChannel()}. The length is not updated.
+	 * @param data
+	 * @param position
+	 * @throws IOException
+	 */
+	protected final void writeAt(final ByteBuffer data, final long position) throws IOException {
+		final SeekableByteChannel channel = getAppendChannel();
+		if (channel instanceof FileChannel) {
+			long pos = position;
+			while (data.hasRemaining()) {
+				pos += ((FileChannel) channel).write(data, pos);
+			}
+		} else {
+			channel.position(position);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+		unsynced = true;
+	}
+
+	/**
+	 * Force written data to the storage device. Requires the monitor of this object.
+	 * @throws IOException
+	 */
+	protected final void sync() throws IOException {
+		if (!unsynced)
+			return;
+		final SeekableByteChannel channel = appendChannel;
+		if (channel instanceof FileChannel)
+			((FileChannel) channel).force(false);
+		unsynced = false;
+	}
+
+	/**
+	 * Read size bytes starting at the given file position. Requires {@link #enableInput()} to
+	 * have been called before.
+	 * @param position
+	 * @param size
+	 * @return a buffer containing the requested bytes, positioned at 0. Must not be modified.
+	 * @throws IOException
+	 */
+	protected final ByteBuffer readBytes(final long position, final int size) throws IOException {
+		if (position + size > committedLength) {
+			synchronized (this) {
+				if (position + size > committedLength)
+					return readBuffered(position, size);
+			}
+		}
+		if (context.memoryMappedReads) {
+			final ByteBuffer map = getMapping(position + size);
+			if (map != null) {
+				// absolute reads on a duplicate do not interfere with concurrent readers
+				final ByteBuffer bb = map.duplicate();
+				((Buffer) bb).limit((int) (position + size));
+				((Buffer) bb).position((int) position);
+				return bb.slice();
+			}
+		}
+		final ByteBuffer bb = ByteBuffer.allocate(size);
+		readFromFile(bb, position);
+		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
+		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
+		((Buffer) bb).flip();
+		return bb;
+	}
+	
+	/**
+	 * Read a range that extends into the append buffer. Requires the monitor of this object.
+	 */
+	private ByteBuffer readBuffered(final long position, final int size) throws IOException {
+		if (position + size > length)
+			throw new EOFException("Unexpected end of file " + dataFile + " at position " + position);
+		final ByteBuffer bb = ByteBuffer.allocate(size);
+		final long committed = committedLength;
+		if (position < committed) {
+			((Buffer) bb).limit((int) (committed - position));
+			readFromFile(bb, position);
+			((Buffer) bb).limit(size);
+		}
+		final ByteBuffer buffered = appendBuffer.duplicate();
+		((Buffer) buffered).flip();
+		((Buffer) buffered).position((int) (Math.max(position, committed) - committed));
+		((Buffer) buffered).limit(buffered.position() + bb.remaining());
+		bb.put(buffered);
+		((Buffer) bb).flip();
+		return bb;
+	}
+
+	// fills the remaining bytes of bb, starting at the given file position
+	private void readFromFile(final ByteBuffer bb, final long position) throws IOException {
+		final int offset = bb.position();
+		for (int attempt = 1; ; attempt++) {
+			final SeekableByteChannel channel = getReadChannel();
+			try {
+				readFromChannel(channel, bb, position + bb.position() - offset);
+				return;
+			} catch (ClosedChannelException e) {
+				// the channel may have been released concurrently; in this case we simply reopen it
+				if (e instanceof ClosedByInterruptException || attempt >= MAX_READ_ATTEMPTS || channel == readChannel)
+					throw e;
+			}
+		}
+	}
+
+	private void readFromChannel(final SeekableByteChannel channel, final ByteBuffer bb, final long position) throws IOException {
+		final int offset = bb.position();
+		if (channel instanceof FileChannel) {
+			final FileChannel fc = (FileChannel) channel;
+			while (bb.hasRemaining()) {
+				if (fc.read(bb, position + bb.position() - offset) < 0)
+					throw new EOFException("Unexpected end of file " + dataFile + " at position " + position);
+			}
+		} else {
+			// e.g. zip file system
+			synchronized (channel) {
+				channel.position(position);
+				while (bb.hasRemaining()) {
+					if (channel.read(bb) < 0)
+						throw new EOFException("Unexpected end of file " + dataFile + " at position " + position);
+				}
+			}
+		}
+	}
 
-	public List<SampledValue> readFully() throws IOException {
-		List<SampledValue> values = cache.getCache();
+	/**
+	 * Get a read-only mapping of the file that covers at least the requested length.
+	 * For a file that is being appended to, the existing mapping is replaced only once 
+	 * the file has grown by its size (at least {@link #MIN_REMAP_SIZE}), so that the file is mapped 
+	 * a logarithmic number of times; until then, the tail is read from the channel. Replaced mappings 
+	 * cannot be unmapped explicitly, since readers may still use them; they are released once unreachable.
+	 * @param requiredLength
+	 * @return null if the file cannot be mapped or the requested range is not mapped yet, in which case 
+	 * 		the caller must fall back to channel reads
+	 * @throws IOException
+	 */
+	private ByteBuffer getMapping(final long requiredLength) throws IOException {
+		MappedByteBuffer map = this.mapping;
+		if (map != null && map.capacity() >= requiredLength)
+			return map;
+		if (mappingUnsupported || (map != null && !isRemapDue(map)))
+			return null;
+		synchronized (this) {
+			map = this.mapping;
+			if (map != null && map.capacity() >= requiredLength)
+				return map;
+			if (map != null && !isRemapDue(map))
+				return null;
+			final long length = this.committedLength;
+			if (requiredLength > length || length > Integer.MAX_VALUE)
+				return null;
+			try (final FileChannel fc = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+				map = fc.map(MapMode.READ_ONLY, 0, length);
+			} catch (UnsupportedOperationException e) {
+				logger.debug("File {} cannot be memory mapped, falling back to channel reads", dataFile);
+				mappingUnsupported = true;
+				return null;
+			}
+			this.mapping = map;
+			return map;
+		}
+	}
+
+	private boolean isRemapDue(final MappedByteBuffer map) {
+		return committedLength - map.capacity() >= Math.max(map.capacity(), MIN_REMAP_SIZE);
+	}
+
+	/**
+	 * @return the length of the file region which is currently memory mapped; for tests.
+	 */
+	final int getMappedLength() {
+		final MappedByteBuffer map = this.mapping;
+		return map == null ? 0 : map.capacity();
+	}
+
+	public ValueChunk readFully() throws IOException {
+		ValueChunk values = cache.getCache();
 		if (values != null) {
 			return values;
 		}
 		synchronized (this) {
 			values = readFullyInternal();
+			// store until next write access; under the monitor, so that it cannot overtake an append
+			cache.cache(values);
 		}
-		// store until next write access
-		cache.cache(Collections.unmodifiableList(values));
 		return values;
 	}
-	
-	final Comparator<SampledValue> SampledValuesTimeComparator = (sv1, sv2) -> {
-		return Long.compare(sv1.getTimestamp(), sv2.getTimestamp());
-	};
 
-	public List<SampledValue> read(long start, long end) throws IOException {
+	public ValueChunk read(long start, long end) throws IOException {
 		if (start <= startTimeStamp && end >= getTimestampForLatestValue()) {
 			return readFully(); // caches values
 		}
-		final List<SampledValue> values = cache.getCache();
+		final ValueChunk values = cache.getCache();
 		if (values != null) {
-			SampledValue svStart = new SampledValue(null, start, Quality.BAD);
-			SampledValue svEnd = new SampledValue(null, end, Quality.BAD);
-			int insStart = Collections.binarySearch(values, svStart, SampledValuesTimeComparator);
-			int insEnd = Collections.binarySearch(values, svEnd, SampledValuesTimeComparator);
-			if (insStart < 0) {
-				insStart = -(insStart + 1);
-			}
-			if (insEnd < 0) {
-				insEnd = -(insEnd + 1);
-			} else {
-				insEnd++;
-			}
-			return values.subList(insStart, insEnd);
+			return values.subChunk(start, end);
 		}
 		return readInternal(start, end);
 	}
 
 	;
 
+	/**
+	 * Add the data points in the interval [start, end] to the reduction.
+	 * @param reduction
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	void reduce(final StreamingReduction reduction, final long start, final long end) throws IOException {
+		final ValueChunk values = read(start, end);
+		final int size = values.size();
+		for (int i = 0; i < size; i++) {
+			reduction.add(values.getTimestamp(i), values.getValue(i), Quality.getQuality(values.getQuality(i)));
+		}
+	}
+
+	/**
+	 * Pass the data points in the interval [start, end] to the statistics.
+	 * @param evaluation
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	void evaluate(final StatisticsEvaluation evaluation, final long start, final long end) throws IOException {
+		final ValueChunk values = read(start, end);
+		final int size = values.size();
+		for (int i = 0; i < size; i++) {
+			evaluation.step(values.getTimestamp(i), values.getValue(i), Quality.getQuality(values.getQuality(i)));
+		}
+	}
 
 	public int getDataSetCount() {
-		final List<SampledValue> values = cache.getCache();
+		final ValueChunk values = cache.getCache();
 		if (values != null) {
 			return values.size();
 		}
@@ -252,26 +674,9 @@ public abstract class FileObject {
 	;
 	
 	public int getDataSetCount(long start, long end) throws IOException {
-		final List<SampledValue> values = cache.getCache();
+		final ValueChunk values = cache.getCache();
 		if (values != null) {
-			if (start <= startTimeStamp && !values.isEmpty()) {
-				long endTimeStamp = values.get(values.size() - 1).getTimestamp();
-				if (end >= endTimeStamp) {
-					return values.size();
-				}
-			}
-			int cnt = 0;
-			for (final SampledValue sv : values) {
-				final long t = sv.getTimestamp();
-				if (t < start) {
-					continue;
-				}
-				if (t > end) {
-					break;
-				}
-				cnt++;
-			}
-			return cnt;
+			return values.subChunk(start, end).size();
 		}
 		return getDataSetCountInternal(start, end);
 	}
@@ -280,9 +685,9 @@ public abstract class FileObject {
 
 
 	public long getTimestampForLatestValue() {
-		final List<SampledValue> values = cache.getCache();
+		final ValueChunk values = cache.getCache();
 		if (values != null && !values.isEmpty()) {
-			return values.get(values.size() - 1).getTimestamp();
+			return values.getTimestamp(values.size() - 1);
 		}
 		return getTimestampForLatestValueInternal();
 	}
@@ -291,9 +696,24 @@ public abstract class FileObject {
 
 	public abstract void append(double value, long timestamp, byte flag) throws IOException;
 
-	protected abstract List<SampledValue> readInternal(long start, long end) throws IOException;
+	/**
+	 * Append the values with indices from (inclusive) to to (exclusive) using as few writes as possible.
+	 * Values that cannot be appended, because they are not newer than the latest value
+	 * in the file or the preceding value, are skipped, as in {@link #append(double, long, byte)}.
+	 *
+	 * @param timestamps
+	 * 		rounded timestamps, all greater than the start timestamp of this file
+	 * @param values
+	 * @param flags
+	 * @param from
+	 * @param to
+	 * @throws IOException
+	 */
+	public abstract void append(long[] timestamps, double[] values, byte[] flags, int from, int to) throws IOException;
+
+	protected abstract ValueChunk readInternal(long start, long end) throws IOException;
 
-	protected abstract List<SampledValue> readFullyInternal() throws IOException;
+	protected abstract ValueChunk readFullyInternal() throws IOException;
 
 	public abstract SampledValue read(long timestamp) throws IOException;
 
@@ -309,6 +729,15 @@ public abstract class FileObject {
 
 	public abstract long getStoringPeriod();
 
+	/**
+	 * Metadata of the file, to be cached for file objects created later on. Requires the monitor of 
+	 * this object, and must not be called while there is buffered data.
+	 * @return
+	 */
+	FileMetadata getMetadata() {
+		return new FileMetadata(startTimeStamp, storagePeriod, committedLength, Long.MIN_VALUE);
+	}
+
 	/**
 	 * Closes and Flushes underlying Input- and OutputStreams. Requires the
 	 * SlotsDbStorage write lock to be held.
@@ -321,27 +750,67 @@ public abstract class FileObject {
 			assert cache.getCache() == null : "Invalidated cache is still alive";
 		}
 		synchronized(this) {
+			if (canWrite) {
+				closeAppendChannel();
+			}
+			final SeekableByteChannel channel = readChannel;
 			if (channel != null) {
+				readChannel = null;
+				context.channelClosed(channel);
 				channel.close();
-				channel = null;
 			}
+			// there is no explicit unmap; the mapping is released once it becomes unreachable
+			mapping = null;
 		}
 		canRead = false;
 		canWrite = false;
 	}
 
 	/**
-	 * Flushes the underlying Data Streams.
+	 * Writes buffered data to the file, and forces it to the storage device unless 
+	 * the durability mode is {@link Durability#NONE}.
 	 *
 	 * @throws IOException
 	 */
 	public void flush() throws IOException {
-		if (channel != null) {
+		if (canWrite) {
+			synchronized (this) {
+				if (canWrite) {
+					commit();
+					if (context.durability != Durability.NONE)
+						sync();
+				}
+			}
 			cache.invalidate();
 			assert cache.getCache() == null : "Invalidated cache is still alive";
 		}
 	}
 
+	/**
+	 * Writes buffered data to the file and closes the append channel, if it is open. 
+	 * Requires the monitor of this object.
+	 * @throws IOException
+	 */
+	private void closeAppendChannel() throws IOException {
+		FileMetadata metadata = null;
+		try {
+			commit();
+			if (context.durability != Durability.NONE)
+				sync();
+			metadata = getMetadata();
+		} finally {
+			final SeekableByteChannel channel = appendChannel;
+			appendChannel = null;
+			appendBuffer = null;
+			unsynced = false;
+			context.updateMetadata(dataFile, metadata);
+			if (channel != null) {
+				context.channelClosed(channel);
+				channel.close();
+			}
+		}
+	}
+
 	/**
 	 * Return the Timestamp of the first stored Value in this File.
 	 */
@@ -349,31 +818,37 @@ public abstract class FileObject {
 		return startTimeStamp;
 	}
 
-	public static FileObject getFileObject(String fileName, FendoInstanceCache cache) throws IOException {
+	static FileObject getFileObject(String fileName, FendoInstanceCache cache, FileObjectContext context) throws IOException {
 		if (fileName.startsWith("c")) {
-			return new ConstantIntervalFileObject(fileName, cache);
+			return new ConstantIntervalFileObject(fileName, cache, context);
 		} else if (fileName.startsWith("f")) {
-			return new FlexibleIntervalFileObject(fileName, cache);
+			return new FlexibleIntervalFileObject(fileName, cache, context);
+		} else if (fileName.startsWith("z")) {
+			return new CompressedFileObject(fileName, cache, context);
 		} else {
 			throw new IOException("Invalid filename for SlotsDB-File");
 		}
 	}
 
-	public static FileObject getFileObject(File file, FendoInstanceCache cache) throws IOException {
+	static FileObject getFileObject(File file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
 		if (file.getName().startsWith("c")) {
-			return new ConstantIntervalFileObject(file, cache);
+			return new ConstantIntervalFileObject(file, cache, context);
 		} else if (file.getName().startsWith("f")) {
-			return new FlexibleIntervalFileObject(file, cache);
+			return new FlexibleIntervalFileObject(file, cache, context);
+		} else if (file.getName().startsWith("z")) {
+			return new CompressedFileObject(file, cache, context);
 		} else {
 			throw new IOException("Invalid file for SlotsDB-File. Invalid filename.");
 		}
 	}
 	
-	public static FileObject getFileObject(Path file, FendoInstanceCache cache) throws IOException {
+	static FileObject getFileObject(Path file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
 		if (file.getFileName().toString().startsWith("c")) {
-			return new ConstantIntervalFileObject(file, cache);
+			return new ConstantIntervalFileObject(file, cache, context);
 		} else if (file.getFileName().toString().startsWith("f")) {
-			return new FlexibleIntervalFileObject(file, cache);
+			return new FlexibleIntervalFileObject(file, cache, context);
+		} else if (file.getFileName().toString().startsWith("z")) {
+			return new CompressedFileObject(file, cache, context);
 		} else {
 			throw new IOException("Invalid file for SlotsDB-File. Invalid filename.");
 		}
@@ -0,0 +1,342 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.cache.RemovalNotification;
+
+/**
+ * Database-wide settings and resources shared by all {@link FileObject}s of one database instance.
+ */
+final class FileObjectContext {
+
+	// maximum number of log files and time series folders whose metadata is kept in memory
+	private static final int METADATA_CACHE_SIZE = 10000;
+
+	/*
+	 * Serve reads from a memory mapping of the file instead of reading them via the channel.
+	 */
+	final boolean memoryMappedReads;
+	/*
+	 * Capacity of the per file append buffer in bytes; 0 means that appended data is written 
+	 * to the file immediately.
+	 */
+	final int writeBufferSize;
+	final Durability durability;
+	// indices of the day archives, by the zip file system used to list their entries
+	private final Map<FileSystem, DayArchive> archives = new ConcurrentHashMap<>(4);
+	/*
+	 * Header and length of log files, so that file objects can be re-created without accessing the files. 
+	 * Kept up to date by the file objects writing to the files, see FileObject#close(); files modified 
+	 * by other means must be invalidated. Null if disabled, only files in the default file system are cached.
+	 */
+	private final Cache<Path, FileMetadata> metadata;
+	// log files per time series folder; null if disabled
+	private final Cache<Path, List<Path>> folderContents;
+	// incremented whenever a folder listing is invalidated, so that concurrent listings started before do not get cached
+	private volatile long foldersVersion;
+	/*
+	 * Open channels of all file objects, in order of their last use. Channels evicted due to the size limit 
+	 * are released asynchronously, since the evicting thread may hold the monitor of another file object. 
+	 * Null if the number of open files is not limited.
+	 */
+	private final Cache<SeekableByteChannel, FileObject> openChannels;
+	// null if the disk usage is not tracked
+	private final DiskUsage diskUsage;
+
+	FileObjectContext(boolean memoryMappedReads, int writeBufferSize, Durability durability) {
+		this(memoryMappedReads, writeBufferSize, durability, 0, 0, null, null);
+	}
+
+	/**
+	 * @param memoryMappedReads
+	 * @param writeBufferSize
+	 * @param durability
+	 * @param metadataCacheSize
+	 * 		maximum number of files and folders whose metadata is cached; 0 to disable the cache,
+	 * 		which is required if the files may be modified without notifying this context.
+	 * @param maxOpenFiles
+	 * 		maximum number of open channels; 0 for no limit
+	 * @param diskUsage
+	 * 		may be null
+	 * @param evictionExecutor
+	 * 		executes the release of evicted channels; may be null if maxOpenFiles is 0
+	 */
+	FileObjectContext(boolean memoryMappedReads, int writeBufferSize, Durability durability, int metadataCacheSize, int maxOpenFiles,
+			DiskUsage diskUsage, Executor evictionExecutor) {
+		this.memoryMappedReads = memoryMappedReads;
+		this.writeBufferSize = writeBufferSize;
+		this.durability = Objects.requireNonNull(durability);
+		this.metadata = metadataCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(metadataCacheSize).build() : null;
+		this.folderContents = metadataCacheSize > 0 ? CacheBuilder.newBuilder().maximumSize(metadataCacheSize).build() : null;
+		this.openChannels = maxOpenFiles > 0 ? CacheBuilder.newBuilder().maximumSize(maxOpenFiles)
+				.removalListener(RemovalListeners.asynchronous(FileObjectContext::channelEvicted, Objects.requireNonNull(evictionExecutor)))
+				.build() : null;
+		this.diskUsage = diskUsage;
+	}
+
+	private static void channelEvicted(final RemovalNotification<SeekableByteChannel, FileObject> notification) {
+		if (!notification.wasEvicted())
+			return;
+		// pool threads may not have any permissions
+		AccessController.doPrivileged(new PrivilegedAction<Void>() {
+
+			@Override
+			public Void run() {
+				notification.getValue().releaseChannel(notification.getKey());
+				return null;
+			}
+
+		});
+	}
+
+	void addArchive(final FileSystem zipFileSystem, final DayArchive archive) {
+		archives.put(zipFileSystem, archive);
+	}
+	
+	DayArchive removeArchive(final FileSystem zipFileSystem) {
+		return archives.remove(zipFileSystem);
+	}
+
+	/**
+	 * Open a channel for reading a log file. Files in a day archive are read directly from the archive file 
+	 * if possible.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	SeekableByteChannel newReadChannel(final Path file) throws IOException {
+		if (!archives.isEmpty()) {
+			final DayArchive archive = archives.get(file.getFileSystem());
+			if (archive != null) {
+				final SeekableByteChannel channel = archive.openEntry(file);
+				if (channel != null)
+					return channel;
+			}
+		}
+		return Files.newByteChannel(file, StandardOpenOption.READ);
+	}
+
+	/**
+	 * Must be called whenever a file object opens a channel.
+	 * @param channel
+	 * @param file
+	 */
+	void channelOpened(final SeekableByteChannel channel, final FileObject file) {
+		if (openChannels != null)
+			openChannels.put(channel, file);
+	}
+
+	/**
+	 * Marks the channel as recently used, so that it is not released.
+	 * @param channel
+	 */
+	void channelUsed(final SeekableByteChannel channel) {
+		if (openChannels != null)
+			openChannels.getIfPresent(channel);
+	}
+
+	/**
+	 * Must be called when a file object closes a channel.
+	 * @param channel
+	 */
+	void channelClosed(final SeekableByteChannel channel) {
+		if (openChannels != null)
+			openChannels.invalidate(channel);
+	}
+
+	/**
+	 * Must be called whenever the size of a log file changes.
+	 * @param file
+	 * @param bytes
+	 * 		the change in size, may be negative
+	 */
+	void fileSizeChanged(final Path file, final long bytes) {
+		if (diskUsage != null)
+			diskUsage.add(file, bytes);
+	}
+
+	/**
+	 * @return the number of channels currently open, or -1 if it is not tracked
+	 */
+	int getOpenChannels() {
+		return openChannels != null ? (int) openChannels.size() : -1;
+	}
+
+	/**
+	 * @param file
+	 * @return the cached metadata of the file, or null if it is not known
+	 */
+	FileMetadata getMetadata(final Path file) {
+		return metadata != null ? metadata.getIfPresent(file) : null;
+	}
+
+	/**
+	 * Store the metadata of a file that has just been read from the file. Does not replace existing
+	 * entries, which may have been written by a file object writing to the file in the meantime.
+	 * @param file
+	 * @param fileMetadata
+	 */
+	void addMetadata(final Path file, final FileMetadata fileMetadata) {
+		if (isCached(file))
+			metadata.asMap().putIfAbsent(file, fileMetadata);
+	}
+
+	/**
+	 * Store the current metadata of a file, after it has been written to.
+	 * @param file
+	 * @param fileMetadata
+	 * 		may be null, if the metadata is not known
+	 */
+	void updateMetadata(final Path file, final FileMetadata fileMetadata) {
+		if (!isCached(file))
+			return;
+		if (fileMetadata != null)
+			metadata.put(file, fileMetadata);
+		else
+			metadata.invalidate(file);
+	}
+
+	/**
+	 * List the log files in a time series folder.
+	 * @param folder
+	 * @return the log files, or an empty list if the folder does not exist
+	 * @throws IOException
+	 */
+	List<Path> listLogFiles(final Path folder) throws IOException {
+		if (!isCached(folder))
+			return listLogFilesInternal(folder);
+		List<Path> files = folderContents.getIfPresent(folder);
+		if (files != null)
+			return files;
+		final long version = foldersVersion;
+		files = listLogFilesInternal(folder);
+		synchronized (folderContents) {
+			if (version == foldersVersion)
+				folderContents.put(folder, files);
+		}
+		return files;
+	}
+
+	/**
+	 * Must be called when a log file has been created in or removed from a folder.
+	 * @param folder
+	 */
+	void invalidateFolder(final Path folder) {
+		if (!isCached(folder))
+			return;
+		synchronized (folderContents) {
+			foldersVersion++;
+			folderContents.invalidate(folder);
+		}
+	}
+
+	/**
+	 * Must be called when the log files in a folder have been modified, moved or deleted without 
+	 * notifying this context.
+	 * @param folder
+	 */
+	void clearMetadata(final Path folder) {
+		if (!isCached(folder))
+			return;
+		invalidateFolder(folder);
+		metadata.asMap().keySet().removeIf(file -> folder.equals(file.getParent()));
+	}
+
+	/**
+	 * Must be called when log files have been modified, moved or deleted without notifying
+	 * this context, e.g. when day folders are deleted.
+	 */
+	void clearMetadata() {
+		if (metadata == null)
+			return;
+		synchronized (folderContents) {
+			foldersVersion++;
+			folderContents.invalidateAll();
+		}
+		metadata.invalidateAll();
+	}
+
+	private boolean isCached(final Path path) {
+		// archived files are read from zip file systems, which are closed when the archive is removed
+		return metadata != null && path.getFileSystem() == FileSystems.getDefault();
+	}
+
+	private static List<Path> listLogFilesInternal(final Path folder) throws IOException {
+		if (!Files.isDirectory(folder))
+			return Collections.emptyList();
+		// stream obtained with Files#list *must* be closed or leaks file handle (to directory)
+		try (final Stream<Path> stream = Files.list(folder)) {
+			return Collections.unmodifiableList(stream
+				.filter(file -> file.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.collect(Collectors.toList()));
+		}
+	}
+
+	static FileObjectContext forConfiguration(final FendoDbConfiguration config, final DiskUsage diskUsage, final Executor evictionExecutor) {
+		// without flush period data is flushed after every append operation anyway, so buffering is pointless
+		final int bufferSize = config.getFlushPeriod() > 0 && !config.isReadOnlyMode() ? config.getWriteBufferSize() : 0;
+		// a read-only instance or one that reloads or watches its days reads files written by someone else
+		final boolean externalWriters = config.isReadOnlyMode() || config.getReloadDaysInterval() > 0 || config.isWatchDays();
+		return new FileObjectContext(config.isMemoryMappedReads(), bufferSize, config.getDurability(), externalWriters ? 0 : METADATA_CACHE_SIZE,
+				config.getMaxOpenFiles(), diskUsage, evictionExecutor);
+	}
+
+	/**
+	 * Header data and length of a log file.
+	 */
+	static final class FileMetadata {
+
+		final long startTimeStamp;
+		final long storagePeriod;
+		// number of bytes written to the file
+		final long length;
+		// timestamp of the last data point, Long.MIN_VALUE if unknown; only used for flexible interval files
+		final long lastTimestamp;
+
+		FileMetadata(long startTimeStamp, long storagePeriod, long length, long lastTimestamp) {
+			this.startTimeStamp = startTimeStamp;
+			this.storagePeriod = storagePeriod;
+			this.length = length;
+			this.lastTimestamp = lastTimestamp;
+		}
+
+	}
+
+}
@@ -20,10 +20,9 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Vector;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,22 +43,25 @@ import org.slf4j.LoggerFactory;
 public final class FileObjectList {
 
 	private final static Logger LOGGER = LoggerFactory.getLogger(FileObjectList.class);
-	// synchronized by read-write lock of the respective SlotsDbStorage
-	// adding a file requires a write lock, reading requires a read lock
-	private List<FileObject> files;
+	/*
+	 * Immutable and sorted by start time stamp; replaced as a whole by reLoadFolder, which may run concurrently 
+	 * with readers holding only the folder read lock. Readers must hence read this field only once per operation.
+	 */
+	private volatile List<FileObject> files;
 	private final String foldername;
 	private final String dayFolderName;
-	private long firstTS;
-	private int size;
 	private final boolean useCompatibilityMode;
+	private final FileObjectContext context;
 	
 	
 	private Path basePath;
-	FileObjectList(Path basePath, String foldername, String dayFolderName, FendoCache cache, String encodedId, boolean useCompatibilityMode) throws IOException {
+	FileObjectList(Path basePath, String foldername, String dayFolderName, FendoCache cache, String encodedId, 
+			boolean useCompatibilityMode, FileObjectContext context) throws IOException {
 		// File folder = new File(foldername);
 		this.foldername = foldername;
 		this.dayFolderName = dayFolderName;
 		this.useCompatibilityMode = useCompatibilityMode;
+		this.context = context;
 		this.basePath = basePath;
 		reLoadFolder(cache, encodedId);
 	}
@@ -69,13 +71,17 @@ public final class FileObjectList {
 	 * and creates a FileObject for every File
 	 * 
 	 * @param foldername
+	 * @param context
+	 * 		settings shared by all files of the database
 	 * @throws IOException
 	 */
-	FileObjectList(String foldername, String dayFolderName, FendoCache cache, String encodedId, boolean useCompatibilityMode) throws IOException {
+	FileObjectList(String foldername, String dayFolderName, FendoCache cache, String encodedId, 
+			boolean useCompatibilityMode, FileObjectContext context) throws IOException {
 		// File folder = new File(foldername);
 		this.foldername = foldername;
 		this.dayFolderName = dayFolderName;
 		this.useCompatibilityMode = useCompatibilityMode;
+		this.context = context;
 		reLoadFolder(cache, encodedId);
 	}
 	
@@ -83,7 +89,18 @@ public final class FileObjectList {
 		return foldername;
 	}
 	
-	private Path getBasePath() {
+	String getDayFolderName() {
+		return dayFolderName;
+	}
+	
+	/**
+	 * @return true if the files are contained in a day archive, in which case they cannot be modified
+	 */
+	boolean isArchived() {
+		return basePath != null && basePath.getFileSystem() != FileSystems.getDefault();
+	}
+	
+	Path getBasePath() {
 		return basePath != null ? basePath : //Path.of(foldername);
 				FileSystems.getDefault().getPath(foldername);
 	}
@@ -95,37 +112,27 @@ public final class FileObjectList {
 	 */
 	final void reLoadFolder(final FendoCache cache, final String encodedId) throws IOException {
 		Path folder = getBasePath();
-		files = new ArrayList<>(1);
-		if (Files.isDirectory(folder)) {
-			// stream obtained with Files#list *must* be closed or leaks file handle (to directory)
-			try ( Stream<Path> s = Files.list(folder)) {
-				for (Path file : s.collect(Collectors.toList())) {
-					final String filename = file.getFileName().toString();
-					if (filename.endsWith(SlotsDb.FILE_EXTENSION)) {
-						if (Files.size(file) >= 16) {
-							files.add(FileObject.getFileObject(file, cache.getCache(encodedId, filename)));
-						} else { // corrupted or empty
-							Files.delete(file);
-						}
-					}
-				}
-			}
-			if (files.size() > 1) {
-				sortList(files);
-			}
+		if (files != null) {
+			// write buffered data before the files are read again
+			closeAllFiles();
 		}
-		size = files.size();		
-		LOGGER.trace("reloadFolder: {}, {}", folder, size);
-		/*
-		 * set first Timestamp for this FileObjectList if there are no files -> first TS = TS@ 00:00:00 o'clock.
-		 */
-		if (size == 0) {
-			firstTS = !useCompatibilityMode ? Long.parseLong(dayFolderName)
-					: TimeUtils.parseCompatibilityFolderName(dayFolderName);
+		final List<FileObject> files = new ArrayList<>(1);
+		// the folder content and file headers are usually known from a previous instance
+		for (Path file : context.listLogFiles(folder)) {
+			final long fileSize = context.getMetadata(file) != null ? -1 : Files.size(file);
+			if (fileSize < 0 || fileSize >= 16) {
+				files.add(FileObject.getFileObject(file, cache.getCache(encodedId, file.getFileName().toString()), context));
+			} else { // corrupted or empty
+				Files.delete(file);
+				context.fileSizeChanged(file, -fileSize);
+				context.invalidateFolder(folder);
+			}
 		}
-		else {
-			firstTS = files.get(0).getStartTimeStamp();
+		if (files.size() > 1) {
+			sortList(files);
 		}
+		this.files = Collections.unmodifiableList(files);
+		LOGGER.trace("reloadFolder: {}, {}", folder, files.size());
 		//System.out.printf("%s reloadFolder(%s) = %s%n", Thread.currentThread().getName(), folder, files);
 	}
 
@@ -155,7 +162,8 @@ public final class FileObjectList {
 	 * Returns the last created FileObject
 	 */
 	public FileObject getCurrentFileObject() {
-		return get(size - 1);
+		final List<FileObject> files = this.files;
+		return files.get(files.size() - 1);
 	}
 
 	/**
@@ -171,7 +179,7 @@ public final class FileObjectList {
 	 * Returns the size (Number of Files in this Folder/FileObjectList)
 	 */
 	public int size() {
-		return size;
+		return files.size();
 	}
 
 	/**
@@ -192,6 +200,7 @@ public final class FileObjectList {
 	 * @param timestamp
 	 */
 	public FileObject getFileObjectForTimestamp(long timestamp) {
+		final List<FileObject> files = this.files;
 		if (files.size() > 1) {
 			for (FileObject f : files) {
 				if (f.getStartTimeStamp() <= timestamp && f.getTimestampForLatestValue() >= timestamp) {
@@ -218,6 +227,7 @@ public final class FileObjectList {
 	 * @param timestamp
 	 */
 	public List<FileObject> getFileObjectsStartingAt(long timestamp) {
+		final List<FileObject> files = this.files;
 		List<FileObject> toReturn = new ArrayList<>(1);
 		for (int i = 0; i < files.size(); i++) {
 			FileObject fo = files.get(i);
@@ -229,7 +239,7 @@ public final class FileObjectList {
 	}
 
 	/**
-	 * Returns all FileObjects in this List.
+	 * Returns all FileObjects in this List; the returned list is an immutable snapshot.
 	 */
 	public List<FileObject> getAllFileObjects() {
 		return files;
@@ -241,6 +251,7 @@ public final class FileObjectList {
 	 * @param timestamp
 	 */
 	public List<FileObject> getFileObjectsUntil(long timestamp) {
+		final List<FileObject> files = this.files;
 		List<FileObject> toReturn = new Vector<FileObject>(1);
 		for (int i = 0; i < files.size(); i++) {
 			if (files.get(i).getStartTimeStamp() <= timestamp) {
@@ -257,6 +268,7 @@ public final class FileObjectList {
 	 * @param end
 	 */
 	public List<FileObject> getFileObjectsFromTo(long start, long end) {
+		final List<FileObject> files = this.files;
 		List<FileObject> toReturn = new Vector<FileObject>(1);
 		if (files.size() > 1) {
 			for (int i = 0; i < files.size(); i++) {
@@ -286,7 +298,11 @@ public final class FileObjectList {
 	 * to 00:00:00 o'clock
 	 */
 	public long getFirstTS() {
-		return firstTS;
+		final List<FileObject> files = this.files;
+		if (!files.isEmpty())
+			return files.get(0).getStartTimeStamp();
+		return !useCompatibilityMode ? Long.parseLong(dayFolderName)
+				: TimeUtils.parseCompatibilityFolderName(dayFolderName);
 	}
 
 	/**
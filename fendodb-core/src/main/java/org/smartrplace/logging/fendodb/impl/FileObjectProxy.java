@@ -18,6 +18,7 @@ package org.smartrplace.logging.fendodb.impl;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.Striped;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
@@ -38,9 +39,10 @@ import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Timer;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.locks.Lock;
@@ -60,38 +62,58 @@ import org.slf4j.LoggerFactory;
 import org.smartrplace.logging.fendodb.FendoDbConfiguration;
 import org.smartrplace.logging.fendodb.impl.InfoTask.DeleteJob;
 import org.smartrplace.logging.fendodb.impl.InfoTask.Flusher;
+import org.smartrplace.logging.fendodb.impl.InfoTask.Rollover;
 import org.smartrplace.logging.fendodb.impl.InfoTask.SizeWatcher;
 
 public final class FileObjectProxy {
 
 	private static final int FLEXIBLE_STORING_PERIOD = -1;
+	private static final int LABEL_LOCK_STRIPES = 64;
+	// the catalog is written again when its journal exceeds this size, on the creation of a new day
+	private static final long MAX_CATALOG_JOURNAL_SIZE = 1024 * 1024;
 
 	final static Logger logger = LoggerFactory.getLogger(FileObjectProxy.class);
 	
 	/**
-	 * For creation and deletion (write lock), resp. parsing (read lock), of folders (i.e. days)
+	 * For creation and deletion (write lock), resp. parsing (read lock), of folders (i.e. days).
+	 * The write lock is only required for database-wide operations, such as starting a new day.
 	 */
 	final ReadWriteLock folderLock = new ReentrantReadWriteLock();
+	/**
+	 * For the creation of log files of a time series in a folder which exists already, keyed by label and day;
+	 * requires the folder read lock to be held (lock order: folderLock before label lock).
+	 */
+	private final Striped<Lock> labelLocks = Striped.lock(LABEL_LOCK_STRIPES);
 	
 //	private final File rootNode;
 	final Path rootNode;
 	final String rootNodeString;
 	// remove values only when folder write lock is held.
 	// read lock is sufficient for adding values
+	// the size of this cache does not limit the number of open files, which is enforced by the FileObjectContext
 	final Cache<String, FileObjectList> openFilesHM;
 
 	Map<Path, FileSystem> zipFiles = new ConcurrentHashMap<>();
 	// concurrent map
 //	private final ConcurrentMap<String, String> encodedLabels = new ConcurrentHashMap<>();
-	final Timer timer;
-	// synchronized using folderLock
-	List<Path> days;
+	// executes the background tasks, shared with other database instances
+	final MaintenanceScheduler scheduler;
+	// true if the default scheduler has been acquired by this instance
+	private final boolean releaseDefaultScheduler;
+	// synchronized using folderLock; a copy-on-write list, so that the DayWatcher can insert new day folders while 
+	// holding only the read lock
+	volatile List<Path> days;
+	// folders per label; synchronized using folderLock
+	final LabelIndex labelIndex = new LabelIndex(this);
 	// synchronized using folderLock
 	private long currentDay = Long.MAX_VALUE;
 	// can be null, if data is written to disk immediately
 	private final Flusher flusher;
 	private final DeleteJob deleteJob;
 	private final SizeWatcher sizeWatcher;
+	private final Compactor compactor;
+	private final Archiver archiver;
+	private final Rollover rollover;
 	private final FrameworkClock clock;
 	final TemporalUnit unit;
 	private final boolean readOnlyMode;
@@ -105,6 +127,19 @@ public final class FileObjectProxy {
 	private final int max_open_files;
 	private final long dataExpirationCheckInterval;
 	private final boolean readFolders;
+	final FileObjectContext fileContext;
+	// running total of the database size; null if the size is not limited
+	final DiskUsage diskUsage;
+	// deleted folder periods, removed in the background
+	private final Trash trash;
+	// create new log files in the compressed format
+	private final boolean compressedFiles;
+	// 0 if open files are closed when a new folder period starts
+	private final long rolloverLeadTime;
+	// keep pre-aggregated data of past folder periods, see Rollups
+	final boolean rollups;
+	// max number of FileObjectLists of past periods closed per run of the rollover task
+	private static final int RETIRE_BATCH_SIZE = 256;
 	
 	private final FendoCache cache;
 
@@ -117,16 +152,40 @@ public final class FileObjectProxy {
 	 * @throws IOException
 	 */
 	public FileObjectProxy(Path rootNodePath, FrameworkClock clock, FendoDbConfiguration config) throws IOException {
+		this(rootNodePath, clock, config, Catalog.read(rootNodePath), MaintenanceScheduler.acquireDefault(), true);
+	}
+	
+	/**
+	 * @param rootNodePath
+	 * @param clock
+	 * 		may be null, in which case system time is used
+	 * @param config
+	 * @param catalog
+	 * 		may be null
+	 * @param scheduler
+	 * @throws IOException
+	 */
+	FileObjectProxy(Path rootNodePath, FrameworkClock clock, FendoDbConfiguration config, Catalog catalog, 
+			MaintenanceScheduler scheduler) throws IOException {
+		this(rootNodePath, clock, config, catalog, scheduler, false);
+	}
+	
+	private FileObjectProxy(Path rootNodePath, FrameworkClock clock, FendoDbConfiguration config, Catalog catalog, 
+			MaintenanceScheduler scheduler, boolean releaseDefaultScheduler) throws IOException {
+		this.scheduler = Objects.requireNonNull(scheduler);
+		this.releaseDefaultScheduler = releaseDefaultScheduler;
 		this.cache = config.isCacheDisabled() ? FendoCache.noopCache() : new SlotsDbCache();
 		this.useCompatibilityMode = config.useCompatibilityMode();
 		this.unit = useCompatibilityMode ? ChronoUnit.DAYS : config.getFolderCreationTimeUnit();
 		this.readOnlyMode = config.isReadOnlyMode();
 		this.readFolders = config.isReadFolders();
+		this.diskUsage = config.getMaxDatabaseSize() > 0 ? new DiskUsage(rootNodePath) : null;
+		this.fileContext = FileObjectContext.forConfiguration(config, diskUsage, 
+				scheduler.getExecutor(MaintenanceScheduler.Priority.HIGH));
+		this.compressedFiles = config.isCompressedFiles();
+		this.rollups = config.isRollups();
+		this.rolloverLeadTime = config.getRolloverLeadTime();
 		this.clock = clock;
-		if (config.getFlushPeriod() > 0 || config.getDataLifetimeInDays() > 0 || config.getMaxDatabaseSize() > 0 || config.getReloadDaysInterval() > 0)
-			timer = new Timer();
-		else
-			timer = null;
 		long checkItv  = config.getDataExpirationCheckInterval();
 		if (checkItv > 0 && checkItv < 5 * 60 * 1000)
 				checkItv = 5 * 60 * 1000;
@@ -134,7 +193,21 @@ public final class FileObjectProxy {
 		logger.info("Storing to: {}", rootNodePath);
 		rootNode = rootNodePath;
 		rootNodeString = rootNodePath.toString();
+		trash = new Trash(rootNodePath, scheduler);
+		if (!readOnlyMode && Files.isDirectory(rootNodePath)) {
+			Compactor.recover(rootNodePath);
+			Archiver.recover(rootNodePath);
+			trash.startCleanup();
+		}
 		days = loadDays(rootNodePath, useCompatibilityMode);
+		if (catalog != null)
+			labelIndex.init(catalog);
+		// from now on, new folders are recorded in the journal of the catalog; it is written again on close
+		if (!readOnlyMode && Files.isDirectory(rootNodePath)) {
+			if (catalog == null) // a journal without catalog is outdated
+				Catalog.delete(rootNodePath);
+			labelIndex.openJournal(rootNodePath, config.getDurability() != FendoDbConfiguration.Durability.NONE);
+		}
 		// FIXME if opened in read only mode, no tasks are needed
 		final long flushPeriod = config.getFlushPeriod();
 		if (flushPeriod > 0) {
@@ -176,6 +249,22 @@ public final class FileObjectProxy {
 			sizeWatcher = null;
 			limit_size = 0;
 		}
+		final long compactionInterval = config.getCompactionInterval();
+		if (compactionInterval > 0) {
+			logger.info("Compacting closed folders every {} ms.", compactionInterval);
+			compactor = createScheduledCompactor(compactionInterval);
+		}
+		else {
+			compactor = null;
+		}
+		final long archiveAge = config.getArchiveAge();
+		if (archiveAge > 0) {
+			logger.info("Archiving folders older than {} ms.", archiveAge);
+			archiver = createScheduledArchiver(archiveAge);
+		}
+		else {
+			archiver = null;
+		}
 
 		final int maxOpen = config.getMaxOpenFolders();
 		max_open_files = maxOpen >= 8 ? maxOpen : 8;
@@ -191,7 +280,14 @@ public final class FileObjectProxy {
 		openFilesHM = CacheBuilder.<String, FileObjectList>newBuilder().maximumSize(max_open_files)
 				.removalListener(reml).build();
 
-		logger.info("Maximum open Files for Database changed to: " + max_open_files);
+		logger.info("Maximum open folders for Database changed to: " + max_open_files + ", maximum open files: " + config.getMaxOpenFiles());
+		if (rolloverLeadTime > 0) {
+			logger.info("Creating new folders {} ms ahead of time.", rolloverLeadTime);
+			rollover = createScheduledRollover();
+		}
+		else {
+			rollover = null;
+		}
 	}
 	
 	public void close() {
@@ -201,23 +297,39 @@ public final class FileObjectProxy {
 			deleteJob.stopTask();
 		if (sizeWatcher != null)
 			sizeWatcher.stopTask();
-		if (timer != null)
-			timer.cancel();
+		if (compactor != null)
+			compactor.stopTask();
+		if (archiver != null)
+			archiver.stopTask();
+		if (rollover != null)
+			rollover.stopTask();
+		trash.close();
 		folderLock.writeLock().lock();
 		try {
 			clearOpenFilesHashMap();
 		} catch (IOException e) {
 			logger.warn("Closing log files failed",e);
+		}
+		try {
+			if (!readOnlyMode && Files.isDirectory(rootNode))
+				labelIndex.closeJournal(rootNode);
+		} catch (IOException e) {
+			logger.warn("Writing the catalog failed",e);
 		} finally {
 			folderLock.writeLock().unlock();
 		}
 		zipFiles.forEach((p,fs) -> {
 			try {
+				final DayArchive archive = fileContext.removeArchive(fs);
+				if (archive != null)
+					archive.close();
 				fs.close();
 			} catch (IOException ioex) {
 				logger.warn("zip filesystem close failed for {}: {}", p, ioex.getMessage());
 			}
 		});
+		if (releaseDefaultScheduler)
+			MaintenanceScheduler.releaseDefault();
 //		encodedLabels.clear();
 			
 	}
@@ -230,12 +342,51 @@ public final class FileObjectProxy {
 		return readOnlyMode;
 	}
 	
+	/**
+	 * Remove a day folder or archive; its files are deleted in the background. The caller is responsible for
+	 * updating the list of days. Requires the folder write lock, and the open files to have been closed.
+	 * @param day
+	 * 		an element of {@link #days}
+	 * @throws IOException
+	 */
+	final void deleteDay(final Path day) throws IOException {
+		if (day.getFileSystem() == FileSystems.getDefault()) {
+			trash.moveToTrash(day);
+			return;
+		}
+		final Path archive = rootNode.resolve(getFolderDateString(day) + Archiver.ARCHIVE_EXTENSION);
+		final FileSystem zipfs = zipFiles.remove(archive);
+		if (zipfs != null) {
+			final DayArchive dayArchive = fileContext.removeArchive(zipfs);
+			if (dayArchive != null)
+				dayArchive.close();
+			zipfs.close();
+		}
+		trash.moveToTrash(archive);
+	}
+
+	final Trash getTrash() {
+		return trash;
+	}
+
 	final DeleteJob getDeleteJob() {
 		if (deleteJob != null)
 			return deleteJob;
 		return new DeleteJob(this);
 	}
 	
+	final Compactor getCompactor() {
+		if (compactor != null)
+			return compactor;
+		return new Compactor(this, compressedFiles);
+	}
+	
+	final Archiver getArchiver(final long archiveAge) {
+		if (archiver != null)
+			return archiver;
+		return new Archiver(this, archiveAge);
+	}
+	
 
 	/**
 	 * Requires folder write lock
@@ -243,11 +394,14 @@ public final class FileObjectProxy {
 	 * @throws IOException
 	 */
 	final List<Path> reloadDays() throws IOException {
-		cache.clearCache();
+		clearCache();
 		clearOpenFilesHashMap();
 		final List<Path> oldDays = this.days;
 		final int oldSize = oldDays.size();
 		this.days = loadDays(rootNode, useCompatibilityMode);
+		labelIndex.reload();
+		if (diskUsage != null)
+			diskUsage.reload(days);
 		final List<Path> newDays = days.stream()
 			.filter(d -> !oldDays.contains(d))
 			.collect(Collectors.toList());
@@ -267,6 +421,8 @@ public final class FileObjectProxy {
 					.collect(Collectors.toList());
 				if (!wrongEncodings.isEmpty()) {
 					clearOpenFilesHashMap();
+					labelIndex.invalidate(day);
+					fileContext.clearMetadata();
 					wrongEncodings.forEach(fl -> {
 						try {
 							final Path target = fl.getParent().resolve(URLDecoder.decode(fl.getFileName().toString(), "UTF-8"));
@@ -295,20 +451,14 @@ public final class FileObjectProxy {
 					.map(f -> {
 						// for zipfiles, return the path inside the zip
 						if (f.toString().endsWith(".zip")) {
-							FileSystem zipfs = zipFiles.computeIfAbsent(f, zip -> {
-								try {
-									return FileSystems.newFileSystem(zip, FileObjectProxy.class.getClassLoader());
-								} catch (IOException ex) {
-									return null;
-								}
-							});
+							FileSystem zipfs = zipFiles.computeIfAbsent(f, this::openZipFileSystem);
 							Path zippedDayPath = zipfs.getPath(getFolderDateString(f));
 							return zippedDayPath;
 						}
 						return f;
 					})
 					.sorted(!useCompatibilityMode ? daysComparator : daysComparatorCompat)
-					.collect(Collectors.toList());
+					.collect(Collectors.toCollection(CopyOnWriteArrayList::new));
 			if (!rval.isEmpty()) {
 				logger.debug("days loaded: {}, start={}, end={}", rval.size(), rval.get(0), rval.get(rval.size()-1));
 			} else {
@@ -318,7 +468,7 @@ public final class FileObjectProxy {
 		}
 	}
 	
-	private static boolean isDayFolder(final Path file, final boolean useCompatibilityMode) {
+	static boolean isDayFolder(final Path file, final boolean useCompatibilityMode) {
 		try {
 			String filename = file.getFileName().toString();
 			if (filename.endsWith(".zip")) {
@@ -368,29 +518,63 @@ public final class FileObjectProxy {
 	};
 
 	/**
-	 * Creates a Thread, that causes Data Streams to be flushed every x-seconds.<br>
+	 * Creates a task, that causes Data Streams to be flushed every x-seconds.<br>
 	 * Define flush-period in seconds with JVM flag: org.ogema.recordeddata.slotsdb.flushperiod
 	 */
 	private Flusher createScheduledFlusher(long flush_period) {
 		final Flusher f = new Flusher(this);
-//		timer.schedule(f, flush_period * 1000, flush_period * 1000);
-		timer.schedule(f, flush_period, flush_period);
+		f.schedule(scheduler, MaintenanceScheduler.Priority.HIGH, flush_period, flush_period);
 		return f;
 	}
 	
 
 	private DeleteJob createScheduledDeleteJob() {
 		final DeleteJob dj = new DeleteJob(this);
-		timer.schedule(dj, FendoDbConfiguration.INITIAL_DELAY, dataExpirationCheckInterval);
+		dj.schedule(scheduler, MaintenanceScheduler.Priority.NORMAL, FendoDbConfiguration.INITIAL_DELAY, dataExpirationCheckInterval);
 		return dj;
 	}
 
+	private Compactor createScheduledCompactor(final long interval) {
+		final Compactor c = new Compactor(this, compressedFiles);
+		c.schedule(scheduler, MaintenanceScheduler.Priority.LOW, FendoDbConfiguration.INITIAL_DELAY, interval);
+		return c;
+	}
+
+	private Archiver createScheduledArchiver(final long archiveAge) {
+		final Archiver a = new Archiver(this, archiveAge);
+		// checked once per data expiration check interval, like the data lifetime
+		a.schedule(scheduler, MaintenanceScheduler.Priority.LOW, FendoDbConfiguration.INITIAL_DELAY, 
+				dataExpirationCheckInterval > 0 ? dataExpirationCheckInterval : 24 * 60 * 60 * 1000);
+		return a;
+	}
+
+	private Rollover createScheduledRollover() {
+		final Rollover r = new Rollover(this);
+		final long period = Math.max(1000, Math.min(rolloverLeadTime / 2, 60 * 1000));
+		r.schedule(scheduler, MaintenanceScheduler.Priority.NORMAL, period, period);
+		return r;
+	}
+
 	private SizeWatcher createScheduledSizeWatcher() {
 		final SizeWatcher zw = new SizeWatcher(this);
-		timer.schedule(zw, FendoDbConfiguration.INITIAL_DELAY, dataExpirationCheckInterval);
+		// the check is cheap, only the initial run scans the database folder
+		final long period = dataExpirationCheckInterval > 0 ? Math.min(dataExpirationCheckInterval, SizeWatcher.CHECK_PERIOD) 
+				: SizeWatcher.CHECK_PERIOD;
+		zw.schedule(scheduler, MaintenanceScheduler.Priority.NORMAL, FendoDbConfiguration.INITIAL_DELAY, period);
 		return zw;
 	}
 
+	/**
+	 * Must be called when the files of a folder period have been modified other than by appending data,
+	 * e.g. by compaction. Requires the folder write lock.
+	 * @param day
+	 * 		the day folder or archive
+	 */
+	void diskUsageChanged(final Path day) throws IOException {
+		if (diskUsage != null && diskUsage.isInitialized())
+			diskUsage.rescan(getFolderDateString(day));
+	}
+
 	/**
 	 * Appends a new Value to Slots Database.
 	 * 
@@ -405,6 +589,86 @@ public final class FileObjectProxy {
 		appendValue(label, value, timestamp, state, configuration, false);
 	}
 
+	/**
+	 * Bulk version of {@link #appendValue(String, double, long, byte, RecordedDataConfiguration)}.
+	 * Values are grouped by folder, and each group is appended to the current log file
+	 * with a single lock acquisition and write operation.
+	 * 
+	 * @param label
+	 * @param timestamps
+	 * @param values
+	 * @param states
+	 * @param count
+	 * 		number of values to be appended, starting at index 0
+	 * @param configuration
+	 * @throws IOException
+	 */
+	public void appendValues(final String label, final long[] timestamps, final double[] values, final byte[] states, final int count,
+			final RecordedDataConfiguration configuration) throws IOException {
+		int from = 0;
+		while (from < count) {
+			final long strDate = TimeUtils.getCurrentStart(timestamps[from], unit);
+			final long nextDate = TimeUtils.getNextStart(strDate, unit);
+			int to = from + 1;
+			while (to < count && timestamps[to] >= strDate && timestamps[to] < nextDate) {
+				to++;
+			}
+			// the first value may require a new folder or file, hence it takes the standard path
+			appendValue(label, values[from], timestamps[from], states[from], configuration, false);
+			if (to > from + 1 && !appendToCurrentFile(label, strDate, timestamps, values, states, from + 1, to, configuration)) {
+				for (int i = from + 1; i < to; i++) {
+					appendValue(label, values[i], timestamps[i], states[i], configuration, false);
+				}
+			}
+			from = to;
+		}
+	}
+
+	/**
+	 * @return
+	 * 		false if the values could not be appended to the current file, because the folder is not open or the 
+	 * 		storing period has changed; nothing has been written in this case 
+	 */
+	private boolean appendToCurrentFile(final String label, final long strDate, final long[] timestamps, final double[] values, 
+			final byte[] states, final int from, final int to, final RecordedDataConfiguration configuration) throws IOException {
+		final long storingPeriod = configuration.getStorageType().equals(StorageType.FIXED_INTERVAL) ? 
+				configuration.getFixedInterval() : FLEXIBLE_STORING_PERIOD;
+		folderLock.readLock().lock();
+		try {
+			final FileObjectList listToStoreIn = openFilesHM.getIfPresent(label + strDate);
+			if (listToStoreIn == null || listToStoreIn.size() == 0)
+				return false;
+			if (listToStoreIn.isArchived()) // archived data cannot be modified
+				return true;
+			final FileObject toStoreIn = listToStoreIn.getCurrentFileObject();
+			if (toStoreIn.getStoringPeriod() != storingPeriod && toStoreIn.getStoringPeriod() != 0)
+				return false;
+			final long startTimeStamp = toStoreIn.getStartTimeStamp();
+			final long[] rounded = new long[to - from];
+			final double[] vals = new double[to - from];
+			final byte[] flags = new byte[to - from];
+			int cnt = 0;
+			for (int i = from; i < to; i++) {
+				final long roundedTimestamp = getRoundedTimestamp(timestamps[i], configuration);
+				// values older than the file cannot be stored
+				if (startTimeStamp >= roundedTimestamp)
+					continue;
+				rounded[cnt] = roundedTimestamp;
+				vals[cnt] = values[i];
+				flags[cnt++] = states[i];
+			}
+			if (cnt > 0) {
+				toStoreIn.append(rounded, vals, flags, 0, cnt);
+				if (flusher == null) {
+					toStoreIn.flush();
+				}
+			}
+			return true;
+		} finally {
+			folderLock.readLock().unlock();
+		}
+	}
+
 	private void appendValue(final String label, final double value, final long timestamp, final byte state,
 			final RecordedDataConfiguration configuration, boolean lockForWriting) throws IOException {
 
@@ -429,9 +693,18 @@ public final class FileObjectProxy {
 		lock.lock();
 		try {
 			FileObjectList cachedList = openFilesHM.getIfPresent(label + strDate);
+			if (cachedList != null && cachedList.isArchived()) {
+				logger.debug("Folder {} has been archived, ignoring value for {}", strDate, label);
+				return;
+			}
 			requiresNewFolder = cachedList == null || cachedList.size() == 0;
-			// in this case we need to abort the current operation and start again, this time holding the write lock
-			if (requiresNewFolder && !lockForWriting) {
+			// a late value for a past day whose folder exists only affects this time series, it is 
+			// handled under the label lock
+			final boolean existingPastDay = requiresNewFolder && strDate < currentDay && currentDay != Long.MAX_VALUE
+					&& getDayIndex(rootNode.resolve(getDayFolderName(strDate))) >= 0;
+			// starting a new day affects all time series, in this case we need to abort the current operation 
+			// and start again, this time holding the write lock
+			if (requiresNewFolder && strDate != currentDay && !lockForWriting && !existingPastDay) {
 				lockReleased = true; // do not unlock again in finally
 				lock.unlock();
 				appendValue(label, value, timestamp, state, configuration, true);
@@ -443,38 +716,8 @@ public final class FileObjectProxy {
 			 * stored for this day) Eventually existing FileObjectLists from the day before will be flushed and closed. Also
 			 * the Hashtable size will be monitored, to not have too many opened Filestreams.
 			 */
-			if (requiresNewFolder) {
-				newDayStarted(strDate);
-				//controlHashtableSize(); is cleared anyway
-				final FileObjectList first = getFileObjectList(strDate, label);
-	
-				/*
-				 * If FileObjectList for this label does not contain any FileObjects yet, a new one will be created. Data
-				 * will be stored and List reloaded for next Value to store.
-				 */
-				if (first.size() == 0) {
-	
-					if (configuration.getStorageType().equals(StorageType.FIXED_INTERVAL)) {
-						// fixed interval
-						toStoreIn = new ConstantIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/c"
-								+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "c" + timestamp  + SlotsDb.FILE_EXTENSION));
-					}
-					else {
-						/* flexible interval */
-						toStoreIn = new FlexibleIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/f"
-								+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "f" + timestamp  + SlotsDb.FILE_EXTENSION));
-					}
-	
-					long roundedTimestamp = getRoundedTimestamp(timestamp, configuration);
-					toStoreIn.createFileAndHeader(roundedTimestamp, storingPeriod);
-					toStoreIn.append(value, roundedTimestamp, state);
-					
-					toStoreIn.close(); /* close() also calls flush(). */
-					
-					first.reLoadFolder(cache, label);
-					return;
-				}
-			}
+			if (requiresNewFolder && createFolderAndFile(label, value, timestamp, state, configuration, strDate, storingPeriod, existingPastDay))
+				return;
 	
 			/*
 			 * There is a FileObjectList for this day.
@@ -514,21 +757,29 @@ public final class FileObjectProxy {
 				/*
 				 * Interval changed -> create new File (if there are no newer values for this day, or file)
 				 */
-				if (toStoreIn.getTimestampForLatestValue() < timestamp) {
-					if (storingPeriod != FLEXIBLE_STORING_PERIOD) { /* constant intervall */
-						toStoreIn = new ConstantIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/c"
-								+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "c" + timestamp  + SlotsDb.FILE_EXTENSION));
-					}
-					else { /* flexible intervall */
-						toStoreIn = new FlexibleIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/f"
-								+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "f" + timestamp  + SlotsDb.FILE_EXTENSION));
-					}
-					toStoreIn.createFileAndHeader(timestamp, storingPeriod);
-					toStoreIn.append(value, timestamp, state);
-					if (flusher == null) {
-						toStoreIn.flush();
+				final Lock labelLock = labelLocks.get(label + strDate);
+				labelLock.lock();
+				try {
+					if (toStoreIn.getTimestampForLatestValue() < timestamp) {
+						if (compressedFiles) {
+							toStoreIn = new CompressedFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/z"
+									+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "z" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+						}
+						else if (storingPeriod != FLEXIBLE_STORING_PERIOD) { /* constant intervall */
+							toStoreIn = new ConstantIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/c"
+									+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "c" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+						}
+						else { /* flexible intervall */
+							toStoreIn = new FlexibleIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/f"
+									+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "f" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+						}
+						toStoreIn.createFileAndHeader(timestamp, storingPeriod);
+						toStoreIn.append(value, timestamp, state);
+						toStoreIn.close(); // the file is reopened by reLoadFolder
+						listToStoreIn.reLoadFolder(cache, label);
 					}
-					listToStoreIn.reLoadFolder(cache, label);
+				} finally {
+					labelLock.unlock();
 				}
 			}
 		} finally {
@@ -538,6 +789,68 @@ public final class FileObjectProxy {
 		}
 	}
 
+	/**
+	 * Creates the folder for the day, if it does not exist yet, and a log file for the time series,
+	 * if there is none. Requires the folder write lock if the day has not been started yet, the read 
+	 * lock otherwise.
+	 * @param existingPastDay
+	 * 		true if the day folder exists and lies before the current day; then the current day is not changed
+	 * @return true if the value has been handled, false if it still needs to be appended to the current file
+	 * @throws IOException
+	 */
+	private boolean createFolderAndFile(final String label, final double value, final long timestamp, final byte state,
+			final RecordedDataConfiguration configuration, final long strDate, final long storingPeriod, 
+			final boolean existingPastDay) throws IOException {
+		// archived data cannot be modified; the current folder is never archived
+		if (strDate != currentDay && Files.exists(rootNode.resolve(getDayFolderName(strDate) + Archiver.ARCHIVE_EXTENSION))) {
+			logger.debug("Folder {} has been archived, ignoring value for {}", strDate, label);
+			return true;
+		}
+		if (!existingPastDay)
+			newDayStarted(strDate);
+		final Lock labelLock = labelLocks.get(label + strDate);
+		labelLock.lock();
+		try {
+			//controlHashtableSize(); is cleared anyway
+			final FileObjectList first = getFileObjectList(strDate, label);
+
+			/*
+			 * If FileObjectList for this label does not contain any FileObjects yet, a new one will be created. Data
+			 * will be stored and List reloaded for next Value to store.
+			 */
+			if (first.size() > 0)
+				return false;
+			final FileObject toStoreIn;
+			if (compressedFiles) {
+				toStoreIn = new CompressedFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/z"
+						+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "z" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+			}
+			else if (configuration.getStorageType().equals(StorageType.FIXED_INTERVAL)) {
+				// fixed interval
+				toStoreIn = new ConstantIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/c"
+						+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "c" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+			}
+			else {
+				/* flexible interval */
+				toStoreIn = new FlexibleIntervalFileObject(rootNodeString + "/" + getDayFolderName(strDate) + "/" + label + "/f"
+						+ timestamp + SlotsDb.FILE_EXTENSION, cache.getCache(label, "f" + timestamp  + SlotsDb.FILE_EXTENSION), fileContext);
+			}
+
+			long roundedTimestamp = getRoundedTimestamp(timestamp, configuration);
+			labelIndex.folderCreated(label, rootNode.resolve(getDayFolderName(strDate)));
+			toStoreIn.createFileAndHeader(roundedTimestamp, storingPeriod);
+			toStoreIn.append(value, roundedTimestamp, state);
+			
+			toStoreIn.close(); /* close() also calls flush(). */
+			
+			first.reLoadFolder(cache, label);
+			labelIndex.addFolder(label, strDate, rootNode.resolve(getDayFolderName(strDate)));
+			return true;
+		} finally {
+			labelLock.unlock();
+		}
+	}
+
 	/**
 	 * Rounds the timestamp to the next matching interval.
 	 * 
@@ -761,45 +1074,14 @@ public final class FileObjectProxy {
 		return null;
 	}
 	
-	private final Comparator<Path> getParentDirComparator() {
-		return useCompatibilityMode ? parentDirComparatorCompat : parentDirComparator;
-	}
-	
-	private final static Comparator<Path> parentDirComparator = new Comparator<Path>() {
-
-		@Override
-		public int compare(final Path o1, final Path o2) {
-			try {
-				return Long.compare(Long.parseLong(o1.getParent().getFileName().toString()), Long.parseLong(o2.getParent().getFileName().toString()));
-			} catch (NumberFormatException e) {
-				return 0;
-			}
-		}
-	};
-	
-	private final static Comparator<Path> parentDirComparatorCompat = new Comparator<Path>() {
-
-		@Override
-		public int compare(final Path o1, final Path o2) {
-			try {
-				final long t1 = TimeUtils.parseCompatibilityFolderName(o1.getParent().getFileName().toString());
-				final long t2 = TimeUtils.parseCompatibilityFolderName(o2.getParent().getFileName().toString());
-				return Long.compare(t1, t2);
-			} catch (DateTimeException e) {
-				return 0;
-			}
-		}
-	};
-	
 	// requires folder read lock 
 	private List<FileObjectList> getFoldersForIntervalSorted(final String label, final long start, final long end) throws IOException {
 		final long foldersStart = start == Long.MIN_VALUE ? start : TimeUtils.getCurrentStart(start, unit);
-		return days.parallelStream()
-			.filter(day -> isFolderBetweenStartAndEnd(day, foldersStart, end, useCompatibilityMode))
-			.map(day -> day.resolve(label))
-			.filter(subfolder -> Files.isDirectory(subfolder))
-			.sorted(getParentDirComparator())
-			.map(subfolder -> getFileObjectList(subfolder.getParent(), label))
+		if (foldersStart > end)
+			return Collections.emptyList();
+		final List<Long> folders = new ArrayList<>(labelIndex.getFolders(label).subMap(foldersStart, true, end, true).keySet());
+		return folders.parallelStream()
+			.map(day -> getFileObjectList(day, label))
 			.filter(fol -> fol != null)
 			.collect(Collectors.toList());
 	}
@@ -809,18 +1091,12 @@ public final class FileObjectProxy {
 	// label must be encoded already
 	final FileObjectList getNextFolder(final String label, final long start, final boolean inclusive) throws IOException {
 		final long actualStart = inclusive ? TimeUtils.getCurrentStart(start, unit) : start;
-		final Optional<Path> opt = days.stream()
-			.filter(day -> isFolderBetweenStartAndEnd(day, actualStart, Long.MAX_VALUE, useCompatibilityMode))
-			.map(day -> day.resolve(label))
-			.filter(subfolder -> Files.isDirectory(subfolder))
-			.sorted(getParentDirComparator())
-			.findFirst();
-		//System.out.printf("%s getNextFolder(%s, %d): opt=%s%n", Thread.currentThread().getName(), label, start, opt);
-		if (!opt.isPresent()) {
+		final Long day = labelIndex.getFolders(label).ceilingKey(actualStart);
+		//System.out.printf("%s getNextFolder(%s, %d): day=%s%n", Thread.currentThread().getName(), label, start, day);
+		if (day == null) {
 			return null;
 		}
-		final Path folder = opt.get();
-		return getFileObjectList(folder.getParent(), label);
+		return getFileObjectList(day, label);
 		
 		/*
 		 * Check for Folders matching criteria: Folder contains data between start & end timestamp. Folder contains
@@ -867,14 +1143,14 @@ public final class FileObjectProxy {
 		}
 	}
 	
-	static List<SampledValue> readFolder(final FileObjectList folder) throws IOException {
+	static ValueChunk readFolder(final FileObjectList folder) throws IOException {
 		if (folder.size() == 1)
 			return folder.getAllFileObjects().get(0).readFully();
-		final List<SampledValue> values = new ArrayList<>();
+		final List<ValueChunk> values = new ArrayList<>(folder.size());
 		for (FileObject fo : folder.getAllFileObjects()) {
-			values.addAll(fo.readFully());
+			values.add(fo.readFully());
 		}
-		return values;
+		return ValueChunk.concat(values);
 	}
 	
 	/*
@@ -988,60 +1264,6 @@ public final class FileObjectProxy {
 		}
 	}
 
-	/**
-	 * Parses a Timestamp in Milliseconds from a String in yyyyMMdd Format <br>
-	 * e.g.: 25.Sept.2011: 20110925 <br>
-	 * would return: 1316901600000 ms. equal to (25.09.2011 - 00:00:00) <br>
-	 * 
-	 * @param name
-	 *            in "yyyyMMdd" Format -> in ms format
-	 * @param start
-	 * @param end
-	 * @return
-	 * @throws IOException
-	 */
-	private static final boolean isFolderBetweenStartAndEnd(final Path name, final long start, final long end, final boolean useCompatibilityMode) {
-		final long folderStart;
-		String folderName = getFolderDateString(name);
-		try {
-			folderStart = !useCompatibilityMode ? Long.parseLong(folderName) : TimeUtils.parseCompatibilityFolderName(folderName);
-		} catch (NumberFormatException | DateTimeException e) {
-			logger.error("Unable to parse Timestamp from folder {}",name,e);
-			return false;
-		}
-		return start <= folderStart && folderStart <= end;
-			
-//		return start <= folderStart + 86399999 && folderStart <= end;
-//		final SimpleDateFormat sdf = getDateFormat();
-//		try {
-//			sdf.parse(name);
-//		} catch (ParseException e) {
-//			logger.error("Unable to parse Timestamp from: " + name + " folder. " + e.getMessage());
-//		}
-//		if (start <= sdf.getCalendar().getTimeInMillis() + 86399999 && sdf.getCalendar().getTimeInMillis() <= end) { // if
-//			// start
-//			// <=
-//			// folder.lastTSofDay
-//			// &&
-//			// folder.firstTSofDay
-//			// <=
-//			// end
-//			return true;
-//		}
-//		return false;
-	}
-	
-	private FileObjectList getFileObjectList(final Path dayFolder, final String label) {
-		try {
-			final long dayStr = !useCompatibilityMode ? Long.parseLong(dayFolder.getFileName().toString()) : 
-				TimeUtils.parseCompatibilityFolderName(dayFolder.getFileName().toString());
-			return getFileObjectList(dayStr, label);
-		} catch (NumberFormatException | NullPointerException e) {
-			logger.error("Invalid folder passed: {}",dayFolder, e);
-			return null;
-		}
-	}
-
 	/**
 	 * Requires folder read lock to be held
 	 * @param day
@@ -1069,12 +1291,12 @@ public final class FileObjectProxy {
 						logger.debug("found zipped data for {}/{}: {}", day, label, zipPath);
 						return new FileObjectList(zipPath,
 							rootNodeString + "/" + dayFolderName + "/" + labelFsPath,
-							dayFolderName, cache, label, useCompatibilityMode);
+							dayFolderName, cache, label, useCompatibilityMode, fileContext);
 					}
 
 					return new FileObjectList(
 							rootNodeString + "/" + dayFolderName + "/" + labelFsPath,
-							dayFolderName, cache, label, useCompatibilityMode);
+							dayFolderName, cache, label, useCompatibilityMode, fileContext);
 				} catch (IOException e) {
 					logger.error("Failed to construct FileObjectList",e);
 					return null;
@@ -1090,6 +1312,24 @@ public final class FileObjectProxy {
 		}
 	}
 	
+	/*
+	 * Opens the zip file system of a day archive, and registers the archive index for direct reads.
+	 */
+	private FileSystem openZipFileSystem(final Path zip) {
+		final FileSystem zipfs;
+		try {
+			zipfs = FileSystems.newFileSystem(zip, FileObjectProxy.class.getClassLoader());
+		} catch (IOException ex) {
+			return null;
+		}
+		try {
+			fileContext.addArchive(zipfs, DayArchive.open(zip));
+		} catch (IOException e) {
+			logger.debug("Archive {} cannot be indexed, entries will be read via the zip file system: {}", zip, e.toString());
+		}
+		return zipfs;
+	}
+	
 	Path isZipped(String day, String label) throws IOException {
 		Path zipFile = //Path.of(rootNodeString, day + ".zip");
 				FileSystems.getDefault().getPath(rootNodeString, day + ".zip");
@@ -1106,13 +1346,7 @@ public final class FileObjectProxy {
 			//zipFiles.put(zipFile, zipfs);
 			
 			// keep open zip files in map, zip path from closed zip fs will not work
-			zipfs = zipFiles.computeIfAbsent(zipFile, zip -> {
-								try {
-									return FileSystems.newFileSystem(zip, FileObjectProxy.class.getClassLoader());
-								} catch (IOException ex) {
-									return null;
-								}
-							});
+			zipfs = zipFiles.computeIfAbsent(zipFile, this::openZipFileSystem);
 		}
 		Path dataseriesZipPath = zipfs.getPath(day, label);
 		if (Files.exists(dataseriesZipPath)) {
@@ -1132,7 +1366,20 @@ public final class FileObjectProxy {
 	 */
 	private void newDayStarted(final long strDate) throws IOException {
 //		if (openFilesHM.containsKey(label + strDate)) {
-		if (strDate != currentDay) {
+		if (strDate != currentDay && rolloverLeadTime > 0) {
+			/*
+			 * Keep the files of the previous period open for late values, they are closed lazily
+			 * by the rollover task. Usually the folder has been created by the rollover task already.
+			 */
+			final Path folder = rootNode.resolve(getDayFolderName(strDate));
+			if (getDayIndex(folder) < 0)
+				addDay(folder);
+			if (currentDay == Long.MAX_VALUE || strDate > currentDay) {
+				currentDay = strDate;
+				logger.info("Started logging to a new Day. <{}>", getDayFolderName(strDate));
+			}
+		}
+		else if (strDate != currentDay) {
 			currentDay = strDate;
 			/*
 			 * Value for new day has been registered! Close and flush all connections! Empty Hashtable!
@@ -1140,12 +1387,242 @@ public final class FileObjectProxy {
 		
 			clearOpenFilesHashMap();
 			logger.info("Started logging to a new Day. <{}> Folder has been closed and flushed completely.",getDayFolderName(strDate));
-			Files.createDirectories(rootNode.resolve(getDayFolderName(strDate)));
+			final Path folder = rootNode.resolve(getDayFolderName(strDate));
+			final boolean created = !Files.exists(folder);
+			if (created)
+				labelIndex.addDay(folder);
+			Files.createDirectories(folder);
 			/* reload days */
 			reloadDays();
+			if (created)
+				labelIndex.checkpoint(rootNode, MAX_CATALOG_JOURNAL_SIZE);
+		}
+	}
+	
+	/**
+	 * Creates the folder for the next period, if the current period ends within the rollover
+	 * lead time. Open files are not affected.
+	 * @throws IOException
+	 */
+	final void prepareNextFolder() throws IOException {
+		final long now = getTime();
+		final long next = TimeUtils.getNextStart(TimeUtils.getCurrentStart(now, unit), unit);
+		if (next == Long.MAX_VALUE || next - now > rolloverLeadTime)
+			return;
+		final Path folder = rootNode.resolve(getDayFolderName(next));
+		folderLock.readLock().lock();
+		try {
+			if (getDayIndex(folder) >= 0)
+				return;
+		} finally {
+			folderLock.readLock().unlock();
+		}
+		folderLock.writeLock().lock();
+		try {
+			if (getDayIndex(folder) < 0) {
+				logger.debug("Creating folder {} ahead of time", folder);
+				addDay(folder);
+			}
+		} finally {
+			folderLock.writeLock().unlock();
 		}
 	}
 	
+	/**
+	 * Closes the files of past periods that ended more than the rollover lead time ago. At most
+	 * {@link #RETIRE_BATCH_SIZE} lists are closed per call, so the folder write lock is held only briefly.
+	 */
+	final void retireOpenFiles() {
+		// periods starting before the limit have ended at least rolloverLeadTime ago
+		final long limit = TimeUtils.getCurrentStart(getTime() - rolloverLeadTime, unit);
+		final List<String> retired = new ArrayList<>();
+		for (Map.Entry<String, FileObjectList> entry : openFilesHM.asMap().entrySet()) {
+			if (parseDayFolderName(entry.getValue().getDayFolderName()) < limit) {
+				retired.add(entry.getKey());
+				if (retired.size() >= RETIRE_BATCH_SIZE)
+					break;
+			}
+		}
+		if (retired.isEmpty())
+			return;
+		folderLock.writeLock().lock();
+		try {
+			openFilesHM.invalidateAll(retired); // closes the files
+		} finally {
+			folderLock.writeLock().unlock();
+		}
+		logger.debug("Closed files of {} time series of past periods", retired.size());
+	}
+	
+	/**
+	 * Requires folder read lock
+	 * @param folder
+	 * @return the index of the folder in {@link #days}, or a negative value if it is not contained
+	 */
+	private int getDayIndex(final Path folder) {
+		return Collections.binarySearch(days, folder, !useCompatibilityMode ? daysComparator : daysComparatorCompat);
+	}
+	
+	/**
+	 * Adds a day folder or archive created by another process to {@link #days}, or replaces a day folder 
+	 * by its archive. Requires the folder write lock for archives, and the read lock for day folders, which 
+	 * are only ever added; only to be called by the {@link DayWatcher}.
+	 * @param file
+	 * 		a day folder or archive in the database folder
+	 * @return
+	 * 		the day as an element of {@link #days}, or null if the days have not been changed
+	 * @throws IOException 
+	 */
+	final Path addDayExternal(final Path file) throws IOException {
+		final Path day;
+		if (file.getFileName().toString().endsWith(Archiver.ARCHIVE_EXTENSION)) {
+			final FileSystem zipfs = zipFiles.computeIfAbsent(file, this::openZipFileSystem);
+			if (zipfs == null)
+				return null;
+			day = zipfs.getPath(getFolderDateString(file));
+		} else if (Files.isDirectory(file)) {
+			day = file;
+		} else {
+			return null;
+		}
+		final int idx = getDayIndex(day);
+		if (idx < 0) {
+			days.add(-(idx + 1), day);
+		} else {
+			final Path existing = days.get(idx);
+			// a day folder that has been archived; an archive is never replaced by a folder
+			if (existing.equals(day) || day.getFileSystem() == FileSystems.getDefault())
+				return null;
+			days.set(idx, day);
+			labelIndex.removeFolder(getFolderStart(day));
+			closeOpenFiles(getFolderDateString(day));
+			clearCache();
+		}
+		diskUsageChanged(day);
+		logger.debug("Day folder {} added", day);
+		return day;
+	}
+
+	/**
+	 * Removes a day folder or archive deleted by another process from {@link #days}. Requires the folder write lock;
+	 * only to be called by the {@link DayWatcher}.
+	 * @param file
+	 * 		a day folder or archive in the database folder
+	 * @return
+	 * 		true if the days have been changed
+	 * @throws IOException
+	 */
+	final boolean removeDayExternal(final Path file) throws IOException {
+		final String dayName = getFolderDateString(file);
+		final boolean isArchive = file.getFileName().toString().endsWith(Archiver.ARCHIVE_EXTENSION);
+		final int idx = getDayIndex(file.getFileSystem().getPath(dayName));
+		if (idx < 0)
+			return false;
+		final Path existing = days.get(idx);
+		if (isArchive == (existing.getFileSystem() == FileSystems.getDefault()) || (!isArchive && !existing.equals(file)))
+			return false;
+		days.remove(idx);
+		labelIndex.removeFolder(getFolderStart(existing));
+		closeOpenFiles(dayName);
+		clearCache();
+		if (isArchive) {
+			final FileSystem zipfs = zipFiles.remove(file);
+			if (zipfs != null) {
+				final DayArchive dayArchive = fileContext.removeArchive(zipfs);
+				if (dayArchive != null)
+					dayArchive.close();
+				zipfs.close();
+			}
+		}
+		if (diskUsage != null)
+			diskUsage.remove(dayName);
+		logger.debug("Day folder {} removed", existing);
+		return true;
+	}
+
+	/**
+	 * Closes the open files of the given time series folders, which writes out buffered data, and drops 
+	 * their cached values and metadata, so that they are read from disk again. To be called when the log files 
+	 * in these folders have been replaced; unlike {@link #clearOpenFilesHashMap()} and {@link #clearCache()} 
+	 * this does not affect other time series. Requires folder write lock.
+	 * @param folders
+	 * 		time series folders, i.e. subfolders of day folders
+	 */
+	void invalidateFolders(final Set<Path> folders) {
+		final List<String> ids = openFilesHM.asMap().entrySet().stream()
+			.filter(entry -> folders.contains(entry.getValue().getBasePath()))
+			.map(Map.Entry::getKey)
+			.collect(Collectors.toList());
+		openFilesHM.invalidateAll(ids); // closes the files
+		for (Path folder : folders) {
+			cache.clearCache(folder.getFileName().toString());
+			fileContext.clearMetadata(folder);
+		}
+	}
+
+	/**
+	 * Replaces a day folder that has been deleted after packing it into an archive by the latter. 
+	 * Requires folder write lock.
+	 * @param day
+	 * 		an element of {@link #days}
+	 * @param archive
+	 * @param folders
+	 * 		the time series folders of the day
+	 * @throws IOException
+	 */
+	final void dayArchived(final Path day, final Path archive, final Set<Path> folders) throws IOException {
+		invalidateFolders(folders);
+		final int idx = getDayIndex(day);
+		final FileSystem zipfs = zipFiles.computeIfAbsent(archive, this::openZipFileSystem);
+		if (idx < 0 || zipfs == null) {
+			reloadDays();
+			return;
+		}
+		final Path archivedDay = zipfs.getPath(getFolderDateString(archive));
+		days.set(idx, archivedDay);
+		labelIndex.replaceDay(day, archivedDay);
+	}
+
+	// closes the files as if they had been evicted from the open files cache
+	private void closeOpenFiles(final String dayFolderName) {
+		final List<String> ids = openFilesHM.asMap().entrySet().stream()
+			.filter(entry -> dayFolderName.equals(entry.getValue().getDayFolderName()))
+			.map(Map.Entry::getKey)
+			.collect(Collectors.toList());
+		openFilesHM.invalidateAll(ids);
+	}
+
+	/**
+	 * Creates a folder and adds it to {@link #days}, without reloading the days. Requires folder write lock.
+	 * @param folder
+	 * @throws IOException
+	 */
+	private void addDay(final Path folder) throws IOException {
+		final boolean created = !Files.exists(folder);
+		if (created) {
+			labelIndex.addDay(folder);
+			Files.createDirectories(folder);
+		}
+		final int idx = getDayIndex(folder);
+		if (idx < 0)
+			days.add(-(idx + 1), folder);
+		if (created)
+			labelIndex.checkpoint(rootNode, MAX_CATALOG_JOURNAL_SIZE);
+	}
+	
+	/**
+	 * @param dayFolder
+	 * 		an element of {@link #days}
+	 * @return the start time of the folder period
+	 */
+	final long getFolderStart(final Path dayFolder) {
+		return parseDayFolderName(getFolderDateString(dayFolder));
+	}
+	
+	private long parseDayFolderName(final String dayFolderName) {
+		return !useCompatibilityMode ? Long.parseLong(dayFolderName) : TimeUtils.parseCompatibilityFolderName(dayFolderName);
+	}
+	
 	/** 
 	 * requires folder write lock
 	 */
@@ -1157,8 +1634,13 @@ public final class FileObjectProxy {
 		openFilesHM.invalidateAll();
 	}
 	
+	/**
+	 * Clears the cached log data and the cached file metadata; must be called after log files 
+	 * have been modified or deleted by other means than appending data.
+	 */
 	void clearCache() {
 		cache.clearCache();
+		fileContext.clearMetadata();
 	}
 	
 	public int size(String label, long start, long end) throws DataRecorderException, IOException {
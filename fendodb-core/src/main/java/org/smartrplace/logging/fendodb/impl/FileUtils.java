@@ -68,6 +68,17 @@ public class FileUtils {
 		} 
 	}
 	
+	/**
+	 * Delete a file written by {@link #writeJavaBytes(Path, String, Object)}, including its backup file.
+	 * @param directory
+	 * @param filename
+	 * @throws IOException
+	 */
+	public static void deleteJavaBytes(Path directory, String filename) throws IOException {
+		Files.deleteIfExists(directory.resolve(filename));
+		Files.deleteIfExists(directory.resolve(getTempFileName(filename)));
+	}
+	
 	@SuppressWarnings("unchecked")
 	private static <T> T readInternal(Path file) throws IOException, ClassNotFoundException, ClassCastException {
 		try (ObjectInputStream ois = new ObjectInputStream(Files.newInputStream(file))) {
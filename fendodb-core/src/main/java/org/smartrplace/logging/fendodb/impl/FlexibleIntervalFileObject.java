@@ -20,38 +20,55 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.channelmanager.measurements.SampledValue;
 import org.smartrplace.logging.fendodb.impl.FendoCache.FendoInstanceCache;
+import org.smartrplace.logging.fendodb.impl.FileObjectContext.FileMetadata;
 
 public class FlexibleIntervalFileObject extends FileObject {
 
 	private long lastTimestamp;
+	// file length for which lastTimestamp is the timestamp of the last data set, -1 if unknown; 
+	// volatile since it is read without holding the monitor, and must be written after lastTimestamp
+	private volatile long lastTimestampLength = -1;
 	private static final long HEADERSIZE = 16;
     private static final int DATASETSIZE = (Long.SIZE + Double.SIZE + Byte.SIZE) / Byte.SIZE;
     
-    private static final boolean FLUSH_ON_APPEND = Boolean.getBoolean("org.smartrplace.fendodb.flush");
+    // number of data sets read at once when skipping NaN values
+    private static final int SCAN_CHUNK_SIZE = 64;
+    // number of data sets read at once when verifying the order of the file
+    private static final int VERIFY_CHUNK_SIZE = 4096;
+    
+    // number of leading data sets whose order has been verified, see #isSorted(int); 
+    // volatile since it is read without holding the monitor, and must be written after the other two fields
+    private volatile int verifiedCount;
+    private boolean unsorted;
+    // maximum time stamp of the verified data sets
+    private long maxTimestamp = Long.MIN_VALUE;
 	
-	protected FlexibleIntervalFileObject(Path file, FendoInstanceCache cache) throws IOException {
-		super(file, cache);
+	protected FlexibleIntervalFileObject(Path file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
 		lastTimestamp = startTimeStamp;
+		final FileMetadata metadata = context.getMetadata(file);
+		if (metadata != null && metadata.length == length && metadata.lastTimestamp != Long.MIN_VALUE) {
+			lastTimestamp = metadata.lastTimestamp;
+			lastTimestampLength = length;
+		}
 	}
     
-	protected FlexibleIntervalFileObject(File file, FendoInstanceCache cache) throws IOException {
-		super(file, cache);
+	protected FlexibleIntervalFileObject(File file, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(file, cache, context);
 		lastTimestamp = startTimeStamp;
 	}
 
-	protected FlexibleIntervalFileObject(String fileName, FendoInstanceCache cache) throws IOException {
-		super(fileName, cache);
+	protected FlexibleIntervalFileObject(String fileName, FendoInstanceCache cache, FileObjectContext context) throws IOException {
+		super(fileName, cache, context);
 		lastTimestamp = startTimeStamp;
 	}
 
@@ -64,6 +81,13 @@ public class FlexibleIntervalFileObject extends FileObject {
 		//startTimeStamp = FileObjectProxy.getRoundedTimestamp(startTimeStamp, storagePeriod);
 	}
 
+    /**
+     * Removes an incomplete data set at the end of the file, and determines the timestamp of the last 
+     * data set if the file has been written by a previous instance. Values with a timestamp not newer than 
+     * this one are ignored by the append methods, as for values appended by this instance, so values older 
+     * than the file content are dropped after a restart, too. This keeps the data sets sorted, see 
+     * {@link #isSorted(int)}.
+     */
     @Override
     protected void enableOutput() throws IOException {
         super.enableOutput();
@@ -76,7 +100,21 @@ public class FlexibleIntervalFileObject extends FileObject {
 			try (SeekableByteChannel sbc = Files.newByteChannel(dataFile, StandardOpenOption.WRITE)) {
 				sbc.truncate(offset);
 			}
-            length = offset;
+            fileSizeChanged(offset - len);
+            synchronized (this) {
+            	setLength(offset);
+            }
+        }
+        synchronized (this) {
+        	if (lastTimestampLength != length) {
+        		if (getDataSetCountInternal() > 0) {
+        			if (!canRead) {
+        				enableInput();
+        			}
+        			lastTimestamp = Math.max(lastTimestamp, readLatestTimestamp(getDataSetCountInternal()));
+        		}
+        		lastTimestampLength = length;
+        	}
         }
     }
 
@@ -93,43 +131,54 @@ public class FlexibleIntervalFileObject extends FileObject {
 				buf.putDouble(value);
 				buf.put(flag);
 				((Buffer) buf).rewind();
-				//channel.write(buf);
-				channel.position(length).write(buf);
+				write(buf);
 				lastTimestamp = timestamp;
-				length += 17;
+				lastTimestampLength = length;
+			}
+		}
+	}
 
-				if (FLUSH_ON_APPEND) {
-					if (channel instanceof FileChannel) {
-						((FileChannel) channel).force(false);
-					}
-				}
+	@Override
+	public void append(long[] timestamps, double[] values, byte[] flags, int from, int to) throws IOException {
+		if (!canWrite) {
+			enableOutput();
+		}
+		synchronized (this) {
+			final ByteBuffer buf = ByteBuffer.allocate((to - from) * DATASETSIZE);
+			long last = lastTimestamp;
+			for (int i = from; i < to; i++) {
+				final long timestamp = timestamps[i];
+				if (timestamp <= last)
+					continue;
+				buf.putLong(timestamp);
+				buf.putDouble(values[i]);
+				buf.put(flags[i]);
+				last = timestamp;
 			}
+			((Buffer) buf).flip();
+			write(buf);
+			lastTimestamp = last;
+			lastTimestampLength = length;
 		}
 	}
 
 	@Override
-	protected long getTimestampForLatestValueInternal() {
-		// FIXME: this won't work ... if read(String, long, long) is invoked a new
-		// FileObject is created and lastTimestamp is set to startTimeStamp ...
-		// return lastTimestamp;
+	FileMetadata getMetadata() {
+		return new FileMetadata(startTimeStamp, storagePeriod, length, lastTimestampLength == length ? lastTimestamp : Long.MIN_VALUE);
+	}
 
-		// this is only a quickfix so that it works... @author of this class: if there
-		// is a better solution pls fix this... otherwise delete all comments in here
-		// and lets stick to this solution for now:
+	@Override
+	protected long getTimestampForLatestValueInternal() {
 		int dataSetCount = getDataSetCountInternal();
 		if (dataSetCount > 1) {
+			// known if data has been appended by this object, or has been cached when the file was last written
+			if (lastTimestampLength == length)
+				return lastTimestamp;
 			try {
 				if (!canRead) {
 					enableInput();
 				}
-				ByteBuffer bb = ByteBuffer.allocate(8);
-				synchronized (this) {
-					channel.position((dataSetCount - 1) * DATASETSIZE + HEADERSIZE);					
-					channel.read(bb);
-				}
-				((Buffer) bb).flip();
-				long l = bb.getLong();
-				return l;
+				return readLatestTimestamp(dataSetCount);
 			} catch (IOException | NullPointerException e) {
 				logger.error(e.getMessage(), e);
 				// FIXME return negative value to signalize error? for now simply
@@ -140,99 +189,90 @@ public class FlexibleIntervalFileObject extends FileObject {
 	}
 
 	@Override
-	protected List<SampledValue> readInternal(long start, long end) throws IOException {
-		final List<SampledValue> toReturn = new ArrayList<>(getDataSetCount());
+	protected ValueChunk readInternal(long start, long end) throws IOException {
 		if (!canRead) {
 			enableInput();
 		}
-
-		long startpos = HEADERSIZE;
-		final byte[] b = new byte[(int) (length - HEADERSIZE)];
-		ByteBuffer bb = ByteBuffer.wrap(b);
-		synchronized (this) {
-			channel.position(startpos).read(bb);
-		}
-		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-		((Buffer) bb).rewind();
-
-		for (int i = 0; i < getDataSetCountInternal(); i++) {
-			long timestamp = bb.getLong();
-			if (timestamp >= start && timestamp <= end) {
-				double d = bb.getDouble();
-				Quality s = Quality.getQuality(bb.get());
-				if (!Double.isNaN(d)) {
-					toReturn.add(new SampledValue(DoubleValues.of(d), timestamp, s));
-				}
-			} else {
-				bb.position(bb.position() + 9);
-			}
-
-		}
-
-		// TODO iterate through file and extract the required values.
-		return toReturn;
+		final int countOfDataSets = getDataSetCountInternal();
+		if (!isSorted(countOfDataSets))
+			return decodeUnsorted(readDataSets(0, countOfDataSets), countOfDataSets, start, end);
+		final int first = indexOfFirstNotBefore(start, countOfDataSets);
+		final int last = indexOfFirstAfter(end, countOfDataSets); // exclusive
+		if (first >= last)
+			return ValueChunk.EMPTY;
+		return decode(readDataSets(first, last - first), last - first);
 	}
 
 	@Override
-	protected List<SampledValue> readFullyInternal() throws IOException {
+	protected ValueChunk readFullyInternal() throws IOException {
 		//!!! must be called inside synchronized block!
-		final List<SampledValue> toReturn = new ArrayList<>(getDataSetCountInternal());
 		if (!canRead) {
 			enableInput();
 		}
-		long startpos = HEADERSIZE;
-		final byte[] b = new byte[(int) (length - HEADERSIZE)];
-		ByteBuffer bb = ByteBuffer.wrap(b);
-		channel.position(startpos).read(bb);
-		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-		((Buffer) bb).rewind();
 		final int countOfDataSets = getDataSetCountInternal();
+		if (!isSorted(countOfDataSets))
+			return decodeUnsorted(readDataSets(0, countOfDataSets), countOfDataSets, Long.MIN_VALUE, Long.MAX_VALUE);
+		return decode(readDataSets(0, countOfDataSets), countOfDataSets);
+	}
+
+	private static ValueChunk decode(final ByteBuffer bb, final int countOfDataSets) {
+		final ValueChunk.Builder builder = new ValueChunk.Builder(countOfDataSets);
 		for (int i = 0; i < countOfDataSets; i++) {
-			long timestamp = bb.getLong();
-			double d = bb.getDouble();
-			Quality s = Quality.getQuality(bb.get());
+			builder.add(bb.getLong(), bb.getDouble(), bb.get()); // NaN values are skipped
+		}
+		return builder.build();
+	}
 
-			if (!Double.isNaN(d)) {
-				toReturn.add(new SampledValue(DoubleValues.of(d), timestamp, s));
-			}
+	/**
+	 * Sorts the data sets in the interval [start, end] by time stamp; of several data sets
+	 * with the same time stamp only the first one is kept.
+	 */
+	private static ValueChunk decodeUnsorted(final ByteBuffer bb, final int countOfDataSets, final long start, final long end) {
+		final long[] timestamps = new long[countOfDataSets];
+		final double[] values = new double[countOfDataSets];
+		final byte[] qualities = new byte[countOfDataSets];
+		int size = 0;
+		for (int i = 0; i < countOfDataSets; i++) {
+			final long timestamp = bb.getLong();
+			final double d = bb.getDouble();
+			final byte q = bb.get();
+			if (timestamp < start || timestamp > end)
+				continue;
+			timestamps[size] = timestamp;
+			values[size] = d;
+			qualities[size] = q;
+			size++;
+		}
+		final Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (i, j) -> Long.compare(timestamps[i], timestamps[j])); // stable
+		final ValueChunk.Builder builder = new ValueChunk.Builder(size);
+		for (int i : order) {
+			builder.add(timestamps[i], values[i], qualities[i]);
 		}
-		return toReturn;
+		return builder.build();
 	}
 
 	@Override
 	public SampledValue read(long timestamp) throws IOException {
-		// TODO Search the special value
 		if (!canRead) {
 			enableInput();
 		}
-
-		long startpos = HEADERSIZE;
-		final byte[] b = new byte[(int) (length - HEADERSIZE)];
-		ByteBuffer bb = ByteBuffer.wrap(b);
-		int read;
-		synchronized (this) {
-			read = channel.position(startpos).read(bb);
-		}
-		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-		((Buffer) bb).flip();
 		final int countOfDataSets = getDataSetCountInternal();
-		for (int i = 0; i < countOfDataSets; i++) {
-			long timestamp2 = bb.getLong();
-			double d = bb.getDouble();
-			Quality s = Quality.getQuality(bb.get());
-			if (timestamp < timestamp2) {
-				//System.out.printf("%s read(%d) = null, bytes read=%d%n", Thread.currentThread().getName(), timestamp, read);
-				return null;
-			}
-			if (!Double.isNaN(d) && timestamp == timestamp2) {
-				//System.out.printf("%s read(%d) = %f, bytes read=%d%n", Thread.currentThread().getName(), timestamp, d, read);
-				return new SampledValue(DoubleValues.of(d), timestamp2, s);
-			}
+		if (!isSorted(countOfDataSets))
+			return scanForValue(timestamp, countOfDataSets, 0);
+		final int idx = indexOfFirstNotBefore(timestamp, countOfDataSets);
+		if (idx >= countOfDataSets)
+			return null;
+		final ByteBuffer bb = readDataSets(idx, 1);
+		long timestamp2 = bb.getLong();
+		double d = bb.getDouble();
+		Quality s = Quality.getQuality(bb.get());
+		if (!Double.isNaN(d) && timestamp == timestamp2) {
+			return new SampledValue(DoubleValues.of(d), timestamp2, s);
 		}
-		//System.out.printf("%s read(%d) = null, bytes read=%d%n", Thread.currentThread().getName(), timestamp, read);
 		return null;
 	}
 
@@ -246,30 +286,24 @@ public class FlexibleIntervalFileObject extends FileObject {
 		if (!canRead) {
 			enableInput();
 		}
-		long startpos = HEADERSIZE;
-		ByteBuffer bb = ByteBuffer.allocate((int) (length - HEADERSIZE));
 		final int countOfDataSets = getDataSetCountInternal();
-
-		int read;
-		synchronized (this) {
-			read = channel.position(startpos).read(bb);
-		}
-		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-		((Buffer) bb).flip();
-
-		for (int i = 0; i < countOfDataSets; i++) {
-			long nextTimeStamp = bb.getLong();
-			double d = bb.getDouble();
-			Quality s = Quality.getQuality(bb.get());
-			//System.out.printf("%s readNextValue(%d): %tc = %f, file=%s, file data size=%d, countOfDataSets=%d, data read=%d%n",
-			//			Thread.currentThread().getName(), timestamp, nextTimeStamp, d, dataFile, length-HEADERSIZE, countOfDataSets, read);
-			if (!Double.isNaN(d) && timestamp <= nextTimeStamp) {
-				return new SampledValue(DoubleValues.of(d), nextTimeStamp, s);
+		if (!isSorted(countOfDataSets))
+			return scanForValue(timestamp, countOfDataSets, 1);
+		int idx = indexOfFirstNotBefore(timestamp, countOfDataSets);
+		// typically the very first candidate is valid; NaN entries are skipped chunk-wise
+		while (idx < countOfDataSets) {
+			final int chunk = Math.min(SCAN_CHUNK_SIZE, countOfDataSets - idx);
+			final ByteBuffer bb = readDataSets(idx, chunk);
+			for (int i = 0; i < chunk; i++) {
+				long nextTimeStamp = bb.getLong();
+				double d = bb.getDouble();
+				Quality s = Quality.getQuality(bb.get());
+				if (!Double.isNaN(d)) {
+					return new SampledValue(DoubleValues.of(d), nextTimeStamp, s);
+				}
 			}
+			idx += chunk;
 		}
-		//System.out.printf("%s readNextValue(%d): null, file=%s, file data size=%d, countOfDataSets=%d, data read=%d%n",
-		//				Thread.currentThread().getName(), timestamp, dataFile, length-HEADERSIZE, countOfDataSets, read);
 		return null;
 	}
 
@@ -278,37 +312,28 @@ public class FlexibleIntervalFileObject extends FileObject {
 		if (!canRead) {
 			enableInput();
 		}
-		synchronized (this) {
-			try {
-				SeekableByteChannel in = channel.position(HEADERSIZE);
-				ByteBuffer dsbuf = ByteBuffer.allocate(17);
-				final int countOfDataSets = getDataSetCountInternal();
-				long tcand = Long.MIN_VALUE;
-				double dcand = Double.NaN;
-				Quality qcand = null;
-				for (int i = 0; i < countOfDataSets; i++) {
-					int read = in.read(dsbuf);
-					((Buffer) dsbuf).rewind();
-					//assert read == 16;
-					long timestamp2 = dsbuf.getLong();
-					double d = dsbuf.getDouble();
-					Quality s = Quality.getQuality(dsbuf.get());
-					if (!Double.isNaN(d) && timestamp >= timestamp2) {
-						tcand = timestamp2;
-						dcand = d;
-						qcand = s;
-						//				candidate = new SampledValue(DoubleValues.of(d), timestamp2, s);
-					} else if (timestamp < timestamp2) {
-						break;
+		try {
+			final int countOfDataSets = getDataSetCountInternal();
+			if (!isSorted(countOfDataSets))
+				return scanForValue(timestamp, countOfDataSets, -1);
+			int end = indexOfFirstAfter(timestamp, countOfDataSets); // exclusive
+			while (end > 0) {
+				final int chunk = Math.min(SCAN_CHUNK_SIZE, end);
+				final int first = end - chunk;
+				final ByteBuffer bb = readDataSets(first, chunk);
+				for (int i = chunk - 1; i >= 0; i--) {
+					((Buffer) bb).position(i * DATASETSIZE);
+					long timestamp2 = bb.getLong();
+					double d = bb.getDouble();
+					Quality s = Quality.getQuality(bb.get());
+					if (!Double.isNaN(d)) {
+						return new SampledValue(DoubleValues.of(d), timestamp2, s);
 					}
-					((Buffer) dsbuf).rewind();
-				}
-				if (!Double.isNaN(dcand)) {
-					return new SampledValue(DoubleValues.of(dcand), tcand, qcand);
 				}
-			} catch (RuntimeException re) {
-				throw new IOException("bug or corrupted file " + dataFile, re);
+				end = first;
 			}
+		} catch (RuntimeException re) {
+			throw new IOException("bug or corrupted file " + dataFile, re);
 		}
 		return null;
 	}
@@ -328,29 +353,170 @@ public class FlexibleIntervalFileObject extends FileObject {
 		if (!canRead) {
 			enableInput();
 		}
-		long startpos = HEADERSIZE;
-		final byte[] b = new byte[(int) (length - HEADERSIZE)];
-		ByteBuffer bb = ByteBuffer.wrap(b);
-		synchronized (this) {
-			channel.position(startpos).read(bb);
-		}
-		// casting is a hack to avoid incompatibility when building this on Java 9 and run on Java 8
-		// ByteBuffer#rewind used to return a Buffer in Jdk8, but from Java 9 on returns a ByteBuffer
-		((Buffer) bb).rewind();
-		int cnt = 0;
 		final int countOfDataSets = getDataSetCountInternal();
-		for (int i = 0; i < countOfDataSets; i++) {
-			long timestamp2 = bb.getLong();
+		final boolean sorted = isSorted(countOfDataSets);
+		final int first = sorted ? indexOfFirstNotBefore(start, countOfDataSets) : 0;
+		final int last = sorted ? indexOfFirstAfter(end, countOfDataSets) : countOfDataSets;
+		if (first >= last)
+			return 0;
+		final ByteBuffer bb = readDataSets(first, last - first);
+		int cnt = 0;
+		for (int i = first; i < last; i++) {
+			final long timestamp = bb.getLong();
 			double d = bb.getDouble();
-			if (timestamp2 > end)
-				return cnt;
-			if (!Double.isNaN(d) && timestamp2 >= start) {
+			if (!Double.isNaN(d) && (sorted || (timestamp >= start && timestamp <= end))) {
 				cnt++;
 			}
 			bb.get();
 		}
-		
 		return cnt;
 	}
 
+	/*
+	 * Records are strictly ordered by timestamp, since append drops all values
+	 * with timestamp <= lastTimestamp, hence we can binary search the file
+	 * instead of scanning it. Files written by earlier versions may violate this, 
+	 * since lastTimestamp used to be reset to the start time stamp of the file 
+	 * when the file object was recreated; see #isSorted(int).
+	 */
+
+	/**
+	 * Verifies the order of the data sets not checked yet, so each data set is read once 
+	 * for this purpose. 
+	 * @param countOfDataSets
+	 * @return true if the data sets are ordered by time stamp and can be binary searched, 
+	 * 		false if they must be scanned linearly
+	 * @throws IOException
+	 */
+	private boolean isSorted(final int countOfDataSets) throws IOException {
+		if (verifiedCount >= countOfDataSets)
+			return !unsorted;
+		synchronized (this) {
+			int idx = verifiedCount;
+			if (idx >= countOfDataSets)
+				return !unsorted;
+			long max = maxTimestamp;
+			boolean sorted = !unsorted;
+			while (idx < countOfDataSets) {
+				final int chunk = Math.min(VERIFY_CHUNK_SIZE, countOfDataSets - idx);
+				final ByteBuffer bb = readDataSets(idx, chunk);
+				for (int i = 0; i < chunk; i++) {
+					final long timestamp = bb.getLong(i * DATASETSIZE);
+					if (timestamp < max)
+						sorted = false;
+					else
+						max = timestamp;
+				}
+				idx += chunk;
+			}
+			if (!sorted && !unsorted)
+				logger.warn("Data sets in file {} are not ordered by time stamp, falling back to linear search", dataFile);
+			maxTimestamp = max;
+			unsorted = !sorted;
+			verifiedCount = countOfDataSets;
+			return sorted;
+		}
+	}
+
+	/**
+	 * Must be called with the monitor held.
+	 * @param countOfDataSets
+	 * @return the maximum time stamp in the file
+	 * @throws IOException
+	 */
+	private long readLatestTimestamp(final int countOfDataSets) throws IOException {
+		return isSorted(countOfDataSets) ? readTimestamp(countOfDataSets - 1) : maxTimestamp;
+	}
+
+	/**
+	 * Linear search for unsorted files.
+	 * @param timestamp
+	 * @param countOfDataSets
+	 * @param direction
+	 * 		0: value at timestamp, 1: first value at or after timestamp, -1: last value at or before timestamp
+	 * @return
+	 * @throws IOException
+	 */
+	private SampledValue scanForValue(final long timestamp, final int countOfDataSets, final int direction) throws IOException {
+		final ByteBuffer bb = readDataSets(0, countOfDataSets);
+		long tcand = direction >= 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+		double dcand = Double.NaN;
+		byte qcand = 0;
+		for (int i = 0; i < countOfDataSets; i++) {
+			final long timestamp2 = bb.getLong();
+			final double d = bb.getDouble();
+			final byte q = bb.get();
+			if (Double.isNaN(d))
+				continue;
+			final boolean better;
+			if (direction == 0)
+				better = timestamp2 == timestamp;
+			else if (direction > 0)
+				better = timestamp2 >= timestamp && timestamp2 < tcand;
+			else
+				better = timestamp2 <= timestamp && timestamp2 > tcand;
+			if (better) {
+				tcand = timestamp2;
+				dcand = d;
+				qcand = q;
+				if (direction == 0)
+					break;
+			}
+		}
+		return Double.isNaN(dcand) ? null : new SampledValue(DoubleValues.of(dcand), tcand, Quality.getQuality(qcand));
+	}
+
+	/**
+	 * @param timestamp
+	 * @param countOfDataSets
+	 * @return index of the first data set with timestamp &gt;= timestamp, or countOfDataSets if there is none
+	 * @throws IOException
+	 */
+	private int indexOfFirstNotBefore(final long timestamp, final int countOfDataSets) throws IOException {
+		int low = 0;
+		int high = countOfDataSets;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (readTimestamp(mid) < timestamp)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @param timestamp
+	 * @param countOfDataSets
+	 * @return index of the first data set with timestamp &gt; timestamp, or countOfDataSets if there is none
+	 * @throws IOException
+	 */
+	private int indexOfFirstAfter(final long timestamp, final int countOfDataSets) throws IOException {
+		int low = 0;
+		int high = countOfDataSets;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (readTimestamp(mid) <= timestamp)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private long readTimestamp(final int idx) throws IOException {
+		return readBytes(HEADERSIZE + (long) idx * DATASETSIZE, Long.BYTES).getLong();
+	}
+
+	/**
+	 * Read a contiguous slice of data sets.
+	 * @param firstIdx
+	 * @param count
+	 * @return a buffer positioned at the start of data set firstIdx
+	 * @throws IOException
+	 */
+	private ByteBuffer readDataSets(final int firstIdx, final int count) throws IOException {
+		return readBytes(HEADERSIZE + (long) firstIdx * DATASETSIZE, count * DATASETSIZE);
+	}
+
 }
@@ -499,6 +499,17 @@ class GogoCommands {
 		}
 	}
 
+	@Descriptor("Print the background tasks of all FendoDB instances, with their queue depth and latency")
+	public void maintenanceTasks() {
+		final MaintenanceScheduler scheduler = ((SlotsDbFactoryImpl) factory).getScheduler();
+		if (scheduler == null) {
+			System.out.println("Factory has been closed");
+			return;
+		}
+		System.out.println(scheduler);
+		scheduler.getTasks().forEach(task -> System.out.println("  " + task));
+	}
+
 	private final SlotsDb getImplementation(final CloseableDataRecorder recorder) {
 		if (recorder instanceof SlotsDbProxy)
 			return ((SlotsDbProxy) recorder).master;
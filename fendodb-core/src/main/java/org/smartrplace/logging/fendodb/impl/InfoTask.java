@@ -18,11 +18,10 @@ package org.smartrplace.logging.fendodb.impl;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
 import java.util.stream.Stream;
 
 import org.ogema.core.logging.LogLevel;
@@ -30,10 +29,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // TODO tests for these functions
-abstract class InfoTask extends TimerTask {
+abstract class InfoTask implements Runnable {
 	
 	private static final Logger logger = LoggerFactory.getLogger(InfoTask.class);
 	private volatile boolean running = false;
+	// null if the task is not scheduled
+	private volatile MaintenanceScheduler.ScheduledTask scheduled;
 	final FileObjectProxy proxy;
 	private final LogLevel level;
 	private final boolean requiresFolderLock;
@@ -54,6 +55,31 @@ abstract class InfoTask extends TimerTask {
 		return running;
 	}
 	
+	/**
+	 * Execute the task periodically.
+	 * @param scheduler
+	 * @param priority
+	 * @param delay
+	 * 		in ms
+	 * @param period
+	 * 		in ms
+	 */
+	final void schedule(final MaintenanceScheduler scheduler, final MaintenanceScheduler.Priority priority, 
+			final long delay, final long period) {
+		scheduled = scheduler.schedule(toString(), priority, this, delay, period);
+	}
+	
+	/**
+	 * Stop further executions; does not wait for an execution in progress.
+	 */
+	final void cancel() {
+		final MaintenanceScheduler.ScheduledTask scheduled = this.scheduled;
+		if (scheduled != null) {
+			scheduled.cancel();
+			this.scheduled = null;
+		}
+	}
+	
 	@Override
 	public final void run() {
 		running = true;
@@ -103,6 +129,11 @@ abstract class InfoTask extends TimerTask {
 	
 	abstract void runInternal() throws IOException;
 	
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " " + proxy.rootNodeString;
+	}
+	
 	static void deleteRecursiveFolder(final Path folder) {
 		if (Files.exists(folder)) {
 			try {
@@ -166,11 +197,13 @@ abstract class InfoTask extends TimerTask {
 //			deleteFolders(start, false);
 //		}
 		
+		/**
+		 * Requires the folder write lock, and the open files to have been closed.
+		 */
 		final void deleteFolders(final long limit, final boolean olderOrNewer) throws IOException {
-			proxy.reloadDays();
-			final Iterator<Path> iterator = proxy.days.iterator();
-			while (iterator.hasNext()) {
-				final Path curElement = iterator.next();
+			final List<Path> deleted = new ArrayList<>();
+			// iterates over a snapshot of the copy-on-write list
+			for (Path curElement : proxy.days) {
 				logger.trace("Deleting log data... checking: {}", curElement);
 				try {
 					final long folderTime = !proxy.useCompatibilityMode ? Long.parseLong(curElement.getFileName().toString()) :
@@ -178,10 +211,13 @@ abstract class InfoTask extends TimerTask {
 					final boolean matches = olderOrNewer ? folderTime < limit : folderTime >= limit;
 					if (matches) { // compare folder 's oldest value to limit
 						logger.info("Folder: {} is " + (olderOrNewer ? "older" : "newer") 
-								+ " than limit. Will be deleted.");
-						deleteRecursiveFolder(curElement);
-						if (Files.exists(curElement)) 
-							logger.warn("Folder still exists after deletion attempt: {}", curElement);
+								+ " than limit. Will be deleted.", curElement);
+						try {
+							proxy.deleteDay(curElement);
+							deleted.add(curElement);
+						} catch (IOException e) {
+							logger.warn("Failed to delete folder {}", curElement, e);
+						}
 					}
 					else {
 						if (olderOrNewer)
@@ -193,62 +229,103 @@ abstract class InfoTask extends TimerTask {
 					continue;
 				}
 			}
-			proxy.reloadDays();
+			if (deleted.isEmpty())
+				return;
+			proxy.days.removeAll(deleted);
+			for (Path day : deleted) {
+				if (proxy.diskUsage != null)
+					proxy.diskUsage.remove(FileObjectProxy.getFolderDateString(day));
+				proxy.labelIndex.removeFolder(proxy.getFolderStart(day));
+			}
+			proxy.clearCache();
 		}
 		
 	}
 
+	/**
+	 * Creates the folder for the next period ahead of time, and closes the log files
+	 * of past periods lazily.
+	 */
+	static class Rollover extends InfoTask {
+		
+		Rollover(FileObjectProxy proxy) {
+			super(proxy, false, false, LogLevel.TRACE);
+		}
+		
+		@Override
+		void runInternal() throws IOException {
+			proxy.prepareNextFolder();
+			proxy.retireOpenFiles();
+		}
+		
+		@Override
+		void stopTask() {
+			try {
+				cancel();
+			} catch (Exception e) {
+				logger.error("Error stopping task",e);
+			}
+		}
+		
+	}
+
+	/**
+	 * Deletes the oldest folders when the database exceeds its size limit. The database folder is scanned
+	 * only once, afterwards the size is tracked by {@link DiskUsage}, so the check can run frequently.
+	 */
 	static class SizeWatcher extends InfoTask {
 
+		// maximum period between two checks in ms
+		static final long CHECK_PERIOD = 10 * 1000;
+
 		SizeWatcher(FileObjectProxy proxy) {
-			super(proxy, true, false);
+			// the folder lock is only needed if folders must be deleted
+			super(proxy, false, false, LogLevel.TRACE);
 		}
 
 		@Override
 		void runInternal() throws IOException {
-			long size = getDiskUsage(proxy.rootNode);
-			while ((size / 1000000 > proxy.limit_size) && (proxy.days.size() >= 2)) { // avoid deleting current folder
-				if (logger.isInfoEnabled()) {
-					logger.info("Exceeded Maximum Database Size: " + proxy.limit_size + " MB. Current size: " + (size / 1000000)
-							+ " MB. Deleting: " + proxy.days.get(0));
+			final DiskUsage diskUsage = proxy.diskUsage;
+			if (!diskUsage.isInitialized()) {
+				proxy.folderLock.readLock().lock();
+				try {
+					diskUsage.init(proxy.days);
+				} finally {
+					proxy.folderLock.readLock().unlock();
 				}
-				deleteOldestFolder();
-				size = getDiskUsage(proxy.rootNode);
+			}
+			if (!isSizeExceeded(diskUsage.getTotal()))
+				return;
+			proxy.folderLock.writeLock().lock();
+			try {
+				proxy.clearOpenFilesHashMap();
+				long size = diskUsage.getTotal();
+				while (isSizeExceeded(size) && (proxy.days.size() >= 2)) { // avoid deleting current folder
+					if (logger.isInfoEnabled()) {
+						logger.info("Exceeded Maximum Database Size: " + proxy.limit_size + " MB. Current size: " + (size / 1000000)
+								+ " MB. Deleting: " + proxy.days.get(0));
+					}
+					deleteOldestFolder();
+					size = diskUsage.getTotal();
+				}
+			} finally {
+				proxy.folderLock.writeLock().unlock();
 			}
 		}
 
-		private void deleteOldestFolder() throws IOException {
-			deleteRecursiveFolder(proxy.days.get(0));
-			proxy.days.remove(0);
-			proxy.clearOpenFilesHashMap();
+		private boolean isSizeExceeded(final long size) {
+			return size / 1000000 > proxy.limit_size;
 		}
 
-		/*
-		 * recursive function to get the size of a folder. sums up all files. needs an initial LONG to store size to.
-		 */
-		private long getDiskUsage(final Path folder) throws IOException {
-			final AtomicLong length = new AtomicLong(0);
-			recursive_size_walker(folder, length);
-			return length.get();
+		private void deleteOldestFolder() throws IOException {
+			final Path oldest = proxy.days.remove(0);
+			proxy.deleteDay(oldest);
+			proxy.diskUsage.remove(FileObjectProxy.getFolderDateString(oldest));
+			proxy.labelIndex.removeFolder(proxy.getFolderStart(oldest));
+			proxy.clearOpenFilesHashMap();
+			proxy.clearCache();
 		}
 
-		private void recursive_size_walker(final Path folder, final AtomicLong length) throws IOException {
-			try (final Stream<Path> stream = Files.list(folder)) {
-				stream.forEach(f -> {
-					try {
-						if (Files.isDirectory(f)) {
-							recursive_size_walker(f, length);
-                        }
-                        length.getAndAdd(Files.size(f));
-                    } catch (NoSuchFileException nsfe) {
-                        logger.debug("file deleted: {}", nsfe.getMessage());
-					} catch (IOException e) {
-						logger.error("Failed to determine folder size",e);
-					}
-				});
-			}
-		}
-		
 	}
 	
 	static class DaysReloading extends InfoTask {
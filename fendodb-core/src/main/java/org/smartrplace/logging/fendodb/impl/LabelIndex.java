@@ -0,0 +1,298 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the folders (time partitions) which contain data for a time series, so that
+ * finding the folders for a time interval does not require a file system lookup per folder.<br>
+ * For some days, the subfolders of all labels are known, either from the {@link Catalog} or because 
+ * the day folder has been created by this instance. For all other days, the folders of a label are determined 
+ * on the first request. In both cases the index is kept up to date when new folders are created for a label, 
+ * and new folders in complete days are recorded in the {@link Catalog.Journal}, if there is one.<br>
+ * Synchronization: lookups and adding a folder for a label require the folder read lock, all other 
+ * modifications require the folder write lock (see {@link FileObjectProxy#folderLock}).
+ */
+final class LabelIndex {
+
+	private final FileObjectProxy proxy;
+	// keys: encoded labels; values: folder start time -> day folder (from FileObjectProxy#days)
+	private final ConcurrentMap<String, NavigableMap<Long, Path>> folders = new ConcurrentHashMap<>();
+	// day folders for which the subfolders of all labels are known
+	private final Set<Path> completeDays = ConcurrentHashMap.newKeySet();
+	// the subfolders in completeDays; keys: encoded labels; values: folder start time -> day folder
+	private final ConcurrentMap<String, NavigableMap<Long, Path>> completeFolders = new ConcurrentHashMap<>();
+	// null in read only mode
+	private volatile Catalog.Journal journal;
+
+	LabelIndex(FileObjectProxy proxy) {
+		this.proxy = proxy;
+	}
+
+	/**
+	 * @param label
+	 * 		encoded label
+	 * @return
+	 * 		the day folders containing a subfolder for the label, ordered by their start time.
+	 * 		The map must not be modified.
+	 */
+	NavigableMap<Long, Path> getFolders(final String label) {
+		// concurrent additions for the same label wait for the scan to finish, see #addFolder
+		return folders.computeIfAbsent(label, this::scan);
+	}
+
+	/**
+	 * Record a subfolder for the label which is about to be created in the journal, if the 
+	 * day is complete. Requires the folder read lock.
+	 * @param label
+	 * @param dayFolder
+	 */
+	void folderCreated(final String label, final Path dayFolder) {
+		final Catalog.Journal journal = this.journal;
+		if (journal == null || !completeDays.contains(dayFolder))
+			return;
+		final NavigableMap<Long, Path> known = completeFolders.get(label);
+		if (known == null || !known.containsValue(dayFolder))
+			journal.folderCreated(label, getEntryName(dayFolder));
+	}
+
+	/**
+	 * Register a new subfolder for the label; requires that the folder exists already.
+	 * @param label
+	 * @param day
+	 * 		folder start time
+	 * @param dayFolder
+	 */
+	void addFolder(final String label, final long day, final Path dayFolder) {
+		if (completeDays.contains(dayFolder))
+			completeFolders.computeIfAbsent(label, l -> new ConcurrentSkipListMap<>()).putIfAbsent(day, dayFolder);
+		folders.computeIfPresent(label, (l, map) -> {
+			map.putIfAbsent(day, dayFolder);
+			return map;
+		});
+	}
+
+	/**
+	 * Register an empty day folder, which is about to be created by this instance. Requires folder write lock.
+	 * @param dayFolder
+	 */
+	void addDay(final Path dayFolder) {
+		final Catalog.Journal journal = this.journal;
+		if (journal != null)
+			journal.dayCreated(getEntryName(dayFolder));
+		completeDays.add(dayFolder);
+	}
+
+	/**
+	 * Requires folder write lock
+	 * @param day
+	 * 		folder start time
+	 */
+	void removeFolder(final long day) {
+		folders.values().forEach(map -> map.remove(day));
+		completeFolders.values().forEach(map -> {
+			final Path dayFolder = map.remove(day);
+			if (dayFolder != null)
+				completeDays.remove(dayFolder);
+		});
+	}
+
+	/**
+	 * Replace a day folder by its archive, which contains the same subfolders. Requires folder write lock.
+	 * @param dayFolder
+	 * @param archivedDay
+	 * 		path of the day in the zip file system of the archive
+	 */
+	void replaceDay(final Path dayFolder, final Path archivedDay) {
+		folders.values().forEach(map -> map.replaceAll((day, folder) -> folder.equals(dayFolder) ? archivedDay : folder));
+		completeFolders.values().forEach(map -> map.replaceAll((day, folder) -> folder.equals(dayFolder) ? archivedDay : folder));
+		if (completeDays.remove(dayFolder))
+			completeDays.add(archivedDay);
+	}
+
+	/**
+	 * Forget about the subfolders of a day, for instance because they have been renamed. 
+	 * Requires folder write lock.
+	 * @param dayFolder
+	 */
+	void invalidate(final Path dayFolder) {
+		final Catalog.Journal journal = this.journal;
+		if (journal != null && completeDays.contains(dayFolder))
+			journal.dayInvalidated(getEntryName(dayFolder));
+		completeDays.remove(dayFolder);
+		completeFolders.values().forEach(map -> map.values().remove(dayFolder));
+		folders.clear();
+	}
+
+	/**
+	 * To be called after the days have been reloaded. Requires folder write lock
+	 */
+	void reload() {
+		folders.clear();
+		completeDays.retainAll(proxy.days);
+		completeFolders.values().forEach(map -> map.values().retainAll(completeDays));
+	}
+
+	/**
+	 * Initialize the index from a persisted catalog. Requires folder write lock.
+	 * @param catalog
+	 */
+	void init(final Catalog catalog) {
+		final List<String> catalogDays = catalog.getDays();
+		final Map<String, Integer> indices = new HashMap<>(catalogDays.size() * 2);
+		for (int i = 0; i < catalogDays.size(); i++) {
+			indices.put(catalogDays.get(i), i);
+		}
+		final Path[] dayFolders = new Path[catalogDays.size()];
+		for (Path day : proxy.days) {
+			final Integer idx = indices.get(getEntryName(day));
+			if (idx != null) {
+				dayFolders[idx] = day;
+				completeDays.add(day);
+			}
+		}
+		for (Map.Entry<String, BitSet> entry : catalog.getLabels().entrySet()) {
+			final NavigableMap<Long, Path> map = new ConcurrentSkipListMap<>();
+			final BitSet set = entry.getValue();
+			for (int idx = set.nextSetBit(0); idx >= 0 && idx < dayFolders.length; idx = set.nextSetBit(idx + 1)) {
+				if (dayFolders[idx] != null)
+					map.put(proxy.getFolderStart(dayFolders[idx]), dayFolders[idx]);
+			}
+			if (!map.isEmpty())
+				completeFolders.put(entry.getKey(), map);
+		}
+	}
+
+	/**
+	 * Start recording new folders in a journal; the catalog must have been passed to {@link #init(Catalog)}
+	 * before, if there is one. Requires folder write lock.
+	 * @param root
+	 * @param force
+	 * 		force journal entries to the storage device?
+	 * @throws IOException
+	 */
+	void openJournal(final Path root, final boolean force) throws IOException {
+		this.journal = new Catalog.Journal(root, force);
+	}
+
+	/**
+	 * Write the catalog and clear the journal, if the latter has grown larger than maxJournalSize. 
+	 * Requires folder write lock.
+	 * @param root
+	 * @param maxJournalSize
+	 * @throws IOException
+	 */
+	void checkpoint(final Path root, final long maxJournalSize) throws IOException {
+		final Catalog.Journal journal = this.journal;
+		if (journal == null || journal.size() <= maxJournalSize)
+			return;
+		toCatalog().write(root);
+		journal.clear();
+	}
+
+	/**
+	 * Write the catalog and delete the journal, if there is one. Requires folder write lock.
+	 * @param root
+	 * @throws IOException
+	 */
+	void closeJournal(final Path root) throws IOException {
+		final Catalog.Journal journal = this.journal;
+		this.journal = null;
+		try {
+			toCatalog().write(root);
+		} finally {
+			if (journal != null)
+				journal.close();
+		}
+		Files.deleteIfExists(root.resolve(Catalog.JOURNAL_FILE_NAME));
+	}
+
+	/**
+	 * Creates a catalog of the current days. Requires folder write lock.
+	 * @return
+	 * @throws IOException
+	 */
+	Catalog toCatalog() throws IOException {
+		final List<Path> days = proxy.days;
+		final List<String> names = days.stream().map(LabelIndex::getEntryName).collect(Collectors.toList());
+		final Catalog.Builder builder = new Catalog.Builder(names);
+		final Map<Path, Integer> indices = new HashMap<>(days.size() * 2);
+		for (int i = 0; i < days.size(); i++) {
+			indices.put(days.get(i), i);
+		}
+		completeFolders.forEach((label, map) -> map.values().forEach(day -> {
+			final Integer idx = indices.get(day);
+			if (idx != null)
+				builder.add(label, idx);
+		}));
+		for (int i = 0; i < days.size(); i++) {
+			final Path day = days.get(i);
+			if (completeDays.contains(day))
+				continue;
+			final List<Path> subfolders;
+			try (final Stream<Path> stream = Files.list(day)) {
+				subfolders = stream.filter(Files::isDirectory).collect(Collectors.toList());
+			}
+			for (Path subfolder : subfolders) {
+				builder.add(getFileName(subfolder), i);
+			}
+		}
+		return builder.build();
+	}
+
+	private NavigableMap<Long, Path> scan(final String label) {
+		final NavigableMap<Long, Path> known = completeFolders.get(label);
+		final NavigableMap<Long, Path> map = known != null ? new ConcurrentSkipListMap<>(known) : new ConcurrentSkipListMap<>();
+		final List<Path> days = new ArrayList<>(proxy.days);
+		days.removeAll(completeDays);
+		days.parallelStream()
+			.filter(day -> Files.isDirectory(day.resolve(label)))
+			.forEach(day -> map.put(proxy.getFolderStart(day), day));
+		return map;
+	}
+
+	/**
+	 * @param day
+	 * @return the name of the day folder or day archive in the root folder
+	 */
+	private static String getEntryName(final Path day) {
+		final String name = getFileName(day);
+		return day.getFileSystem() == FileSystems.getDefault() ? name : name + Archiver.ARCHIVE_EXTENSION;
+	}
+
+	private static String getFileName(final Path path) {
+		final String name = path.getFileName().toString();
+		// paths in zip file systems end with a slash
+		return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+	}
+
+}
@@ -0,0 +1,353 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the background tasks of all databases of one factory, such as flushing, compaction or the deletion 
+ * of old data, on a small number of threads. Tasks are assigned to one of three bounded thread pools by their 
+ * priority, so that long running low priority tasks do not delay the others. The pools can be inspected for 
+ * their queue depth, the periodic tasks for their start latency and execution time.
+ */
+final class MaintenanceScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(MaintenanceScheduler.class);
+	// for databases created without a factory, e.g. in tests; guarded by the class monitor
+	private static MaintenanceScheduler defaultScheduler;
+	// number of databases using the default scheduler, which is closed when the last of them is closed
+	private static int defaultSchedulerUsers;
+
+	enum Priority {
+		
+		/**
+		 * Short tasks that affect the durability or latency of write operations, e.g. flushing.
+		 */
+		HIGH(2, Thread.NORM_PRIORITY),
+		/**
+		 * Periodic checks, e.g. of the database size.
+		 */
+		NORMAL(2, Thread.NORM_PRIORITY - 1),
+		/**
+		 * Long running disk intensive tasks, e.g. compaction and deletion of files.
+		 */
+		LOW(1, Thread.MIN_PRIORITY);
+		
+		private final int threads;
+		private final int threadPriority;
+		
+		private Priority(int threads, int threadPriority) {
+			this.threads = threads;
+			this.threadPriority = threadPriority;
+		}
+		
+	}
+
+	private final String name;
+	private final Map<Priority, ScheduledThreadPoolExecutor> executors = new EnumMap<>(Priority.class);
+	private final Set<ScheduledTask> tasks = ConcurrentHashMap.newKeySet();
+
+	MaintenanceScheduler(String name) {
+		this.name = name;
+		for (Priority priority : Priority.values()) {
+			final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(priority.threads, 
+					new MaintenanceThreadFactory(name + "-" + priority.name().toLowerCase(), priority.threadPriority));
+			executor.setRemoveOnCancelPolicy(true);
+			executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			executors.put(priority, executor);
+		}
+	}
+
+	/**
+	 * Get the scheduler for databases that do not belong to a factory. Every call must be matched by a call
+	 * to {@link #releaseDefault()} when the database is closed.
+	 * @return the default scheduler
+	 */
+	static synchronized MaintenanceScheduler acquireDefault() {
+		if (defaultScheduler == null)
+			defaultScheduler = new MaintenanceScheduler("fendodb-maintenance");
+		defaultSchedulerUsers++;
+		return defaultScheduler;
+	}
+
+	/**
+	 * Release the default scheduler obtained from {@link #acquireDefault()}. It is closed when it is no
+	 * longer used by any database, and created again if required.
+	 */
+	static void releaseDefault() {
+		final MaintenanceScheduler scheduler;
+		synchronized (MaintenanceScheduler.class) {
+			if (defaultSchedulerUsers == 0 || --defaultSchedulerUsers > 0)
+				return;
+			scheduler = defaultScheduler;
+			defaultScheduler = null;
+		}
+		scheduler.close();
+	}
+
+	/**
+	 * Execute a task periodically, with a fixed delay between the end of one execution and the start of the next one, 
+	 * like {@link java.util.Timer#schedule(java.util.TimerTask, long, long)}.
+	 * @param taskName
+	 * 		a name for the task, for introspection
+	 * @param priority
+	 * @param task
+	 * 		exceptions thrown by the task are logged, and do not stop further executions
+	 * @param initialDelay
+	 * 		in ms
+	 * @param period
+	 * 		in ms
+	 * @return
+	 * 		a handle to cancel the task
+	 */
+	ScheduledTask schedule(final String taskName, final Priority priority, final Runnable task, final long initialDelay, final long period) {
+		final ScheduledTask scheduled = new ScheduledTask(taskName, priority, task, initialDelay, period);
+		tasks.add(scheduled);
+		scheduled.future = executors.get(priority).scheduleWithFixedDelay(scheduled, initialDelay, period, TimeUnit.MILLISECONDS);
+		return scheduled;
+	}
+
+	/**
+	 * Execute a task once, as soon as possible.
+	 * @param priority
+	 * @param task
+	 * @return
+	 */
+	Future<?> submit(final Priority priority, final Runnable task) {
+		return executors.get(priority).submit(task);
+	}
+
+	/**
+	 * The executor for tasks of the specified priority, e.g. for tasks that are scheduled on demand. 
+	 * Must not be shut down by the caller.
+	 * @param priority
+	 * @return
+	 */
+	ScheduledExecutorService getExecutor(final Priority priority) {
+		return executors.get(priority);
+	}
+
+	/**
+	 * @param priority
+	 * @return
+	 * 		the number of tasks waiting for execution, including periodic tasks waiting for their next execution
+	 */
+	int getQueueDepth(final Priority priority) {
+		return executors.get(priority).getQueue().size();
+	}
+
+	/**
+	 * @param priority
+	 * @return
+	 * 		the number of tasks currently being executed
+	 */
+	int getActiveCount(final Priority priority) {
+		return executors.get(priority).getActiveCount();
+	}
+
+	/**
+	 * @return
+	 * 		the periodic tasks that have not been cancelled
+	 */
+	List<ScheduledTask> getTasks() {
+		final List<ScheduledTask> list = new ArrayList<>(tasks);
+		Collections.sort(list, (t1, t2) -> t1.name.compareTo(t2.name));
+		return list;
+	}
+
+	/**
+	 * Stop all tasks. Tasks currently being executed are given a few seconds to finish.
+	 */
+	void close() {
+		for (ScheduledThreadPoolExecutor executor : executors.values()) {
+			executor.shutdown();
+		}
+		for (ScheduledThreadPoolExecutor executor : executors.values()) {
+			try {
+				if (!executor.awaitTermination(2, TimeUnit.SECONDS))
+					executor.shutdownNow();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+			}
+		}
+		tasks.clear();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder("MaintenanceScheduler ").append(name);
+		for (Priority priority : Priority.values()) {
+			sb.append(", ").append(priority).append(": ").append(getActiveCount(priority)).append(" active, ")
+				.append(getQueueDepth(priority)).append(" queued");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A periodic task, with execution statistics.
+	 */
+	final class ScheduledTask implements Runnable {
+
+		private final String name;
+		private final Priority priority;
+		private final Runnable task;
+		private final long period;
+		volatile ScheduledFuture<?> future;
+		// time at which the next execution is due
+		private volatile long nextExecution;
+		// updated by the executing thread only; executions of the same task do not overlap
+		private volatile long executions;
+		private volatile long totalLatency;
+		private volatile long maxLatency;
+		private volatile long totalDuration;
+		private volatile long maxDuration;
+
+		private ScheduledTask(String name, Priority priority, Runnable task, long initialDelay, long period) {
+			this.name = Objects.requireNonNull(name);
+			this.priority = Objects.requireNonNull(priority);
+			this.task = Objects.requireNonNull(task);
+			this.period = period;
+			this.nextExecution = System.currentTimeMillis() + initialDelay;
+		}
+
+		@Override
+		public void run() {
+			final long start = System.currentTimeMillis();
+			final long latency = Math.max(0, start - nextExecution);
+			try {
+				task.run();
+			} catch (Throwable e) {
+				logger.error("Maintenance task {} failed", name, e);
+			} finally {
+				final long end = System.currentTimeMillis();
+				final long duration = end - start;
+				nextExecution = end + period;
+				executions++;
+				totalLatency += latency;
+				totalDuration += duration;
+				if (latency > maxLatency)
+					maxLatency = latency;
+				if (duration > maxDuration)
+					maxDuration = duration;
+			}
+		}
+
+		/**
+		 * Stop further executions; an execution in progress is not interrupted.
+		 */
+		void cancel() {
+			final ScheduledFuture<?> future = this.future;
+			if (future != null)
+				future.cancel(false);
+			tasks.remove(this);
+		}
+
+		String getName() {
+			return name;
+		}
+
+		Priority getPriority() {
+			return priority;
+		}
+
+		long getExecutions() {
+			return executions;
+		}
+
+		/**
+		 * @return
+		 * 		average time in ms between the scheduled and the actual start of an execution
+		 */
+		long getAverageLatency() {
+			final long executions = this.executions;
+			return executions > 0 ? totalLatency / executions : 0;
+		}
+
+		long getMaxLatency() {
+			return maxLatency;
+		}
+
+		/**
+		 * @return
+		 * 		average execution time in ms
+		 */
+		long getAverageDuration() {
+			final long executions = this.executions;
+			return executions > 0 ? totalDuration / executions : 0;
+		}
+
+		long getMaxDuration() {
+			return maxDuration;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + priority + "): " + executions + " executions, latency avg " + getAverageLatency() + " ms, max " 
+					+ maxLatency + " ms, duration avg " + getAverageDuration() + " ms, max " + maxDuration + " ms";
+		}
+
+	}
+
+	private static final class MaintenanceThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final int priority;
+		private final AtomicInteger count = new AtomicInteger();
+
+		MaintenanceThreadFactory(String prefix, int priority) {
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			// threads are created lazily, by whichever caller submits a task; they must not inherit its access control context
+			return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+
+				@Override
+				public Thread run() {
+					final Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					thread.setPriority(priority);
+					return thread;
+				}
+
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,402 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
+
+/**
+ * Pre-aggregated data of one time series folder at several resolutions (tiers): for every tier size, 
+ * a {@link BlockCodec.Summary} of each non-empty interval of this size, the intervals being aligned to multiples 
+ * of the tier size. The rollups of a folder are created from its log files when the folder is first read
+ * by a reduction, and stored in the file {@link #FILE_NAME} next to the log files, together with a fingerprint
+ * of the log files, so that outdated rollups are detected and rebuilt. Only folders of past periods, which 
+ * are usually no longer written to, get rollups.
+ */
+final class Rollups {
+
+	private static final Logger logger = LoggerFactory.getLogger(Rollups.class);
+	static final String FILE_NAME = "rollups";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final long MAGIC = 0x46454e444f524f4cL;
+	// 1 minute, 15 minutes, 1 hour, 1 day
+	static final long[] TIERS = {60 * 1000L, 15 * 60 * 1000L, 60 * 60 * 1000L, 24 * 60 * 60 * 1000L};
+	// a tier is only stored if it has much fewer entries than the folder has data points
+	private static final int MIN_POINTS_PER_ENTRY = 8;
+	// tiers not aligned with the reduction intervals are used if the intervals span many tier intervals
+	private static final int MIN_ENTRIES_PER_INTERVAL = 16;
+
+	private final Fingerprint fingerprint;
+	// ascending
+	private final long[] tiers;
+	// per tier, sorted by time
+	private final BlockCodec.Summary[][] entries;
+
+	private Rollups(Fingerprint fingerprint, long[] tiers, BlockCodec.Summary[][] entries) {
+		this.fingerprint = fingerprint;
+		this.tiers = tiers;
+		this.entries = entries;
+	}
+
+	/**
+	 * Determine the tiers that can be used for a reduction. A tier can be used if every reduction interval
+	 * consists of complete tier intervals, or if the reduction intervals are much larger than the tier intervals,
+	 * in which case the tier entries at the boundaries of the reduction intervals are replaced by the data points.
+	 * @param start
+	 * 		start of the first reduction interval
+	 * @param intervalSize
+	 * 		size of the reduction intervals; non-positive for a single interval
+	 * @return
+	 * 		the tier sizes, largest first; may be empty
+	 */
+	static long[] getTiers(final long start, final long intervalSize) {
+		final long[] result = new long[TIERS.length];
+		int cnt = 0;
+		for (int i = TIERS.length - 1; i >= 0; i--) {
+			final long tier = TIERS[i];
+			if (intervalSize <= 0 || (intervalSize % tier == 0 && Math.floorMod(start, tier) == 0) 
+					|| intervalSize / MIN_ENTRIES_PER_INTERVAL >= tier)
+				result[cnt++] = tier;
+		}
+		final long[] tiers = new long[cnt];
+		System.arraycopy(result, 0, tiers, 0, cnt);
+		return tiers;
+	}
+
+	/**
+	 * Add the data points of a folder in the interval [start, end] to the reduction, using the entries of 
+	 * the coarsest tier available. Requires the read lock of the time series.
+	 * @param proxy
+	 * @param folder
+	 * @param tiers
+	 * 		usable tiers, see {@link #getTiers(long, long)}
+	 * @param reduction
+	 * @param start
+	 * @param end
+	 * @return
+	 * 		false if the folder has no rollups, in which case nothing has been added to the reduction
+	 * @throws IOException
+	 */
+	static boolean reduce(final FileObjectProxy proxy, final FileObjectList folder, final long[] tiers, 
+			final StreamingReduction reduction, final long start, final long end) throws IOException {
+		if (tiers.length == 0 || folder.size() == 0 || folder.isArchived() || !isPastPeriod(proxy, folder))
+			return false;
+		final Rollups rollups = get(folder, proxy.fileContext, !proxy.isReadOnlyMode());
+		for (long tier : tiers) {
+			final int idx = rollups.indexOf(tier);
+			if (idx >= 0) {
+				rollups.reduce(idx, folder, reduction, start, end);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Pass the data points of a folder in the interval [start, end] to the statistics, using the entries of 
+	 * the coarsest tier available. Requires the read lock of the time series.
+	 * @param proxy
+	 * @param folder
+	 * @param evaluation
+	 * @param start
+	 * @param end
+	 * @return
+	 * 		false if the folder has no rollups, in which case nothing has been passed to the statistics
+	 * @throws IOException
+	 */
+	static boolean evaluate(final FileObjectProxy proxy, final FileObjectList folder, final StatisticsEvaluation evaluation, 
+			final long start, final long end) throws IOException {
+		if (folder.size() == 0 || folder.isArchived() || !isPastPeriod(proxy, folder))
+			return false;
+		final Rollups rollups = get(folder, proxy.fileContext, !proxy.isReadOnlyMode());
+		if (rollups.tiers.length == 0)
+			return false;
+		// the coarsest tier if the folder lies completely within the interval, otherwise the finest one,
+		// so that few data points at the boundaries need to be read
+		final int tierIdx = rollups.fingerprint.firstTimestamp >= start && rollups.fingerprint.lastTimestamp <= end ? 
+				rollups.tiers.length - 1 : 0;
+		ValueChunk values = null;
+		for (BlockCodec.Summary entry : rollups.entries[tierIdx]) {
+			if (entry.firstTimestamp > end)
+				break;
+			if (entry.lastTimestamp < start)
+				continue;
+			final boolean added = entry.firstTimestamp >= start && entry.lastTimestamp <= end && evaluation.add(entry);
+			if (added && !evaluation.hasRefused())
+				continue;
+			if (values == null)
+				values = FileObjectProxy.readFolder(folder);
+			final long last = Math.min(end, entry.lastTimestamp);
+			final int size = values.size();
+			for (int i = values.indexOfFirstNotBefore(Math.max(start, entry.firstTimestamp)); i < size; i++) {
+				final long t = values.getTimestamp(i);
+				if (t > last)
+					break;
+				if (added)
+					evaluation.stepRefused(t, values.getValue(i), Quality.getQuality(values.getQuality(i)));
+				else
+					evaluation.step(t, values.getValue(i), Quality.getQuality(values.getQuality(i)));
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPastPeriod(final FileObjectProxy proxy, final FileObjectList folder) {
+		final long periodStart = TimeUtils.getCurrentStart(folder.getFirstTS(), proxy.unit);
+		return TimeUtils.getNextStart(periodStart, proxy.unit) <= proxy.getTime();
+	}
+
+	private int indexOf(final long tier) {
+		for (int i = 0; i < tiers.length; i++) {
+			if (tiers[i] == tier)
+				return i;
+		}
+		return -1;
+	}
+
+	private void reduce(final int tierIdx, final FileObjectList folder, final StreamingReduction reduction, 
+			final long start, final long end) throws IOException {
+		ValueChunk values = null;
+		for (BlockCodec.Summary entry : entries[tierIdx]) {
+			if (entry.firstTimestamp > end)
+				break;
+			if (entry.lastTimestamp < start)
+				continue;
+			if (reduction.add(entry.firstTimestamp, entry.lastTimestamp, entry.count, entry.goodCount, 
+					entry.sum, entry.min, entry.max))
+				continue;
+			// entry spans several reduction intervals, or the boundaries of the requested period
+			if (values == null)
+				values = FileObjectProxy.readFolder(folder);
+			final long last = Math.min(end, entry.lastTimestamp);
+			final int size = values.size();
+			for (int i = values.indexOfFirstNotBefore(Math.max(start, entry.firstTimestamp)); i < size; i++) {
+				final long t = values.getTimestamp(i);
+				if (t > last)
+					break;
+				reduction.add(t, values.getValue(i), Quality.getQuality(values.getQuality(i)));
+			}
+		}
+	}
+
+	/**
+	 * Read the rollups of a folder, or create them if they do not exist or are outdated.
+	 * @param folder
+	 * @param context
+	 * @param store
+	 * 		store newly created rollups in the folder?
+	 * @return
+	 * @throws IOException
+	 */
+	static Rollups get(final FileObjectList folder, final FileObjectContext context, final boolean store) throws IOException {
+		final Fingerprint fingerprint = Fingerprint.of(folder);
+		final Path file = folder.getBasePath().resolve(FILE_NAME);
+		Rollups rollups = null;
+		try {
+			rollups = read(file);
+		} catch (NoSuchFileException expected) {
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Failed to read rollups {}", file, e);
+		}
+		if (rollups != null && rollups.fingerprint.equals(fingerprint))
+			return rollups;
+		rollups = create(FileObjectProxy.readFolder(folder), fingerprint);
+		if (store) {
+			try {
+				rollups.write(file, context);
+			} catch (IOException e) {
+				logger.warn("Failed to store rollups {}", file, e);
+			}
+		}
+		return rollups;
+	}
+
+	static Rollups create(final ValueChunk values, final Fingerprint fingerprint) {
+		final int size = values.size();
+		final List<Long> tiers = new ArrayList<>(TIERS.length);
+		final List<BlockCodec.Summary[]> entries = new ArrayList<>(TIERS.length);
+		for (long tier : TIERS) {
+			final List<BlockCodec.Summary> tierEntries = new ArrayList<>();
+			BlockCodec.Summary current = null;
+			long currentStart = Long.MIN_VALUE;
+			long previous = Long.MIN_VALUE;
+			for (int i = 0; i < size; i++) {
+				final double value = values.getValue(i);
+				final long t = values.getTimestamp(i);
+				// like the reductions, ignore data points of overlapping files
+				if (Double.isNaN(value) || (t <= previous && i > 0))
+					continue;
+				previous = t;
+				final long intervalStart = t - Math.floorMod(t, tier);
+				if (current == null || intervalStart != currentStart) {
+					current = new BlockCodec.Summary();
+					currentStart = intervalStart;
+					tierEntries.add(current);
+				}
+				current.add(t, value, values.getQuality(i));
+			}
+			if (tierEntries.size() * MIN_POINTS_PER_ENTRY > size)
+				continue;
+			tiers.add(tier);
+			entries.add(tierEntries.toArray(new BlockCodec.Summary[tierEntries.size()]));
+		}
+		final long[] tierArr = new long[tiers.size()];
+		for (int i = 0; i < tierArr.length; i++) {
+			tierArr[i] = tiers.get(i);
+		}
+		return new Rollups(fingerprint, tierArr, entries.toArray(new BlockCodec.Summary[entries.size()][]));
+	}
+
+	/*
+	 * Format: magic number, fingerprint, number of tiers; then for each tier: size, number of entries, 
+	 * and the serialized entries.
+	 */
+	private void write(final Path file, final FileObjectContext context) throws IOException {
+		int length = Long.BYTES + Fingerprint.SIZE + Integer.BYTES;
+		for (BlockCodec.Summary[] tierEntries : entries) {
+			length += Long.BYTES + Integer.BYTES + tierEntries.length * BlockCodec.Summary.SIZE;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putLong(MAGIC);
+		fingerprint.serialize(buffer);
+		buffer.putInt(tiers.length);
+		for (int i = 0; i < tiers.length; i++) {
+			buffer.putLong(tiers[i]);
+			buffer.putInt(entries[i].length);
+			for (BlockCodec.Summary entry : entries[i]) {
+				buffer.put(entry.serialize());
+			}
+		}
+		((Buffer) buffer).flip();
+		// readers do not synchronize, so the file must be replaced atomically
+		final Path temp = Files.createTempFile(file.getParent(), FILE_NAME, TEMP_SUFFIX);
+		try {
+			try (final SeekableByteChannel channel = Files.newByteChannel(temp, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			// synchronized, so that concurrent replacements of the same file are accounted for correctly
+			synchronized (context) {
+				final long oldSize = Files.exists(file) ? Files.size(file) : 0;
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				context.fileSizeChanged(file, length - oldSize);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static Rollups read(final Path file) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+		if (buffer.remaining() < Long.BYTES + Fingerprint.SIZE + Integer.BYTES || buffer.getLong() != MAGIC)
+			return null;
+		final Fingerprint fingerprint = Fingerprint.deserialize(buffer);
+		final int nrTiers = buffer.getInt();
+		if (nrTiers < 0 || nrTiers > TIERS.length)
+			return null;
+		final long[] tiers = new long[nrTiers];
+		final BlockCodec.Summary[][] entries = new BlockCodec.Summary[nrTiers][];
+		for (int i = 0; i < nrTiers; i++) {
+			tiers[i] = buffer.getLong();
+			final int nrEntries = buffer.getInt();
+			if (nrEntries < 0 || buffer.remaining() < (long) nrEntries * BlockCodec.Summary.SIZE)
+				return null;
+			entries[i] = new BlockCodec.Summary[nrEntries];
+			for (int j = 0; j < nrEntries; j++) {
+				final BlockCodec.Summary entry = BlockCodec.Summary.deserialize(buffer, Integer.MAX_VALUE);
+				if (entry == null)
+					return null;
+				entries[i][j] = entry;
+				((Buffer) buffer).position(buffer.position() + BlockCodec.Summary.SIZE);
+			}
+		}
+		return new Rollups(fingerprint, tiers, entries);
+	}
+
+	/**
+	 * Identifies the state of the log files of a folder the rollups have been created from.
+	 */
+	static final class Fingerprint {
+
+		static final int SIZE = Integer.BYTES + 3 * Long.BYTES;
+
+		private final int files;
+		private final long count;
+		private final long firstTimestamp;
+		private final long lastTimestamp;
+
+		Fingerprint(int files, long count, long firstTimestamp, long lastTimestamp) {
+			this.files = files;
+			this.count = count;
+			this.firstTimestamp = firstTimestamp;
+			this.lastTimestamp = lastTimestamp;
+		}
+
+		static Fingerprint of(final FileObjectList folder) {
+			long count = 0;
+			long first = Long.MAX_VALUE;
+			long last = Long.MIN_VALUE;
+			for (FileObject file : folder.getAllFileObjects()) {
+				count += file.getDataSetCount();
+				first = Math.min(first, file.getStartTimeStamp());
+				last = Math.max(last, file.getTimestampForLatestValue());
+			}
+			return new Fingerprint(folder.size(), count, first, last);
+		}
+
+		void serialize(final ByteBuffer buffer) {
+			buffer.putInt(files);
+			buffer.putLong(count);
+			buffer.putLong(firstTimestamp);
+			buffer.putLong(lastTimestamp);
+		}
+
+		static Fingerprint deserialize(final ByteBuffer buffer) {
+			return new Fingerprint(buffer.getInt(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Fingerprint))
+				return false;
+			final Fingerprint other = (Fingerprint) obj;
+			return files == other.files && count == other.count && firstTimestamp == other.firstTimestamp 
+					&& lastTimestamp == other.lastTimestamp;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(count) * 31 + Long.hashCode(lastTimestamp);
+		}
+
+	}
+
+}
@@ -35,6 +35,7 @@ import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAmount;
 import java.time.temporal.TemporalUnit;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -47,9 +48,7 @@ import java.util.OptionalLong;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -74,6 +73,7 @@ import org.smartrplace.logging.fendodb.search.TimeSeriesMatcher;
 
 /*
  * Timers:
+ * The background tasks are executed by a MaintenanceScheduler shared by all instances of a factory.
  * Whereas the timers responsible for removing old or bulky log data,
  * and for flushing, run on system time, the criterion when to remove
  * old data is based on framework time.
@@ -89,7 +89,6 @@ public class SlotsDb implements CloseableDataRecorder {
 	 * Root Folder for JUnit Testcases
 	 */
 	public static final String DB_TEST_ROOT_FOLDER = "testdata/";
-	private static final ScheduledExecutorService persistenceScheduler = Executors.newSingleThreadScheduledExecutor();
 
 	static final String STORAGE_PERSISTENCE_FILE = "slotsDbStorageIDs.ser";
 	static final String CONFIG_PERSISTENCE_FILE = "config.ser";
@@ -116,6 +115,9 @@ public class SlotsDb implements CloseableDataRecorder {
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	final ReferenceCounter proxyCount;
 	private final InfoTask reloadDaysTask;
+	private final DayWatcher dayWatcher;
+	// databases without a factory share the default scheduler, which must be released on close
+	private final boolean usesDefaultScheduler;
 
 	final boolean secure;
 	final FrameworkClock clock;
@@ -163,6 +165,9 @@ public class SlotsDb implements CloseableDataRecorder {
 			SlotsDb.this.close();
 			return null;
 		});
+		final MaintenanceScheduler factoryScheduler = factory != null ? factory.getScheduler() : null;
+		this.usesDefaultScheduler = factoryScheduler == null;
+		final MaintenanceScheduler scheduler = factoryScheduler != null ? factoryScheduler : MaintenanceScheduler.acquireDefault();
 		try {
 			boolean parseFolders = Files.exists(dbBaseFolder) && (!Files.exists(slotsDbStoragePath) ||
 					(configuration != null && configuration.isReadFolders()));
@@ -170,7 +175,9 @@ public class SlotsDb implements CloseableDataRecorder {
 			this.path = dbBaseFolder;
 			this.factory = factory;
 			this.secure = (factory != null ? factory.isSecure : System.getSecurityManager() != null);
-			slotsDbStorages = readPersistedSlotsDbStorages(parseFolders);
+			// available if the database has been closed properly
+			final Catalog catalog = Catalog.read(dbBaseFolder);
+			slotsDbStorages = readPersistedSlotsDbStorages(parseFolders, catalog);
 			final Map<String,Map<String, List<String>>> tags = readTags(tagsPath);
 			// TODO store also a kind of inverse index on tags?
 			if (tags != null) {
@@ -190,11 +197,11 @@ public class SlotsDb implements CloseableDataRecorder {
 				(!slotsDbStorages.isEmpty() || configuration == null) ? readConfig(persistentConfig) : null;
 			this.config = buildFinalConfiguration(configuration, persistedConfig, path, hardConfigReset, slotsDbStorages.isEmpty());
 			if (!parseFolders && config.isReadFolders()) {
-				final Map<String, RecordedDataConfiguration> newConfigs = parseFolders(slotsDbStorages.keySet());
+				final Map<String, RecordedDataConfiguration> newConfigs = parseFolders(slotsDbStorages.keySet(), catalog);
 				newConfigs.entrySet().forEach(entry -> slotsDbStorages.put(entry.getKey(), new SlotsDbStorage(entry.getKey(), entry.getValue(), this)));
 				parseFolders = !newConfigs.isEmpty();
 			}
-			this.proxy = new FileObjectProxy(dbBaseFolder, clock, config);
+			this.proxy = new FileObjectProxy(dbBaseFolder, clock, config, catalog, scheduler);
 			persistConfig(persistentConfig, config);
 			if (parseFolders)
 				persistSlotsDbStorages();
@@ -205,12 +212,13 @@ public class SlotsDb implements CloseableDataRecorder {
 				public void run() {
 					persistTags();
 				}
-			}, tagsFlush, persistenceScheduler);
+			}, tagsFlush, scheduler.getExecutor(MaintenanceScheduler.Priority.HIGH));
 			if (config.getReloadDaysInterval() > 0) {
 				this.reloadDaysTask = new InfoTask.DaysReloading(this);
-				proxy.timer.schedule(reloadDaysTask, FendoDbConfiguration.INITIAL_DELAY, config.getReloadDaysInterval());
+				reloadDaysTask.schedule(scheduler, MaintenanceScheduler.Priority.NORMAL, FendoDbConfiguration.INITIAL_DELAY, config.getReloadDaysInterval());
 			} else
 				this.reloadDaysTask = null;
+			this.dayWatcher = config.isWatchDays() ? createDayWatcher() : null;
 			if (factory != null) {
 				factory.triggerListener(this, factory.ownListener, true);
 			}
@@ -221,6 +229,8 @@ public class SlotsDb implements CloseableDataRecorder {
 			try {
 				this.lockFile.close();
 			} catch (Exception ignore) {}
+			if (usesDefaultScheduler)
+				MaintenanceScheduler.releaseDefault();
 			throw e;
 		}
 	}
@@ -297,6 +307,16 @@ public class SlotsDb implements CloseableDataRecorder {
 			.setTemporalUnit(unit)
 			.setParseFoldersOnInit(parseFolderOnInit)
 			.setReloadDaysInterval(reloadDaysFolderIntv);
+		if (passedConfiguration != null) {
+			// these only affect how new files are written and how the database is maintained, not the existing data
+			builder.setCompressedFiles(passedConfiguration.isCompressedFiles())
+				.setCompactionInterval(passedConfiguration.getCompactionInterval())
+				.setArchiveAge(passedConfiguration.getArchiveAge())
+				.setRolloverLeadTime(passedConfiguration.getRolloverLeadTime())
+				.setMaxOpenFiles(passedConfiguration.getMaxOpenFiles())
+				.setWatchDays(passedConfiguration.isWatchDays())
+				.setRollups(passedConfiguration.isRollups());
+		}
 		if (readOnlyMode && (persistedConfiguration == null || persistedConfiguration.isReadOnlyMode())) {
 			builder.setFlushPeriod(0)
 				.setDataLifetimeInDays(0)
@@ -308,7 +328,10 @@ public class SlotsDb implements CloseableDataRecorder {
 				.setDataLifetimeInDays(passedConfiguration.getDataLifetimeInDays())
 				.setDataExpirationCheckInterval(passedConfiguration.getDataExpirationCheckInterval())
 				.setMaxOpenFolders(passedConfiguration.getMaxOpenFolders())
-				.setMaxDatabaseSize(passedConfiguration.getMaxDatabaseSize());
+				.setMaxDatabaseSize(passedConfiguration.getMaxDatabaseSize())
+				.setMemoryMappedReads(passedConfiguration.isMemoryMappedReads())
+				.setDurability(passedConfiguration.getDurability())
+				.setWriteBufferSize(passedConfiguration.getWriteBufferSize());
 		}
 		return builder.build();
 	}
@@ -510,7 +533,13 @@ public class SlotsDb implements CloseableDataRecorder {
 		if (closed.getAndSet(true))
 			return;
 		FileObjectProxy.logger.info("Closing FendoDB {}",path);
+		if (reloadDaysTask != null)
+			reloadDaysTask.cancel();
+		if (dayWatcher != null)
+			dayWatcher.close();
 		proxy.close();
+		if (usesDefaultScheduler)
+			MaintenanceScheduler.releaseDefault();
 		synchronized (slotsDbStorages) {
 			slotsDbStorages.clear();
 		}
@@ -647,7 +676,7 @@ public class SlotsDb implements CloseableDataRecorder {
 	 * Read back previously persisted SlotsDbStorage objects
 	 * @throws IOException
 	 */
-	private final Map<String, SlotsDbStorage> readPersistedSlotsDbStorages(final boolean addFolders) throws IOException {
+	private final Map<String, SlotsDbStorage> readPersistedSlotsDbStorages(final boolean addFolders, final Catalog catalog) throws IOException {
 
 //		final File configFile = new File(slotsDbStoragePath);
 		final Map<String, RecordedDataConfiguration> configurations = new HashMap<>();
@@ -663,7 +692,7 @@ public class SlotsDb implements CloseableDataRecorder {
 			}
 		}
 		if (addFolders && path != null) {
-			final Map<String, RecordedDataConfiguration> parsedConfigs = parseFolders(configurations.keySet());
+			final Map<String, RecordedDataConfiguration> parsedConfigs = parseFolders(configurations.keySet(), catalog);
 			configurations.putAll(parsedConfigs);
 		}
 		final Map<String, SlotsDbStorage> map = new ConcurrentHashMap<>();
@@ -674,10 +703,20 @@ public class SlotsDb implements CloseableDataRecorder {
 		return map;
 	}
 	
-	private final Map<String, RecordedDataConfiguration> parseFolders(final Collection<String> existingConfigs) throws IOException {
+	/**
+	 * @param existingConfigs
+	 * @param catalog
+	 * 		may be null; if present, only day folders not covered by the catalog are listed
+	 * @return
+	 * @throws IOException
+	 */
+	private final Map<String, RecordedDataConfiguration> parseFolders(final Collection<String> existingConfigs, final Catalog catalog) throws IOException {
 		final Map<String, RecordedDataConfiguration> configs = new HashMap<>();
+		final Set<String> catalogDays = catalog != null ? getCatalogLabels(catalog, existingConfigs, configs) : Collections.emptySet();
 		try (final Stream<Path> stream = Files.list(path)) {
-			stream.filter(path -> Files.isDirectory(path)).forEach(folder -> {
+			stream.filter(path -> Files.isDirectory(path))
+					.filter(folder -> !catalogDays.contains(folder.getFileName().toString()))
+					.forEach(folder -> {
 				try (final Stream<Path> inner = Files.list(folder)) {
 					inner.forEach(path -> {
 						String filename;
@@ -705,6 +744,41 @@ public class SlotsDb implements CloseableDataRecorder {
 		}
 		return configs;
 	}
+	
+	/**
+	 * Adds a default configuration for all labels in the catalog that have data in an existing day folder,
+	 * unless there is a configuration for them already.
+	 * @param catalog
+	 * @param existingConfigs
+	 * @param configs
+	 * @return the day folders covered by the catalog; empty if the catalog cannot be used
+	 * @throws IOException
+	 */
+	private final Set<String> getCatalogLabels(final Catalog catalog, final Collection<String> existingConfigs,
+			final Map<String, RecordedDataConfiguration> configs) throws IOException {
+		final List<String> days = catalog.getDays();
+		final Set<String> existingDays;
+		try (final Stream<Path> stream = Files.list(path)) {
+			existingDays = stream.map(p -> p.getFileName().toString()).collect(Collectors.toSet());
+		}
+		final Map<String, RecordedDataConfiguration> catalogConfigs = new HashMap<>();
+		for (Map.Entry<String, BitSet> entry : catalog.getLabels().entrySet()) {
+			final String filename = URLDecoder.decode(entry.getKey(), "UTF-8");
+			if (filename.contains("%2F")) // folder needs to be renamed
+				return Collections.emptySet();
+			final BitSet set = entry.getValue();
+			for (int idx = set.nextSetBit(0); idx >= 0 && idx < days.size(); idx = set.nextSetBit(idx + 1)) {
+				// archived days are ignored, as in #parseFolders
+				if (existingDays.contains(days.get(idx)) && !days.get(idx).endsWith(Archiver.ARCHIVE_EXTENSION)) {
+					if (!existingConfigs.contains(filename))
+						catalogConfigs.put(filename, newConfig()); // default config
+					break;
+				}
+			}
+		}
+		configs.putAll(catalogConfigs);
+		return new HashSet<>(days);
+	}
 
 	@Override
 	public FendoTimeSeries createRecordedDataStorage(String id, RecordedDataConfiguration configuration)
@@ -894,15 +968,7 @@ public class SlotsDb implements CloseableDataRecorder {
 							folders.filter(Files::isDirectory)
 								.map(Path::getFileName)
 								.map(Path::toString)
-								.map(p -> {
-									try {
-										return URLDecoder.decode(p, "UTF-8");
-									} catch (UnsupportedEncodingException e) {
-										throw new RuntimeException(e);
-									}
-								})
-								.filter(path -> !slotsDbStorages.containsKey(path))
-								.forEach(path -> slotsDbStorages.put(path, new SlotsDbStorage(path, newConfig(), this)));
+								.forEach(this::addTimeSeriesFolder);
 						}
 					}
 					persistSlotsDbStorages();
@@ -913,6 +979,44 @@ public class SlotsDb implements CloseableDataRecorder {
 		}
 	}
 
+	/**
+	 * Register time series whose folders have been created by another process, see {@link DayWatcher}. 
+	 * Must not be called while holding the folder lock.
+	 * @param folderNames
+	 * 		encoded labels
+	 */
+	void addTimeSeriesFolders(final Collection<String> folderNames) {
+		synchronized (slotsDbStorages) {
+			if (closed.get())
+				return;
+			final int size = slotsDbStorages.size();
+			folderNames.forEach(this::addTimeSeriesFolder);
+			if (slotsDbStorages.size() > size)
+				persistSlotsDbStorages();
+		}
+	}
+
+	// requires the time series lock
+	private void addTimeSeriesFolder(final String folderName) {
+		final String path;
+		try {
+			path = URLDecoder.decode(folderName, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+		if (!slotsDbStorages.containsKey(path))
+			slotsDbStorages.put(path, new SlotsDbStorage(path, newConfig(), this));
+	}
+
+	private DayWatcher createDayWatcher() {
+		try {
+			return new DayWatcher(this);
+		} catch (IOException | UnsupportedOperationException e) {
+			FileObjectProxy.logger.warn("Cannot watch database folder {} for new days", path, e);
+			return null;
+		}
+	}
+
 	private final RecordedDataConfiguration newConfig() {
 		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
 		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
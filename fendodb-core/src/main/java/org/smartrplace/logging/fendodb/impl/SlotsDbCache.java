@@ -15,35 +15,38 @@
  */
 package org.smartrplace.logging.fendodb.impl;
 
-import java.util.List;
-
-import org.ogema.core.channelmanager.measurements.SampledValue;
-
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.slf4j.LoggerFactory;
 
 class SlotsDbCache implements FendoCache {
 
+	/*
+	 * Approximate heap size of a cached data point when values were still cached as lists of SampledValues;
+	 * used to derive the default cache size in bytes from the legacy entries_cache_size property.
+	 */
+	private static final long LEGACY_BYTES_PER_ENTRY = 72;
 	/*
 	 *Map< encoded recorded data id + "/" + filename -> values>
+	 * weighed by the approximate heap size of the values in bytes
 	 */
-	private final long MAX_WEIGHT = Long.getLong("org.ogema.recordeddata.slotsdb.entries_cache_size", 100_000);
+	private final long MAX_WEIGHT = Long.getLong("org.ogema.recordeddata.slotsdb.cache_size_bytes", 
+			LEGACY_BYTES_PER_ENTRY * Long.getLong("org.ogema.recordeddata.slotsdb.entries_cache_size", 100_000));
 	private final boolean LOGGING = Boolean.getBoolean("org.ogema.recordeddata.slotsdb.entries_cache_logs");
 	
-	private final Cache<String, List<SampledValue>> valueCache;
+	private final Cache<String, ValueChunk> valueCache;
 	
 	SlotsDbCache() {
-		CacheBuilder<String, List<SampledValue>> cb = CacheBuilder.newBuilder()
+		CacheBuilder<String, ValueChunk> cb = CacheBuilder.newBuilder()
 				.maximumWeight(MAX_WEIGHT)
-				.weigher((String k, List<SampledValue> v) -> v.size());
+				.weigher((String k, ValueChunk v) -> v.getHeapSize());
 		if (LOGGING) {
 			cb.recordStats();
 		}
 		valueCache = cb.build();
 	}
 
-	private void cache(final String accessToken, final List<SampledValue> values) {
+	private void cache(final String accessToken, final ValueChunk values) {
 		valueCache.put(accessToken, values);
 	}
 
@@ -51,7 +54,7 @@ class SlotsDbCache implements FendoCache {
 		valueCache.invalidate(accessToken);
 	}
 
-	private List<SampledValue> getCache(final String accessToken) {
+	private ValueChunk getCache(final String accessToken) {
 		if (LOGGING && (valueCache.stats().requestCount() % 100 == 0)) {
 			LoggerFactory.getLogger(getClass()).debug("cache stats: {} ({})", valueCache.stats(), valueCache.stats().hitRate());
 		}
@@ -68,6 +71,12 @@ class SlotsDbCache implements FendoCache {
 		valueCache.invalidateAll();
 	}
 
+	@Override
+	public void clearCache(String encodedRecordedData) {
+		final String prefix = encodedRecordedData + "/";
+		valueCache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
 	/**
 	 * One instance per FileObject
 	 */
@@ -82,7 +91,7 @@ class SlotsDbCache implements FendoCache {
 		}
 
 		@Override
-		public void cache(List<SampledValue> values) {
+		public void cache(ValueChunk values) {
 			SlotsDbCache.this.cache(key, values);
 		}
 
@@ -92,7 +101,7 @@ class SlotsDbCache implements FendoCache {
 		}
 
 		@Override
-		public List<SampledValue> getCache() {
+		public ValueChunk getCache() {
 			return SlotsDbCache.this.getCache(key);
 		}
 
@@ -0,0 +1,164 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
+
+/**
+ * A fail-safe cursor that reads data file by file (which means day by day).
+ * The values of a folder are held in a {@link ValueChunk}, no objects are created per data point.
+ */
+class SlotsDbCursor implements TimeSeriesCursor {
+
+	private final SlotsDb recorder;
+	private final long start;
+	private final long end;
+	private final ReadWriteLock lock;
+	final String label;
+
+	private FileObjectList folder = null;
+	private ValueChunk folderValues = null;
+	// index of the current data point in folderValues
+	private int currentIdx = -1;
+	private boolean positioned = false;
+	private boolean started = false;
+	private long lastTimestamp;
+	private boolean endReached = false;
+
+	SlotsDbCursor(String idEncoded, SlotsDb recorder, ReadWriteLock lock, long start, long end) {
+		this.recorder = recorder;
+		this.lock = lock;
+		this.start = start;
+		this.end = end;
+		this.label = idEncoded;
+	}
+
+	@Override
+	public boolean advance() {
+		positioned = false;
+		if (endReached)
+			return false;
+		while (true) {
+			final ValueChunk folderValues = this.folderValues;
+			if (folderValues != null) {
+				final int size = folderValues.size();
+				int idx = currentIdx + 1;
+				if (idx < size && folderValues.getTimestamp(idx) < start)
+					idx = folderValues.indexOfFirstNotBefore(start);
+				// folders may overlap; skip values not newer than the last one returned
+				if (started && idx < size && folderValues.getTimestamp(idx) <= lastTimestamp)
+					idx = folderValues.indexOfFirstAfter(lastTimestamp);
+				if (idx < size) {
+					final long t = folderValues.getTimestamp(idx);
+					if (t > end) { // reached the end
+						markEnd();
+						return false;
+					}
+					currentIdx = idx;
+					lastTimestamp = t;
+					started = true;
+					positioned = true;
+					return true;
+				}
+			}
+			parseNextFile();
+			if (this.folderValues == null) {
+				markEnd();
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public long timestamp() {
+		checkPositioned();
+		return folderValues.getTimestamp(currentIdx);
+	}
+
+	@Override
+	public double doubleValue() {
+		checkPositioned();
+		return folderValues.getValue(currentIdx);
+	}
+
+	@Override
+	public Quality quality() {
+		checkPositioned();
+		return Quality.getQuality(folderValues.getQuality(currentIdx));
+	}
+
+	/**
+	 * Creates a new object, use the primitive accessors where possible.
+	 * @return
+	 */
+	SampledValue sampledValue() {
+		checkPositioned();
+		return folderValues.get(currentIdx);
+	}
+
+	private void checkPositioned() {
+		if (!positioned)
+			throw new IllegalStateException("Cursor is not positioned on a data point");
+	}
+
+	private void markEnd() {
+		endReached = true;
+		folder = null;
+		folderValues = null;
+	}
+
+	private void parseNextFile() {
+		final FileObjectList folder = this.folder;
+		try {
+			AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
+
+				@Override
+				public Void run() throws Exception {
+					final FileObjectList newfolder;
+					final ValueChunk values;
+					lock.readLock().lock();
+					try {
+						if (folder == null)
+							newfolder = recorder.getProxy().getNextFolder(label, start, true);
+						else
+							newfolder = recorder.getProxy().getNextFolder(label, folder, false);
+						if (newfolder != null)
+							values = FileObjectProxy.readFolder(newfolder);
+						else
+							values = null;
+					} finally {
+						lock.readLock().unlock();
+					}
+					SlotsDbCursor.this.folder = newfolder;
+					SlotsDbCursor.this.currentIdx = -1;
+					SlotsDbCursor.this.folderValues = values;
+					return null;
+				}
+
+			});
+		} catch (PrivilegedActionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
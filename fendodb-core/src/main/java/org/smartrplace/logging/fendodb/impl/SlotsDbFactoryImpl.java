@@ -84,6 +84,8 @@ public class SlotsDbFactoryImpl implements FendoDbFactory {
 	private final List<SlotsDbListener> listeners = new CopyOnWriteArrayList<>();
 	private volatile ServiceRegistration<?> shellCommands;
 	private volatile ExecutorService exec;
+	// background tasks of all database instances
+	private volatile MaintenanceScheduler scheduler;
 	private final Queue<Future<?>> pendingCallbacks = new ConcurrentLinkedQueue<>();
 	private final Semaphore cleanUpSema = new Semaphore(1);
 	volatile boolean isSecure = System.getSecurityManager() != null;
@@ -150,6 +152,7 @@ public class SlotsDbFactoryImpl implements FendoDbFactory {
 			"getFendoDbConfig",
 			"getFendoDbTimeSeries",
 			"isFendoDbActive",
+			"maintenanceTasks",
 			"openFendoDb",
 			"removeProperty",
 			"setProperty",
@@ -158,6 +161,7 @@ public class SlotsDbFactoryImpl implements FendoDbFactory {
 			"updateConfig"
 		});
 		this.exec = Executors.newSingleThreadExecutor();
+		this.scheduler = new MaintenanceScheduler("fendodb-maintenance");
 		try {
 			this.shellCommands = ctx.registerService(org.smartrplace.logging.fendodb.impl.GogoCommands.class,
 					new GogoCommands(this), props);
@@ -239,14 +243,27 @@ public class SlotsDbFactoryImpl implements FendoDbFactory {
 					exec.shutdownNow();
 			}
 		}
+		final MaintenanceScheduler scheduler = this.scheduler;
+		this.scheduler = null;
+		if (scheduler != null)
+			scheduler.close();
 		this.selfFuture.cancel(true);
 		this.persistence = null;
 		this.persistenceTask = null;
 	}
 
 	private final void triggerPersistence() {
-		if (persistenceTask != null)
-			new Thread(persistenceTask, "SlotsDbFactory-persistence").start();
+		final Runnable persistenceTask = this.persistenceTask;
+		final MaintenanceScheduler scheduler = this.scheduler;
+		if (persistenceTask != null && scheduler != null)
+			scheduler.submit(MaintenanceScheduler.Priority.NORMAL, persistenceTask);
+	}
+
+	/**
+	 * @return the scheduler for the background tasks of the database instances, or null if the factory has been closed
+	 */
+	final MaintenanceScheduler getScheduler() {
+		return scheduler;
 	}
 
 
@@ -15,31 +15,19 @@
  */
 package org.smartrplace.logging.fendodb.impl;
 
-import java.security.AccessController;
-import java.security.PrivilegedActionException;
-import java.security.PrivilegedExceptionAction;
 import java.util.Iterator;
-import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.ogema.core.channelmanager.measurements.SampledValue;
 
 /**
- * A fail-safe iterator that reads data file by file (which means day by day)
+ * A fail-safe iterator that reads data file by file (which means day by day).
+ * Based on {@link SlotsDbCursor}; SampledValues are only created for data points that are actually returned.
  */
 class SlotsDbIterator implements Iterator<SampledValue> {
 
-	private final SlotsDb recorder;
-	private final long start;
-	private final long end;
-	private final ReadWriteLock lock;
-	final String label;
-
-	private volatile FileObjectList folder = null;
-	private volatile List<SampledValue> folderValues = null;
-	private int currentIdx = 0;
-	private SampledValue current = null;
+	private final SlotsDbCursor cursor;
 	private SampledValue next = null;
 
 	SlotsDbIterator(String idEncoded, SlotsDb recorder, ReadWriteLock lock) {
@@ -47,95 +35,26 @@ class SlotsDbIterator implements Iterator<SampledValue> {
 	}
 
 	SlotsDbIterator(String idEncoded, SlotsDb recorder, ReadWriteLock lock, long start, long end) {
-		this.recorder = recorder;
-		this.lock = lock;
-		this.start = start;
-		this.end = end;
-		this.label = idEncoded;
+		this.cursor = new SlotsDbCursor(idEncoded, recorder, lock, start, end);
 	}
 
 	@Override
 	public SampledValue next() {
 		if (!hasNext())
 			throw new NoSuchElementException();
-		current = next;
+		final SampledValue next = this.next;
+		this.next = null;
 		return next;
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (nextIsNewer(current, next)) {
+		if (next != null)
 			return true;
-		}
-		else if (next == null && current != null) // reached the end
-			return false;
-		while(folderValues != null && currentIdx < folderValues.size()) {
-			next = folderValues.get(currentIdx++);
-			if (next.getTimestamp() > end) { // reached the end
-				next = null;
-				return false;
-			}
-			while (next.getTimestamp() < start) {
-				current = next;
-				if (currentIdx < folderValues.size()) {
-					next = folderValues.get(currentIdx++);
-				} else {
-					return hasNext();
-				}
-			}
-			if (nextIsNewer(current, next)) {
-				return next.getTimestamp() <= end;
-			}
-		}
-		parseNextFile();
-		if (folderValues == null) {
-			next = null;
-			return false;
-		}
-		return hasNext(); // parse next folder's list
-	}
-
-
-	private void parseNextFile() {
-		final FileObjectList folder = this.folder;
-		try {
-			AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
-
-				@Override
-				public Void run() throws Exception {
-					final FileObjectList newfolder;
-					final List<SampledValue> values;
-					lock.readLock().lock();
-					try {
-						if (folder == null)
-							newfolder = recorder.getProxy().getNextFolder(label, start, true);
-						else
-							newfolder = recorder.getProxy().getNextFolder(label, folder, false);
-						if (newfolder != null)
-							values = FileObjectProxy.readFolder(newfolder);
-						else
-							values = null;
-					} finally {
-						lock.readLock().unlock();
-					}
-					SlotsDbIterator.this.folder = newfolder;
-					SlotsDbIterator.this.currentIdx = 0;
-					SlotsDbIterator.this.folderValues = values;
-					return null;
-				}
-
-			});
-		} catch (PrivilegedActionException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	private static boolean nextIsNewer(SampledValue current, SampledValue next) {
-		if (current == null || next == null)
-			return next != null;
-		if (next == current)
+		if (!cursor.advance())
 			return false;
-		return current.getTimestamp() < next.getTimestamp();
+		next = cursor.sampledValue();
+		return true;
 	}
 
 	@Override
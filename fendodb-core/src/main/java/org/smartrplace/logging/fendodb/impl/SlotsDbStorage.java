@@ -48,8 +48,9 @@ import org.ogema.recordeddata.DataRecorderException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartrplace.logging.fendodb.FendoTimeSeries;
-import org.smartrplace.logging.fendodb.impl.reduction.Reduction;
-import org.smartrplace.logging.fendodb.impl.reduction.ReductionFactory;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
+import org.smartrplace.logging.fendodb.stats.Statistics;
 
 class SlotsDbStorage implements FendoTimeSeries {
 
@@ -206,7 +207,11 @@ class SlotsDbStorage implements FendoTimeSeries {
 					long max_ts = Instant.now().plus(7, ChronoUnit.DAYS).toEpochMilli();
 					try {
 						if (configuration != null) {
-
+							final int size = values.size();
+							final long[] timestamps = new long[size];
+							final double[] doubleValues = new double[size];
+							final byte[] qualities = new byte[size];
+							int cnt = 0;
 							for (SampledValue value : values) {
 								if (value == null) {
 									continue; // XXX how?
@@ -216,17 +221,21 @@ class SlotsDbStorage implements FendoTimeSeries {
 									logger.error("bad timestamp ({}) in series {}", Instant.ofEpochMilli(value.getTimestamp()), recorder.getPath());
 									continue;
 								}
-								byte q = (byte) (value.getQuality() != null
+								try {
+									doubleValues[cnt] = value.getValue().getDoubleValue();
+								} catch (IllegalConversionException e) {
+									logger.error("", e);
+									continue;
+								}
+								timestamps[cnt] = value.getTimestamp();
+								qualities[cnt++] = (byte) (value.getQuality() != null
 										? value.getQuality().getQuality()
 										: Quality.BAD.getQuality());
-								recorder.getProxy().appendValue(idEncoded, value.getValue().getDoubleValue(), value.getTimestamp(),
-										q, configuration);
 							}
+							recorder.getProxy().appendValues(idEncoded, timestamps, doubleValues, qualities, cnt, configuration);
 						}
 					} catch (IOException e) {
 						logger.error("", e);
-					} catch (IllegalConversionException e) {
-						logger.error("", e);
 					} finally {
 						lock.writeLock().unlock();
 					}
@@ -343,7 +352,6 @@ class SlotsDbStorage implements FendoTimeSeries {
 
 	}
 
-	// TODO more efficient implementation; might as well return an iterator?
 	@Override
 	public List<SampledValue> getValues(final long startTime, final long endTime, final long intervalSize,
 			final ReductionMode mode) {
@@ -360,20 +368,9 @@ class SlotsDbStorage implements FendoTimeSeries {
 
 							// ----------------
 
-							// TODO could cause crash? extremely long requested time period of very small sampled values
-							List<SampledValue> returnValues = new ArrayList<SampledValue>();
-
-							if (validateArguments(startTime, endTimeMinusOne, intervalSize)) {
-
-								// Issues to consider:
-								// a) calling the for each subinterval will slow down the reduction (many file accesses)
-								// b) calling the read for the whole requested time period might be problematic -
-								// especially when requested
-								// time
-								// period is large and the log interval was very small (large number of values)
-								// Compromise: When the requested time period covers multiple days and therefore
-								// multiple log files, then a
-								// separate read data processing is performed for each file.
+							if (!validateArguments(startTime, endTimeMinusOne, intervalSize))
+								return new ArrayList<SampledValue>();
+							if (mode.equals(ReductionMode.NONE)) {
 								final List<SampledValue> loggedValues;
 								lock.readLock().lock();
 								try {
@@ -381,25 +378,13 @@ class SlotsDbStorage implements FendoTimeSeries {
 								} finally {
 									lock.readLock().unlock();
 								}
-//								List<SampledValue> loggedValues = removeQualityBad(loggedValuesRaw);
-
-								if (loggedValues.isEmpty()) {
-									// return an empty list since there are no logged values, so it doesn't make sense
-									// to aggregate anything
-									return returnValues;
-								}
-
-								// FIXME very inefficient! Better do this immediately in getLoggedValues!
-								if (mode.equals(ReductionMode.NONE)) {
-									return removeQualityBad(loggedValues);
-								}
-
-								List<Interval> intervals = generateIntervals(startTime, endTimeMinusOne, intervalSize);
-								returnValues = generateReducedData(intervals, loggedValues.iterator(), mode);
-
+								return removeQualityBad(loggedValues);
 							}
-
-							return returnValues;
+							// single pass over the data, folder by folder; no objects are created per data point
+							final StreamingReduction reduction = new StreamingReduction(mode, startTime, endTimeMinusOne, intervalSize);
+							reduce(reduction, startTime, endTimeMinusOne, intervalSize);
+							// an empty list if there are no logged values, since it doesn't make sense to aggregate anything
+							return reduction.finish();
 
 							// ----------------
 						}
@@ -413,140 +398,73 @@ class SlotsDbStorage implements FendoTimeSeries {
 	}
 
 	/**
-	 * Generates equidistant intervals starting from periodStart till periodEnd. The last interval might have a
-	 * different length than intervalSize.
-	 * 
-	 * ASSUMPTION: Arguments are valid (see validateArguments method)
-	 * 
-	 * @return List of intervals which cover the entire period
+	 * Add the data points in the interval [start, end] to the reduction, folder by folder. Compressed files 
+	 * provide summaries of their blocks, so that only blocks at the boundaries of the reduction intervals
+	 * need to be decoded. If enabled, the {@link Rollups} of past folders are used instead of the log files, 
+	 * provided that the reduction intervals are compatible with one of the rollup tiers.
 	 */
-	private static List<Interval> generateIntervals(long periodStart, long periodEnd, long intervalSize) {
-
-		List<Interval> intervals = new ArrayList<Interval>();
-
-		long start = periodStart;
-		long end;
-		do {
-			end = start + intervalSize - 1;
-			if (end > periodEnd) {
-				end = periodEnd;
-			}
-			intervals.add(new Interval(start, end));
-			start = end + 1;
-		} while (end != periodEnd);
-
-		return intervals;
-	}
-
-	private static List<SampledValue> generateReducedData(List<Interval> intervals, List<SampledValue> loggedValues, ReductionMode mode) {
-
-		List<SampledValue> returnValues = new ArrayList<SampledValue>();
-		List<SampledValue> reducedValues;
-
-		ReductionFactory reductionFactory = new ReductionFactory();
-		Reduction reduction = reductionFactory.getReduction(mode);
-
-		int index = 0; // used to move forwards in the loggedValues list
-		int maxIndex = loggedValues.size() - 1;
-		SampledValue loggedValue = loggedValues.get(index);
-		long timestamp = loggedValue.getTimestamp();
-
-		Iterator<Interval> it = intervals.iterator();
-		Interval interval;
-
-		while (it.hasNext()) {
-
-			interval = it.next();
-
-			while (timestamp >= interval.getStart() && timestamp <= interval.getEnd()) {
-
-				if (loggedValue.getQuality() == Quality.GOOD)
-					interval.add(loggedValue);
-
-				if (index < maxIndex) {
-					index++;
-					loggedValue = loggedValues.get(index);
-					timestamp = loggedValue.getTimestamp();
-				}
-				else {
-					// complete loggedValues list is processed
-					break;
+	private void reduce(final StreamingReduction reduction, final long start, final long end, final long intervalSize) throws IOException {
+		final FileObjectProxy proxy = recorder.getProxy();
+		final long[] tiers = proxy.rollups ? Rollups.getTiers(start, intervalSize) : null;
+		FileObjectList folder = null;
+		while (true) {
+			lock.readLock().lock();
+			try {
+				folder = folder == null ? proxy.getNextFolder(idEncoded, start, true) 
+						: proxy.getNextFolder(idEncoded, folder, false);
+				if (folder == null || folder.getFirstTS() > end)
+					return;
+				if (tiers != null && Rollups.reduce(proxy, folder, tiers, reduction, start, end))
+					continue;
+				for (FileObject file : folder.getAllFileObjects()) {
+					file.reduce(reduction, start, end);
 				}
+			} finally {
+				lock.readLock().unlock();
 			}
-
-			reducedValues = reduction.performReduction(interval.getValues(), interval.getStart());
-			returnValues.addAll(reducedValues);
-
 		}
+	}
 
-		// debug_printIntervals(intervals);
+	/**
+	 * Pass the data points in the interval [start, end] to the statistics, folder by folder, like a
+	 * {@link #cursor(long, long)} would. Blocks of compressed files and, if enabled, the {@link Rollups} 
+	 * of past folders are offered to the statistics as summaries, see {@link Statistics#step(org.smartrplace.logging.fendodb.stats.ValueSummary)}.
+	 */
+	void evaluate(final List<Statistics<?>> stats, final long start, final long end) throws IOException {
+		try {
+			AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
 
-		return returnValues;
-	}
-	
-	// ignores bad quality values
-	private static List<SampledValue> generateReducedData(List<Interval> intervals, Iterator<SampledValue> loggedValues, ReductionMode mode) {
-
-		final List<SampledValue> returnValues = new ArrayList<SampledValue>();
-		if (!loggedValues.hasNext())
-			return returnValues;
-		List<SampledValue> reducedValues;
-
-		final ReductionFactory reductionFactory = new ReductionFactory();
-		final Reduction reduction = reductionFactory.getReduction(mode);
-
-		
-		SampledValue loggedValue = loggedValues.next();
-		long timestamp = loggedValue.getTimestamp();
-
-		Iterator<Interval> it = intervals.iterator();
-		Interval interval;
-		boolean done = false;
-		while (it.hasNext()) {
-
-			interval = it.next();
-			
-			while (   timestamp >= interval.getStart() && timestamp <= interval.getEnd()) {
-
-				if (loggedValue.getQuality() == Quality.GOOD)
-					interval.add(loggedValue);
-				if (!loggedValues.hasNext()) {
-					done = true;
-					break;
+				@Override
+				public Void run() throws IOException {
+					evaluateInternal(stats, start, end);
+					return null;
 				}
-				loggedValue = loggedValues.next();
-				timestamp = loggedValue.getTimestamp();
-				
-			}
 
-			reducedValues = reduction.performReduction(interval.getValues(), interval.getStart());
-			returnValues.addAll(reducedValues);
-			if (done) 
-				break;
-		}
-		while (it.hasNext()) {
-			interval = it.next();
-			reducedValues = reduction.performReduction(interval.getValues(), interval.getStart());
-			returnValues.addAll(reducedValues);
+			});
+		} catch (PrivilegedActionException e) {
+			throw (IOException) e.getCause();
 		}
-
-		// debug_printIntervals(intervals);
-
-		return returnValues;
 	}
 
-	
-	@SuppressWarnings("unused")
-	private static void debug_printIntervals(List<Interval> intervals) {
-
-		Iterator<Interval> it2 = intervals.iterator();
-		Interval interval2;
-
-		int i = 1;
-		while (it2.hasNext()) {
-			interval2 = it2.next();
-			System.out.println(i + ": " + interval2.getValues().toString());
-			i++;
+	private void evaluateInternal(final List<Statistics<?>> stats, final long start, final long end) throws IOException {
+		final FileObjectProxy proxy = recorder.getProxy();
+		final StatisticsEvaluation evaluation = new StatisticsEvaluation(stats);
+		FileObjectList folder = null;
+		while (true) {
+			lock.readLock().lock();
+			try {
+				folder = folder == null ? proxy.getNextFolder(idEncoded, start, true) 
+						: proxy.getNextFolder(idEncoded, folder, false);
+				if (folder == null || folder.getFirstTS() > end)
+					return;
+				if (proxy.rollups && Rollups.evaluate(proxy, folder, evaluation, start, end))
+					continue;
+				for (FileObject file : folder.getAllFileObjects()) {
+					file.evaluate(evaluation, start, end);
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
 		}
 	}
 
@@ -758,6 +676,11 @@ class SlotsDbStorage implements FendoTimeSeries {
 		return new SlotsDbIterator(idEncoded, recorder, lock, startTime, endTime);
 	}
 
+	@Override
+	public TimeSeriesCursor cursor(long startTime, long endTime) {
+		return new SlotsDbCursor(idEncoded, recorder, lock, startTime, endTime);
+	}
+
 	@Override
 	public String toString() {
 		String result = "SlotsDbStorage " + id + ", storage type: " + (configuration == null ? null : configuration.getStorageType());
@@ -921,32 +844,3 @@ class SlotsDbStorage implements FendoTimeSeries {
 	}
 	
 }
-
-class Interval {
-
-	final List<SampledValue> values = new ArrayList<SampledValue>();
-
-	private final long start;
-	private final long end;
-
-	public Interval(long start, long end) {
-		this.start = start;
-		this.end = end;
-	}
-
-	public long getEnd() {
-		return end;
-	}
-
-	public long getStart() {
-		return start;
-	}
-
-	public void add(SampledValue value) {
-		values.add(value);
-	}
-
-	public List<SampledValue> getValues() {
-		return values;
-	}
-}
\ No newline at end of file
@@ -27,6 +27,7 @@ import org.ogema.core.recordeddata.ReductionMode;
 import org.ogema.core.timeseries.InterpolationMode;
 import org.ogema.recordeddata.DataRecorderException;
 import org.smartrplace.logging.fendodb.FendoTimeSeries;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 
 /**
  * Replaces DynamicProxy approach in SlotsDbStorage,
@@ -46,6 +47,10 @@ class SlotsDbStorageProxy implements FendoTimeSeries {
 		counter.referenceAdded();
 	}
 	
+	FendoTimeSeries getMaster() {
+		return master;
+	}
+	
 	@Override
 	protected void finalize() throws Throwable {
 		counter.referenceRemoved();
@@ -150,6 +155,11 @@ class SlotsDbStorageProxy implements FendoTimeSeries {
 		return master.iterator(startTime, endTime);
 	}
 
+	@Override
+	public TimeSeriesCursor cursor(long startTime, long endTime) {
+		return master.cursor(startTime, endTime);
+	}
+
 	@Override
 	public Long getTimeOfLatestEntry() {
 		return master.getTimeOfLatestEntry();
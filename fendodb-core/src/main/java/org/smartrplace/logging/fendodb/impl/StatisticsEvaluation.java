@@ -0,0 +1,101 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.util.List;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
+
+/**
+ * Passes the data of a time series to a set of {@link Statistics}, in the form of summaries where the storage
+ * provides them (see {@link Statistics#step(ValueSummary)}), and of individual data points otherwise. 
+ * Like the {@link SlotsDbCursor}, it ignores NaN values and data points not newer than the last one passed, 
+ * which may occur if log files overlap.
+ */
+final class StatisticsEvaluation {
+
+	private final Statistics<?>[] stats;
+	// statistics that did not accept the last summary
+	private final boolean[] refused;
+	private boolean anyRefused;
+	// timestamp of the last data point passed to stepRefused, Long.MIN_VALUE if there is none
+	private long lastRefusedTimestamp;
+	private boolean started;
+	private long lastTimestamp;
+
+	StatisticsEvaluation(final List<Statistics<?>> stats) {
+		this.stats = stats.toArray(new Statistics<?>[stats.size()]);
+		this.refused = new boolean[this.stats.length];
+	}
+
+	void step(final long timestamp, final double value, final Quality quality) {
+		if (Double.isNaN(value) || (started && timestamp <= lastTimestamp))
+			return;
+		for (Statistics<?> stat : stats) {
+			stat.step(timestamp, value, quality);
+		}
+		started = true;
+		lastTimestamp = timestamp;
+	}
+
+	/**
+	 * Offer a summary to the statistics. If some of them do not accept it, the data points covered by
+	 * the summary must be passed to {@link #stepRefused(long, double, Quality)} subsequently.
+	 * @param summary
+	 * @return
+	 * 		false if the summary overlaps with data passed before, in which case nothing has been done, 
+	 * 		and the data points must be passed to {@link #step(long, double, Quality)} instead.
+	 */
+	boolean add(final ValueSummary summary) {
+		anyRefused = false;
+		lastRefusedTimestamp = Long.MIN_VALUE;
+		if (summary.getCount() == 0)
+			return true;
+		if (started && summary.getFirstTimestamp() <= lastTimestamp)
+			return false;
+		for (int i = 0; i < stats.length; i++) {
+			refused[i] = !stats[i].step(summary);
+			anyRefused |= refused[i];
+		}
+		started = true;
+		lastTimestamp = summary.getLastTimestamp();
+		return true;
+	}
+
+	/**
+	 * @return
+	 * 		true if the last summary passed to {@link #add(ValueSummary)} has not been accepted by all statistics
+	 */
+	boolean hasRefused() {
+		return anyRefused;
+	}
+
+	/**
+	 * Pass a data point covered by the last summary to the statistics that did not accept it.
+	 */
+	void stepRefused(final long timestamp, final double value, final Quality quality) {
+		if (Double.isNaN(value) || timestamp <= lastRefusedTimestamp)
+			return;
+		lastRefusedTimestamp = timestamp;
+		for (int i = 0; i < stats.length; i++) {
+			if (refused[i])
+				stats[i].step(timestamp, value, quality);
+		}
+	}
+
+}
@@ -15,22 +15,37 @@
  */
 package org.smartrplace.logging.fendodb.impl;
 
+import java.io.IOException;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
-import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.channelmanager.measurements.Quality;
 import org.ogema.core.timeseries.InterpolationMode;
 import org.ogema.core.timeseries.ReadOnlyTimeSeries;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 import org.slf4j.LoggerFactory;
+import org.smartrplace.logging.fendodb.FendoTimeSeries;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 import org.smartrplace.logging.fendodb.stats.Statistics;
 import org.smartrplace.logging.fendodb.stats.StatisticsConfiguration;
 import org.smartrplace.logging.fendodb.stats.StatisticsProvider;
@@ -40,12 +55,51 @@ import org.smartrplace.logging.fendodb.stats.samples.BasicProviders;
 @Component(service=StatisticsService.class)
 public class StatisticsServiceImpl implements StatisticsService {
 	
+	// minimum length of the time partitions a single time series is split into: 1 day
+	private static final long MIN_PARTITION_LENGTH = 24 * 60 * 60 * 1000L;
 	private final Map<String, StatisticsProvider<?>> statistic = new ConcurrentHashMap<>();
+	/*
+	 * Evaluates multiple time series in parallel, by default with at most one thread per processor. 
+	 * Worker threads are created on demand, and terminate when idle.
+	 */
+	private final ForkJoinPool pool;
 	
 	{
 		statistic.putAll(BasicProviders.getBasicProviders());
 	}
 	
+	public StatisticsServiceImpl() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param parallelism
+	 * 		maximum number of threads evaluating time series in parallel
+	 */
+	StatisticsServiceImpl(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism, StatisticsServiceImpl::newWorker, null, false);
+	}
+	
+	@Deactivate
+	protected void deactivate() {
+		pool.shutdownNow();
+	}
+	
+	private static ForkJoinWorkerThread newWorker(final ForkJoinPool pool) {
+		// workers are created by whichever thread evaluates the statistics; they must not inherit its access control context.
+		// Instead, every task runs with the context of the thread that submitted it, see #withContext
+		return AccessController.doPrivileged(new PrivilegedAction<ForkJoinWorkerThread>() {
+
+			@Override
+			public ForkJoinWorkerThread run() {
+				final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("fendodb-statistics-" + thread.getPoolIndex());
+				return thread;
+			}
+
+		});
+	}
+	
 	@Reference(
 			service=StatisticsProvider.class,
 			bind="addProvider",
@@ -110,16 +164,44 @@ public class StatisticsServiceImpl implements StatisticsService {
 		final StatisticsConfiguration cfg = new ConfigImpl(timeSeries.getInterpolationMode());
 		final List<Statistics<?>> stats = 
 				providers.stream().map(provider -> provider.newStatistics(cfg)).collect(Collectors.toList());
-		final Iterator<SampledValue> it = timeSeries.iterator(start, end);
-		while (it.hasNext()) {
-			final SampledValue sv = it.next();
-			stats.forEach(stat -> stat.step(sv));
+		final SlotsDbStorage storage = getStorage(timeSeries);
+		if (storage != null) {
+			// uses summaries of the data where available
+			try {
+				storage.evaluate(stats, start, end);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return stats.stream()
+				.map(stat -> stat.finish(end))
+				.collect(Collectors.toList());
+		}
+		final TimeSeriesCursor cursor = timeSeries instanceof FendoTimeSeries ? ((FendoTimeSeries) timeSeries).cursor(start, end) :
+			TimeSeriesCursor.of(timeSeries.iterator(start, end));
+		final int sz = stats.size();
+		while (cursor.advance()) {
+			final long t = cursor.timestamp();
+			final double value = cursor.doubleValue();
+			final Quality quality = cursor.quality();
+			for (int i = 0; i < sz; i++) {
+				stats.get(i).step(t, value, quality);
+			}
 		}
 		return stats.stream()
 			.map(stat -> stat.finish(end))
 			.collect(Collectors.toList());
 	}
 	
+	/**
+	 * @param timeSeries
+	 * @return
+	 * 		the storage of a FendoDB time series, or null if the time series is not stored in a FendoDB
+	 */
+	private static SlotsDbStorage getStorage(final ReadOnlyTimeSeries timeSeries) {
+		final ReadOnlyTimeSeries master = timeSeries instanceof SlotsDbStorageProxy ? ((SlotsDbStorageProxy) timeSeries).getMaster() : timeSeries;
+		return master instanceof SlotsDbStorage ? (SlotsDbStorage) master : null;
+	}
+	
 	@Override
 	public Map<String, ?> evaluateByIds(ReadOnlyTimeSeries timeSeries, List<String> providersIds) {
 		final boolean empty = timeSeries.isEmpty();
@@ -149,46 +231,60 @@ public class StatisticsServiceImpl implements StatisticsService {
 		return result1;
 	}
 	
-	// TODO refactor to avoid double implementation
 	@Override
 	public Map<String, ?> evaluateByIds(List<? extends ReadOnlyTimeSeries> timeSeries, List<String> providerIds) {
-		final List<LabelledProvider> providers = statistic.entrySet().stream()
-				.filter(entry -> providerIds.stream().filter(id -> entry.getKey().equalsIgnoreCase(id)).findAny().isPresent())
-				.map(entry -> new LabelledProvider(entry.getKey(), entry.getValue()))
-				.collect(Collectors.toList());
-		final List<StatisticsProvider<?>> providers1 = providers.stream().map(p -> p.provider).collect(Collectors.toList());
-		final AtomicInteger cnt = new AtomicInteger(0);
-		final Map<Integer, List<?>> results = timeSeries.stream()	
-			.collect(Collectors.toMap(ts -> cnt.getAndIncrement(), ts -> evaluate(ts, providers1)));
-		final Map<String, Object> totalresult = new HashMap<>(providers.size(),1);
-		for (int i = 0; i <providers.size(); i++) {
-			final int j= i;
-			final List<?> providerResults = results.values().stream()
-				.map(list -> list.get(j))
-				.collect(Collectors.toList());
-			final LabelledProvider lp = providers.get(j);
-			@SuppressWarnings({ "rawtypes", "unchecked" })
-			final Object providerResult = lp.provider.join((List) providerResults);
-			totalresult.put(lp.id, providerResult);
-		}
-		return totalresult;
+		return evaluateByIds(timeSeries, providerIds, false, 0, 0);
 	}
 	
 	@Override
 	public Map<String, ?> evaluateByIds(final List<? extends ReadOnlyTimeSeries> timeSeries, final List<String> providerIds,
 			final long startTime, final long endTime) {
+		return evaluateByIds(timeSeries, providerIds, true, startTime, endTime);
+	}
+	
+	/**
+	 * Evaluates the time series in parallel, and joins the results per provider. If there are fewer time series
+	 * than worker threads, and all providers support it, long time series are split into time partitions, 
+	 * whose results are joined like those of different time series.
+	 * @param timeSeries
+	 * @param providerIds
+	 * @param hasRange
+	 * 		if false, each time series is evaluated from its first to its last data point
+	 * @param startTime
+	 * @param endTime
+	 * @return
+	 */
+	private Map<String, ?> evaluateByIds(final List<? extends ReadOnlyTimeSeries> timeSeries, final List<String> providerIds,
+			final boolean hasRange, final long startTime, final long endTime) {
 		final List<LabelledProvider> providers = statistic.entrySet().stream()
 				.filter(entry -> providerIds.stream().filter(id -> entry.getKey().equalsIgnoreCase(id)).findAny().isPresent())
 				.map(entry -> new LabelledProvider(entry.getKey(), entry.getValue()))
 				.collect(Collectors.toList());
 		final List<StatisticsProvider<?>> providers1 = providers.stream().map(p -> p.provider).collect(Collectors.toList());
-		final AtomicInteger cnt = new AtomicInteger(0);
-		final Map<Integer, List<?>> results = timeSeries.stream()	
-			.collect(Collectors.toMap(ts -> cnt.getAndIncrement(), ts -> evaluate(ts, providers1, startTime, endTime)));
+		final boolean partitionable = !providers1.isEmpty() && providers1.stream().allMatch(StatisticsProvider::supportsTimePartitions);
+		final int maxPartitions = partitionable ? pool.getParallelism() / Math.max(1, timeSeries.size()) : 1;
+		// the time series are read by the worker threads with the permissions of the caller
+		final AccessControlContext callerContext = AccessController.getContext();
+		final List<Callable<List<?>>> tasks = new ArrayList<>(timeSeries.size());
+		for (ReadOnlyTimeSeries ts : timeSeries) {
+			// only time series of a FendoDB are partitioned, whose cursors include the end time
+			if (maxPartitions > 1 && getStorage(ts) != null) {
+				final long[] range = hasRange ? new long[] {startTime, endTime} : getRange(ts);
+				addPartitions(ts, providers1, range[0], range[1], maxPartitions, tasks);
+			} else if (hasRange) {
+				tasks.add(() -> evaluate(ts, providers1, startTime, endTime));
+			} else {
+				tasks.add(() -> evaluate(ts, providers1));
+			}
+		}
+		// in the order of the time series and partitions
+		final List<List<?>> results = invokeAll(tasks.stream()
+				.map(task -> withContext(task, callerContext))
+				.collect(Collectors.toList()));
 		final Map<String, Object> totalresult = new HashMap<>(providers.size(),1);
 		for (int i = 0; i <providers.size(); i++) {
 			final int j= i;
-			final List<?> providerResults = results.values().stream()
+			final List<?> providerResults = results.stream()
 				.map(list -> list.get(j))
 				.collect(Collectors.toList());
 			final LabelledProvider lp = providers.get(j);
@@ -199,6 +295,73 @@ public class StatisticsServiceImpl implements StatisticsService {
 		return totalresult;
 	}
 	
+	private void addPartitions(final ReadOnlyTimeSeries timeSeries, final List<StatisticsProvider<?>> providers, 
+			final long start, final long end, final int maxPartitions, final List<Callable<List<?>>> tasks) {
+		final long span = end - start; // negative in case of an overflow
+		final int nrPartitions = span > 0 ? (int) Math.min(maxPartitions, span / MIN_PARTITION_LENGTH) : 1;
+		if (nrPartitions <= 1) {
+			tasks.add(() -> evaluate(timeSeries, providers, start, end));
+			return;
+		}
+		final long length = span / nrPartitions;
+		for (int i = 0; i < nrPartitions; i++) {
+			final long partitionStart = start + i * length;
+			final long partitionEnd = i == nrPartitions - 1 ? end : partitionStart + length - 1;
+			tasks.add(() -> evaluate(timeSeries, providers, partitionStart, partitionEnd));
+		}
+	}
+	
+	private static Callable<List<?>> withContext(final Callable<List<?>> task, final AccessControlContext context) {
+		return () -> {
+			try {
+				return AccessController.doPrivileged((PrivilegedExceptionAction<List<?>>) task::call, context);
+			} catch (PrivilegedActionException e) {
+				throw e.getException();
+			}
+		};
+	}
+	
+	private List<List<?>> invokeAll(final List<Callable<List<?>>> tasks) {
+		final List<List<?>> results = new ArrayList<>(tasks.size());
+		try {
+			if (tasks.size() > 1) {
+				for (Future<List<?>> future : pool.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+				return results;
+			}
+		} catch (RejectedExecutionException e) { // deactivated
+			results.clear();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+		}
+		for (Callable<List<?>> task : tasks) {
+			try {
+				results.add(task.call());
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return results;
+	}
+	
+	// same range as for evaluate(ReadOnlyTimeSeries, List)
+	private static long[] getRange(final ReadOnlyTimeSeries timeSeries) {
+		if (timeSeries.isEmpty())
+			return new long[] {0, 1};
+		final long start = timeSeries.getNextValue(Long.MIN_VALUE).getTimestamp();
+		long end = timeSeries.getPreviousValue(Long.MAX_VALUE).getTimestamp();
+		if (end == start)
+			end++;
+		return new long[] {start, end};
+	}
+	
 	private static final class LabelledProvider {
 		
 		final String id;
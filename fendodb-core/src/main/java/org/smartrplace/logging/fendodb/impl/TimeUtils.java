@@ -43,6 +43,21 @@ class TimeUtils {
 		}
 	}
 
+	/**
+	 * @param currentStart
+	 * 		a value returned by {@link #getCurrentStart(long, TemporalUnit)}
+	 * @param unit
+	 * @return
+	 * 		the start of the next period, or Long.MAX_VALUE if it is out of range
+	 */
+	static final long getNextStart(final long currentStart, final TemporalUnit unit) {
+		try {
+			return ZonedDateTime.ofInstant(Instant.ofEpochMilli(currentStart), zone).plus(1, unit).toInstant().toEpochMilli();
+		} catch (ArithmeticException | DateTimeException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
 	static final Instant getCurrentStart(final Instant instant0, final TemporalUnit unit) {
 		if (unit.isDateBased()) {
 			final ZonedDateTime zdt = ZonedDateTime.ofInstant(instant0, zone).truncatedTo(ChronoUnit.DAYS);
@@ -0,0 +1,190 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Two-phase deletion of folder periods. A folder is first moved to the trash folder, which is cheap 
+ * and can be done while holding the folder lock; its files are then deleted by a low priority 
+ * background task, at a limited rate, so that the deletion does not compete with other disk accesses.
+ * Files left in the trash, e.g. because the database has been closed, are deleted when it is opened again.
+ */
+final class Trash {
+
+	private static final Logger logger = LoggerFactory.getLogger(Trash.class);
+	static final String TRASH_FOLDER = "trash";
+	// number of files deleted before the task pauses
+	private static final int BATCH_SIZE = 64;
+	// pause between two batches in ms
+	private static final long BATCH_PAUSE = 20;
+	private final Path folder;
+	private final MaintenanceScheduler scheduler;
+	// synchronized on this
+	private Future<?> cleaner;
+	private long counter;
+	private volatile boolean closed;
+
+	Trash(Path rootNode, MaintenanceScheduler scheduler) {
+		this.folder = rootNode.resolve(TRASH_FOLDER);
+		this.scheduler = Objects.requireNonNull(scheduler);
+	}
+
+	/**
+	 * Move a file or folder to the trash and schedule its deletion. The trash is in the same folder as 
+	 * the file, so the move is atomic.
+	 * @param path
+	 * 		a day folder or archive in the database folder
+	 * @throws IOException
+	 */
+	void moveToTrash(final Path path) throws IOException {
+		if (!Files.exists(path))
+			return;
+		// the cleanup task deletes the trash folder once it is empty
+		synchronized (this) {
+			Files.createDirectories(folder);
+			final Path target = folder.resolve(path.getFileName().toString() + "_" + (counter++) + "_" + System.currentTimeMillis());
+			Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+		logger.debug("Moved {} to trash", path);
+		startCleanup();
+	}
+
+	/**
+	 * Start the background deletion, if the trash is not empty and the deletion is not running yet.
+	 */
+	synchronized void startCleanup() {
+		if (closed || (cleaner != null && !cleaner.isDone()) || !Files.isDirectory(folder))
+			return;
+		cleaner = scheduler.submit(MaintenanceScheduler.Priority.LOW, this::cleanup);
+	}
+
+	/**
+	 * Stop the background deletion; remaining files are deleted when the database is opened again.
+	 */
+	void close() {
+		closed = true;
+		final Future<?> task;
+		synchronized (this) {
+			task = cleaner;
+			cleaner = null;
+		}
+		if (task != null)
+			task.cancel(true);
+	}
+
+	/**
+	 * Wait for the background deletion to finish; for tests.
+	 * @param timeout
+	 * @param unit
+	 * @return true if the trash is empty
+	 * @throws InterruptedException
+	 */
+	boolean awaitCleanup(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final Future<?> task;
+		synchronized (this) {
+			task = cleaner;
+		}
+		if (task != null) {
+			try {
+				task.get(timeout, unit);
+			} catch (ExecutionException | TimeoutException | CancellationException ignore) {}
+		}
+		return isEmpty();
+	}
+
+	boolean isEmpty() {
+		if (!Files.isDirectory(folder))
+			return true;
+		try (final Stream<Path> stream = Files.list(folder)) {
+			return !stream.findAny().isPresent();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void cleanup() {
+		try {
+			while (!closed) {
+				final List<Path> entries;
+				try (final Stream<Path> stream = Files.list(folder)) {
+					entries = stream.collect(Collectors.toList());
+				}
+				if (entries.isEmpty()) {
+					synchronized (this) {
+						// a folder may have been added in the meantime, which did not start a new task
+						if (isEmpty()) {
+							Files.deleteIfExists(folder);
+							cleaner = null;
+							return;
+						}
+					}
+					continue;
+				}
+				for (Path entry : entries) {
+					delete(entry);
+					if (closed)
+						return;
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.debug("Deleting files from trash {} interrupted", folder);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Deleting files from trash {} failed", folder, e);
+		}
+	}
+
+	private void delete(final Path entry) throws IOException, InterruptedException {
+		final List<Path> files;
+		if (Files.isDirectory(entry)) {
+			try (final Stream<Path> stream = Files.walk(entry)) {
+				files = stream.collect(Collectors.toList());
+			}
+		} else {
+			files = new ArrayList<>(1);
+			files.add(entry);
+		}
+		// delete the files before their folders
+		for (int i = files.size() - 1; i >= 0; i--) {
+			try {
+				Files.delete(files.get(i));
+			} catch (NoSuchFileException ignore) {}
+			if (i % BATCH_SIZE == 0) {
+				if (closed)
+					return;
+				Thread.sleep(BATCH_PAUSE);
+			}
+		}
+	}
+
+}
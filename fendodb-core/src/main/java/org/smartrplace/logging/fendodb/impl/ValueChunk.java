@@ -0,0 +1,210 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+
+/**
+ * Immutable, time-ordered sequence of log data points, stored in primitive arrays.
+ * This needs about 17 bytes of heap per data point, compared to 60-80 bytes for a
+ * list of {@link SampledValue}s. The {@link List} methods create SampledValues on demand;
+ * performance critical code should use the primitive accessors instead.<br>
+ * Sub lists are views sharing the arrays of the original chunk.
+ */
+final class ValueChunk extends AbstractList<SampledValue> implements RandomAccess {
+
+	static final ValueChunk EMPTY = new ValueChunk(new long[0], new double[0], new byte[0], 0, 0);
+	// approximate heap size of the object headers and fields
+	private static final int OVERHEAD = 80;
+
+	private final long[] timestamps;
+	private final double[] values;
+	private final byte[] qualities;
+	private final int offset;
+	private final int size;
+
+	private ValueChunk(long[] timestamps, double[] values, byte[] qualities, int offset, int size) {
+		this.timestamps = timestamps;
+		this.values = values;
+		this.qualities = qualities;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public SampledValue get(final int index) {
+		checkIndex(index);
+		final int idx = offset + index;
+		return new SampledValue(DoubleValues.of(values[idx]), timestamps[idx], Quality.getQuality(qualities[idx]));
+	}
+
+	long getTimestamp(final int index) {
+		checkIndex(index);
+		return timestamps[offset + index];
+	}
+
+	double getValue(final int index) {
+		checkIndex(index);
+		return values[offset + index];
+	}
+
+	byte getQuality(final int index) {
+		checkIndex(index);
+		return qualities[offset + index];
+	}
+
+	@Override
+	public ValueChunk subList(final int fromIndex, final int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("From: " + fromIndex + ", to: " + toIndex + ", size: " + size);
+		if (fromIndex == 0 && toIndex == size)
+			return this;
+		if (fromIndex == toIndex)
+			return EMPTY;
+		return new ValueChunk(timestamps, values, qualities, offset + fromIndex, toIndex - fromIndex);
+	}
+
+	/**
+	 * @param start
+	 * @param end
+	 * @return the data points with timestamps in the interval [start, end]
+	 */
+	ValueChunk subChunk(final long start, final long end) {
+		if (size == 0 || start > end)
+			return EMPTY;
+		if (start <= timestamps[offset] && end >= timestamps[offset + size - 1])
+			return this;
+		return subList(indexOfFirstNotBefore(start), indexOfFirstAfter(end));
+	}
+
+	/**
+	 * @param timestamp
+	 * @return index of the first data point with timestamp &gt;= timestamp, or {@link #size()} if there is none
+	 */
+	int indexOfFirstNotBefore(final long timestamp) {
+		final int idx = Arrays.binarySearch(timestamps, offset, offset + size, timestamp);
+		return (idx >= 0 ? idx : -(idx + 1)) - offset;
+	}
+
+	/**
+	 * @param timestamp
+	 * @return index of the first data point with timestamp &gt; timestamp, or {@link #size()} if there is none
+	 */
+	int indexOfFirstAfter(final long timestamp) {
+		final int idx = Arrays.binarySearch(timestamps, offset, offset + size, timestamp);
+		return (idx >= 0 ? idx + 1 : -(idx + 1)) - offset;
+	}
+
+	/**
+	 * Approximate heap size in bytes; sub lists are accounted for with their own size only.
+	 * @return
+	 */
+	int getHeapSize() {
+		return OVERHEAD + size * (Long.BYTES + Double.BYTES + Byte.BYTES);
+	}
+
+	private void checkIndex(final int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+
+	/**
+	 * Concatenate chunks. Duplicate or older timestamps at the transition between chunks are skipped.
+	 * @param chunks
+	 * @return
+	 */
+	static ValueChunk concat(final List<ValueChunk> chunks) {
+		if (chunks.isEmpty())
+			return EMPTY;
+		if (chunks.size() == 1)
+			return chunks.get(0);
+		int total = 0;
+		for (ValueChunk chunk : chunks) {
+			total += chunk.size;
+		}
+		final Builder builder = new Builder(total);
+		for (ValueChunk chunk : chunks) {
+			for (int i = chunk.offset; i < chunk.offset + chunk.size; i++) {
+				builder.add(chunk.timestamps[i], chunk.values[i], chunk.qualities[i]);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Collects data points in ascending temporal order; NaN values and timestamps
+	 * not larger than the last one are ignored.
+	 */
+	static final class Builder {
+
+		private long[] timestamps;
+		private double[] values;
+		private byte[] qualities;
+		private int size = 0;
+
+		Builder(final int expectedSize) {
+			final int sz = Math.max(expectedSize, 4);
+			this.timestamps = new long[sz];
+			this.values = new double[sz];
+			this.qualities = new byte[sz];
+		}
+
+		Builder add(final long timestamp, final double value, final byte quality) {
+			if (Double.isNaN(value) || (size > 0 && timestamps[size - 1] >= timestamp))
+				return this;
+			if (size == timestamps.length) {
+				final int newSize = size + (size >> 1) + 1;
+				timestamps = Arrays.copyOf(timestamps, newSize);
+				values = Arrays.copyOf(values, newSize);
+				qualities = Arrays.copyOf(qualities, newSize);
+			}
+			timestamps[size] = timestamp;
+			values[size] = value;
+			qualities[size] = quality;
+			size++;
+			return this;
+		}
+
+		ValueChunk build() {
+			if (size == 0)
+				return EMPTY;
+			if (size < timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, size);
+				values = Arrays.copyOf(values, size);
+				qualities = Arrays.copyOf(qualities, size);
+			}
+			final ValueChunk chunk = new ValueChunk(timestamps, values, qualities, 0, size);
+			// the builder must not be used any more
+			timestamps = null;
+			values = null;
+			qualities = null;
+			return chunk;
+		}
+
+	}
+
+}
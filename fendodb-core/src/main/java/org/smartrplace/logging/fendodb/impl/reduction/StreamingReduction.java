@@ -0,0 +1,203 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl.reduction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.ReductionMode;
+import org.smartrplace.logging.fendodb.impl.DoubleValues;
+
+/**
+ * Reduces a time series to equidistant intervals in a single pass over the data points, 
+ * equivalent to the {@link Reduction} for the same mode. Only the aggregates of the current 
+ * interval are kept, instead of the data points of all intervals. Sequences of data points
+ * that fall into a single interval can be added as a whole, by means of their aggregates.
+ */
+public class StreamingReduction {
+
+	private final ReductionMode mode;
+	private final long periodStart;
+	// inclusive
+	private final long periodEnd;
+	private final long intervalSize;
+	private final List<SampledValue> result = new ArrayList<>();
+	// current interval; intervalEnd is inclusive
+	private long intervalStart;
+	private long intervalEnd;
+	private boolean done;
+	private boolean empty = true;
+	// timestamp of the latest data point added; older data points are ignored
+	private long lastTimestamp;
+	// aggregates of the current interval, over good quality values
+	private int count;
+	private double sum;
+	private double min;
+	private double max;
+
+	/**
+	 * @param mode
+	 * 		any mode except {@link ReductionMode#NONE}
+	 * @param periodStart
+	 * 		start of the first interval
+	 * @param periodEnd
+	 * 		inclusive; the last interval may be shorter than intervalSize
+	 * @param intervalSize
+	 * 		a value &lt;= 0 means that the whole period is reduced to a single interval
+	 */
+	public StreamingReduction(ReductionMode mode, long periodStart, long periodEnd, long intervalSize) {
+		if (mode == ReductionMode.NONE)
+			throw new IllegalArgumentException("Mode " + mode + " not supported");
+		if (periodStart > periodEnd)
+			throw new IllegalArgumentException("Start time after end time: " + periodStart + ", " + periodEnd);
+		this.mode = mode;
+		this.periodStart = periodStart;
+		this.periodEnd = periodEnd;
+		this.intervalSize = intervalSize;
+		startInterval(periodStart);
+	}
+
+	/**
+	 * Add the next data point. Data points outside the period, NaN values, and data points not newer 
+	 * than the previous one are ignored.
+	 * @param timestamp
+	 * @param value
+	 * @param quality
+	 * 		bad quality values are not included in the aggregates
+	 */
+	public void add(final long timestamp, final double value, final Quality quality) {
+		if (done || Double.isNaN(value) || timestamp < periodStart || timestamp > periodEnd || (!empty && timestamp <= lastTimestamp))
+			return;
+		moveTo(timestamp);
+		empty = false;
+		lastTimestamp = timestamp;
+		if (quality != Quality.GOOD)
+			return;
+		addGood(1, value, value, value);
+	}
+
+	/**
+	 * Add a sequence of data points by means of their aggregates. This is only possible if all of them fall
+	 * into a single interval, and are newer than the data points added before.
+	 * @param firstTimestamp
+	 * 		timestamp of the first non-NaN data point
+	 * @param lastTimestamp
+	 * 		timestamp of the last non-NaN data point
+	 * @param count
+	 * 		number of non-NaN data points
+	 * @param goodCount
+	 * 		number of non-NaN data points of good quality
+	 * @param sum
+	 * 		of the good quality values
+	 * @param min
+	 * 		of the good quality values
+	 * @param max
+	 * 		of the good quality values
+	 * @return
+	 * 		false if the aggregates cannot be used, in which case the data points must be added individually
+	 */
+	public boolean add(final long firstTimestamp, final long lastTimestamp, final int count, final int goodCount, 
+			final double sum, final double min, final double max) {
+		if (count == 0)
+			return true;
+		if (done || firstTimestamp < periodStart || lastTimestamp > periodEnd || (!empty && firstTimestamp <= this.lastTimestamp))
+			return false;
+		moveTo(firstTimestamp);
+		if (lastTimestamp > intervalEnd)
+			return false;
+		empty = false;
+		this.lastTimestamp = lastTimestamp;
+		if (goodCount > 0)
+			addGood(goodCount, sum, min, max);
+		return true;
+	}
+
+	// finish the intervals before the one containing timestamp
+	private void moveTo(final long timestamp) {
+		while (timestamp > intervalEnd) {
+			finishInterval();
+			startInterval(intervalEnd + 1);
+		}
+	}
+
+	private void addGood(final int count, final double sum, final double min, final double max) {
+		this.count += count;
+		this.sum += sum;
+		if (min < this.min)
+			this.min = min;
+		if (max > this.max)
+			this.max = max;
+	}
+
+	/**
+	 * @return
+	 * 		the reduced values for all intervals of the period, or an empty list if no data 
+	 * 		point has been added
+	 */
+	public List<SampledValue> finish() {
+		if (empty)
+			return new ArrayList<>();
+		if (!done) {
+			while (true) {
+				finishInterval();
+				if (intervalEnd == periodEnd)
+					break;
+				startInterval(intervalEnd + 1);
+			}
+			done = true;
+		}
+		return result;
+	}
+
+	private void startInterval(final long start) {
+		intervalStart = start;
+		// avoid overflow for periods ending close to Long.MAX_VALUE
+		intervalEnd = intervalSize <= 0 || periodEnd - start < intervalSize ? periodEnd : start + intervalSize - 1;
+		count = 0;
+		sum = 0;
+		min = Double.MAX_VALUE;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	private void finishInterval() {
+		if (count == 0) {
+			result.add(new SampledValue(DoubleValues.of(0.f), intervalStart, Quality.BAD));
+			if (mode == ReductionMode.MIN_MAX_VALUE)
+				result.add(new SampledValue(DoubleValues.of(0.f), intervalStart, Quality.BAD));
+			return;
+		}
+		switch (mode) {
+		case AVERAGE:
+			result.add(new SampledValue(DoubleValues.of(sum / count), intervalStart, Quality.GOOD));
+			break;
+		case MINIMUM_VALUE:
+			result.add(new SampledValue(DoubleValues.of(min), intervalStart, Quality.GOOD));
+			break;
+		case MAXIMUM_VALUE:
+			result.add(new SampledValue(DoubleValues.of(max), intervalStart, Quality.GOOD));
+			break;
+		case MIN_MAX_VALUE:
+			result.add(new SampledValue(DoubleValues.of(min), intervalStart, Quality.GOOD));
+			result.add(new SampledValue(DoubleValues.of(max), intervalStart, Quality.GOOD));
+			break;
+		default:
+			throw new IllegalArgumentException("Mode " + mode + " not supported yet");
+		}
+	}
+
+}
@@ -523,4 +523,81 @@ public class AppendValuesTest extends SlotsDbTest {
 		}
 	}
 
+	private static void bulkInsertMatchesSingleInserts(final RecordedDataConfiguration cfg) throws IOException, DataRecorderException {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+		final List<SampledValue> values = new ArrayList<>();
+		long t = ONE_DAY * 10;
+		for (int i = 0; i < 3000; i++) {
+			values.add(new SampledValue(new FloatValue(i), t, Quality.GOOD));
+			if (i % 100 == 17) // out of order point, must be ignored
+				values.add(new SampledValue(new FloatValue(-i), t - 7, Quality.GOOD));
+			if (i % 100 == 33) // duplicate timestamp, must be ignored
+				values.add(new SampledValue(new FloatValue(-i), t, Quality.BAD));
+			t += (i % 500 == 0 ? 10000 : 60) * 1000 + 23 * (i % 7);
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			final RecordedDataStorage bulk = instance.createRecordedDataStorage("bulk", cfg);
+			final RecordedDataStorage single = instance.createRecordedDataStorage("single", cfg);
+			bulk.insertValues(values.subList(0, 1000));
+			bulk.insertValues(values.subList(1000, values.size()));
+			for (SampledValue sv : values) {
+				single.insertValue(sv);
+			}
+			final List<SampledValue> expected = single.getValues(Long.MIN_VALUE);
+			final List<SampledValue> actual = bulk.getValues(Long.MIN_VALUE);
+			Assert.assertTrue("Log data spans a single folder only", 
+					expected.get(expected.size() - 1).getTimestamp() - expected.get(0).getTimestamp() > ONE_DAY);
+			Assert.assertEquals("Unexpected number of data points after bulk insert", expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+				Assert.assertEquals(expected.get(i).getValue().getFloatValue(), actual.get(i).getValue().getFloatValue(), 0.001F);
+				Assert.assertEquals(expected.get(i).getQuality(), actual.get(i).getQuality());
+			}
+		}
+	}
+
+	@Test
+	public void bulkInsertMatchesSingleInsertsOnValueUpdate() throws IOException, DataRecorderException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		bulkInsertMatchesSingleInserts(cfg);
+	}
+
+	@Test
+	public void bulkInsertMatchesSingleInsertsFixedInterval() throws IOException, DataRecorderException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.FIXED_INTERVAL);
+		cfg.setFixedInterval(1000);
+		bulkInsertMatchesSingleInserts(cfg);
+	}
+
+	@Test
+	public void pastTimestampsAreIgnoredAfterRestart() throws IOException, DataRecorderException {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", cfg);
+			data.insertValues(Arrays.asList(
+				new SampledValue(new FloatValue(1), 100, Quality.GOOD),
+				new SampledValue(new FloatValue(2), 200, Quality.GOOD)
+			));
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("test");
+			data.insertValue(new SampledValue(new FloatValue(3), 150, Quality.GOOD));
+			data.insertValues(Arrays.asList(
+				new SampledValue(new FloatValue(4), 170, Quality.GOOD),
+				new SampledValue(new FloatValue(5), 300, Quality.GOOD)
+			));
+			final List<SampledValue> values = data.getValues(Long.MIN_VALUE);
+			Assert.assertEquals(Arrays.asList(100L, 200L, 300L), 
+					values.stream().map(SampledValue::getTimestamp).collect(Collectors.toList()));
+		}
+	}
+
 }
@@ -0,0 +1,182 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class ArchiveTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+	private static final int NR_VALUES = 5000; // ~3.5 days
+
+	private static FendoDbConfiguration getConfig() {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final boolean fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(STEP);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = 0; i < nr; i++) {
+			values.add(new SampledValue(new FloatValue(i % 77), i * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static List<Path> getRootEntries() throws IOException {
+		try (final Stream<Path> files = Files.list(testPath)) {
+			return files.collect(Collectors.toList());
+		}
+	}
+
+	private static List<Path> getArchives() throws IOException {
+		return getRootEntries().stream()
+			.filter(f -> f.getFileName().toString().endsWith(Archiver.ARCHIVE_EXTENSION))
+			.collect(Collectors.toList());
+	}
+
+	private static void assertValuesEqual(final List<SampledValue> expected, final List<SampledValue> actual) {
+		Assert.assertEquals("Unexpected number of log values", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			Assert.assertEquals(expected.get(i).getValue().getFloatValue(), actual.get(i).getValue().getFloatValue(), 0.001F);
+		}
+	}
+
+	private static List<SampledValue> createAndArchive() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues(NR_VALUES);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			instance.createRecordedDataStorage("flexible", getRecordedDataConfig(false)).insertValues(values);
+			instance.createRecordedDataStorage("fixed", getRecordedDataConfig(true)).insertValues(values);
+			instance.proxy.getArchiver(ONE_DAY).run();
+			assertValuesEqual(values, instance.getRecordedDataStorage("flexible").getValues(Long.MIN_VALUE));
+			assertValuesEqual(values, instance.getRecordedDataStorage("fixed").getValues(Long.MIN_VALUE));
+		}
+		return values;
+	}
+
+	@Test
+	public void oldFoldersAreArchived() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createAndArchive();
+		final List<Path> archives = getArchives();
+		Assert.assertEquals(4, archives.size());
+		Assert.assertTrue("Day folders remain after archiving", getRootEntries().stream().noneMatch(Files::isDirectory));
+		for (Path archive : archives) {
+			try (final DayArchive index = DayArchive.open(archive)) {
+				Assert.assertEquals("Unexpected number of indexed entries in " + archive, 2, index.size());
+			}
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			for (String id : new String[] {"flexible", "fixed"}) {
+				final RecordedDataStorage data = instance.getRecordedDataStorage(id);
+				assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+				assertValuesEqual(values.subList(2000, 3001), data.getValues(2000 * STEP, 3000 * STEP + 1));
+				final SampledValue sv = values.get(1234);
+				Assert.assertEquals(sv.getValue().getFloatValue(), data.getValue(sv.getTimestamp()).getValue().getFloatValue(), 0.001F);
+				Assert.assertEquals(sv.getTimestamp(), data.getNextValue(sv.getTimestamp() - 1).getTimestamp());
+			}
+		}
+	}
+
+	@Test
+	public void otherTimeSeriesAreNotClosed() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues(NR_VALUES);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("flexible", getRecordedDataConfig(false));
+			final RecordedDataStorage other = instance.createRecordedDataStorage("other", getRecordedDataConfig(false));
+			data.insertValues(values);
+			// the current day is not archived
+			final long now = System.currentTimeMillis();
+			other.insertValue(new SampledValue(new FloatValue(1), now, Quality.GOOD));
+			final List<FileObjectList> otherLists = instance.proxy.openFilesHM.asMap().entrySet().stream()
+				.filter(entry -> entry.getKey().startsWith("other"))
+				.map(Map.Entry::getValue)
+				.collect(Collectors.toList());
+			Assert.assertEquals(1, otherLists.size());
+			instance.proxy.getArchiver(ONE_DAY).run();
+			Assert.assertEquals(4, getArchives().size());
+			Assert.assertTrue("Files of a time series not archived have been closed", 
+					instance.proxy.openFilesHM.asMap().values().containsAll(otherLists));
+			assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+			Assert.assertEquals(1, other.getValues(now).size());
+		}
+	}
+
+	@Test
+	public void archivedDataCannotBeModified() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createAndArchive();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("flexible");
+			data.insertValue(new SampledValue(new FloatValue(-1), NR_VALUES * STEP, Quality.GOOD));
+			instance.createRecordedDataStorage("other", getRecordedDataConfig(false))
+				.insertValue(new SampledValue(new FloatValue(-1), STEP / 2, Quality.GOOD));
+			assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+			Assert.assertTrue(instance.getRecordedDataStorage("other").isEmpty());
+		}
+		Assert.assertTrue("Unexpected folders " + getRootEntries(), getRootEntries().stream().noneMatch(Files::isDirectory));
+	}
+
+	@Test
+	public void interruptedArchivingIsCompletedOnStartup() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createAndArchive();
+		// simulate a crash after the archive has been created, but before the folder was deleted
+		final Path archive = getArchives().get(0);
+		final String day = archive.getFileName().toString().replace(Archiver.ARCHIVE_EXTENSION, "");
+		final Path folder = Files.createDirectories(testPath.resolve(day).resolve("flexible"));
+		Files.write(folder.resolve("f0.slots"), new byte[16]);
+		Files.write(testPath.resolve(Archiver.PENDING_FILE), day.getBytes(StandardCharsets.UTF_8));
+		Files.write(testPath.resolve("123" + Archiver.ARCHIVE_EXTENSION + Archiver.TEMP_EXTENSION), new byte[10]);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			assertValuesEqual(values, instance.getRecordedDataStorage("flexible").getValues(Long.MIN_VALUE));
+		}
+		Assert.assertFalse(Files.exists(testPath.resolve(Archiver.PENDING_FILE)));
+		Assert.assertFalse(Files.exists(testPath.resolve(day)));
+		Assert.assertFalse(Files.exists(testPath.resolve("123" + Archiver.ARCHIVE_EXTENSION + Archiver.TEMP_EXTENSION)));
+	}
+
+}
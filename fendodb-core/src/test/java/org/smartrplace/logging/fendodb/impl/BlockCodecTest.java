@@ -0,0 +1,114 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BlockCodecTest {
+
+	private static void assertRoundtrip(final long[] timestamps, final double[] values, final byte[] flags) {
+		final BlockCodec.Encoder encoder = new BlockCodec.Encoder();
+		for (int i = 0; i < timestamps.length; i++) {
+			encoder.add(timestamps[i], values[i], flags[i]);
+		}
+		Assert.assertEquals(timestamps.length, encoder.size());
+		Assert.assertEquals(timestamps[0], encoder.getFirstTimestamp());
+		Assert.assertEquals(timestamps[timestamps.length - 1], encoder.getLastTimestamp());
+		final ByteBuffer payload = ByteBuffer.wrap(Arrays.copyOf(encoder.getData(), encoder.getByteLength()));
+		final BlockCodec.Decoder decoder = new BlockCodec.Decoder(payload, encoder.size(), encoder.getFirstTimestamp());
+		for (int i = 0; i < timestamps.length; i++) {
+			Assert.assertTrue(decoder.next());
+			Assert.assertEquals(timestamps[i], decoder.timestamp());
+			Assert.assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(decoder.value()));
+			Assert.assertEquals(flags[i], decoder.flag());
+		}
+		Assert.assertFalse(decoder.next());
+	}
+
+	@Test
+	public void slowlyChangingValuesAreCompressed() {
+		final int n = BlockCodec.MAX_BLOCK_SIZE;
+		final long[] t = new long[n];
+		final double[] v = new double[n];
+		final byte[] f = new byte[n];
+		for (int i = 0; i < n; i++) {
+			t[i] = 1_500_000_000_000L + i * 60_000L + (i % 3);
+			v[i] = 20 + (i / 50) * 0.5;
+			f[i] = 1;
+		}
+		assertRoundtrip(t, v, f);
+		final BlockCodec.Encoder encoder = new BlockCodec.Encoder();
+		for (int i = 0; i < n; i++) {
+			encoder.add(t[i], v[i], f[i]);
+		}
+		Assert.assertTrue("Poor compression: " + encoder.getByteLength() + " bytes", encoder.getByteLength() * 10 < n * 17);
+	}
+
+	@Test
+	public void arbitraryValuesSurviveRoundtrip() {
+		final Random random = new Random(5);
+		final int n = 500;
+		final long[] t = new long[n];
+		final double[] v = new double[n];
+		final byte[] f = new byte[n];
+		long last = -1_000_000;
+		for (int i = 0; i < n; i++) {
+			// mix of small jitter, medium and huge gaps
+			final int type = random.nextInt(10);
+			last += type < 6 ? 1000 + random.nextInt(20) : type < 9 ? 1 + random.nextInt(100_000) : Math.abs(random.nextLong() >> 8) + 1;
+			t[i] = last;
+			v[i] = type == 0 ? Double.NaN : type == 1 ? random.nextDouble() * 1E300 : type == 2 ? -0.0 : i % 5;
+			f[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 1);
+		}
+		assertRoundtrip(t, v, f);
+	}
+
+	@Test
+	public void singleValueWorks() {
+		assertRoundtrip(new long[] {Long.MIN_VALUE + 1}, new double[] {Double.MAX_VALUE}, new byte[] {0});
+	}
+
+	@Test
+	public void encodingCanBeResumed() {
+		final Random random = new Random(17);
+		final BlockCodec.Encoder reference = new BlockCodec.Encoder();
+		final BlockCodec.Encoder first = new BlockCodec.Encoder();
+		long t = 0;
+		for (int i = 0; i < 100; i++) {
+			t += 1 + random.nextInt(1000);
+			final double v = random.nextInt(3) == 0 ? random.nextGaussian() : 5;
+			reference.add(t, v, (byte) 1);
+			first.add(t, v, (byte) 1);
+		}
+		final ByteBuffer payload = ByteBuffer.wrap(Arrays.copyOf(first.getData(), first.getByteLength()));
+		final BlockCodec.Encoder resumed = BlockCodec.Encoder.resume(payload, first.size(), first.getFirstTimestamp());
+		for (int i = 0; i < 100; i++) {
+			t += 1 + random.nextInt(1000);
+			final double v = random.nextInt(3) == 0 ? random.nextGaussian() : 5;
+			reference.add(t, v, (byte) 0);
+			resumed.add(t, v, (byte) 0);
+		}
+		Assert.assertEquals(reference.getByteLength(), resumed.getByteLength());
+		Assert.assertArrayEquals(Arrays.copyOf(reference.getData(), reference.getByteLength()),
+				Arrays.copyOf(resumed.getData(), resumed.getByteLength()));
+	}
+
+}
@@ -0,0 +1,164 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.core.recordeddata.ReductionMode;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
+
+public class BlockSummaryTest extends SlotsDbTest {
+
+	private static final long STEP = 1000;
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final int NR_VALUES = 20000;
+	private static final ReductionMode[] MODES = {
+		ReductionMode.AVERAGE, ReductionMode.MINIMUM_VALUE, ReductionMode.MAXIMUM_VALUE, ReductionMode.MIN_MAX_VALUE
+	};
+
+	private static FendoDbConfiguration getConfig() {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setCompressedFiles(true)
+				.build();
+	}
+
+	// values are exactly representable as floats
+	private static List<SampledValue> createValues() {
+		final List<SampledValue> values = new ArrayList<>(NR_VALUES);
+		for (int i = 0; i < NR_VALUES; i++) {
+			values.add(new SampledValue(new FloatValue((i % 97) * 0.25F - 10), i * STEP, 
+					i % 50 == 49 ? Quality.BAD : Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static RecordedDataStorage createStorage(final SlotsDb instance, final List<SampledValue> values) throws DataRecorderException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final RecordedDataStorage data = instance.createRecordedDataStorage("summaries", cfg);
+		data.insertValues(values);
+		return data;
+	}
+
+	/**
+	 * Counts the blocks added by means of their summary.
+	 */
+	private static final class CountingReduction extends StreamingReduction {
+
+		int summaries;
+
+		CountingReduction(ReductionMode mode, long periodStart, long periodEnd, long intervalSize) {
+			super(mode, periodStart, periodEnd, intervalSize);
+		}
+
+		@Override
+		public boolean add(long firstTimestamp, long lastTimestamp, int count, int goodCount, double sum, double min, double max) {
+			final boolean added = super.add(firstTimestamp, lastTimestamp, count, goodCount, sum, min, max);
+			if (added)
+				summaries++;
+			return added;
+		}
+
+	}
+
+	private static CountingReduction reduce(final SlotsDb instance, final ReductionMode mode, final long start, final long end, 
+			final long interval) throws IOException {
+		final CountingReduction reduction = new CountingReduction(mode, start, end, interval);
+		FileObjectList folder = instance.proxy.getNextFolder("summaries", start, true);
+		while (folder != null) {
+			for (FileObject file : folder.getAllFileObjects()) {
+				file.reduce(reduction, start, end);
+			}
+			folder = instance.proxy.getNextFolder("summaries", folder, false);
+		}
+		return reduction;
+	}
+
+	@Test
+	public void reductionsUseBlockSummaries() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues();
+		final long end = (NR_VALUES - 1) * STEP;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = createStorage(instance, values);
+			for (ReductionMode mode : MODES) {
+				StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, 0, end, HOUR, mode), 
+						data.getValues(0, end + 1, HOUR, mode));
+				final CountingReduction reduction = reduce(instance, mode, 0, end, HOUR);
+				StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, 0, end, HOUR, mode), reduction.finish());
+				// 19 complete blocks, most of which fall into a single hour
+				Assert.assertTrue("Block summaries not used: " + reduction.summaries, reduction.summaries >= 10);
+			}
+		}
+	}
+
+	@Test
+	public void blockSummariesArePersisted() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues();
+		final long end = (NR_VALUES - 1) * STEP;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			createStorage(instance, values);
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("summaries");
+			// the summaries do not affect raw reads
+			Assert.assertEquals(values.size(), data.getValues(Long.MIN_VALUE).size());
+			for (ReductionMode mode : MODES) {
+				final CountingReduction reduction = reduce(instance, mode, 0, end, HOUR);
+				StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, 0, end, HOUR, mode), reduction.finish());
+				Assert.assertTrue("Block summaries not used: " + reduction.summaries, reduction.summaries >= 10);
+				// intervals shorter than a block require the data points
+				final CountingReduction fine = reduce(instance, mode, 0, end, 60 * 1000);
+				StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, 0, end, 60 * 1000, mode), fine.finish());
+				Assert.assertEquals(0, fine.summaries);
+			}
+		}
+	}
+
+	@Test
+	public void completeBlocksAlwaysContainSummary() throws DataRecorderException, IOException {
+		// exactly one complete block, which must not be continued after a restart
+		final List<SampledValue> values = createValues().subList(0, BlockCodec.MAX_BLOCK_SIZE);
+		final long end = (values.size() - 1) * STEP;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			createStorage(instance, values);
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("summaries");
+			data.insertValue(new SampledValue(new FloatValue(1), end + STEP, Quality.GOOD));
+			Assert.assertEquals(values.size() + 1, data.getValues(Long.MIN_VALUE).size());
+			final CountingReduction reduction = reduce(instance, ReductionMode.AVERAGE, 0, end, 2 * end);
+			StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, 0, end, 2 * end, ReductionMode.AVERAGE), 
+					reduction.finish());
+			Assert.assertEquals(1, reduction.summaries);
+		}
+	}
+
+}
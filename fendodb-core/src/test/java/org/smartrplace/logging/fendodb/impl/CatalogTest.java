@@ -0,0 +1,170 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class CatalogTest extends SlotsDbTest {
+
+	private static FendoDbConfiguration getConfig(final boolean parseFolders) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setParseFoldersOnInit(parseFolders)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static void insert(final RecordedDataStorage data, final long timestamp) throws DataRecorderException {
+		data.insertValue(new SampledValue(new FloatValue(timestamp % 100), timestamp, Quality.GOOD));
+	}
+
+	private static SlotsDb createInstance(final boolean parseFolders) throws IOException {
+		return new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(parseFolders), null);
+	}
+
+	private static BitSet bits(final int... indices) {
+		final BitSet set = new BitSet();
+		for (int idx : indices) {
+			set.set(idx);
+		}
+		return set;
+	}
+
+	private static void createData() throws IOException, DataRecorderException {
+		try (final SlotsDb instance = createInstance(false)) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			final RecordedDataStorage b = instance.createRecordedDataStorage("b", getRecordedDataConfig());
+			for (int i = 0; i < 3; i++) {
+				insert(a, i * ONE_DAY + 10);
+			}
+			insert(b, ONE_DAY + 20);
+		}
+	}
+
+	@Test
+	public void catalogIsWrittenOnClose() throws IOException, DataRecorderException {
+		createData();
+		final Catalog catalog = Catalog.read(testPath);
+		Assert.assertNotNull("Catalog not found", catalog);
+		Assert.assertEquals(Arrays.asList("0", String.valueOf(ONE_DAY), String.valueOf(2 * ONE_DAY)), catalog.getDays());
+		Assert.assertEquals(bits(0, 1, 2), catalog.getLabels().get("a"));
+		Assert.assertEquals(bits(1), catalog.getLabels().get("b"));
+		try (final SlotsDb instance = createInstance(false)) {
+			Assert.assertTrue("Catalog journal not found", Files.exists(testPath.resolve(Catalog.JOURNAL_FILE_NAME)));
+			Assert.assertEquals(Arrays.asList(ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+			final RecordedDataStorage b = instance.getRecordedDataStorage("b");
+			Assert.assertEquals(ONE_DAY + 20, b.getNextValue(Long.MIN_VALUE).getTimestamp());
+			insert(b, 4 * ONE_DAY + 20);
+			insert(instance.createRecordedDataStorage("c", getRecordedDataConfig()), 2 * ONE_DAY + 30);
+			Assert.assertEquals(Arrays.asList(ONE_DAY, 4 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+		}
+		final Catalog catalog2 = Catalog.read(testPath);
+		Assert.assertEquals(4, catalog2.getDays().size());
+		Assert.assertEquals(bits(0, 1, 2), catalog2.getLabels().get("a"));
+		Assert.assertEquals(bits(1, 3), catalog2.getLabels().get("b"));
+		Assert.assertEquals(bits(2), catalog2.getLabels().get("c"));
+		Assert.assertFalse("Catalog journal must be removed on close", Files.exists(testPath.resolve(Catalog.JOURNAL_FILE_NAME)));
+	}
+
+	@Test
+	public void catalogSurvivesCrash() throws IOException, DataRecorderException {
+		createData();
+		final Path backup = Files.createTempDirectory("catalogTest");
+		try {
+			try (final SlotsDb instance = createInstance(false)) {
+				insert(instance.getRecordedDataStorage("b"), 4 * ONE_DAY + 20);
+				insert(instance.createRecordedDataStorage("c", getRecordedDataConfig()), 2 * ONE_DAY + 30);
+				insert(instance.getRecordedDataStorage("b"), 2 * ONE_DAY + 40);
+				// simulate a crash: keep the catalog files as they are while the database is open
+				Files.copy(testPath.resolve(Catalog.FILE_NAME), backup.resolve(Catalog.FILE_NAME));
+				Files.copy(testPath.resolve(Catalog.JOURNAL_FILE_NAME), backup.resolve(Catalog.JOURNAL_FILE_NAME));
+			}
+			Files.copy(backup.resolve(Catalog.FILE_NAME), testPath.resolve(Catalog.FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+			Files.copy(backup.resolve(Catalog.JOURNAL_FILE_NAME), testPath.resolve(Catalog.JOURNAL_FILE_NAME));
+		} finally {
+			FileUtils.deleteDirectory(backup.toFile());
+		}
+		final Catalog catalog = Catalog.read(testPath);
+		Assert.assertNotNull("Catalog not found", catalog);
+		Assert.assertEquals(4, catalog.getDays().size());
+		Assert.assertEquals(bits(1, 2, 3), catalog.getLabels().get("b"));
+		Assert.assertEquals(bits(2), catalog.getLabels().get("c"));
+		try (final SlotsDb instance = createInstance(false)) {
+			Assert.assertEquals(Arrays.asList(ONE_DAY, 2 * ONE_DAY, 4 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+			Assert.assertEquals(Arrays.asList(2 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("c").keySet()));
+			Assert.assertEquals(3, instance.getRecordedDataStorage("b").getValues(Long.MIN_VALUE).size());
+			Assert.assertEquals(1, instance.getRecordedDataStorage("c").getValues(Long.MIN_VALUE).size());
+		}
+	}
+
+	@Test
+	public void invalidJournalEntriesAreIgnored() throws IOException, DataRecorderException {
+		createData();
+		final String entries = "f\tb\t" + ONE_DAY + "\n" // folder exists
+				+ "f\td\t0\n" // folder does not exist, the day must be scanned
+				+ "d\t" + 7 * ONE_DAY + "\n" // folder does not exist
+				+ "f\tb\t" + 2 * ONE_DAY; // incomplete entry
+		Files.write(testPath.resolve(Catalog.JOURNAL_FILE_NAME), entries.getBytes(StandardCharsets.UTF_8));
+		final Catalog catalog = Catalog.read(testPath);
+		Assert.assertNotNull("Catalog not found", catalog);
+		Assert.assertEquals(Arrays.asList(String.valueOf(ONE_DAY), String.valueOf(2 * ONE_DAY)), catalog.getDays());
+		Assert.assertEquals(bits(0, 1), catalog.getLabels().get("a"));
+		Assert.assertEquals(bits(0), catalog.getLabels().get("b"));
+		Assert.assertNull(catalog.getLabels().get("d"));
+	}
+
+	@Test
+	public void daysNotInCatalogAreScanned() throws IOException, DataRecorderException {
+		createData();
+		Files.delete(testPath.resolve(SlotsDb.STORAGE_PERSISTENCE_FILE));
+		// folder created by some other process
+		Files.createDirectories(testPath.resolve(String.valueOf(5 * ONE_DAY)).resolve("d"));
+		try (final SlotsDb instance = createInstance(true)) {
+			Assert.assertEquals(new HashSet<>(Arrays.asList("a", "b", "d")), new HashSet<>(instance.getAllRecordedDataStorageIDs()));
+			Assert.assertEquals(Arrays.asList(5 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("d").keySet()));
+			Assert.assertEquals(Arrays.asList(0L, ONE_DAY, 2 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("a").keySet()));
+			Assert.assertEquals(3, instance.getRecordedDataStorage("a").getValues(Long.MIN_VALUE).size());
+		}
+	}
+
+}
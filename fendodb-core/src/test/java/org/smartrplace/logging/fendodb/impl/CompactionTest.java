@@ -0,0 +1,204 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class CompactionTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final boolean compressed) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(10 * 60 * 1000)
+				.setCompressedFiles(compressed)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final long fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval > 0) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(fixedInterval);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int offset, final int nr, final int stepFactor) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = offset; i < offset + nr; i++) {
+			values.add(new SampledValue(new FloatValue(i % 50), i * stepFactor * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static Map<Path, List<Path>> getFilesPerFolder() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.collect(Collectors.groupingBy(Path::getParent));
+		}
+	}
+
+	private static void assertValuesEqual(final List<SampledValue> expected, final List<SampledValue> actual) {
+		Assert.assertEquals("Unexpected number of log values", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			Assert.assertEquals(expected.get(i).getValue().getFloatValue(), actual.get(i).getValue().getFloatValue(), 0.001F);
+		}
+	}
+
+	// creates several files per day, by changing the storage configuration
+	private static List<SampledValue> insertWithConfigurationChanges(final RecordedDataStorage data) throws DataRecorderException {
+		final List<SampledValue> values = createValues(0, 6000, 1);
+		data.insertValues(values.subList(0, 2000));
+		data.setConfiguration(getRecordedDataConfig(STEP));
+		data.insertValues(values.subList(2000, 4000));
+		data.setConfiguration(getRecordedDataConfig(-1));
+		data.insertValues(values.subList(4000, 6000));
+		return data.getValues(Long.MIN_VALUE);
+	}
+
+	private void closedFoldersAreMerged(final boolean compressed) throws DataRecorderException, IOException {
+		final List<SampledValue> expected;
+		final int nrFilesBefore;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(-1));
+			expected = insertWithConfigurationChanges(data);
+			nrFilesBefore = getFilesPerFolder().values().stream().mapToInt(List::size).sum();
+			instance.proxy.getCompactor().run();
+			assertValuesEqual(expected, data.getValues(Long.MIN_VALUE));
+			data.insertValue(new SampledValue(new FloatValue(-1), 6000 * STEP, Quality.GOOD));
+		}
+		final Map<Path, List<Path>> files = getFilesPerFolder();
+		Assert.assertTrue("Nothing compacted", files.size() < nrFilesBefore);
+		for (List<Path> list : files.values()) {
+			Assert.assertEquals("Unexpected files " + list, 1, list.size());
+			if (compressed)
+				Assert.assertTrue("Unexpected file " + list.get(0), list.get(0).getFileName().toString().startsWith("z"));
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed), null)) {
+			final List<SampledValue> values = instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE);
+			assertValuesEqual(expected, values.subList(0, values.size() - 1));
+			Assert.assertEquals(6000 * STEP, values.get(values.size() - 1).getTimestamp());
+		}
+	}
+
+	@Test
+	public void closedFoldersAreMerged() throws DataRecorderException, IOException {
+		closedFoldersAreMerged(false);
+	}
+
+	@Test
+	public void closedFoldersAreMergedIntoCompressedFiles() throws DataRecorderException, IOException {
+		closedFoldersAreMerged(true);
+	}
+
+	private static List<FileObjectList> getOpenLists(final SlotsDb instance, final String label) {
+		return instance.proxy.openFilesHM.asMap().entrySet().stream()
+			.filter(entry -> entry.getKey().startsWith(label))
+			.map(Map.Entry::getValue)
+			.collect(Collectors.toList());
+	}
+
+	@Test
+	public void otherTimeSeriesAreNotClosed() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(-1));
+			final RecordedDataStorage other = instance.createRecordedDataStorage("other", getRecordedDataConfig(-1));
+			final List<SampledValue> expected = insertWithConfigurationChanges(data);
+			// the current day is not compacted
+			final long now = System.currentTimeMillis();
+			other.insertValue(new SampledValue(new FloatValue(1), now, Quality.GOOD));
+			final List<FileObjectList> otherLists = getOpenLists(instance, "other");
+			Assert.assertEquals(1, otherLists.size());
+			final int nrFilesBefore = getFilesPerFolder().values().stream().mapToInt(List::size).sum();
+			instance.proxy.getCompactor().run();
+			Assert.assertTrue("Nothing compacted", getFilesPerFolder().values().stream().mapToInt(List::size).sum() < nrFilesBefore);
+			Assert.assertEquals("Files of a time series not compacted have been closed", otherLists, getOpenLists(instance, "other"));
+			assertValuesEqual(expected, data.getValues(Long.MIN_VALUE));
+			Assert.assertEquals(1, other.getValues(now).size());
+		}
+	}
+
+	@Test
+	public void sparseFixedIntervalFilesAreReplaced() throws DataRecorderException, IOException {
+		// one value every 10 minutes in a 1 minute grid: mostly padding
+		final List<SampledValue> values = createValues(0, 500, 10);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(STEP));
+			data.insertValues(values);
+			// dense data is left in the fixed interval format
+			instance.createRecordedDataStorage("dense", getRecordedDataConfig(STEP)).insertValues(createValues(0, 500, 1));
+			instance.proxy.getCompactor().run();
+			assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+		}
+		for (List<Path> list : getFilesPerFolder().values()) {
+			Assert.assertEquals(1, list.size());
+			final String expectedPrefix = list.get(0).getParent().getFileName().toString().equals("dense") ? "c" : "f";
+			Assert.assertTrue("Unexpected file " + list.get(0), list.get(0).getFileName().toString().startsWith(expectedPrefix));
+		}
+	}
+
+	@Test
+	public void interruptedSwapIsCompletedOnStartup() throws DataRecorderException, IOException {
+		final List<SampledValue> expected;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			expected = insertWithConfigurationChanges(instance.createRecordedDataStorage("test", getRecordedDataConfig(-1)));
+			instance.proxy.getCompactor().run();
+		}
+		// simulate a crash after the merged file of the first day has been written, but before the old files were deleted
+		final Path compacted = getFilesPerFolder().values().stream()
+				.flatMap(List::stream)
+				.sorted()
+				.findFirst().get();
+		final Path day = testPath.relativize(compacted).getName(0);
+		Files.move(compacted, compacted.resolveSibling(compacted.getFileName() + Compactor.TEMP_EXTENSION));
+		Files.copy(compacted.resolveSibling(compacted.getFileName() + Compactor.TEMP_EXTENSION), compacted.resolveSibling("f1.slots"));
+		Files.write(testPath.resolve(Compactor.PENDING_FILE), day.toString().getBytes(StandardCharsets.UTF_8));
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			assertValuesEqual(expected, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE));
+		}
+		Assert.assertFalse(Files.exists(testPath.resolve(Compactor.PENDING_FILE)));
+		for (List<Path> list : getFilesPerFolder().values()) {
+			Assert.assertEquals("Unexpected files " + list, 1, list.size());
+		}
+	}
+
+}
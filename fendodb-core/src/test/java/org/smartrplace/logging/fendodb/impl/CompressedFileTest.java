@@ -0,0 +1,194 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class CompressedFileTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final boolean compressed, final long flushPeriod) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(flushPeriod)
+				.setWriteBufferSize(256)
+				.setCompressedFiles(compressed)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final boolean fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(STEP);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	// slowly changing values with some jitter in the timestamps; covers several days
+	private static List<SampledValue> createValues(final int offset, final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = offset; i < offset + nr; i++) {
+			values.add(new SampledValue(new FloatValue(20 + (i / 100) * 0.5F), i * STEP + (i % 4), 
+					i % 1000 == 999 ? Quality.BAD : Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static List<Path> getFiles() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.collect(Collectors.toList());
+		}
+	}
+
+	private static long getTotalSize(final List<Path> files) throws IOException {
+		long size = 0;
+		for (Path f : files) {
+			size += Files.size(f);
+		}
+		return size;
+	}
+
+	private static void insert(final RecordedDataStorage data, final List<SampledValue> values) throws DataRecorderException {
+		final int half = values.size() / 2;
+		for (SampledValue sv : values.subList(0, half)) {
+			data.insertValue(sv);
+		}
+		data.insertValues(values.subList(half, values.size()));
+	}
+
+	private static void assertValuesEqual(final List<SampledValue> expected, final List<SampledValue> actual) {
+		Assert.assertEquals("Unexpected number of log values", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			Assert.assertEquals(expected.get(i).getValue().getFloatValue(), actual.get(i).getValue().getFloatValue(), 0.001F);
+			Assert.assertEquals(expected.get(i).getQuality(), actual.get(i).getQuality());
+		}
+	}
+
+	private void compressedFilesMatchDefaultFormat(final boolean fixedInterval, final long flushPeriod) throws DataRecorderException, IOException {
+		// more than 3 days, so the last block of a file is sealed several times
+		final List<SampledValue> values = createValues(0, 5000);
+		final List<SampledValue> expected;
+		final long uncompressedSize;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false, flushPeriod), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(fixedInterval));
+			insert(data, values);
+			expected = data.getValues(Long.MIN_VALUE);
+		}
+		uncompressedSize = getTotalSize(getFiles());
+		deleteTestFiles();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true, flushPeriod), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(fixedInterval));
+			insert(data, values);
+			assertValuesEqual(expected, data.getValues(Long.MIN_VALUE));
+			final SampledValue sv = expected.get(2500);
+			Assert.assertEquals(sv.getTimestamp(), data.getValue(sv.getTimestamp()).getTimestamp());
+			Assert.assertEquals(sv.getTimestamp(), data.getNextValue(sv.getTimestamp() - 1).getTimestamp());
+			Assert.assertEquals(sv.getTimestamp(), data.getPreviousValue(sv.getTimestamp()).getTimestamp());
+			assertValuesEqual(expected.subList(1000, 3001), 
+					data.getValues(expected.get(1000).getTimestamp(), expected.get(3000).getTimestamp() + 1));
+		}
+		final List<Path> files = getFiles();
+		Assert.assertFalse(files.isEmpty());
+		for (Path f : files) {
+			Assert.assertTrue("Unexpected file " + f, f.getFileName().toString().startsWith("z"));
+		}
+		final long compressedSize = getTotalSize(files);
+		Assert.assertTrue("Poor compression: " + compressedSize + " vs " + uncompressedSize, compressedSize * 5 < uncompressedSize);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true, flushPeriod), null)) {
+			assertValuesEqual(expected, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE));
+		}
+	}
+
+	@Test
+	public void compressedFilesMatchDefaultFormatOnValueUpdate() throws DataRecorderException, IOException {
+		compressedFilesMatchDefaultFormat(false, 10 * 60 * 1000);
+	}
+
+	@Test
+	public void compressedFilesMatchDefaultFormatFixedInterval() throws DataRecorderException, IOException {
+		compressedFilesMatchDefaultFormat(true, 10 * 60 * 1000);
+	}
+
+	@Test
+	public void compressedFilesMatchDefaultFormatWithoutFlushPeriod() throws DataRecorderException, IOException {
+		compressedFilesMatchDefaultFormat(false, 0);
+	}
+
+	@Test
+	public void writingCanBeContinuedAfterRestart() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues(0, 300);
+		// the last block of a file is resumed on restart
+		for (int i = 0; i < 3; i++) {
+			try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true, 0), null)) {
+				final RecordedDataStorage data = i == 0 ? instance.createRecordedDataStorage("test", getRecordedDataConfig(false))
+						: instance.getRecordedDataStorage("test");
+				insert(data, values.subList(i * 100, (i + 1) * 100));
+				// values older than the latest one are ignored
+				data.insertValue(new SampledValue(new FloatValue(-1), 50 * STEP + 1, Quality.GOOD));
+			}
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true, 0), null)) {
+			assertValuesEqual(values, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE));
+		}
+		Assert.assertEquals(1, getFiles().size());
+	}
+
+	@Test
+	public void existingFilesRemainReadable() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues(0, 4000);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false, 0), null)) {
+			insert(instance.createRecordedDataStorage("test", getRecordedDataConfig(false)), values.subList(0, 2000));
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true, 0), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("test");
+			insert(data, values.subList(2000, 4000));
+			assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+		}
+		final List<Path> files = getFiles();
+		// the file of the day that was already started is continued in the old format
+		Assert.assertTrue(files.stream().anyMatch(f -> f.getFileName().toString().startsWith("f")));
+		Assert.assertTrue(files.stream().anyMatch(f -> f.getFileName().toString().startsWith("z")));
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false, 0), null)) {
+			assertValuesEqual(values, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE));
+		}
+	}
+
+}
@@ -16,7 +16,9 @@
 package org.smartrplace.logging.fendodb.impl;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 
 import org.junit.Assert;
@@ -30,6 +32,7 @@ import org.ogema.recordeddata.DataRecorderException;
 import org.ogema.recordeddata.RecordedDataStorage;
 import org.smartrplace.logging.fendodb.CloseableDataRecorder;
 import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
 import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
 import org.smartrplace.logging.fendodb.impl.SlotsDb;
 
@@ -38,6 +41,15 @@ import org.smartrplace.logging.fendodb.impl.SlotsDb;
  */
 public class ConfigurationTest extends FactoryTest {
 
+	// a config.ser file written by the initial version of FendoDbConfiguration, with default settings
+	private static final String LEGACY_CONFIG =
+			"rO0ABXNyADRvcmcuc21hcnRycGxhY2UubG9nZ2luZy5mZW5kb2RiLkZlbmRvRGJDb25maWd1cmF0aW9uiygFdXcLJ1sCAApaAA1j" +
+			"YWNoZURpc2FibGVkSgAbZGF0YUV4cGlyYXRpb25DaGVja0ludGVydmFsSQASZGF0YUxpZmV0aW1lSW5EYXlzSgALZmx1c2hQZXJp" +
+			"b2RJAA9tYXhEYXRhYmFzZVNpemVJAA5tYXhPcGVuRm9sZGVyc1oAC3JlYWRGb2xkZXJzSgAScmVsb2FkRGF5c0ludGVydmFsWgAU" +
+			"dXNlQ29tcGF0aWJpbGl0eU1vZGVMAAR1bml0dAAhTGphdmEvdGltZS90ZW1wb3JhbC9UZW1wb3JhbFVuaXQ7eHAAAAAAAAUmXAAA" +
+			"AAAAAAAAAAAAAAAAAAAAAAACAAAAAAAAAAAAAAB+cgAdamF2YS50aW1lLnRlbXBvcmFsLkNocm9ub1VuaXQAAAAAAAAAABIAAHhy" +
+			"AA5qYXZhLmxhbmcuRW51bQAAAAAAAAAAEgAAeHB0AAREQVlT";
+
 	@Test(expected=SecurityException.class)
 	public void readOnlyWorks() throws Exception {
 		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
@@ -117,4 +129,62 @@ public class ConfigurationTest extends FactoryTest {
 	}
 	
 
+	@Test
+	public void configurationOfEarlierVersionIsRead() throws DataRecorderException, IOException {
+		Files.createDirectories(testPath);
+		Files.write(testPath.resolve(SlotsDb.CONFIG_PERSISTENCE_FILE), Base64.getDecoder().decode(LEGACY_CONFIG));
+		try (final SlotsDb slots = new SlotsDb(testPath, null, null, null)) {
+			final FendoDbConfiguration config = slots.getConfiguration();
+			Assert.assertTrue("Invalid max open files: " + config.getMaxOpenFiles(), config.getMaxOpenFiles() > 0);
+			Assert.assertNotNull(config.getDurability());
+			Assert.assertEquals(config, FendoDbConfigurationBuilder.getInstance(config).build());
+			final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+			final RecordedDataStorage rds = slots.createRecordedDataStorage("legacyConfig", cfg);
+			rds.insertValue(new SampledValue(new FloatValue(2.5F), 1000, Quality.GOOD));
+			Assert.assertEquals(2.5F, rds.getValue(1000).getValue().getFloatValue(), 0.001F);
+		}
+	}
+
+	@Test
+	public void persistedConfigurationTakesPrecedence() throws IOException, DataRecorderException {
+		final FendoDbConfiguration initial = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setDurability(Durability.BATCH)
+				.setWriteBufferSize(4096)
+				.setMemoryMappedReads(true)
+				.setCompressedFiles(false)
+				.build();
+		try (final SlotsDb slots = new SlotsDb(testPath, null, initial, null)) {
+			// the configuration of an empty database is replaced by the passed one
+			final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+			slots.createRecordedDataStorage("test", cfg);
+		}
+		final FendoDbConfiguration passed = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(1000)
+				.setDurability(Durability.NONE)
+				.setWriteBufferSize(0)
+				.setMemoryMappedReads(false)
+				.setCompressedFiles(true)
+				.build();
+		try (final SlotsDb slots = new SlotsDb(testPath, null, passed, null)) {
+			final FendoDbConfiguration config = slots.getConfiguration();
+			Assert.assertEquals(0, config.getFlushPeriod());
+			Assert.assertEquals(Durability.BATCH, config.getDurability());
+			Assert.assertEquals(4096, config.getWriteBufferSize());
+			Assert.assertTrue(config.isMemoryMappedReads());
+			// only affects new files
+			Assert.assertTrue(config.isCompressedFiles());
+			// an explicit update applies the passed configuration
+			try (final CloseableDataRecorder updated = slots.updateConfiguration(passed).getDataRecorder()) {
+				final FendoDbConfiguration config2 = updated.getConfiguration();
+				Assert.assertEquals(1000, config2.getFlushPeriod());
+				Assert.assertEquals(Durability.NONE, config2.getDurability());
+				Assert.assertEquals(0, config2.getWriteBufferSize());
+				Assert.assertFalse(config2.isMemoryMappedReads());
+			}
+		}
+	}
+
 }
@@ -0,0 +1,150 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class DayWatcherTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+	private static final int NR_VALUES = 4000; // ~2.8 days
+	private static final long TIMEOUT = 10000;
+
+	private static FendoDbConfiguration getConfig(final boolean watchDays) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setWatchDays(watchDays)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = 0; i < nr; i++) {
+			values.add(new SampledValue(new FloatValue(i % 77), i * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	// outside of the day folders, so the database ignores it
+	private static Path getExternalFolder() throws IOException {
+		return Files.createDirectories(testPath.resolve("external"));
+	}
+
+	private static void await(final BooleanSupplier condition, final String message) throws InterruptedException {
+		final long end = System.currentTimeMillis() + TIMEOUT;
+		while (!condition.getAsBoolean()) {
+			Assert.assertTrue(message, System.currentTimeMillis() < end);
+			Thread.sleep(20);
+		}
+	}
+
+	private static int getSize(final RecordedDataStorage data) {
+		return data.getValues(Long.MIN_VALUE).size();
+	}
+
+	@Test
+	public void externalDayFoldersAreApplied() throws DataRecorderException, IOException, InterruptedException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			instance.createRecordedDataStorage("test", getRecordedDataConfig()).insertValues(createValues(NR_VALUES));
+		}
+		final Path lastDay = testPath.resolve(String.valueOf(2 * ONE_DAY));
+		final Path moved = getExternalFolder().resolve(lastDay.getFileName());
+		Files.move(lastDay, moved, StandardCopyOption.ATOMIC_MOVE);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("test");
+			final int expectedSize = (int) (2 * ONE_DAY / STEP);
+			Assert.assertEquals(expectedSize, getSize(data));
+			Files.move(moved, lastDay, StandardCopyOption.ATOMIC_MOVE);
+			await(() -> getSize(data) == NR_VALUES, "New day folder not detected");
+			Assert.assertEquals(3, instance.proxy.days.size());
+			Files.move(lastDay, moved, StandardCopyOption.ATOMIC_MOVE);
+			await(() -> getSize(data) == expectedSize, "Deleted day folder not detected");
+			Assert.assertEquals(2, instance.proxy.days.size());
+		}
+	}
+
+	@Test
+	public void externalDayDeletionWaitsForReaders() throws DataRecorderException, IOException, InterruptedException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			instance.createRecordedDataStorage("test", getRecordedDataConfig()).insertValues(createValues(NR_VALUES));
+		}
+		final Path lastDay = testPath.resolve(String.valueOf(2 * ONE_DAY));
+		final Path moved = getExternalFolder().resolve(lastDay.getFileName());
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("test");
+			Assert.assertEquals(NR_VALUES, getSize(data));
+			// a reader of the day, whose files must not be closed
+			instance.proxy.folderLock.readLock().lock();
+			try {
+				Files.move(lastDay, moved, StandardCopyOption.ATOMIC_MOVE);
+				final long end = System.currentTimeMillis() + 1000;
+				while (System.currentTimeMillis() < end) {
+					Assert.assertEquals("Day removed while being read", 3, instance.proxy.days.size());
+					Thread.sleep(20);
+				}
+			} finally {
+				instance.proxy.folderLock.readLock().unlock();
+			}
+			await(() -> instance.proxy.days.size() == 2, "Deleted day folder not detected");
+			Assert.assertEquals((int) (2 * ONE_DAY / STEP), getSize(data));
+		}
+	}
+
+	@Test
+	public void externalTimeSeriesAreApplied() throws DataRecorderException, IOException, InterruptedException {
+		final List<SampledValue> values = createValues(100);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			instance.createRecordedDataStorage("test", getRecordedDataConfig()).insertValues(values);
+		}
+		final Path otherDbFolder = getExternalFolder().resolve("other");
+		try (final SlotsDb other = new SlotsDb(otherDbFolder, null, getConfig(false), null)) {
+			other.createRecordedDataStorage("test2", getRecordedDataConfig()).insertValues(values);
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(true), null)) {
+			Assert.assertNull(instance.getRecordedDataStorage("test2"));
+			Files.move(otherDbFolder.resolve("0").resolve("test2"), testPath.resolve("0").resolve("test2"), StandardCopyOption.ATOMIC_MOVE);
+			await(() -> instance.getRecordedDataStorage("test2") != null, "New time series folder not detected");
+			Assert.assertEquals(values.size(), getSize(instance.getRecordedDataStorage("test2")));
+			Assert.assertEquals(values.size(), getSize(instance.getRecordedDataStorage("test")));
+		}
+	}
+
+}
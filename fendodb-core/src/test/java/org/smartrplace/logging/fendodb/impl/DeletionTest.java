@@ -16,6 +16,8 @@
 package org.smartrplace.logging.fendodb.impl;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
@@ -80,5 +82,25 @@ public class DeletionTest extends FactoryTest {
 		}
 	}
 
+	@Test
+	public void deletionUpdatesDaysWithoutReload() throws IOException, DataRecorderException {
+		final FendoDbConfiguration slotsCfg = FendoDbConfigurationBuilder.getInstance()
+				.setTemporalUnit(ChronoUnit.DAYS)
+				.setMaxDatabaseSize(100)
+				.build();
+		try (final SlotsDb rec = new SlotsDb(testPath, null, slotsCfg, null)) {
+			final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+			final FendoTimeSeries ts = rec.createRecordedDataStorage("test", cfg);
+			ts.insertValues(testValues);
+			final Path lastDay = rec.proxy.days.get(1);
+			// only found by a reload of the days
+			Files.createDirectories(testPath.resolve(String.valueOf(7 * ONE_DAY)));
+			Assert.assertTrue("Data deletion failed",rec.deleteDataBefore(Instant.ofEpochMilli(4 * ONE_DAY)));
+			Assert.assertEquals(Arrays.asList(lastDay), rec.proxy.days);
+			Assert.assertTrue("Data found although it has been deleted",ts.isEmpty(Long.MIN_VALUE, 4 * ONE_DAY));
+			Assert.assertEquals(3, ts.getValues(Long.MIN_VALUE).size());
+		}
+	}
 
 }
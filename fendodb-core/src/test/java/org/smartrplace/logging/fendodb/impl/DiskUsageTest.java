@@ -0,0 +1,146 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class DiskUsageTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final boolean compressed, final int maxSize) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(10 * 60 * 1000)
+				.setMaxDatabaseSize(maxSize)
+				.setCompressedFiles(compressed)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final long fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval > 0) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(fixedInterval);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int offset, final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = offset; i < offset + nr; i++) {
+			values.add(new SampledValue(new FloatValue(i % 50), i * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	// size of the log files, excluding the configuration files in the database folder
+	private static long getSizeOfFiles() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.mapToLong(f -> f.toFile().length())
+				.sum();
+		}
+	}
+
+	private static void flush(final SlotsDb instance) {
+		new InfoTask.Flusher(instance.proxy).run();
+	}
+
+	private void trackedSizeMatchesFiles(final boolean compressed) throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed, 100), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(-1));
+			final RecordedDataStorage data2 = instance.createRecordedDataStorage("test2", getRecordedDataConfig(STEP));
+			final DiskUsage diskUsage = instance.proxy.diskUsage;
+			Assert.assertNotNull(diskUsage);
+			diskUsage.init(instance.proxy.days);
+			data.insertValues(createValues(0, 2000));
+			data2.insertValues(createValues(500, 3000));
+			flush(instance);
+			Assert.assertEquals(getSizeOfFiles(), diskUsage.getTotal());
+			// creates new files in existing folders
+			data.setConfiguration(getRecordedDataConfig(STEP));
+			data.insertValues(createValues(2000, 2000));
+			flush(instance);
+			Assert.assertEquals(getSizeOfFiles(), diskUsage.getTotal());
+			instance.proxy.getCompactor().run();
+			Assert.assertEquals(getSizeOfFiles(), diskUsage.getTotal());
+			data.insertValue(new SampledValue(new FloatValue(1), 5000 * STEP, Quality.GOOD));
+			flush(instance);
+			Assert.assertEquals(getSizeOfFiles(), diskUsage.getTotal());
+		}
+	}
+
+	@Test
+	public void trackedSizeMatchesFiles() throws DataRecorderException, IOException {
+		trackedSizeMatchesFiles(false);
+	}
+
+	@Test
+	public void trackedSizeMatchesFilesCompressed() throws DataRecorderException, IOException {
+		trackedSizeMatchesFiles(true);
+	}
+
+	@Test
+	public void sizeLimitDeletesOldestFolders() throws DataRecorderException, IOException, InterruptedException {
+		final int maxSize = FendoDbConfiguration.MINIMUM_DATABASE_SIZE;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false, maxSize), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(-1));
+			// 17 bytes per value, i.e. roughly 3.4 MB in more than 100 day folders
+			final int nrValues = 200000;
+			data.insertValues(createValues(0, nrValues));
+			flush(instance);
+			final int nrDays = instance.proxy.days.size();
+			Assert.assertTrue(getSizeOfFiles() > (maxSize + 1) * 1000000L);
+			final InfoTask.SizeWatcher watcher = new InfoTask.SizeWatcher(instance.proxy);
+			watcher.run();
+			Assert.assertTrue(instance.proxy.getTrash().awaitCleanup(30, TimeUnit.SECONDS));
+			Assert.assertTrue("Size limit exceeded: " + getSizeOfFiles(), getSizeOfFiles() < (maxSize + 1) * 1000000L);
+			Assert.assertEquals(getSizeOfFiles(), instance.proxy.diskUsage.getTotal());
+			Assert.assertTrue("No folders deleted", instance.proxy.days.size() < nrDays);
+			final List<SampledValue> values = data.getValues(Long.MIN_VALUE);
+			Assert.assertFalse(values.isEmpty());
+			Assert.assertTrue(values.get(0).getTimestamp() > 0);
+			Assert.assertEquals((nrValues - 1) * STEP, values.get(values.size() - 1).getTimestamp());
+			// the check does not delete anything as long as the limit is not exceeded
+			final int remainingDays = instance.proxy.days.size();
+			watcher.run();
+			Assert.assertEquals(remainingDays, instance.proxy.days.size());
+		}
+	}
+
+}
@@ -54,11 +54,15 @@ public class FileObjectTest extends SlotsDbTest {
 			.setFlushPeriod(0)
 			.build();
 		FileObjectProxy proxy = new FileObjectProxy(path, null, config);
-		RecordedDataConfiguration conf = new RecordedDataConfiguration();
-		conf.setFixedInterval(5000);
-		conf.setStorageType(StorageType.FIXED_INTERVAL);
-//		System.out.println("  Trying to create new FileObject with start time stamp " + timestamp);
-		proxy.appendValue("testId", 24.1, timestamp, (byte) 1, conf);
+		try {
+			RecordedDataConfiguration conf = new RecordedDataConfiguration();
+			conf.setFixedInterval(5000);
+			conf.setStorageType(StorageType.FIXED_INTERVAL);
+//			System.out.println("  Trying to create new FileObject with start time stamp " + timestamp);
+			proxy.appendValue("testId", 24.1, timestamp, (byte) 1, conf);
+		} finally {
+			proxy.close();
+		}
 	}
 
 	/*
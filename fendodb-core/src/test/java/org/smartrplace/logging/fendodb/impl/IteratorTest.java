@@ -37,6 +37,8 @@ import org.ogema.core.recordeddata.RecordedDataConfiguration;
 import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
 import org.ogema.recordeddata.DataRecorderException;
 import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoTimeSeries;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 
 public class IteratorTest extends DbTest {
 
@@ -308,4 +310,36 @@ public class IteratorTest extends DbTest {
 		Assert.assertFalse(rds.iterator(210_000, 290_000).hasNext());
 	}
 	
+	@Test
+	public void cursorMatchesIterator() throws DataRecorderException {
+		FendoTimeSeries rds = (FendoTimeSeries) sdb.createRecordedDataStorage("cursorMatchesIterator", config);
+		long[] t = new long[] { ONE_DAY / 10, 2 * ONE_DAY / 10,  5 * ONE_DAY / 10, 7 * ONE_DAY / 10,
+					11 * ONE_DAY/10, 13 * ONE_DAY / 10, 18 * ONE_DAY / 10,
+					32 * ONE_DAY/10, 33 * ONE_DAY / 10, 39 * ONE_DAY/10 };
+		float[] f = new float[] {23, -123.3F, 234, 4 , -7.1F, 19923.234F, 3, 324, 34.5F, -12.2F };
+		addValues(rds, t, createValues(f));
+		final long[][] intervals = { {Long.MIN_VALUE, Long.MAX_VALUE}, {t[2], t[8]}, {t[2] + 1, t[8] - 1}, {t[3] + 1, t[4] - 1} };
+		for (long[] interval : intervals) {
+			final Iterator<SampledValue> it = rds.iterator(interval[0], interval[1]);
+			final TimeSeriesCursor cursor = rds.cursor(interval[0], interval[1]);
+			while (it.hasNext()) {
+				final SampledValue sv = it.next();
+				Assert.assertTrue("Cursor returns too few data points", cursor.advance());
+				Assert.assertEquals(sv.getTimestamp(), cursor.timestamp());
+				Assert.assertEquals(sv.getValue().getFloatValue(), (float) cursor.doubleValue(), 0.0001F);
+				Assert.assertEquals(sv.getQuality(), cursor.quality());
+			}
+			Assert.assertFalse("Cursor returns too many data points", cursor.advance());
+			Assert.assertFalse("Cursor#advance should return false at the end", cursor.advance());
+		}
+		sdb.deleteRecordedDataStorage(rds.getPath());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void cursorRequiresAdvance() throws DataRecorderException {
+		FendoTimeSeries rds = (FendoTimeSeries) sdb.createRecordedDataStorage("cursorRequiresAdvance", config);
+		rds.insertValue(new SampledValue(new FloatValue(1), 100000, Quality.GOOD));
+		rds.cursor().timestamp();
+	}
+
 }
@@ -0,0 +1,106 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class LabelIndexTest extends SlotsDbTest {
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static void insert(final RecordedDataStorage data, final long timestamp) throws DataRecorderException {
+		data.insertValue(new SampledValue(new FloatValue(timestamp % 100), timestamp, Quality.GOOD));
+	}
+
+	private static List<Long> getTimestamps(final List<SampledValue> values) {
+		final List<Long> timestamps = new ArrayList<>(values.size());
+		values.forEach(sv -> timestamps.add(sv.getTimestamp()));
+		return timestamps;
+	}
+
+	private static SlotsDb createInstance() throws IOException {
+		return new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, FendoDbConfigurationBuilder.getInstance().setFlushPeriod(0).build(), null);
+	}
+
+	@Test
+	public void foldersAreIndexedPerLabel() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = createInstance()) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			final RecordedDataStorage b = instance.createRecordedDataStorage("b", getRecordedDataConfig());
+			for (int i = 0; i < 5; i++) {
+				insert(a, i * ONE_DAY + 10);
+			}
+			insert(b, ONE_DAY + 20);
+			insert(b, 3 * ONE_DAY + 20);
+			Assert.assertEquals(Arrays.asList(0L, ONE_DAY, 2 * ONE_DAY, 3 * ONE_DAY, 4 * ONE_DAY), 
+					new ArrayList<>(instance.proxy.labelIndex.getFolders("a").keySet()));
+			Assert.assertEquals(Arrays.asList(ONE_DAY, 3 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+			Assert.assertEquals(3 * ONE_DAY + 20, b.getNextValue(ONE_DAY + 21).getTimestamp());
+			Assert.assertEquals(ONE_DAY + 20, b.getPreviousValue(3 * ONE_DAY).getTimestamp());
+			Assert.assertNull(b.getNextValue(3 * ONE_DAY + 21));
+			// new folder for an indexed label
+			insert(b, 6 * ONE_DAY + 20);
+			Assert.assertEquals(Arrays.asList(ONE_DAY, 3 * ONE_DAY, 6 * ONE_DAY), 
+					new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+			Assert.assertEquals(6 * ONE_DAY + 20, b.getNextValue(3 * ONE_DAY + 21).getTimestamp());
+			Assert.assertEquals(Arrays.asList(ONE_DAY + 20, 3 * ONE_DAY + 20, 6 * ONE_DAY + 20), getTimestamps(b.getValues(Long.MIN_VALUE)));
+			Assert.assertEquals(Arrays.asList(2 * ONE_DAY + 10, 3 * ONE_DAY + 10), getTimestamps(a.getValues(ONE_DAY + 11, 4 * ONE_DAY)));
+		}
+		// index is built from the folders on restart
+		try (final SlotsDb instance = createInstance()) {
+			final RecordedDataStorage b = instance.getRecordedDataStorage("b");
+			Assert.assertEquals(Arrays.asList(ONE_DAY + 20, 3 * ONE_DAY + 20, 6 * ONE_DAY + 20), getTimestamps(b.getValues(Long.MIN_VALUE)));
+			Assert.assertEquals(Arrays.asList(ONE_DAY, 3 * ONE_DAY, 6 * ONE_DAY), 
+					new ArrayList<>(instance.proxy.labelIndex.getFolders("b").keySet()));
+		}
+	}
+
+	@Test
+	public void indexIsUpdatedOnDeletion() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = createInstance()) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			for (int i = 0; i < 5; i++) {
+				insert(a, i * ONE_DAY + 10);
+			}
+			Assert.assertEquals(10, a.getNextValue(Long.MIN_VALUE).getTimestamp());
+			Assert.assertTrue(instance.deleteDataBefore(Instant.ofEpochMilli(3 * ONE_DAY)));
+			Assert.assertEquals(Arrays.asList(3 * ONE_DAY, 4 * ONE_DAY), new ArrayList<>(instance.proxy.labelIndex.getFolders("a").keySet()));
+			Assert.assertEquals(3 * ONE_DAY + 10, a.getNextValue(Long.MIN_VALUE).getTimestamp());
+			Assert.assertEquals(2, a.getValues(Long.MIN_VALUE).size());
+		}
+	}
+
+}
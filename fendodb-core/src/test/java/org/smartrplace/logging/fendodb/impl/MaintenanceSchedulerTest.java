@@ -0,0 +1,165 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class MaintenanceSchedulerTest extends SlotsDbTest {
+
+	private MaintenanceScheduler scheduler;
+
+	@Before
+	public void createScheduler() {
+		scheduler = new MaintenanceScheduler("test-maintenance");
+	}
+
+	@After
+	public void closeScheduler() {
+		scheduler.close();
+	}
+
+	@Test
+	public void periodicTaskIsExecutedUntilCancelled() throws InterruptedException {
+		final AtomicInteger counter = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(3);
+		final MaintenanceScheduler.ScheduledTask task = scheduler.schedule("counter", MaintenanceScheduler.Priority.NORMAL, () -> {
+			counter.incrementAndGet();
+			latch.countDown();
+		}, 10, 10);
+		Assert.assertTrue(scheduler.getTasks().contains(task));
+		Assert.assertTrue("Task not executed", latch.await(5, TimeUnit.SECONDS));
+		task.cancel();
+		Assert.assertFalse(scheduler.getTasks().contains(task));
+		Thread.sleep(50);
+		final int executions = counter.get();
+		Assert.assertTrue(task.getExecutions() >= 3);
+		Thread.sleep(100);
+		Assert.assertEquals("Task executed after cancellation", executions, counter.get());
+		Assert.assertEquals(0, scheduler.getQueueDepth(MaintenanceScheduler.Priority.NORMAL));
+	}
+
+	@Test
+	public void failingTaskIsExecutedAgain() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(2);
+		final MaintenanceScheduler.ScheduledTask task = scheduler.schedule("failing", MaintenanceScheduler.Priority.HIGH, () -> {
+			latch.countDown();
+			throw new RuntimeException("Test exception, please ignore");
+		}, 0, 10);
+		Assert.assertTrue("Task not executed again after an exception", latch.await(5, TimeUnit.SECONDS));
+		task.cancel();
+	}
+
+	@Test
+	public void taskStatisticsAreRecorded() throws InterruptedException {
+		// statistics are updated after the execution, so only the previous executions are guaranteed to be recorded
+		final CountDownLatch latch = new CountDownLatch(3);
+		final MaintenanceScheduler.ScheduledTask task = scheduler.schedule("sleeping", MaintenanceScheduler.Priority.LOW, () -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			latch.countDown();
+		}, 0, 10);
+		Assert.assertTrue("Task not executed", latch.await(5, TimeUnit.SECONDS));
+		task.cancel();
+		Assert.assertTrue(task.getExecutions() >= 2);
+		Assert.assertTrue("Unexpected duration " + task.getMaxDuration(), task.getMaxDuration() >= 20);
+		Assert.assertTrue(task.getAverageDuration() >= 20);
+		Assert.assertTrue(task.getAverageLatency() >= 0);
+		Assert.assertTrue(task.getMaxLatency() >= task.getAverageLatency());
+	}
+
+	@Test
+	public void lowPriorityTasksDoNotBlockHighPriorityTasks() throws InterruptedException {
+		final CountDownLatch blocker = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(1);
+		scheduler.submit(MaintenanceScheduler.Priority.LOW, () -> {
+			started.countDown();
+			try {
+				blocker.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		try {
+			Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+			// the single low priority thread is busy
+			scheduler.submit(MaintenanceScheduler.Priority.LOW, () -> {});
+			Assert.assertEquals(1, scheduler.getQueueDepth(MaintenanceScheduler.Priority.LOW));
+			final CountDownLatch highDone = new CountDownLatch(1);
+			scheduler.submit(MaintenanceScheduler.Priority.HIGH, highDone::countDown);
+			Assert.assertTrue("High priority task blocked by low priority task", highDone.await(5, TimeUnit.SECONDS));
+		} finally {
+			blocker.countDown();
+		}
+	}
+
+	@Test
+	public void databaseTasksAreCancelledOnClose() throws IOException {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(10 * 60 * 1000)
+				.setReloadDaysInterval(10 * 60 * 1000)
+				.setMaxDatabaseSize(100)
+				.build();
+		final MaintenanceScheduler defaultScheduler;
+		final String root;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			defaultScheduler = instance.proxy.scheduler;
+			root = instance.proxy.rootNodeString;
+			Assert.assertEquals(3, countTasks(defaultScheduler, root));
+		}
+		Assert.assertEquals(0, countTasks(defaultScheduler, root));
+	}
+
+	@Test
+	public void defaultSchedulerIsClosedWithLastDatabase() throws IOException {
+		final MaintenanceScheduler defaultScheduler = MaintenanceScheduler.acquireDefault();
+		try {
+			try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, null, null)) {
+				Assert.assertSame(defaultScheduler, instance.proxy.scheduler);
+			}
+			Assert.assertFalse("Default scheduler closed while in use", 
+					defaultScheduler.getExecutor(MaintenanceScheduler.Priority.HIGH).isShutdown());
+		} finally {
+			MaintenanceScheduler.releaseDefault();
+		}
+		for (MaintenanceScheduler.Priority priority : MaintenanceScheduler.Priority.values()) {
+			Assert.assertTrue("Default scheduler not closed", defaultScheduler.getExecutor(priority).isTerminated());
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, null, null)) {
+			Assert.assertNotSame(defaultScheduler, instance.proxy.scheduler);
+		}
+	}
+
+	private static long countTasks(final MaintenanceScheduler scheduler, final String root) {
+		return scheduler.getTasks().stream()
+			.filter(task -> task.getName().endsWith(" " + root))
+			.count();
+	}
+
+}
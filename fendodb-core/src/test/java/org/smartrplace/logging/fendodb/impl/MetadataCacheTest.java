@@ -0,0 +1,183 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+import org.smartrplace.logging.fendodb.impl.FileObjectContext.FileMetadata;
+
+public class MetadataCacheTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final boolean compressed) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(10 * 60 * 1000)
+				.setCompressedFiles(compressed)
+				.setCacheDisabled(true)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final long fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval > 0) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(fixedInterval);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	private static void insert(final RecordedDataStorage data, final int from, final int to, final long step) throws DataRecorderException {
+		for (int i = from; i < to; i++) {
+			data.insertValue(new SampledValue(new FloatValue(i), i * step, Quality.GOOD));
+		}
+	}
+
+	private static List<Path> getLogFiles() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.collect(Collectors.toList());
+		}
+	}
+
+	/*
+	 * Closes all files, so that they have to be re-created from the cached metadata, and compares 
+	 * the latter to the actual files.
+	 */
+	private static void assertMetadataValid(final SlotsDb instance) throws IOException {
+		instance.proxy.clearOpenFilesHashMap();
+		final List<Path> files = getLogFiles();
+		Assert.assertFalse("No log files found", files.isEmpty());
+		for (Path file : files) {
+			final FileMetadata metadata = instance.proxy.fileContext.getMetadata(file);
+			Assert.assertNotNull("Metadata missing for " + file, metadata);
+			Assert.assertEquals("Unexpected file length for " + file, Files.size(file), metadata.length);
+			try (final DataInputStream dis = new DataInputStream(Files.newInputStream(file))) {
+				final long start = dis.readLong();
+				final long period = dis.readLong();
+				Assert.assertEquals(period, metadata.storagePeriod);
+				if (period <= 0)
+					Assert.assertEquals(start, metadata.startTimeStamp);
+			}
+		}
+	}
+
+	private static void assertValues(final RecordedDataStorage data, final int nrValues, final long lastTimestamp) {
+		Assert.assertEquals("Unexpected number of log values", nrValues, data.getValues(Long.MIN_VALUE).size());
+		Assert.assertEquals(nrValues, data.size());
+		Assert.assertEquals(lastTimestamp, data.getPreviousValue(Long.MAX_VALUE).getTimestamp());
+	}
+
+	private void metadataIsUpdatedByWriters(final boolean compressed) throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed), null)) {
+			final RecordedDataStorage flexible = instance.createRecordedDataStorage("flexible", getRecordedDataConfig(0));
+			final RecordedDataStorage fixed = instance.createRecordedDataStorage("fixed", getRecordedDataConfig(STEP));
+			insert(flexible, 0, 100, STEP);
+			insert(fixed, 0, 100, STEP);
+			assertMetadataValid(instance);
+			assertValues(flexible, 100, 99 * STEP);
+			assertValues(fixed, 100, 99 * STEP);
+			// append to the files re-created from the cached metadata
+			insert(flexible, 100, 200, STEP);
+			insert(fixed, 100, 200, STEP);
+			assertMetadataValid(instance);
+			assertValues(flexible, 200, 199 * STEP);
+			assertValues(fixed, 200, 199 * STEP);
+		}
+	}
+
+	@Test
+	public void metadataIsUpdatedByWriters() throws DataRecorderException, IOException {
+		metadataIsUpdatedByWriters(false);
+	}
+
+	@Test
+	public void metadataIsUpdatedByWritersCompressed() throws DataRecorderException, IOException {
+		metadataIsUpdatedByWriters(true);
+	}
+
+	@Test
+	public void newFilesAreFoundInCachedFolders() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(false), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(STEP));
+			insert(data, 0, 50, STEP);
+			assertMetadataValid(instance);
+			assertValues(data, 50, 49 * STEP);
+			// a new file is created for the changed interval, in the folder listed before
+			data.update(getRecordedDataConfig(2 * STEP));
+			insert(data, 50, 75, 2 * STEP);
+			Assert.assertEquals(2, getLogFiles().size());
+			assertMetadataValid(instance);
+			assertValues(data, 75, 74 * 2 * STEP);
+		}
+	}
+
+	/*
+	 * A read-only instance must not cache the metadata of files that are appended to by another process.
+	 */
+	@Test
+	public void metadataIsNotCachedInReadOnlyMode() throws DataRecorderException, IOException {
+		// the persisted configuration applies to the reader
+		final FendoDbConfiguration writerConfig = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setCacheDisabled(true)
+				.build();
+		final FendoDbConfiguration readerConfig = FendoDbConfigurationBuilder.getInstance()
+				.setReadOnlyMode(true)
+				.build();
+		try (final SlotsDb writer = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, writerConfig, null)) {
+			insert(writer.createRecordedDataStorage("external", getRecordedDataConfig(0)), 0, 50, STEP);
+		}
+		try (final SlotsDb reader = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, readerConfig, null)) {
+			final RecordedDataStorage data = reader.getRecordedDataStorage("external");
+			assertValues(data, 50, 49 * STEP);
+			final List<Path> files = getLogFiles();
+			Assert.assertEquals(1, files.size());
+			// append a data set, as done by a writing process
+			final ByteBuffer dataSet = ByteBuffer.allocate(17);
+			dataSet.putLong(50 * STEP).putDouble(50).put((byte) Quality.GOOD.getQuality());
+			Files.write(files.get(0), dataSet.array(), StandardOpenOption.APPEND);
+			// as after a reload of the days
+			reader.proxy.clearOpenFilesHashMap();
+			Assert.assertNull("Metadata cached in read-only mode", reader.proxy.fileContext.getMetadata(files.get(0)));
+			assertValues(data, 51, 50 * STEP);
+		}
+	}
+
+}
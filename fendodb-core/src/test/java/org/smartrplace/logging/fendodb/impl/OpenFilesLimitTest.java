@@ -0,0 +1,106 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class OpenFilesLimitTest extends SlotsDbTest {
+
+	private static final int MAX_OPEN_FILES = 8;
+	private static final int NR_SERIES = 50;
+	private static final int NR_VALUES = 20;
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final boolean compressed) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(10 * 60 * 1000)
+				.setMaxOpenFolders(2 * NR_SERIES)
+				.setMaxOpenFiles(MAX_OPEN_FILES)
+				.setCompressedFiles(compressed)
+				.setCacheDisabled(true)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static void assertValues(final RecordedDataStorage data, final int nrValues) {
+		final List<SampledValue> values = data.getValues(Long.MIN_VALUE);
+		Assert.assertEquals("Unexpected number of log values for " + data.getPath(), nrValues, values.size());
+		for (int i = 0; i < nrValues; i++) {
+			Assert.assertEquals(i * STEP, values.get(i).getTimestamp());
+			Assert.assertEquals(i, values.get(i).getValue().getFloatValue(), 0.01F);
+		}
+	}
+
+	private void channelsAreReopenedOnDemand(final boolean compressed) throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed), null)) {
+			final List<RecordedDataStorage> series = new ArrayList<>(NR_SERIES);
+			for (int s = 0; s < NR_SERIES; s++) {
+				series.add(instance.createRecordedDataStorage("series" + s, getRecordedDataConfig()));
+			}
+			// interleaved appends, so that buffered data has to be written when the channels are released
+			for (int i = 0; i < NR_VALUES; i++) {
+				for (RecordedDataStorage data : series) {
+					data.insertValue(new SampledValue(new FloatValue(i), i * STEP, Quality.GOOD));
+				}
+				Assert.assertTrue("Too many open files: " + instance.proxy.fileContext.getOpenChannels(), 
+						instance.proxy.fileContext.getOpenChannels() <= MAX_OPEN_FILES);
+			}
+			for (RecordedDataStorage data : series) {
+				assertValues(data, NR_VALUES);
+			}
+			Assert.assertTrue("Too many open files: " + instance.proxy.fileContext.getOpenChannels(), 
+					instance.proxy.fileContext.getOpenChannels() <= MAX_OPEN_FILES);
+			// the folder metadata is not affected by the limit
+			Assert.assertEquals(NR_SERIES, instance.proxy.openFolders());
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(compressed), null)) {
+			for (int s = 0; s < NR_SERIES; s++) {
+				assertValues(instance.getRecordedDataStorage("series" + s), NR_VALUES);
+			}
+		}
+	}
+
+	@Test
+	public void channelsAreReopenedOnDemand() throws DataRecorderException, IOException {
+		channelsAreReopenedOnDemand(false);
+	}
+
+	@Test
+	public void channelsAreReopenedOnDemandCompressed() throws DataRecorderException, IOException {
+		channelsAreReopenedOnDemand(true);
+	}
+
+}
@@ -0,0 +1,225 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Paths;
+import java.security.AccessControlContext;
+import java.security.AccessController;
+import java.security.Permission;
+import java.security.Permissions;
+import java.security.Policy;
+import java.security.PrivilegedAction;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.core.timeseries.ReadOnlyTimeSeries;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.StatisticsConfiguration;
+import org.smartrplace.logging.fendodb.stats.StatisticsProvider;
+import org.smartrplace.logging.fendodb.stats.samples.BasicProviders;
+import org.smartrplace.logging.fendodb.stats.samples.Count;
+
+public class ParallelStatisticsTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+	private static final int PARALLELISM = 4;
+
+	private static FendoDbConfiguration getConfig() {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+	}
+
+	private static RecordedDataStorage createStorage(final SlotsDb instance, final String id, final int offset, final int nrValues) 
+			throws DataRecorderException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final RecordedDataStorage data = instance.createRecordedDataStorage(id, cfg);
+		final List<SampledValue> values = new ArrayList<>(nrValues);
+		for (int i = 0; i < nrValues; i++) {
+			values.add(new SampledValue(new FloatValue(((i + offset) % 89) * 0.5F - offset), (i + offset) * STEP, 
+					i % 40 == 39 ? Quality.BAD : Quality.GOOD));
+		}
+		data.insertValues(values);
+		return data;
+	}
+
+	// reference: sequential evaluation of the individual time series
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Map<String, Object> evaluate(final StatisticsServiceImpl service, final List<RecordedDataStorage> timeSeries,
+			final List<String> ids, final long[] range) {
+		final Map<String, Object> results = new HashMap<>();
+		for (String id : ids) {
+			final StatisticsProvider provider = BasicProviders.getBasicProviders().get(id);
+			final List<Object> individual = new ArrayList<>();
+			for (RecordedDataStorage ts : timeSeries) {
+				final List<StatisticsProvider<?>> providers = Collections.singletonList(provider);
+				individual.add((range == null ? service.evaluate(ts, providers) : service.evaluate(ts, providers, range[0], range[1])).get(0));
+			}
+			results.put(id, provider.join(individual));
+		}
+		return results;
+	}
+
+	private static void assertParallelEvaluationMatches(final StatisticsServiceImpl service, final List<RecordedDataStorage> timeSeries,
+			final List<String> ids, final long[] range) {
+		final Map<String, ?> results = range == null ? service.evaluateByIds(timeSeries, ids) 
+				: service.evaluateByIds(timeSeries, ids, range[0], range[1]);
+		Assert.assertEquals(evaluate(service, timeSeries, ids, range), results);
+	}
+
+	@Test
+	public void parallelEvaluationMatchesSequentialEvaluation() throws DataRecorderException, IOException {
+		final StatisticsServiceImpl service = new StatisticsServiceImpl(PARALLELISM);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final List<RecordedDataStorage> timeSeries = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				timeSeries.add(createStorage(instance, "ts" + i, 100 * i, 1000 + 50 * i));
+			}
+			final List<String> ids = Arrays.asList("cnt", "min", "max", "avg", "maxT");
+			assertParallelEvaluationMatches(service, timeSeries, ids, null);
+			assertParallelEvaluationMatches(service, timeSeries, ids, new long[] {500 * STEP, 2500 * STEP});
+			// the individual results of the time series are joined in order
+			assertParallelEvaluationMatches(service, timeSeries.subList(0, 3), ids, null);
+		} finally {
+			service.deactivate();
+		}
+	}
+
+	/**
+	 * Counts the partitions evaluated.
+	 */
+	private static final class PartitionCounter implements StatisticsProvider<Integer> {
+
+		final AtomicInteger partitions = new AtomicInteger();
+
+		@Override
+		public Statistics<Integer> newStatistics(StatisticsConfiguration config) {
+			partitions.incrementAndGet();
+			return new Count();
+		}
+
+		@Override
+		public Integer join(Collection<Integer> individualResults) {
+			return individualResults.stream().mapToInt(i -> i).sum();
+		}
+
+		@Override
+		public boolean supportsTimePartitions() {
+			return true;
+		}
+
+	}
+
+	@Test
+	public void longTimeSeriesAreEvaluatedInPartitions() throws DataRecorderException, IOException {
+		final StatisticsServiceImpl service = new StatisticsServiceImpl(PARALLELISM);
+		final PartitionCounter counter = new PartitionCounter();
+		service.addProvider(counter, Collections.singletonMap("providerId", "partitions"));
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			// 30 days
+			final List<RecordedDataStorage> timeSeries = Collections.singletonList(createStorage(instance, "long", 0, 30 * 24 * 60));
+			// partitions are used only if all providers support them
+			final List<String> partitionable = Arrays.asList("cnt", "min", "max");
+			assertParallelEvaluationMatches(service, timeSeries, partitionable, null);
+			assertParallelEvaluationMatches(service, timeSeries, partitionable, new long[] {12345, 20 * 24 * 60 * STEP + 6789});
+			assertParallelEvaluationMatches(service, timeSeries, partitionable, new long[] {Long.MIN_VALUE, Long.MAX_VALUE});
+			assertParallelEvaluationMatches(service, timeSeries, Arrays.asList("cnt", "avg"), null);
+			final Map<String, ?> results = service.evaluateByIds(timeSeries, Arrays.asList("cnt", "partitions"));
+			Assert.assertEquals(30 * 24 * 60, results.get("cnt"));
+			Assert.assertEquals(30 * 24 * 60, results.get("partitions"));
+			Assert.assertEquals(PARALLELISM, counter.partitions.get());
+		} finally {
+			service.deactivate();
+		}
+	}
+
+	@Test
+	public void deactivatedServiceEvaluatesSequentially() throws DataRecorderException, IOException {
+		final StatisticsServiceImpl service = new StatisticsServiceImpl();
+		service.deactivate();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final List<RecordedDataStorage> timeSeries = Arrays.asList(createStorage(instance, "a", 0, 500), createStorage(instance, "b", 0, 700));
+			Assert.assertEquals(1200, service.evaluateByIds(timeSeries, Collections.singletonList("cnt")).get("cnt"));
+		}
+	}
+
+	// checks the permission on every call, like a time series of a secured FendoDB instance
+	private static ReadOnlyTimeSeries checkingPermission(final ReadOnlyTimeSeries timeSeries, final Permission permission) {
+		return (ReadOnlyTimeSeries) Proxy.newProxyInstance(ReadOnlyTimeSeries.class.getClassLoader(), new Class<?>[] {ReadOnlyTimeSeries.class},
+				(proxy, method, args) -> {
+					AccessController.checkPermission(permission);
+					try {
+						return method.invoke(timeSeries, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+	@Test
+	public void timeSeriesAreEvaluatedWithCallerPermissions() throws DataRecorderException, IOException {
+		final Policy policy = Policy.getPolicy();
+		final Permission permission = new RuntimePermission("readTimeSeries");
+		final StatisticsServiceImpl service = new StatisticsServiceImpl(PARALLELISM);
+		// grants all permissions to the code on the class path, including fendodb-core
+		Policy.setPolicy(new Policy() {
+
+			@Override
+			public boolean implies(ProtectionDomain domain, Permission p) {
+				return true;
+			}
+
+		});
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final List<ReadOnlyTimeSeries> timeSeries = Arrays.asList(
+					checkingPermission(createStorage(instance, "a", 0, 500), permission),
+					checkingPermission(createStorage(instance, "b", 0, 700), permission));
+			final List<String> ids = Collections.singletonList("cnt");
+			Assert.assertEquals(1200, service.evaluateByIds(timeSeries, ids).get("cnt"));
+			final AccessControlContext restricted = new AccessControlContext(new ProtectionDomain[] {new ProtectionDomain(null, new Permissions())});
+			try {
+				AccessController.doPrivileged((PrivilegedAction<Map<String, ?>>) () -> service.evaluateByIds(timeSeries, ids), restricted);
+				Assert.fail("Time series evaluated without the caller's permission");
+			} catch (SecurityException expected) {}
+		} finally {
+			Policy.setPolicy(policy);
+			service.deactivate();
+		}
+	}
+
+}
@@ -0,0 +1,243 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.smartrplace.logging.fendodb.CloseableDataRecorder;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+import org.smartrplace.logging.fendodb.FendoTimeSeries;
+
+/**
+ * Reads of sub-intervals of a single flexible interval file, via file channels
+ * and from memory mapped files.
+ */
+public class RangeReadTest extends FactoryTest {
+
+	private static final int NR_VALUES = 1000;
+	private static final long START = 10 * ONE_DAY + 1000;
+	private static final long STEP = 1000;
+
+	private FendoTimeSeries createAndFill(final CloseableDataRecorder recorder) throws Exception {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final FendoTimeSeries ts = recorder.createRecordedDataStorage("rangeTest", cfg);
+		for (int i = 0; i < NR_VALUES; i++) {
+			ts.insertValue(new SampledValue(new FloatValue(i), START + i * STEP, i % 10 == 0 ? Quality.BAD : Quality.GOOD));
+		}
+		return ts;
+	}
+
+	private static FendoDbConfiguration getConfig(final boolean memoryMapped) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setMemoryMappedReads(memoryMapped)
+				.build();
+	}
+
+	@Test
+	public void subIntervalReadsWork() throws Exception {
+		subIntervalReadsWork(false);
+	}
+
+	@Test
+	public void subIntervalReadsWorkMemoryMapped() throws Exception {
+		subIntervalReadsWork(true);
+	}
+
+	@Test
+	public void pointReadsWork() throws Exception {
+		pointReadsWork(false);
+	}
+
+	@Test
+	public void pointReadsWorkMemoryMapped() throws Exception {
+		pointReadsWork(true);
+	}
+
+	@Test
+	public void memoryMappedReadsSeeAppendedValues() throws Exception {
+		try (final CloseableDataRecorder recorder = factory.getInstance(testPath, getConfig(true))) {
+			final FendoTimeSeries ts = createAndFill(recorder);
+			final long end = START + 2 * NR_VALUES * STEP;
+			Assert.assertEquals(NR_VALUES, ts.getValues(START, end).size());
+			Assert.assertEquals(START + (NR_VALUES - 1) * STEP, ts.getPreviousValue(end).getTimestamp());
+			for (int i = NR_VALUES; i < 2 * NR_VALUES; i++) {
+				ts.insertValue(new SampledValue(new FloatValue(i), START + i * STEP, Quality.GOOD));
+			}
+			Assert.assertEquals(2 * NR_VALUES, ts.getValues(START, end).size());
+			Assert.assertEquals(START + (2 * NR_VALUES - 1) * STEP, ts.getPreviousValue(end).getTimestamp());
+			Assert.assertEquals(NR_VALUES + 5, ts.getValue(START + (NR_VALUES + 5) * STEP).getValue().getFloatValue(), 0.01F);
+		}
+	}
+
+	@Test
+	public void memoryMappingGrowsInChunks() throws Exception {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setMemoryMappedReads(true)
+				.setCacheDisabled(true)
+				.build();
+		try (final SlotsDb instance = new SlotsDb(testPath, null, config, null)) {
+			final FendoTimeSeries ts = createAndFill(instance);
+			final long last = START + (NR_VALUES - 1) * STEP;
+			Assert.assertEquals(NR_VALUES - 1, ts.getValue(last).getValue().getFloatValue(), 0.01F);
+			final FileObject file = instance.proxy.openFilesHM.asMap().values().iterator().next().getAllFileObjects().get(0);
+			final int mapped = file.getMappedLength();
+			Assert.assertTrue("File not mapped", mapped > 0);
+			int cnt = NR_VALUES;
+			for (; cnt < 2 * NR_VALUES; cnt++) {
+				ts.insertValue(new SampledValue(new FloatValue(cnt), START + cnt * STEP, Quality.GOOD));
+				Assert.assertEquals(cnt, ts.getValue(START + cnt * STEP).getValue().getFloatValue(), 0.01F);
+			}
+			Assert.assertEquals("File must not be mapped again for small appends", mapped, file.getMappedLength());
+			while (file.getMappedLength() == mapped) {
+				ts.insertValue(new SampledValue(new FloatValue(cnt), START + cnt * STEP, Quality.GOOD));
+				Assert.assertEquals(cnt, ts.getValue(START + cnt * STEP).getValue().getFloatValue(), 0.01F);
+				cnt++;
+				Assert.assertTrue("File not mapped again", file.length < 2 * (mapped + FileObject.MIN_REMAP_SIZE));
+			}
+			Assert.assertTrue(file.getMappedLength() >= mapped + FileObject.MIN_REMAP_SIZE);
+			Assert.assertEquals(cnt, ts.getValues(START).size());
+		}
+	}
+
+	@Test
+	public void unsortedFilesWork() throws Exception {
+		unsortedFilesWork(false);
+	}
+
+	@Test
+	public void unsortedFilesWorkMemoryMapped() throws Exception {
+		unsortedFilesWork(true);
+	}
+
+	/*
+	 * Earlier versions could append values out of order after a restart; such files must not be binary searched.
+	 */
+	private void unsortedFilesWork(final boolean memoryMapped) throws Exception {
+		final FendoDbConfiguration config = getConfig(memoryMapped);
+		final int nrValues = 10;
+		try (final CloseableDataRecorder recorder = factory.getInstance(testPath, config)) {
+			final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+			final FendoTimeSeries ts = recorder.createRecordedDataStorage("rangeTest", cfg);
+			for (int i = 0; i < nrValues; i++) {
+				ts.insertValue(new SampledValue(new FloatValue(i), START + i * STEP, Quality.GOOD));
+			}
+		}
+		final Path file;
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			final List<Path> logFiles = files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.collect(Collectors.toList());
+			Assert.assertEquals(1, logFiles.size());
+			file = logFiles.get(0);
+		}
+		// reverse the order of the data sets, keeping the header
+		final int headerSize = 16;
+		final int dataSetSize = 17;
+		final byte[] content = Files.readAllBytes(file);
+		Assert.assertEquals(headerSize + nrValues * dataSetSize, content.length);
+		final ByteBuffer reversed = ByteBuffer.allocate(content.length);
+		reversed.put(content, 0, headerSize);
+		for (int i = nrValues - 1; i >= 0; i--) {
+			reversed.put(content, headerSize + i * dataSetSize, dataSetSize);
+		}
+		Files.write(file, reversed.array());
+		try (final CloseableDataRecorder recorder = factory.getInstance(testPath, config)) {
+			final FendoTimeSeries ts = recorder.getRecordedDataStorage("rangeTest");
+			final List<SampledValue> values = ts.getValues(START + 2 * STEP, START + 5 * STEP + 1);
+			Assert.assertEquals(4, values.size());
+			for (int i = 0; i < values.size(); i++) {
+				Assert.assertEquals(START + (i + 2) * STEP, values.get(i).getTimestamp());
+			}
+			Assert.assertEquals(4, ts.size(START + 2 * STEP, START + 5 * STEP));
+			Assert.assertEquals(3, ts.getValue(START + 3 * STEP).getValue().getFloatValue(), 0.01F);
+			Assert.assertNull(ts.getValue(START + 3 * STEP + 1));
+			Assert.assertEquals(START + 4 * STEP, ts.getNextValue(START + 3 * STEP + 1).getTimestamp());
+			Assert.assertEquals(START + 3 * STEP, ts.getPreviousValue(START + 4 * STEP - 1).getTimestamp());
+			Assert.assertEquals(START + (nrValues - 1) * STEP, ts.getPreviousValue(START + 2 * nrValues * STEP).getTimestamp());
+			// appended values must still be later than all existing ones
+			ts.insertValue(new SampledValue(new FloatValue(-1), START + STEP / 2, Quality.GOOD));
+			ts.insertValue(new SampledValue(new FloatValue(nrValues), START + nrValues * STEP, Quality.GOOD));
+			Assert.assertNull(ts.getValue(START + STEP / 2));
+			Assert.assertEquals(nrValues + 1, ts.getValues(START, START + 2 * nrValues * STEP).size());
+			Assert.assertEquals(START + nrValues * STEP, ts.getPreviousValue(START + 2 * nrValues * STEP).getTimestamp());
+		}
+	}
+
+	private void subIntervalReadsWork(final boolean memoryMapped) throws Exception {
+		final FendoDbConfiguration config = getConfig(memoryMapped);
+		try (final CloseableDataRecorder recorder = factory.getInstance(testPath, config)) {
+			final FendoTimeSeries ts = createAndFill(recorder);
+			final int[][] intervals = { {0, 0}, {3, 7}, {0, 999}, {500, 501}, {998, 999}, {999, 999} };
+			for (int[] interval : intervals) {
+				final long start = START + interval[0] * STEP;
+				final long end = START + interval[1] * STEP;
+				final List<SampledValue> values = ts.getValues(start, end + 1);
+				Assert.assertEquals("Unexpected number of values", interval[1] - interval[0] + 1, values.size());
+				Assert.assertEquals(start, values.get(0).getTimestamp());
+				Assert.assertEquals(end, values.get(values.size() - 1).getTimestamp());
+				Assert.assertEquals(interval[1] - interval[0] + 1, ts.size(start, end));
+			}
+			// intervals between data points
+			Assert.assertTrue(ts.getValues(START + STEP / 2, START + STEP - 1).isEmpty());
+			Assert.assertEquals(1, ts.getValues(START + STEP / 2, START + 2 * STEP - 1).size());
+			Assert.assertTrue(ts.getValues(START - 2 * STEP, START - 1).isEmpty());
+			Assert.assertTrue(ts.getValues(START + NR_VALUES * STEP, START + 2 * NR_VALUES * STEP).isEmpty());
+		}
+	}
+
+	private void pointReadsWork(final boolean memoryMapped) throws Exception {
+		final FendoDbConfiguration config = getConfig(memoryMapped);
+		try (final CloseableDataRecorder recorder = factory.getInstance(testPath, config)) {
+			final FendoTimeSeries ts = createAndFill(recorder);
+			for (int i : new int[] {0, 1, 10, 555, 998, 999}) {
+				final long t = START + i * STEP;
+				final SampledValue sv = ts.getValue(t);
+				Assert.assertNotNull("Value missing", sv);
+				Assert.assertEquals(i, sv.getValue().getFloatValue(), 0.01F);
+				Assert.assertEquals(i % 10 == 0 ? Quality.BAD : Quality.GOOD, sv.getQuality());
+				Assert.assertNull(ts.getValue(t + 1));
+				Assert.assertEquals(t, ts.getNextValue(t).getTimestamp());
+				Assert.assertEquals(t, ts.getPreviousValue(t).getTimestamp());
+				if (i < NR_VALUES - 1)
+					Assert.assertEquals(t + STEP, ts.getNextValue(t + 1).getTimestamp());
+				else
+					Assert.assertNull(ts.getNextValue(t + 1));
+				if (i > 0)
+					Assert.assertEquals(t - STEP, ts.getPreviousValue(t - 1).getTimestamp());
+				else
+					Assert.assertNull(ts.getPreviousValue(t - 1));
+			}
+		}
+	}
+
+}
@@ -110,6 +110,37 @@ public class RestartDbTest extends SlotsDbTest {
 		}
 	}
 	
+	@Test
+	public void olderValuesAreIgnoredAfterRestart() throws DataRecorderException {
+		final String id = "test";
+		try (final SlotsDb db = createDb()) {
+			final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+			db.createRecordedDataStorage(id, cfg).insertValues(Arrays.asList(
+				new SampledValue(new FloatValue(1F), 1000, Quality.GOOD),
+				new SampledValue(new FloatValue(2F), 2000, Quality.GOOD),
+				new SampledValue(new FloatValue(3F), 3000, Quality.GOOD)
+			));
+		}
+		try (final SlotsDb db2 = createDb()) {
+			final RecordedDataStorage storage2 = db2.getRecordedDataStorage(id);
+			// same file, older than its last value
+			storage2.insertValue(new SampledValue(new FloatValue(-1F), 1500, Quality.GOOD));
+			storage2.insertValues(Arrays.asList(
+				new SampledValue(new FloatValue(-2F), 2500, Quality.GOOD),
+				new SampledValue(new FloatValue(-3F), 3000, Quality.GOOD),
+				new SampledValue(new FloatValue(4F), 4000, Quality.GOOD)
+			));
+			final List<SampledValue> values = storage2.getValues(Long.MIN_VALUE);
+			Assert.assertEquals(4, values.size());
+			for (int i = 0; i < values.size(); i++) {
+				Assert.assertEquals((i + 1) * 1000, values.get(i).getTimestamp());
+				Assert.assertEquals(i + 1, values.get(i).getValue().getFloatValue(), 0.01F);
+			}
+			Assert.assertNull(storage2.getValue(1500));
+		}
+	}
+	
 	private void nonStandardUnitPersistenceWorks(final TemporalUnit unit) throws DataRecorderException {
 		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
 				.setFlushPeriod(0)
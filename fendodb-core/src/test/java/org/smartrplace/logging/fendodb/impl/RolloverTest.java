@@ -0,0 +1,123 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class RolloverTest extends SlotsDbTest {
+
+	private static FendoDbConfiguration getConfig(final long rolloverLeadTime) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setRolloverLeadTime(rolloverLeadTime)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static void insert(final RecordedDataStorage data, final long timestamp, final float value) throws DataRecorderException {
+		data.insertValue(new SampledValue(new FloatValue(value), timestamp, Quality.GOOD));
+	}
+
+	private static void assertValues(final RecordedDataStorage data, final long... timestamps) {
+		final List<SampledValue> values = data.getValues(Long.MIN_VALUE);
+		Assert.assertEquals("Unexpected number of log values", timestamps.length, values.size());
+		for (int i = 0; i < timestamps.length; i++) {
+			Assert.assertEquals(timestamps[i], values.get(i).getTimestamp());
+		}
+	}
+
+	@Test
+	public void previousPeriodFilesRemainOpen() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(ONE_DAY), null)) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			final RecordedDataStorage b = instance.createRecordedDataStorage("b", getRecordedDataConfig());
+			insert(a, 1000, 1);
+			insert(b, 1000, 1);
+			Assert.assertEquals(2, instance.proxy.openFolders());
+			insert(a, ONE_DAY + 1000, 2);
+			Assert.assertEquals("Files of the previous day have been closed", 3, instance.proxy.openFolders());
+			// late value for the previous day
+			insert(b, 2000, 2);
+			Assert.assertEquals(3, instance.proxy.openFolders());
+			insert(b, ONE_DAY + 2000, 3);
+			assertValues(a, 1000, ONE_DAY + 1000);
+			assertValues(b, 1000, 2000, ONE_DAY + 2000);
+			Assert.assertEquals(2, instance.proxy.days.size());
+		}
+	}
+
+	@Test
+	public void nextFolderIsCreatedAheadOfTime() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(2 * ONE_DAY), null)) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			final long now = System.currentTimeMillis();
+			insert(a, now, 1);
+			final long next = TimeUtils.getNextStart(TimeUtils.getCurrentStart(now, ChronoUnit.DAYS), ChronoUnit.DAYS);
+			final Path nextFolder = testPath.resolve(String.valueOf(next));
+			Assert.assertFalse(Files.exists(nextFolder));
+			instance.proxy.prepareNextFolder();
+			Assert.assertTrue("Folder for the next day has not been created", Files.isDirectory(nextFolder));
+			Assert.assertEquals(2, instance.proxy.days.size());
+			Assert.assertEquals(nextFolder, instance.proxy.days.get(1));
+			instance.proxy.prepareNextFolder();
+			Assert.assertEquals(2, instance.proxy.days.size());
+			Assert.assertEquals("Open files have been closed", 1, instance.proxy.openFolders());
+			insert(a, next + 1000, 2);
+			assertValues(a, now, next + 1000);
+		}
+	}
+
+	@Test
+	public void pastFilesAreRetiredLazily() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(ONE_DAY), null)) {
+			final RecordedDataStorage a = instance.createRecordedDataStorage("a", getRecordedDataConfig());
+			final RecordedDataStorage b = instance.createRecordedDataStorage("b", getRecordedDataConfig());
+			final long now = System.currentTimeMillis();
+			insert(a, 1000, 1);
+			insert(b, 1000, 1);
+			insert(a, now, 2);
+			Assert.assertEquals(3, instance.proxy.openFolders());
+			instance.proxy.retireOpenFiles();
+			Assert.assertEquals("Files of past days have not been closed", 1, instance.proxy.openFolders());
+			insert(b, 2000, 2);
+			assertValues(a, 1000, now);
+			assertValues(b, 1000, 2000);
+		}
+	}
+
+}
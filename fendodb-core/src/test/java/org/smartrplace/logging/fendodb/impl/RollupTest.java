@@ -0,0 +1,143 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.core.recordeddata.ReductionMode;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class RollupTest extends SlotsDbTest {
+
+	private static final long STEP = 10 * 1000;
+	private static final long MINUTE = 60 * 1000;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+	// roughly 3.5 days
+	private static final int NR_VALUES = 30000;
+	private static final ReductionMode[] MODES = {
+		ReductionMode.AVERAGE, ReductionMode.MINIMUM_VALUE, ReductionMode.MAXIMUM_VALUE, ReductionMode.MIN_MAX_VALUE
+	};
+
+	private static FendoDbConfiguration getConfig() {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setRollups(true)
+				.build();
+	}
+
+	// values are exactly representable as floats
+	private static List<SampledValue> createValues() {
+		final List<SampledValue> values = new ArrayList<>(NR_VALUES);
+		for (int i = 0; i < NR_VALUES; i++) {
+			values.add(new SampledValue(new FloatValue((i % 97) * 0.25F - 10), i * STEP, 
+					i % 50 == 49 ? Quality.BAD : Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static RecordedDataStorage createStorage(final SlotsDb instance, final List<SampledValue> values) throws DataRecorderException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final RecordedDataStorage data = instance.createRecordedDataStorage("tiers", cfg);
+		data.insertValues(values);
+		return data;
+	}
+
+	private static List<Path> getRollupFiles() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().equals(Rollups.FILE_NAME) && Files.isRegularFile(f))
+				.sorted()
+				.collect(Collectors.toList());
+		}
+	}
+
+	private static void assertReductionsMatch(final List<SampledValue> values, final RecordedDataStorage data, 
+			final long start, final long end, final long interval) {
+		for (ReductionMode mode : MODES) {
+			StreamingReductionTest.assertEquals(StreamingReductionTest.reduce(values, start, end, interval, mode), 
+					data.getValues(start, end + 1, interval, mode));
+		}
+	}
+
+	@Test
+	public void rollupsMatchRawReductions() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues();
+		final long end = (NR_VALUES - 1) * STEP;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = createStorage(instance, values);
+			Assert.assertTrue(getRollupFiles().isEmpty());
+			// aligned with the tiers
+			assertReductionsMatch(values, data, 0, end, HOUR);
+			// past folders get rollups, the folder of the current period is not affected by the values of 1970
+			Assert.assertEquals(instance.proxy.days.size(), getRollupFiles().size());
+			assertReductionsMatch(values, data, 0, end, 15 * MINUTE);
+			assertReductionsMatch(values, data, 0, end, DAY);
+			assertReductionsMatch(values, data, 0, end, 5 * HOUR);
+			// not aligned: tier entries at the interval boundaries are replaced by the data points
+			assertReductionsMatch(values, data, 1234, end - 5678, 6 * HOUR);
+			assertReductionsMatch(values, data, 7 * MINUTE, end, 10 * DAY);
+			// intervals too short for any tier
+			assertReductionsMatch(values, data, 0, end / 3, 7 * MINUTE);
+		}
+		// persistent rollups are reused
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.getRecordedDataStorage("tiers");
+			assertReductionsMatch(values, data, 0, end, HOUR);
+			assertReductionsMatch(values, data, 30 * MINUTE, end, 3 * HOUR);
+		}
+	}
+
+	@Test
+	public void outdatedRollupsAreReplaced() throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues();
+		final long end = (NR_VALUES - 1) * STEP;
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = createStorage(instance, values);
+			assertReductionsMatch(values, data, 0, end, HOUR);
+			final List<Path> files = getRollupFiles();
+			Assert.assertTrue("Rollups missing", files.size() > 1);
+			// rollups of another folder, which do not match the log files
+			final byte[] original = Files.readAllBytes(files.get(0));
+			Files.copy(files.get(1), files.get(0), StandardCopyOption.REPLACE_EXISTING);
+			// corrupted rollups
+			Files.write(files.get(1), new byte[] {1, 2, 3});
+			assertReductionsMatch(values, data, 0, end, HOUR);
+			Assert.assertArrayEquals(original, Files.readAllBytes(files.get(0)));
+			Assert.assertTrue(Files.size(files.get(1)) > 3);
+		}
+	}
+
+}
@@ -0,0 +1,216 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.core.timeseries.InterpolationMode;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+import org.smartrplace.logging.fendodb.stats.Statistics;
+import org.smartrplace.logging.fendodb.stats.StatisticsConfiguration;
+import org.smartrplace.logging.fendodb.stats.StatisticsProvider;
+import org.smartrplace.logging.fendodb.stats.ValueSummary;
+import org.smartrplace.logging.fendodb.stats.samples.AverageStatistics;
+import org.smartrplace.logging.fendodb.stats.samples.BasicProviders;
+import org.smartrplace.logging.fendodb.stats.samples.Count;
+
+public class StatisticsSummaryTest extends SlotsDbTest {
+
+	private static final long STEP = 10 * 1000;
+	private static final int NR_VALUES = 30000;
+	private static final String[] IDS = {"cnt", "min", "max", "minT", "maxT", "avg"};
+
+	// values are exactly representable as floats
+	private static List<SampledValue> createValues() {
+		final List<SampledValue> values = new ArrayList<>(NR_VALUES);
+		for (int i = 0; i < NR_VALUES; i++) {
+			final float value = i % 1000 == 999 ? Float.NaN : (i % 97) * 0.25F - 10;
+			values.add(new SampledValue(new FloatValue(value), i * STEP, i % 50 == 49 ? Quality.BAD : Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static RecordedDataStorage createStorage(final SlotsDb instance, final List<SampledValue> values) throws DataRecorderException, IOException {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final RecordedDataStorage data = instance.createRecordedDataStorage("stats", cfg);
+		data.insertValues(values);
+		return data;
+	}
+
+	/**
+	 * Counts the data points it receives as part of a summary.
+	 */
+	private static final class SummaryCount extends Count {
+
+		int summarized;
+
+		@Override
+		public boolean step(ValueSummary summary) {
+			summarized += summary.getCount();
+			return super.step(summary);
+		}
+
+	}
+
+	private static final class SummaryCountProvider implements StatisticsProvider<Integer> {
+
+		final List<SummaryCount> stats = new ArrayList<>();
+
+		@Override
+		public Statistics<Integer> newStatistics(StatisticsConfiguration config) {
+			final SummaryCount stat = new SummaryCount();
+			stats.add(stat);
+			return stat;
+		}
+
+		@Override
+		public Integer join(Collection<Integer> individualResults) {
+			return null;
+		}
+
+	}
+
+	// does not accept summaries
+	private static final StatisticsProvider<Float> linearAvgProvider = new StatisticsProvider<Float>() {
+
+		@Override
+		public Statistics<Float> newStatistics(StatisticsConfiguration config) {
+			return new AverageStatistics(InterpolationMode.LINEAR);
+		}
+
+		@Override
+		public Float join(Collection<Float> individualResults) {
+			return null;
+		}
+
+	};
+
+	private static List<StatisticsProvider<?>> getProviders() {
+		final List<StatisticsProvider<?>> providers = new ArrayList<>();
+		for (String id : IDS) {
+			providers.add(BasicProviders.getBasicProviders().get(id));
+		}
+		providers.add(linearAvgProvider);
+		return providers;
+	}
+
+	// reference: pass all data points individually, NaN values are not returned by the database
+	private static List<Object> evaluate(final List<StatisticsProvider<?>> providers, final List<SampledValue> values, 
+			final long start, final long end) {
+		final StatisticsConfiguration cfg = () -> InterpolationMode.NONE;
+		final List<Object> results = new ArrayList<>();
+		for (StatisticsProvider<?> provider : providers) {
+			final Statistics<?> stat = provider.newStatistics(cfg);
+			values.stream()
+				.filter(sv -> sv.getTimestamp() >= start && sv.getTimestamp() <= end && !Float.isNaN(sv.getValue().getFloatValue()))
+				.forEach(stat::step);
+			results.add(stat.finish(end));
+		}
+		return results;
+	}
+
+	private static void assertEquals(final List<?> expected, final List<?> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			final Object e = expected.get(i);
+			final Object a = actual.get(i);
+			// sums of floats
+			if (e instanceof Float)
+				Assert.assertEquals((Float) e, (Float) a, 1E-3);
+			else
+				Assert.assertEquals(e, a);
+		}
+	}
+
+	private static void statisticsMatchDataPoints(final FendoDbConfiguration config) throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues();
+		final long last = (NR_VALUES - 1) * STEP;
+		final StatisticsServiceImpl service = new StatisticsServiceImpl();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			final RecordedDataStorage data = createStorage(instance, values);
+			final List<StatisticsProvider<?>> providers = getProviders();
+			for (long[] range : Arrays.asList(new long[] {0, last}, new long[] {12345, last - 54321}, new long[] {last / 3, last / 2})) {
+				final SummaryCountProvider counter = new SummaryCountProvider();
+				final List<StatisticsProvider<?>> providers1 = new ArrayList<>(providers);
+				providers1.add(counter);
+				final List<?> results = service.evaluate(data, providers1, range[0], range[1]);
+				final List<Object> expected = evaluate(providers, values, range[0], range[1]);
+				expected.add(expected.get(0));
+				assertEquals(expected, results);
+				Assert.assertEquals(1, counter.stats.size());
+				final int summarized = counter.stats.get(0).summarized;
+				Assert.assertTrue("Summaries not used: " + summarized, summarized > (Integer) expected.get(0) / 2);
+			}
+			// via the proxy returned to applications
+			final List<?> results = service.evaluate(instance.getProxyDb().getRecordedDataStorage("stats"), providers, 0, last);
+			assertEquals(evaluate(providers, values, 0, last), results);
+		}
+	}
+
+	// the sums of summaries are accumulated in double precision; so must be the sums of individual data points
+	@Test
+	public void averageOfDataPointsMatchesAverageOfSummaries() {
+		final int nrValues = 1000000;
+		final float value = 12345.67F;
+		final Statistics<Float> points = new AverageStatistics(InterpolationMode.NONE);
+		for (int i = 0; i < nrValues; i++) {
+			points.step(i * STEP, value, Quality.GOOD);
+		}
+		final Statistics<Float> summaries = new AverageStatistics(InterpolationMode.NONE);
+		for (int i = 0; i < nrValues / 1000; i++) {
+			final BlockCodec.Summary summary = new BlockCodec.Summary();
+			for (int j = 0; j < 1000; j++) {
+				summary.add((i * 1000 + j) * STEP, value, (byte) Quality.GOOD.getQuality());
+			}
+			Assert.assertTrue(summaries.step(summary));
+		}
+		Assert.assertEquals(value, points.finish(nrValues * STEP), 1E-3);
+		Assert.assertEquals(value, summaries.finish(nrValues * STEP), 1E-3);
+	}
+
+	@Test
+	public void statisticsUseBlockSummaries() throws DataRecorderException, IOException {
+		statisticsMatchDataPoints(FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setCompressedFiles(true)
+				.build());
+	}
+
+	@Test
+	public void statisticsUseRollups() throws DataRecorderException, IOException {
+		statisticsMatchDataPoints(FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.setRollups(true)
+				.build());
+	}
+
+}
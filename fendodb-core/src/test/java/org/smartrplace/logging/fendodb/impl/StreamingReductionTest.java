@@ -0,0 +1,121 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.DoubleValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.core.recordeddata.ReductionMode;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.impl.reduction.Reduction;
+import org.smartrplace.logging.fendodb.impl.reduction.ReductionFactory;
+import org.smartrplace.logging.fendodb.impl.reduction.StreamingReduction;
+
+public class StreamingReductionTest extends DbTest {
+
+	private static final ReductionMode[] MODES = {
+		ReductionMode.AVERAGE, ReductionMode.MINIMUM_VALUE, ReductionMode.MAXIMUM_VALUE, ReductionMode.MIN_MAX_VALUE
+	};
+
+	// reference implementation: collect the values of each interval, then reduce them
+	@SuppressWarnings("deprecation")
+	static List<SampledValue> reduce(final List<SampledValue> values, final long start, final long end,
+			final long intervalSize, final ReductionMode mode) {
+		final List<SampledValue> result = new ArrayList<>();
+		if (values.stream().noneMatch(sv -> sv.getTimestamp() >= start && sv.getTimestamp() <= end))
+			return result;
+		final Reduction reduction = new ReductionFactory().getReduction(mode);
+		for (long t = start; t <= end; t += intervalSize) {
+			final long t0 = t;
+			final long t1 = Math.min(t + intervalSize - 1, end);
+			final List<SampledValue> interval = new ArrayList<>();
+			values.stream()
+				.filter(sv -> sv.getTimestamp() >= t0 && sv.getTimestamp() <= t1 && sv.getQuality() == Quality.GOOD)
+				.forEach(interval::add);
+			result.addAll(reduction.performReduction(interval, t0));
+		}
+		return result;
+	}
+
+	private static List<SampledValue> createValues(final Random random, final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		long t = 0;
+		for (int i = 0; i < nr; i++) {
+			// some gaps longer than the intervals
+			t += random.nextInt(10) == 0 ? 1000 + random.nextInt(5000) : 1 + random.nextInt(200);
+			final Quality quality = random.nextInt(5) == 0 ? Quality.BAD : Quality.GOOD;
+			values.add(new SampledValue(new DoubleValue(random.nextDouble() * 100 - 50), t, quality));
+		}
+		return values;
+	}
+
+	static void assertEquals(final List<SampledValue> expected, final List<SampledValue> actual) {
+		Assert.assertEquals("Unexpected number of reduced values", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			final SampledValue e = expected.get(i);
+			final SampledValue a = actual.get(i);
+			Assert.assertEquals(e.getTimestamp(), a.getTimestamp());
+			Assert.assertEquals(e.getQuality(), a.getQuality());
+			Assert.assertEquals(e.getValue().getDoubleValue(), a.getValue().getDoubleValue(), 1e-9);
+		}
+	}
+
+	@Test
+	public void streamingReductionMatchesIntervalReduction() {
+		final Random random = new Random(7);
+		final List<SampledValue> values = createValues(random, 2000);
+		final long last = values.get(values.size() - 1).getTimestamp();
+		final long[][] ranges = { {0, last}, {1, last + 2000}, {last / 3, 2 * last / 3}, {last + 1, last + 1000} };
+		for (ReductionMode mode : MODES) {
+			for (long[] range : ranges) {
+				for (long intervalSize : new long[] {1, 97, 1000, last}) {
+					if ((range[1] - range[0]) / intervalSize > 100000)
+						continue;
+					final StreamingReduction reduction = new StreamingReduction(mode, range[0], range[1], intervalSize);
+					values.forEach(sv -> reduction.add(sv.getTimestamp(), sv.getValue().getDoubleValue(), sv.getQuality()));
+					assertEquals(reduce(values, range[0], range[1], intervalSize, mode), reduction.finish());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void storageReductionMatchesIntervalReduction() throws DataRecorderException {
+		final Random random = new Random(13);
+		final List<SampledValue> values = createValues(random, 20000);
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		final RecordedDataStorage rds = sdb.createRecordedDataStorage("streamingReduction", cfg);
+		rds.insertValues(values);
+		final long last = values.get(values.size() - 1).getTimestamp();
+		final long intervalSize = 60 * 1000;
+		for (ReductionMode mode : MODES) {
+			// end time is exclusive
+			final List<SampledValue> reduced = rds.getValues(0, last + 1, intervalSize, mode);
+			assertEquals(reduce(values, 0, last, intervalSize, mode), reduced);
+		}
+	}
+
+}
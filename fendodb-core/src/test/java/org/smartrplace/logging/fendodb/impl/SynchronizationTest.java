@@ -472,6 +472,141 @@ public class SynchronizationTest extends FactoryTest {
 		this.concurrentReadsWork(CONSTANT_CFG, reader, nrValues);
 	}
 	
+	/*
+	 * Readers of the file currently being appended to must always see a consistent prefix 
+	 * of the written data; with the cache enabled, the default flush period is used, so that
+	 * cached values are not refreshed by flushes
+	 */
+	private void readsWhileAppendingWork(final RecordedDataConfiguration config, final boolean cacheDisabled) 
+			throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		final int readerThreads = 4;
+		final int nrDatapoints = 2000;
+		final FendoDbConfigurationBuilder builder = FendoDbConfigurationBuilder.getInstance()
+			.setCacheDisabled(cacheDisabled);
+		if (cacheDisabled)
+			builder.setFlushPeriod(0);
+		final FendoDbConfiguration fendoConfig = builder.build();
+		final ExecutorService e = Executors.newFixedThreadPool(readerThreads);
+		try (final CloseableDataRecorder instance = factory.getInstance(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), fendoConfig)) {
+			final RecordedDataStorage ts = instance.createRecordedDataStorage("appendAndReadTest" + CNT.getAndIncrement(), config);
+			final long step = ONE_DAY / SLOTS_PER_DAY / 100;
+			final AtomicBoolean writerDone = new AtomicBoolean(false);
+			final Callable<Integer> readTask = () -> {
+				int lastSize = 0;
+				int iterations = 0;
+				while (!writerDone.get() || iterations == 0) {
+					final List<SampledValue> values = ts.getValues(Long.MIN_VALUE);
+					Assert.assertTrue("Number of values decreased", values.size() >= lastSize);
+					for (int i = 0; i < values.size(); i++) {
+						Assert.assertEquals("Unexpected timestamp", i * step, values.get(i).getTimestamp());
+						Assert.assertEquals("Unexpected value", i, values.get(i).getValue().getIntegerValue());
+					}
+					lastSize = values.size();
+					iterations++;
+				}
+				return iterations;
+			};
+			final List<Future<Integer>> results = IntStream.range(0, readerThreads)
+					.mapToObj(i -> e.submit(readTask))
+					.collect(Collectors.toList());
+			try {
+				for (int i = 0; i < nrDatapoints; i++) {
+					ts.insertValue(new SampledValue(new IntegerValue(i), i * step, Quality.GOOD));
+				}
+			} finally {
+				writerDone.set(true);
+			}
+			for (Future<Integer> result : results) {
+				Assert.assertTrue(result.get(30, TimeUnit.SECONDS) > 0);
+			}
+			Assert.assertEquals(nrDatapoints, ts.getValues(Long.MIN_VALUE).size());
+		} finally {
+			e.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void readsWhileAppendingWorkFlex() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		readsWhileAppendingWork(FLEXIBLE_CFG, true);
+	}
+	
+	@Test
+	public void readsWhileAppendingWorkConst() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		readsWhileAppendingWork(getAppendConstantConfig(), true);
+	}
+
+	@Test
+	public void readsWhileAppendingWorkFlexCached() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		readsWhileAppendingWork(FLEXIBLE_CFG, false);
+	}
 	
+	@Test
+	public void readsWhileAppendingWorkConstCached() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		readsWhileAppendingWork(getAppendConstantConfig(), false);
+	}
+
+	private static RecordedDataConfiguration getAppendConstantConfig() {
+		final RecordedDataConfiguration config = new RecordedDataConfiguration();
+		config.setStorageType(StorageType.FIXED_INTERVAL);
+		config.setFixedInterval(ONE_DAY / SLOTS_PER_DAY / 100);
+		return config;
+	}
+
+	@Test
+	public void lateValuesForExistingDaysDoNotRequireFolderWriteLock() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			final RecordedDataStorage first = instance.createRecordedDataStorage("first", FLEXIBLE_CFG);
+			first.insertValue(new SampledValue(new FloatValue(1), 10, Quality.GOOD));
+			first.insertValue(new SampledValue(new FloatValue(2), 2 * ONE_DAY + 10, Quality.GOOD));
+			final RecordedDataStorage second = instance.createRecordedDataStorage("second", CONSTANT_CFG);
+			// a reader holding the folder lock must not block a late value of another time series for a past day
+			instance.proxy.folderLock.readLock().lock();
+			try {
+				exec.submit(() -> {
+					second.insertValue(new SampledValue(new FloatValue(3), 20, Quality.GOOD));
+					first.insertValue(new SampledValue(new FloatValue(4), 30, Quality.GOOD));
+					return null;
+				}).get(5, TimeUnit.SECONDS);
+			} finally {
+				instance.proxy.folderLock.readLock().unlock();
+			}
+			Assert.assertEquals(1, second.getValues(Long.MIN_VALUE).size());
+			Assert.assertEquals(3, first.getValues(Long.MIN_VALUE).size());
+			// values for the current day are appended to the open file
+			first.insertValue(new SampledValue(new FloatValue(5), 2 * ONE_DAY + 20, Quality.GOOD));
+			Assert.assertEquals(4, first.getValues(Long.MIN_VALUE).size());
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	@Test
+	public void newTimeSeriesDoNotRequireFolderWriteLock() throws IOException, DataRecorderException, InterruptedException, ExecutionException, TimeoutException {
+		final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+		final ExecutorService exec = Executors.newSingleThreadExecutor();
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+			instance.createRecordedDataStorage("first", FLEXIBLE_CFG).insertValue(new SampledValue(new FloatValue(1), 10, Quality.GOOD));
+			final RecordedDataStorage second = instance.createRecordedDataStorage("second", CONSTANT_CFG);
+			// a reader holding the folder lock must not block the first value of another time series in the same day
+			instance.proxy.folderLock.readLock().lock();
+			try {
+				exec.submit(() -> {
+					second.insertValue(new SampledValue(new FloatValue(2), 20, Quality.GOOD));
+					return null;
+				}).get(5, TimeUnit.SECONDS);
+			} finally {
+				instance.proxy.folderLock.readLock().unlock();
+			}
+			Assert.assertEquals(1, second.getValues(Long.MIN_VALUE).size());
+		} finally {
+			exec.shutdownNow();
+		}
+	}
 
 }
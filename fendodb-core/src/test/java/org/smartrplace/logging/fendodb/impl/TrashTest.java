@@ -0,0 +1,116 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class TrashTest extends SlotsDbTest {
+
+	private static final long STEP = 60 * 1000;
+	private static final int NR_VALUES = 5000; // ~3.5 days
+
+	private static FendoDbConfiguration getConfig() {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig() {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = 0; i < nr; i++) {
+			values.add(new SampledValue(new FloatValue(i % 77), i * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static Path getTrashFolder() {
+		return testPath.resolve(Trash.TRASH_FOLDER);
+	}
+
+	private void deleteOldData(final boolean archived) throws DataRecorderException, IOException, InterruptedException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig());
+			data.insertValues(createValues(NR_VALUES));
+			if (archived)
+				instance.proxy.getArchiver(ONE_DAY).run();
+			Assert.assertEquals(4, instance.proxy.days.size());
+			Assert.assertTrue("Data deletion failed", instance.deleteDataBefore(Instant.ofEpochMilli(2 * ONE_DAY)));
+			Assert.assertEquals(2, instance.proxy.days.size());
+			Assert.assertFalse(Files.exists(testPath.resolve(String.valueOf(0))));
+			Assert.assertFalse(Files.exists(testPath.resolve(String.valueOf(0) + Archiver.ARCHIVE_EXTENSION)));
+			Assert.assertFalse(Files.exists(testPath.resolve(String.valueOf(ONE_DAY))));
+			final List<SampledValue> values = data.getValues(Long.MIN_VALUE);
+			Assert.assertEquals(2 * ONE_DAY, values.get(0).getTimestamp());
+			Assert.assertEquals((NR_VALUES - 1) * STEP, values.get(values.size() - 1).getTimestamp());
+			Assert.assertTrue("Trash has not been emptied", instance.proxy.getTrash().awaitCleanup(30, TimeUnit.SECONDS));
+			Assert.assertFalse(Files.exists(getTrashFolder()));
+		}
+	}
+
+	@Test
+	public void deletedFoldersAreRemovedInBackground() throws DataRecorderException, IOException, InterruptedException {
+		deleteOldData(false);
+	}
+
+	@Test
+	public void deletedArchivesAreRemovedInBackground() throws DataRecorderException, IOException, InterruptedException {
+		deleteOldData(true);
+	}
+
+	@Test
+	public void trashIsEmptiedOnStartup() throws DataRecorderException, IOException, InterruptedException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			instance.createRecordedDataStorage("test", getRecordedDataConfig()).insertValues(createValues(NR_VALUES));
+		}
+		// simulates a deletion that has been interrupted by closing the database
+		final Path leftover = getTrashFolder().resolve("0_0_0");
+		Files.createDirectories(getTrashFolder());
+		Files.move(testPath.resolve(String.valueOf(0)), leftover);
+		Assert.assertTrue(Files.exists(leftover));
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(), null)) {
+			Assert.assertEquals(3, instance.proxy.days.size());
+			Assert.assertTrue("Trash has not been emptied", instance.proxy.getTrash().awaitCleanup(30, TimeUnit.SECONDS));
+			Assert.assertFalse(Files.exists(getTrashFolder()));
+			Assert.assertEquals(ONE_DAY, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE).get(0).getTimestamp());
+		}
+	}
+
+}
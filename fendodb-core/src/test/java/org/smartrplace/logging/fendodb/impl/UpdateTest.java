@@ -170,4 +170,16 @@ public class UpdateTest extends FactoryTest {
 		updateWorks(initialConfig, newConfig);
 	}
 	
+	@Test
+	public void compressedFilesUpdateWorks() throws Exception {
+		final FendoDbConfiguration initialConfig = FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(0)
+				.build();
+		final FendoDbConfiguration newConfig = FendoDbConfigurationBuilder.getInstance(initialConfig)
+				.setCompressedFiles(true)
+				.build();		
+		Assert.assertNotEquals(initialConfig, newConfig);
+		updateWorks(initialConfig, newConfig);
+	}
+	
 }
@@ -0,0 +1,85 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+
+public class ValueChunkTest {
+
+	private static ValueChunk create(final long start, final int size) {
+		final ValueChunk.Builder builder = new ValueChunk.Builder(2);
+		for (int i = 0; i < size; i++) {
+			builder.add(start + 10 * i, i, (byte) Quality.GOOD.getQuality());
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void builderSkipsInvalidPoints() {
+		final ValueChunk chunk = new ValueChunk.Builder(10)
+			.add(10, 1, (byte) 1)
+			.add(20, Double.NaN, (byte) 1)
+			.add(20, 2, (byte) 0)
+			.add(20, 3, (byte) 1)
+			.add(15, 4, (byte) 1)
+			.add(30, 5, (byte) 1)
+			.build();
+		Assert.assertEquals(3, chunk.size());
+		Assert.assertEquals(20, chunk.getTimestamp(1));
+		Assert.assertEquals(2, chunk.getValue(1), 0);
+		final SampledValue sv = chunk.get(1);
+		Assert.assertEquals(20, sv.getTimestamp());
+		Assert.assertEquals(Quality.BAD, sv.getQuality());
+		Assert.assertEquals(2, sv.getValue().getDoubleValue(), 0);
+	}
+
+	@Test
+	public void subChunksWork() {
+		final ValueChunk chunk = create(100, 100); // 100 .. 1090
+		Assert.assertSame(chunk, chunk.subChunk(0, 2000));
+		Assert.assertTrue(chunk.subChunk(0, 99).isEmpty());
+		Assert.assertTrue(chunk.subChunk(1091, 2000).isEmpty());
+		final ValueChunk sub = chunk.subChunk(105, 200);
+		Assert.assertEquals(10, sub.size());
+		Assert.assertEquals(110, sub.getTimestamp(0));
+		Assert.assertEquals(200, sub.getTimestamp(9));
+		final ValueChunk subsub = sub.subChunk(150, 150);
+		Assert.assertEquals(1, subsub.size());
+		Assert.assertEquals(150, subsub.get(0).getTimestamp());
+		Assert.assertEquals(4, sub.indexOfFirstNotBefore(150));
+		Assert.assertEquals(5, sub.indexOfFirstAfter(150));
+		Assert.assertEquals(10, sub.indexOfFirstAfter(5000));
+		Assert.assertEquals(0, sub.indexOfFirstNotBefore(0));
+		Assert.assertTrue(chunk.getHeapSize() > sub.getHeapSize());
+	}
+
+	@Test
+	public void concatenationWorks() {
+		final ValueChunk first = create(0, 10);
+		final ValueChunk second = create(90, 10); // overlaps with the last point of first
+		final ValueChunk all = ValueChunk.concat(Arrays.asList(first, second, ValueChunk.EMPTY));
+		Assert.assertEquals(19, all.size());
+		for (int i = 0; i < all.size(); i++) {
+			Assert.assertEquals(10 * i, all.getTimestamp(i));
+		}
+	}
+
+}
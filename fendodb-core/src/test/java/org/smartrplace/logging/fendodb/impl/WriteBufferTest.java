@@ -0,0 +1,316 @@
+/**
+ * ﻿Copyright 2018 Smartrplace UG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartrplace.logging.fendodb.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.ogema.core.channelmanager.measurements.FloatValue;
+import org.ogema.core.channelmanager.measurements.Quality;
+import org.ogema.core.channelmanager.measurements.SampledValue;
+import org.ogema.core.recordeddata.RecordedDataConfiguration;
+import org.ogema.core.recordeddata.RecordedDataConfiguration.StorageType;
+import org.ogema.recordeddata.DataRecorderException;
+import org.ogema.recordeddata.RecordedDataStorage;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration;
+import org.smartrplace.logging.fendodb.FendoDbConfiguration.Durability;
+import org.smartrplace.logging.fendodb.FendoDbConfigurationBuilder;
+
+public class WriteBufferTest extends SlotsDbTest {
+
+	// long enough for the flusher not to run during a test
+	private static final long FLUSH_PERIOD = 10 * 60 * 1000;
+	private static final int NR_VALUES = 1000;
+	private static final long STEP = 60 * 1000;
+
+	private static FendoDbConfiguration getConfig(final Durability durability, final int bufferSize) {
+		return FendoDbConfigurationBuilder.getInstance()
+				.setFlushPeriod(FLUSH_PERIOD)
+				.setDurability(durability)
+				.setWriteBufferSize(bufferSize)
+				.build();
+	}
+
+	private static RecordedDataConfiguration getRecordedDataConfig(final boolean fixedInterval) {
+		final RecordedDataConfiguration cfg = new RecordedDataConfiguration();
+		if (fixedInterval) {
+			cfg.setStorageType(StorageType.FIXED_INTERVAL);
+			cfg.setFixedInterval(STEP);
+		} else {
+			cfg.setStorageType(StorageType.ON_VALUE_UPDATE);
+		}
+		return cfg;
+	}
+
+	private static List<SampledValue> createValues(final int offset, final int nr) {
+		final List<SampledValue> values = new ArrayList<>(nr);
+		for (int i = offset; i < offset + nr; i++) {
+			values.add(new SampledValue(new FloatValue(i), i * STEP, Quality.GOOD));
+		}
+		return values;
+	}
+
+	private static long getTotalFileSize() throws IOException {
+		try (final Stream<Path> files = Files.walk(testPath)) {
+			return files
+				.filter(f -> f.getFileName().toString().endsWith(SlotsDb.FILE_EXTENSION))
+				.mapToLong(f -> {
+					try {
+						return Files.size(f);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				})
+				.sum();
+		}
+	}
+
+	// inserts values one by one and in batches
+	private static void insert(final RecordedDataStorage data, final List<SampledValue> values) throws DataRecorderException {
+		final int half = values.size() / 2;
+		for (SampledValue sv : values.subList(0, half)) {
+			data.insertValue(sv);
+		}
+		data.insertValues(values.subList(half, values.size()));
+	}
+
+	private static void assertValuesEqual(final List<SampledValue> expected, final List<SampledValue> actual) {
+		Assert.assertEquals("Unexpected number of log values", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+			Assert.assertEquals(expected.get(i).getValue().getFloatValue(), actual.get(i).getValue().getFloatValue(), 0.01F);
+		}
+	}
+
+	private void bufferedValuesAreVisible(final boolean fixedInterval) throws DataRecorderException, IOException {
+		final List<SampledValue> values = createValues(0, NR_VALUES);
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(Durability.NONE, 64 * 1024), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(fixedInterval));
+			insert(data, values);
+			Assert.assertTrue("Log data has been written to disk despite write buffer", 
+					getTotalFileSize() < NR_VALUES * (fixedInterval ? 9 : 17));
+			assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+			assertValuesEqual(values.subList(100, 201), data.getValues(100 * STEP, 200 * STEP + 1));
+			final List<SampledValue> iterated = new ArrayList<>(NR_VALUES);
+			final Iterator<SampledValue> it = data.iterator();
+			while (it.hasNext())
+				iterated.add(it.next());
+			assertValuesEqual(values, iterated);
+			Assert.assertEquals((NR_VALUES - 1) * STEP, data.getPreviousValue(Long.MAX_VALUE).getTimestamp());
+			Assert.assertEquals(500 * STEP, data.getNextValue(500 * STEP).getTimestamp());
+			Assert.assertEquals(NR_VALUES, data.size());
+		}
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(Durability.NONE, 64 * 1024), null)) {
+			assertValuesEqual(values, instance.getRecordedDataStorage("test").getValues(Long.MIN_VALUE));
+		}
+	}
+
+	@Test
+	public void bufferedValuesAreVisibleOnValueUpdate() throws DataRecorderException, IOException {
+		bufferedValuesAreVisible(false);
+	}
+
+	@Test
+	public void bufferedValuesAreVisibleFixedInterval() throws DataRecorderException, IOException {
+		bufferedValuesAreVisible(true);
+	}
+
+	@Test
+	public void valuesArePersistedWithAllDurabilityModes() throws DataRecorderException, IOException {
+		for (Durability durability : Durability.values()) {
+			for (boolean fixedInterval : new boolean[] {false, true}) {
+				deleteTestFiles();
+				// small buffer, so that it overflows repeatedly
+				final FendoDbConfiguration config = getConfig(durability, 100);
+				final List<SampledValue> values = createValues(0, NR_VALUES);
+				try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+					final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(fixedInterval));
+					insert(data, values.subList(0, NR_VALUES / 2));
+					// reads in between must not interfere with buffered appends
+					Assert.assertEquals(NR_VALUES / 2, data.getValues(Long.MIN_VALUE).size());
+					insert(data, values.subList(NR_VALUES / 2, NR_VALUES));
+				}
+				try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+					final RecordedDataStorage data = instance.getRecordedDataStorage("test");
+					// appending after a restart continues the existing files
+					final List<SampledValue> more = createValues(NR_VALUES, 10);
+					insert(data, more);
+					final List<SampledValue> all = values.stream().collect(Collectors.toList());
+					all.addAll(more);
+					assertValuesEqual(all, data.getValues(Long.MIN_VALUE));
+				}
+			}
+		}
+	}
+
+	// default flush period and cache enabled: cached values must be updated on append, not only on flush
+	@Test
+	public void appendedValuesAreVisibleWithCache() throws DataRecorderException, IOException {
+		for (boolean compressed : new boolean[] {false, true}) {
+			for (boolean fixedInterval : new boolean[] {false, true}) {
+				deleteTestFiles();
+				final FendoDbConfiguration config = FendoDbConfigurationBuilder.getInstance()
+						.setCompressedFiles(compressed)
+						.build();
+				try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, config, null)) {
+					final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(fixedInterval));
+					final List<SampledValue> values = createValues(0, 10);
+					insert(data, values);
+					assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+					Assert.assertEquals(9 * STEP, data.getPreviousValue(Long.MAX_VALUE).getTimestamp());
+					for (SampledValue sv : createValues(10, 5)) {
+						data.insertValue(sv);
+						values.add(sv);
+						assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+						Assert.assertEquals(sv.getTimestamp(), data.getPreviousValue(Long.MAX_VALUE).getTimestamp());
+					}
+					final List<SampledValue> more = createValues(15, 5);
+					data.insertValues(more);
+					values.addAll(more);
+					assertValuesEqual(values, data.getValues(Long.MIN_VALUE));
+					Assert.assertEquals(values.size(), data.size());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fails once, after part of the data has been written.
+	 */
+	private static final class FailingChannel implements SeekableByteChannel {
+
+		private final SeekableByteChannel delegate;
+		volatile boolean fail;
+
+		FailingChannel(SeekableByteChannel delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			if (!fail)
+				return delegate.write(src);
+			fail = false;
+			final ByteBuffer part = src.duplicate();
+			part.limit(part.position() + part.remaining() / 2);
+			delegate.write(part);
+			src.position(part.position());
+			throw new IOException("Simulated write failure");
+		}
+
+		@Override
+		public boolean isOpen() {
+			return delegate.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return delegate.read(dst);
+		}
+
+		@Override
+		public long position() throws IOException {
+			return delegate.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition) throws IOException {
+			return delegate.position(newPosition);
+		}
+
+		@Override
+		public long size() throws IOException {
+			return delegate.size();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) throws IOException {
+			return delegate.truncate(size);
+		}
+
+	}
+
+	private void partialWritesAreRemoved(final int bufferSize) throws IOException {
+		deleteTestFiles();
+		Files.createDirectories(testPath);
+		final Path file = Files.createFile(testPath.resolve("f0" + SlotsDb.FILE_EXTENSION));
+		final FileObjectContext context = new FileObjectContext(false, bufferSize, Durability.NONE);
+		final FailingChannel[] channel = new FailingChannel[1];
+		final FileObject fo = new FlexibleIntervalFileObject(file, FendoCache.noopCache().getCache("test", "f0" + SlotsDb.FILE_EXTENSION), context) {
+
+			@Override
+			protected SeekableByteChannel openOutputChannel() throws IOException {
+				channel[0] = new FailingChannel(super.openOutputChannel());
+				return channel[0];
+			}
+
+		};
+		try {
+			fo.createFileAndHeader(0, -1);
+			fo.append(1, 1, (byte) 1);
+			fo.flush();
+			channel[0].fail = true;
+			try {
+				fo.append(2, 2, (byte) 1);
+				fo.flush();
+				Assert.fail("Simulated write failure not reported");
+			} catch (IOException expected) {}
+			fo.append(3, 3, (byte) 1);
+			fo.flush();
+			Assert.assertEquals(16 + 2 * 17, Files.size(file));
+			final ValueChunk values = fo.readFully();
+			Assert.assertEquals(2, values.size());
+			Assert.assertEquals(1, values.get(0).getTimestamp());
+			Assert.assertEquals(3, values.get(1).getTimestamp());
+			Assert.assertEquals(3, values.get(1).getValue().getFloatValue(), 0.01F);
+		} finally {
+			fo.close();
+		}
+	}
+
+	// an incomplete record would misalign all subsequent records
+	@Test
+	public void partialWritesAreRemoved() throws IOException {
+		partialWritesAreRemoved(0);
+		partialWritesAreRemoved(64);
+	}
+
+	@Test
+	public void zeroBufferSizeWritesThrough() throws DataRecorderException, IOException {
+		try (final SlotsDb instance = new SlotsDb(Paths.get(SlotsDb.DB_TEST_ROOT_FOLDER), null, getConfig(Durability.NONE, 0), null)) {
+			final RecordedDataStorage data = instance.createRecordedDataStorage("test", getRecordedDataConfig(false));
+			insert(data, createValues(0, 100));
+			Assert.assertEquals(16 + 100 * 17, getTotalFileSize());
+		}
+	}
+
+}
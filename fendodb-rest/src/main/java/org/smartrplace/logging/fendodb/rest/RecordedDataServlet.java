@@ -63,6 +63,7 @@ import org.slf4j.LoggerFactory;
 import org.smartrplace.logging.fendodb.CloseableDataRecorder;
 import org.smartrplace.logging.fendodb.FendoDbFactory;
 import org.smartrplace.logging.fendodb.FendoTimeSeries;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 import org.smartrplace.logging.fendodb.search.SearchFilterBuilder;
 import org.smartrplace.logging.fendodb.stats.StatisticsService;
 import org.smartrplace.logging.fendodb.tools.FendoDbTools;
@@ -1121,7 +1122,7 @@ public class RecordedDataServlet extends HttpServlet {
     	final Float offset = (Float) factorOffsetAggregationAccumulated[1];
     	final Long aggregation = (Long) factorOffsetAggregationAccumulated[2];
     	final int accumulateIdx = factorOffsetAggregationAccumulated[3] == null ? 0 : (Integer) factorOffsetAggregationAccumulated[3];
-    	final Iterator<SampledValue> it;
+    	final TimeSeriesCursor cursor;
     	if (aggregation != null && aggregation > 0) {
     		final MultiTimeSeriesIteratorBuilder builder = MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(timeSeries.iterator(start, end)))
     				.setStepSize(Utils.getLastAlignedTimestamp(start, aggregation), aggregation)
@@ -1142,19 +1143,19 @@ public class RecordedDataServlet extends HttpServlet {
 				builder.doAverage(true);
     			itOffset = -aggregation;
     		}
-    		it = new MultiItWrapper(builder.build(), itOffset);
+    		cursor = TimeSeriesCursor.of(new MultiItWrapper(builder.build(), itOffset));
     	} else if (sz > maxNrValues) {
     		final long actualStart = timeSeries.getNextValue(start).getTimestamp();
     		final long actualEnd = timeSeries.getPreviousValue(end).getTimestamp();
     		final long stepSize = Math.max((actualEnd - actualStart) / maxNrValues, 1);
-    		it = new MultiItWrapper(MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(timeSeries.iterator(start, end)))
+    		cursor = TimeSeriesCursor.of(new MultiItWrapper(MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(timeSeries.iterator(start, end)))
     				.setStepSize(start, stepSize)
     				.setGlobalInterpolationMode(InterpolationMode.LINEAR)
-    				.build());
+    				.build()));
     	} else {
-    		it = timeSeries.iterator(start,end);
+    		cursor = timeSeries.cursor(start, end);
     	}
-    	serializeToInfluxJson(it, writer, extractLabel(query, db, timeSeries), 
+    	serializeToInfluxJson(cursor, writer, extractLabel(query, db, timeSeries), 
     			getIndentFactor(req), maxNrValues, factor, offset);
     }
     
@@ -1188,7 +1189,7 @@ public class RecordedDataServlet extends HttpServlet {
 		  ]
 	  }]
      */
-    private static void serializeToInfluxJson(final Iterator<SampledValue> values, final PrintWriter writer, 
+    private static void serializeToInfluxJson(final TimeSeriesCursor values, final PrintWriter writer, 
     		final String[] labels, final int indentFactor, final int maxNrValues, final Float factor, final Float offset) throws IOException {
     	final boolean doIndent = indentFactor > 0;
     	final String indent;
@@ -1218,7 +1219,8 @@ public class RecordedDataServlet extends HttpServlet {
     	}
     	writer.write("\"points\": [");
     	int cnt = 0;
-    	while (values.hasNext() && cnt++ < maxNrValues) {
+    	while (cnt < maxNrValues && values.advance()) {
+    		cnt++;
     		if (cnt > 1)
     			writer.write(',');
     		if (doIndent) {
@@ -1226,12 +1228,11 @@ public class RecordedDataServlet extends HttpServlet {
         		writer.write(indent);
         		writer.write(indent);
     		}
-    		final SampledValue sv = values.next();
     		writer.write('[');
-    		writer.write(String.valueOf(sv.getTimestamp()));
+    		writer.write(String.valueOf(values.timestamp()));
     		writer.write(',');
     		writer.write(' ');
-    		writer.write(String.valueOf(getValue(sv.getValue().getFloatValue(), factor, offset)));
+    		writer.write(String.valueOf(getValue((float) values.doubleValue(), factor, offset)));
     		writer.write(']');
     	}
     	if (doIndent) {
@@ -53,6 +53,7 @@ import org.ogema.tools.timeseries.iterator.api.MultiTimeSeriesIteratorBuilder;
 import org.ogema.tools.timeseries.iterator.api.SampledValueDataPoint;
 import org.smartrplace.logging.fendodb.tools.config.SerializationConfiguration;
 import org.smartrplace.logging.fendodb.FendoTimeSeries;
+import org.smartrplace.logging.fendodb.TimeSeriesCursor;
 import org.smartrplace.logging.fendodb.tools.config.FendodbSerializationFormat;
 
 class SerializerImpl {
@@ -91,16 +92,21 @@ class SerializerImpl {
 		final DateTimeFormatter formatter = config.getFormatter();
 		final ZoneId timeZone = config.getTimeZone();
 		final Long samplingInterval = config.samplingInterval();
-		final Iterator<SampledValue> it0 = timeSeries.iterator(start, end);
+		// FendoDB time series only contain double values, so we can use the cursor without losing type information
+		final TimeSeriesCursor cursor = samplingInterval == null && timeSeries instanceof FendoTimeSeries ?
+				((FendoTimeSeries) timeSeries).cursor(start, end) : null;
 		final Iterator<SampledValue> it;
-		if (samplingInterval != null) {
+		if (cursor != null) {
+			it = null;
+		} else if (samplingInterval != null) {
+			final Iterator<SampledValue> it0 = timeSeries.iterator(start, end);
 			start = getAlignedIntervalStartTime(timeSeries, start, samplingInterval, timeZone);
 			it = new WrappedIterator(MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(it0))
 					.setGlobalInterpolationMode(InterpolationMode.LINEAR)
 					.setStepSize(start, samplingInterval)
 					.build());
 		} else {
-			it = it0;
+			it = timeSeries.iterator(start, end);
 		}
 		final boolean pretty = config.isPrettyPrint();
 		final char[] separator;
@@ -146,26 +152,23 @@ class SerializerImpl {
 			printEnd(writer, xmlOrJson, separator, linebreak);
 			return 0;
 		}
-		if (it.hasNext()) {
-			final StringBuilder sb = serialize(it.next(), formatter, timeZone, xmlOrJson, separator, linebreak);
-			final int length = sb.length();
-			final char[] buf = new char[length];
-			sb.getChars(0, length, buf, 0);
-			writer.write(buf);
-		}
-		int cnt = 1;
-		while (it.hasNext()) {
-			if (cnt++ >= maxValue) {
-				cnt--;
-				break;
-			}
-			if (!xmlOrJson)
+		final StringBuilder sb = new StringBuilder();
+		char[] buf = new char[0];
+		int cnt = 0;
+		while (cnt < maxValue && (cursor != null ? cursor.advance() : it.hasNext())) {
+			if (cnt++ > 0 && !xmlOrJson)
 				writer.write(',');
-			final StringBuilder sb = serialize(it.next(), formatter, timeZone, xmlOrJson, separator, linebreak);
+			sb.setLength(0);
+			if (cursor != null)
+				serialize(sb, cursor.timestamp(), cursor.quality(), "Double", (float) cursor.doubleValue(), 
+						formatter, timeZone, xmlOrJson, separator, linebreak);
+			else
+				serialize(sb, it.next(), formatter, timeZone, xmlOrJson, separator, linebreak);
 			final int length = sb.length();
-			final char[] buf = new char[length];
+			if (buf.length < length)
+				buf = new char[length];
 			sb.getChars(0, length, buf, 0);
-			writer.write(buf);
+			writer.write(buf, 0, length);
 		}
 		printEnd(writer, xmlOrJson, separator, linebreak);
 		return cnt;
@@ -323,12 +326,20 @@ class SerializerImpl {
 		return formatter == null ? t : formatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(t), timeZone));
 	}
 	
-	private static final StringBuilder serialize(final SampledValue sv, final DateTimeFormatter formatter, 
+	private static final StringBuilder serialize(final StringBuilder sb, final SampledValue sv, final DateTimeFormatter formatter, 
 			final ZoneId timeZone, final boolean xmlOrJson, final char[] separator, final char[] linebreak) {
-		final Object time = formatTimestamp(sv.getTimestamp(), formatter, timeZone);
 		final Value val = sv.getValue();
-		final StringBuilder sb = new StringBuilder();
 		final String type = val.getClass().getSimpleName().replace("Value", "");
+		final Object value = val instanceof BooleanValue ? val.getBooleanValue() :
+			val instanceof IntegerValue || val instanceof LongValue ? val.getLongValue() :
+			val.getFloatValue();
+		return serialize(sb, sv.getTimestamp(), sv.getQuality(), type, value, formatter, timeZone, xmlOrJson, separator, linebreak);
+	}
+	
+	private static final StringBuilder serialize(final StringBuilder sb, final long timestamp, final Quality quality, final String type, 
+			final Object value, final DateTimeFormatter formatter, 
+			final ZoneId timeZone, final boolean xmlOrJson, final char[] separator, final char[] linebreak) {
+		final Object time = formatTimestamp(timestamp, formatter, timeZone);
 		if (xmlOrJson) {
 			// format
 		    //<entry xsi:type="og:SampledFloat">
@@ -341,13 +352,9 @@ class SerializerImpl {
 				.append(linebreak).append(separator).append(separator)
 					.append("<time>").append(time).append("</time>")
 				.append(linebreak).append(separator).append(separator)
-				.append("<quality>").append(sv.getQuality().toString()).append("</quality>")
+				.append("<quality>").append(quality.toString()).append("</quality>")
 				.append(linebreak).append(separator).append(separator)				
-				.append("<value>")
-				.append(val instanceof BooleanValue ? val.getBooleanValue() :
-						val instanceof IntegerValue || val instanceof LongValue ? val.getLongValue() :
-						val.getFloatValue())
-				.append("</value>")
+				.append("<value>").append(value).append("</value>")
 				.append(linebreak).append(separator).append("</entry>");
 		} else {
 			// format
@@ -371,11 +378,9 @@ class SerializerImpl {
 				sb.append('\"');
 			sb.append(',')
 				.append(linebreak).append(separator).append(separator)
-				.append("\"quality\":\"").append(sv.getQuality().toString()).append('\"').append(',')
+				.append("\"quality\":\"").append(quality.toString()).append('\"').append(',')
 				.append(linebreak).append(separator).append(separator)				
-				.append("\"value\":").append(val instanceof BooleanValue ? val.getBooleanValue() :
-						val instanceof IntegerValue || val instanceof LongValue ? val.getLongValue() :
-						val.getFloatValue())
+				.append("\"value\":").append(value)
 				.append(linebreak).append(separator);
 			sb.append('}');
 			
@@ -389,27 +394,26 @@ class SerializerImpl {
 		final DateTimeFormatter formatter = config.getFormatter();
 		final ZoneId timeZone = config.getTimeZone();
 		final Long samplingInterval = config.samplingInterval();
-		final Iterator<SampledValue> it0 = timeSeries.iterator(start, end);
-		final Iterator<SampledValue> it;
+		final TimeSeriesCursor cursor;
 		if (samplingInterval != null) {
+			final Iterator<SampledValue> it0 = timeSeries.iterator(start, end);
 			start = getAlignedIntervalStartTime(timeSeries, start, samplingInterval, timeZone);
-			it = new WrappedIterator(MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(it0))
+			cursor = TimeSeriesCursor.of(new WrappedIterator(MultiTimeSeriesIteratorBuilder.newBuilder(Collections.singletonList(it0))
 					.setGlobalInterpolationMode(InterpolationMode.LINEAR)
 					.setStepSize(start, samplingInterval)
-					.build());
+					.build()));
+		} else if (timeSeries instanceof FendoTimeSeries) {
+			cursor = ((FendoTimeSeries) timeSeries).cursor(start, end);
 		} else {
-			it = it0;
+			cursor = TimeSeriesCursor.of(timeSeries.iterator(start, end));
 		}
 		final int maxNr = config.getMaxNrValues();
 		int cnt = 0;
-		while (it.hasNext()) {
-			if (cnt++ >= maxNr) {
-				cnt--;
-				break;
-			}
-			final SampledValue sv = it.next();
-			final Object time = formatter == null ? sv.getTimestamp() : formatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(sv.getTimestamp()), timeZone));
-			printer.printRecord(time, sv.getValue().getFloatValue());
+		while (cnt < maxNr && cursor.advance()) {
+			cnt++;
+			final long t = cursor.timestamp();
+			final Object time = formatter == null ? t : formatter.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(t), timeZone));
+			printer.printRecord(time, (float) cursor.doubleValue());
 		}
 		return cnt;
 	}